@@ -0,0 +1,137 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015, 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * http://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package javax.security.identitystore.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.security.identitystore.persistence.CachedIdentityStore;
+import javax.security.identitystore.persistence.cachedsource.CachedIdentityStoreSource;
+import javax.security.identitystore.persistence.cachedsource.JsonFileIdentityStoreSource;
+import javax.security.identitystore.persistence.cachedsource.MemoryIdentityStoreSource;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time of a full load of <code>{@link CachedIdentityStore}</code>, including
+ * the member bitmaps built with the configured parallelism, from a
+ * <code>{@link MemoryIdentityStoreSource}</code> and from a JSON file.
+ * <p>
+ * Run with <code>-prof gc</code> to report the allocation rate of each load.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class LoadBenchmark {
+
+    @Param({"10000", "100000"})
+    public int callers;
+
+    @Param({"SALTED"})
+    public SyntheticStore.CredentialKind credential;
+
+    @Param({"0"})
+    public int buildParallelism; // 0 for the number of available processors
+
+    private MemoryIdentityStoreSource memorySource;
+    private File jsonFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        SyntheticStore synthetic = new SyntheticStore(callers, 100, 20, credential, 1000);
+        memorySource = new MemoryIdentityStoreSource(synthetic.callers(), synthetic.groupRoles());
+        jsonFile = File.createTempFile("identitystore", ".json");
+        synthetic.writeJson(jsonFile);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (!jsonFile.delete())
+            jsonFile.deleteOnExit();
+    }
+
+    private CachedIdentityStore load(CachedIdentityStoreSource source) throws IOException {
+        CachedIdentityStore store = new CachedIdentityStore(source);
+        if (buildParallelism > 0)
+            store.setBuildParallelism(buildParallelism);
+        store.load();
+        return store;
+    }
+
+    @Benchmark
+    public CachedIdentityStore loadMemory() throws IOException {
+        return load(memorySource);
+    }
+
+    @Benchmark
+    public CachedIdentityStore loadJson() throws IOException {
+        return load(new JsonFileIdentityStoreSource(jsonFile));
+    }
+
+    /**
+     * Reads the JSON file without building a store, to separate parsing from loading.
+     */
+    @Benchmark
+    public int parseJson() throws IOException {
+        int count = 0;
+        Iterator<CachedIdentityStoreSource.CallerSource> iterator = new JsonFileIdentityStoreSource(jsonFile).getCallerIterator();
+        while (iterator.hasNext()) {
+            iterator.next();
+            count++;
+        }
+        return count;
+    }
+}
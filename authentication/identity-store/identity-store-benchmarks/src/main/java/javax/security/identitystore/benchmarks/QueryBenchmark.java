@@ -0,0 +1,175 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015, 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * http://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package javax.security.identitystore.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.security.identitystore.persistence.CachedIdentityStore;
+import javax.security.identitystore.persistence.cachedsource.MemoryIdentityStoreSource;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the latency of the <code>query</code> interfaces implemented by
+ * <code>{@link CachedIdentityStore}</code>.
+ * <p>
+ * The group <code>users</code> contains every caller, so the member queries
+ * show the cost of large groups.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QueryBenchmark {
+
+    @Param({"10000", "100000"})
+    public int callers;
+
+    @Param({"100"})
+    public int pageSize;
+
+    private CachedIdentityStore store;
+    private String caller;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        SyntheticStore synthetic = new SyntheticStore(callers, 100, 20, SyntheticStore.CredentialKind.PLAIN, 1000);
+        store = new CachedIdentityStore(new MemoryIdentityStoreSource(synthetic.callers(), synthetic.groupRoles()));
+        store.load();
+        caller = SyntheticStore.callerName(callers / 2);
+    }
+
+    // CallerStore
+
+    @Benchmark
+    public List<String> getCallersExact() {
+        return store.getCallers(caller);
+    }
+
+    @Benchmark
+    public List<String> getCallersPrefix() {
+        return store.getCallers("caller00012.*");
+    }
+
+    @Benchmark
+    public List<String> getCallersScan() {
+        return store.getCallers(".*77");
+    }
+
+    @Benchmark
+    public List<String> getCallersPage() {
+        return store.getCallers(null, callers / 2, pageSize);
+    }
+
+    @Benchmark
+    public int countCallersScan() {
+        return store.countCallers(".*77");
+    }
+
+    // GroupStore
+
+    @Benchmark
+    public List<String> getGroups() {
+        return store.getGroups(null);
+    }
+
+    @Benchmark
+    public List<String> getCallersInGroup() {
+        return store.getCallersInGroup(SyntheticStore.ALL_GROUP);
+    }
+
+    @Benchmark
+    public List<String> getCallersInGroupPage() {
+        return store.getCallersInGroup(SyntheticStore.ALL_GROUP, callers / 2, pageSize);
+    }
+
+    @Benchmark
+    public int countCallersInGroup() {
+        return store.countCallersInGroup(SyntheticStore.ALL_GROUP);
+    }
+
+    // RoleStore
+
+    @Benchmark
+    public List<String> getRoles() {
+        return store.getRoles("ROLE1.*");
+    }
+
+    @Benchmark
+    public List<String> getAssignedRoles() {
+        return store.getAssignedRoles(null);
+    }
+
+    // CallerRoleMap and GroupRoleMap
+
+    @Benchmark
+    public List<String> getCallerRoles() {
+        return store.getCallerRoles(caller, true);
+    }
+
+    @Benchmark
+    public List<String> getCallersWithRole() {
+        return store.getCallersWithRole(SyntheticStore.roleName(3), true);
+    }
+
+    @Benchmark
+    public List<String> getGroupsWithRole() {
+        return store.getGroupsWithRole(SyntheticStore.roleName(7));
+    }
+
+    @Benchmark
+    public boolean isCallerInGroup() {
+        return store.isCallerInGroup(caller, SyntheticStore.groupName(50));
+    }
+}
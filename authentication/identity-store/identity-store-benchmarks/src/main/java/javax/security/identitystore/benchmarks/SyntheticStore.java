@@ -0,0 +1,241 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015, 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * http://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package javax.security.identitystore.benchmarks;
+
+import javax.security.identitystore.credential.UsernamePasswordCredential;
+import javax.security.identitystore.hash.Pbkdf2PasswordHashAlgorithm;
+import javax.security.identitystore.persistence.cachedsource.CachedIdentityStoreSource.CallerSource;
+import javax.security.identitystore.persistence.cachedsource.CachedIdentityStoreSource.CredentialSource;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <code>SyntheticStore</code> generates identity data for the benchmarks.
+ * <p>
+ * Caller <code>i</code> is named <code>{@link #callerName}(i)</code>, has the password
+ * <code>{@link #PASSWORD}</code>, is in the group <code>users</code> and in one of
+ * <code>groups</code> further groups, and is directly assigned one of <code>roles</code> roles.
+ * Each further group is also assigned one role.
+ */
+public final class SyntheticStore {
+
+    public static final String PASSWORD = "welcome1";
+    public static final String PASSWORD_TYPE = UsernamePasswordCredential.class.getName();
+    public static final String ALL_GROUP = "users";
+
+    /**
+     * <code>CredentialKind</code> is the kind of password credential stored for each caller.
+     */
+    public enum CredentialKind {
+        /** The password itself */
+        PLAIN,
+        /** A salted SHA-256 digest, with a salt per caller */
+        SALTED,
+        /** A PBKDF2 hash, the same stored value for every caller */
+        ITERATED
+    }
+
+    private final int callers;
+    private final int groups;
+    private final int roles;
+    private final CredentialKind credentialKind;
+    private final int iterations;
+
+    /**
+     * Constructor
+     *
+     * @param callers The number of callers
+     * @param groups The number of groups, besides <code>users</code>
+     * @param roles The number of roles
+     * @param credentialKind The kind of password credential
+     * @param iterations The number of PBKDF2 iterations, for iterated credentials.
+     */
+    public SyntheticStore(int callers, int groups, int roles, CredentialKind credentialKind, int iterations) {
+        if ((callers < 1) || (groups < 1) || (roles < 1))
+            throw new IllegalArgumentException("Store size: " + callers + " callers, " + groups + " groups, " + roles + " roles");
+        this.callers = callers;
+        this.groups = groups;
+        this.roles = roles;
+        this.credentialKind = credentialKind;
+        this.iterations = iterations;
+    }
+
+    public static String callerName(int i) {
+        return String.format("caller%07d", i);
+    }
+
+    public static String groupName(int i) {
+        return "group" + i;
+    }
+
+    public static String roleName(int i) {
+        return "ROLE" + i;
+    }
+
+    /**
+     * Generates the callers.
+     *
+     * @return The callers
+     */
+    public Set<CallerSource> callers() {
+        // Iterated hashes are expensive to compute, so all callers share one
+        String iteratedHash = (CredentialKind.ITERATED == credentialKind) ?
+            new Pbkdf2PasswordHashAlgorithm(Pbkdf2PasswordHashAlgorithm.SHA256, iterations).hash(PASSWORD.toCharArray()) : null;
+        MessageDigest md = sha256();
+
+        Set<CallerSource> callerSources = new HashSet<>(callers * 2);
+        for (int i = 0; i < callers; i++) {
+            CredentialSource credential;
+            switch (credentialKind) {
+                case SALTED:
+                    String salt = Integer.toHexString(i * 31 + 17);
+                    String hash = toHex(md.digest((PASSWORD + salt).getBytes(StandardCharsets.UTF_8)));
+                    credential = new CredentialSource(PASSWORD_TYPE, hash, "SHA-256", salt, null);
+                    break;
+                case ITERATED:
+                    credential = new CredentialSource(PASSWORD_TYPE, iteratedHash, Pbkdf2PasswordHashAlgorithm.NAME, null, null);
+                    break;
+                default:
+                    credential = new CredentialSource(PASSWORD_TYPE, PASSWORD, null, null, null);
+            }
+            callerSources.add(new CallerSource(
+                callerName(i),
+                Arrays.asList(ALL_GROUP, groupName(i % groups)),
+                Arrays.asList(roleName(i % roles)),
+                Arrays.asList(credential),
+                null));
+        }
+        return callerSources;
+    }
+
+    /**
+     * Generates the roles assigned to groups.
+     *
+     * @return The roles by group name
+     */
+    public Map<String, List<String>> groupRoles() {
+        Map<String, List<String>> groupRoles = new HashMap<>();
+        for (int i = 0; i < groups; i++) {
+            groupRoles.put(groupName(i), Arrays.asList(roleName((i * 7) % roles)));
+        }
+        return groupRoles;
+    }
+
+    /**
+     * Writes the callers and group roles in the format read by
+     * <code>JsonFileIdentityStoreSource</code>.
+     *
+     * @param file The file to write
+     * @throws IOException An error occurred while writing the file.
+     */
+    public void writeJson(File file) throws IOException {
+        try (Writer out = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            out.write("{\n  \"callers\": [");
+            String separator = "\n";
+            for (CallerSource caller : callers()) {
+                out.write(separator);
+                separator = ",\n";
+                out.write("    {\"name\": \"" + caller.getName() + "\", ");
+                out.write("\"groups\": " + toJson(caller.getGroups()) + ", ");
+                out.write("\"roles\": " + toJson(caller.getRoles()) + ", ");
+                out.write("\"credentials\": [");
+                String credentialSeparator = "";
+                for (CredentialSource credential : caller.getCredentials()) {
+                    out.write(credentialSeparator);
+                    credentialSeparator = ", ";
+                    out.write("{\"type\": \"" + credential.getType() + "\", \"value\": \"" + credential.getValue() + "\"");
+                    if (null != credential.getHashAlgorithm())
+                        out.write(", \"hash-algorithm\": \"" + credential.getHashAlgorithm() + "\"");
+                    if (null != credential.getHashSalt())
+                        out.write(", \"hash-salt\": \"" + credential.getHashSalt() + "\"");
+                    out.write("}");
+                }
+                out.write("]}");
+            }
+            out.write("\n  ],\n  \"groups\": [");
+            separator = "\n";
+            for (Map.Entry<String, List<String>> entry : groupRoles().entrySet()) {
+                out.write(separator);
+                separator = ",\n";
+                out.write("    {\"name\": \"" + entry.getKey() + "\", \"roles\": " + toJson(entry.getValue()) + "}");
+            }
+            out.write("\n  ]\n}\n");
+        }
+    }
+
+    /**
+     * Writes the given names as a JSON array. The generated names need no escaping.
+     */
+    private static String toJson(List<String> names) {
+        List<String> quoted = new ArrayList<>(names.size());
+        for (String name : names) {
+            quoted.add("\"" + name + "\"");
+        }
+        return quoted.toString();
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015, 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * http://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package javax.security.identitystore.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.security.identitystore.CredentialValidationResult;
+import javax.security.identitystore.persistence.CachedIdentityStore;
+import javax.security.identitystore.persistence.cachedsource.MemoryIdentityStoreSource;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput and latency of <code>{@link CachedIdentityStore#validate}</code>
+ * for plain, salted and iterated password credentials.
+ * <p>
+ * Each thread validates the callers in turn, so that lookups are spread over the store.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ValidateBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Store {
+
+        @Param({"10000", "100000"})
+        public int callers;
+
+        @Param({"PLAIN", "SALTED", "ITERATED"})
+        public SyntheticStore.CredentialKind credential;
+
+        @Param({"1000"})
+        public int iterations;
+
+        public CachedIdentityStore store;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            SyntheticStore synthetic = new SyntheticStore(callers, 100, 20, credential, iterations);
+            store = new CachedIdentityStore(new MemoryIdentityStoreSource(synthetic.callers(), synthetic.groupRoles()));
+            store.load();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Caller {
+
+        private String[] names;
+        private int next;
+
+        @Setup(Level.Trial)
+        public void setUp(Store store) {
+            names = new String[store.callers];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = SyntheticStore.callerName(i);
+            }
+            next = (int) (Thread.currentThread().getId() * 7919) % names.length;
+        }
+
+        String next() {
+            String name = names[next];
+            next = (next + 1 == names.length) ? 0 : next + 1;
+            return name;
+        }
+    }
+
+    @Benchmark
+    public CredentialValidationResult valid(Store store, Caller caller) {
+        return store.store.validate(caller.next(), SyntheticStore.PASSWORD_TYPE, SyntheticStore.PASSWORD.toCharArray());
+    }
+
+    @Benchmark
+    public CredentialValidationResult invalid(Store store, Caller caller) {
+        return store.store.validate(caller.next(), SyntheticStore.PASSWORD_TYPE, "welcome2".toCharArray());
+    }
+
+    @Benchmark
+    public CredentialValidationResult unknownCaller(Store store) {
+        return store.store.validate("unknown", SyntheticStore.PASSWORD_TYPE, SyntheticStore.PASSWORD.toCharArray());
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015, 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * http://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package javax.security.identitystore.hash;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Utilities shared by the password hash algorithms.
+ */
+final class HashSupport {
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private HashSupport() {
+    }
+
+    /**
+     * Generates a random salt.
+     *
+     * @param length The salt length in bytes
+     * @return The salt
+     */
+    static byte[] salt(int length) {
+        byte[] salt = new byte[length];
+        RANDOM.nextBytes(salt);
+        return salt;
+    }
+
+    /**
+     * Encodes the given password as UTF-8. The caller clears the returned bytes after use.
+     *
+     * @param password The password
+     * @return The encoded password
+     */
+    static byte[] utf8(char[] password) {
+        ByteBuffer buffer;
+        try {
+            buffer = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                .encode(CharBuffer.wrap(password));
+        } catch (CharacterCodingException e) {
+            // Not thrown when replacing
+            throw new IllegalStateException(e);
+        }
+        byte[] bytes = Arrays.copyOfRange(buffer.array(), buffer.position(), buffer.limit());
+        Arrays.fill(buffer.array(), (byte) 0); // clear sensitive data
+        return bytes;
+    }
+
+    /**
+     * Encodes bytes as unpadded Base64.
+     *
+     * @param bytes The bytes
+     * @param adapted <code>true</code> to use <code>.</code> instead of <code>+</code>,
+     *  as in the PBKDF2 modular crypt format.
+     * @return The encoded bytes
+     */
+    static String encodeBase64(byte[] bytes, boolean adapted) {
+        String encoded = Base64.getEncoder().withoutPadding().encodeToString(bytes);
+        return adapted ? encoded.replace('+', '.') : encoded;
+    }
+
+    /**
+     * Decodes unpadded Base64.
+     *
+     * @param encoded The encoded bytes
+     * @param adapted <code>true</code> if <code>.</code> is used instead of <code>+</code>.
+     * @return The bytes
+     * @throws java.lang.IllegalArgumentException The input is not valid Base64.
+     */
+    static byte[] decodeBase64(String encoded, boolean adapted) {
+        return Base64.getDecoder().decode(adapted ? encoded.replace('.', '+') : encoded);
+    }
+
+    /**
+     * Splits a stored value in modular crypt format into its fields.
+     *
+     * @param storedValue The stored value
+     * @param id The expected identifier, without the <code>$</code> delimiters.
+     * @param fields The expected number of fields following the identifier
+     * @return The fields following the identifier
+     * @throws java.lang.IllegalArgumentException The stored value does not have the expected format.
+     */
+    static String[] fields(String storedValue, String id, int fields) {
+        if ((null == storedValue) || !storedValue.startsWith("$" + id + "$"))
+            throw new IllegalArgumentException("Not a " + id + " hash");
+        String[] parsed = storedValue.substring(id.length() + 2).split("\\$", -1);
+        if (parsed.length != fields)
+            throw new IllegalArgumentException("Malformed " + id + " hash");
+        return parsed;
+    }
+
+    /**
+     * Parses a positive decimal integer field.
+     *
+     * @throws java.lang.IllegalArgumentException The field is not a positive integer.
+     */
+    static int positiveInt(String field, String name) {
+        int value;
+        try {
+            value = Integer.parseInt(field);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed " + name + ": " + field);
+        }
+        if (value <= 0)
+            throw new IllegalArgumentException("Malformed " + name + ": " + field);
+        return value;
+    }
+
+    /**
+     * Creates a message digest for an algorithm required to be supported by every JVM.
+     */
+    static MessageDigest digest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Derives a key using PBKDF2 (RFC 8018) with HMAC over the given digest algorithm.
+     * <p>
+     * HMAC is computed over <code>{@link MessageDigest}</code> rather than
+     * <code>{@link javax.crypto.Mac}</code>, as scrypt requires arbitrary, possibly empty,
+     * binary passwords. The keyed digest states are computed once and cloned per block.
+     *
+     * @param digestAlgorithm The digest algorithm, such as <code>SHA-256</code>.
+     * @param password The password
+     * @param salt The salt
+     * @param iterations The number of iterations
+     * @param length The derived key length in bytes
+     * @return The derived key
+     */
+    static byte[] pbkdf2(String digestAlgorithm, byte[] password, byte[] salt, int iterations, int length) {
+        MessageDigest md = digest(digestAlgorithm);
+        int hashLength = md.getDigestLength();
+        int blockSize = (hashLength > 32) ? 128 : 64;
+
+        byte[] key = (password.length > blockSize) ? md.digest(password) : password;
+        byte[] pad = new byte[blockSize];
+        MessageDigest inner = digest(digestAlgorithm);
+        MessageDigest outer = digest(digestAlgorithm);
+        for (int i = 0; i < blockSize; i++) {
+            byte k = (i < key.length) ? key[i] : 0;
+            pad[i] = (byte) (k ^ 0x36);
+        }
+        inner.update(pad);
+        for (int i = 0; i < blockSize; i++) {
+            byte k = (i < key.length) ? key[i] : 0;
+            pad[i] = (byte) (k ^ 0x5c);
+        }
+        outer.update(pad);
+        Arrays.fill(pad, (byte) 0); // clear sensitive data
+        if (key != password)
+            Arrays.fill(key, (byte) 0); // clear sensitive data
+
+        byte[] derived = new byte[length];
+        byte[] u = new byte[hashLength];
+        byte[] t = new byte[hashLength];
+        for (int block = 1, offset = 0; offset < length; block++, offset += hashLength) {
+            MessageDigest mac = copy(inner);
+            mac.update(salt);
+            mac.update(new byte[] {(byte) (block >>> 24), (byte) (block >>> 16), (byte) (block >>> 8), (byte) block});
+            u = hmac(mac.digest(), outer);
+            System.arraycopy(u, 0, t, 0, hashLength);
+            for (int i = 1; i < iterations; i++) {
+                mac = copy(inner);
+                mac.update(u);
+                u = hmac(mac.digest(), outer);
+                for (int j = 0; j < hashLength; j++) {
+                    t[j] ^= u[j];
+                }
+            }
+            System.arraycopy(t, 0, derived, offset, Math.min(hashLength, length - offset));
+        }
+        Arrays.fill(u, (byte) 0); // clear sensitive data
+        Arrays.fill(t, (byte) 0); // clear sensitive data
+        return derived;
+    }
+
+    private static byte[] hmac(byte[] innerHash, MessageDigest outer) {
+        MessageDigest mac = copy(outer);
+        mac.update(innerHash);
+        return mac.digest();
+    }
+
+    private static MessageDigest copy(MessageDigest md) {
+        try {
+            return (MessageDigest) md.clone();
+        } catch (CloneNotSupportedException e) {
+            // The default providers support cloning their digests
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015, 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * http://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package javax.security.identitystore.hash;
+
+/**
+ * <code>PasswordHashAlgorithm</code> is the service provider interface for adaptive
+ * password hash algorithms.
+ * <p>
+ * Hashes are stored in modular crypt format, <code>$id$parameters$salt$hash</code>,
+ * so the parameters used to compute a stored hash, including its cost, are read from the
+ * stored value itself. Changing the cost of an algorithm therefore only affects new hashes.
+ * <p>
+ * Implementations must be immutable and thread safe. Additional implementations may be
+ * registered with <code>{@link java.util.ServiceLoader}</code>, and are found by
+ * <code>{@link PasswordHashAlgorithms}</code>.
+ */
+public interface PasswordHashAlgorithm {
+
+    /**
+     * Determines the algorithm name, such as <code>PBKDF2</code>. Names are compared
+     * ignoring case.
+     *
+     * @return The algorithm name
+     */
+    String getName();
+
+    /**
+     * Determines whether the given stored value was computed by this algorithm.
+     *
+     * @param storedValue The stored value
+     * @return <code>true</code> if this algorithm is able to verify the stored value.
+     */
+    boolean isSupported(String storedValue);
+
+    /**
+     * Hashes the given password with a random salt and the current cost.
+     *
+     * @param password The password
+     * @return The stored value, in modular crypt format.
+     */
+    String hash(char[] password);
+
+    /**
+     * Verifies the given password against the given stored value.
+     *
+     * @param password The password
+     * @param storedValue The stored value, in modular crypt format.
+     * @return <code>true</code> if the password matches.
+     * @throws java.lang.IllegalArgumentException The stored value is not supported or malformed.
+     */
+    boolean verify(char[] password, String storedValue);
+
+    /**
+     * Determines whether the given stored value was computed with different parameters than
+     * this algorithm currently uses, and should be replaced on the next successful login.
+     *
+     * @param storedValue The stored value, in modular crypt format.
+     * @return <code>true</code> if the stored value should be rehashed.
+     * @throws java.lang.IllegalArgumentException The stored value is not supported or malformed.
+     */
+    boolean needsRehash(String storedValue);
+
+    /**
+     * Determines the current cost, such as a number of iterations or a base 2 logarithm of one.
+     *
+     * @return The current cost
+     */
+    int getCost();
+
+    /**
+     * Determines the lowest cost accepted by this algorithm.
+     *
+     * @return The lowest cost
+     */
+    int getMinCost();
+
+    /**
+     * Determines the next cost to try when calibrating, roughly doubling the work
+     * of the given cost.
+     *
+     * @param cost A cost
+     * @return The next cost, or the given cost if already the highest.
+     */
+    int nextCost(int cost);
+
+    /**
+     * Creates an algorithm with the same parameters as this one, except for the given cost.
+     *
+     * @param cost The cost
+     * @return The algorithm
+     * @throws java.lang.IllegalArgumentException The cost is not supported.
+     */
+    PasswordHashAlgorithm withCost(int cost);
+}
@@ -0,0 +1,124 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015, 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * http://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package javax.security.identitystore.hash;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <code>PasswordHashAlgorithms</code> finds the available
+ * <code>{@link PasswordHashAlgorithm}</code> implementations.
+ * <p>
+ * Implementations registered with <code>{@link ServiceLoader}</code> are found first,
+ * followed by the PBKDF2, bcrypt and scrypt implementations of this package with their
+ * default parameters. A registered implementation therefore replaces a built-in
+ * implementation of the same name, for example to change its cost.
+ */
+public final class PasswordHashAlgorithms {
+
+    private static final Logger LOGGER = Logger.getLogger(PasswordHashAlgorithms.class.getName());
+
+    private static volatile List<PasswordHashAlgorithm> algorithms;
+
+    private PasswordHashAlgorithms() {
+    }
+
+    /**
+     * Determines the available algorithms.
+     *
+     * @return The available algorithms, in search order.
+     */
+    public static List<PasswordHashAlgorithm> getAlgorithms() {
+        List<PasswordHashAlgorithm> result = algorithms;
+        if (null == result) {
+            result = new ArrayList<>();
+            try {
+                for (PasswordHashAlgorithm algorithm : ServiceLoader.load(PasswordHashAlgorithm.class)) {
+                    result.add(algorithm);
+                }
+            } catch (ServiceConfigurationError e) {
+                LOGGER.log(Level.WARNING, "Unable to load password hash algorithms", e);
+            }
+            result.add(new Pbkdf2PasswordHashAlgorithm());
+            result.add(new BCryptPasswordHashAlgorithm());
+            result.add(new ScryptPasswordHashAlgorithm());
+            result = Collections.unmodifiableList(result);
+            algorithms = result;
+        }
+        return result;
+    }
+
+    /**
+     * Determines the algorithm with the given name.
+     *
+     * @param name The algorithm name, compared ignoring case.
+     * @return The algorithm, <code>null</code> if not found.
+     */
+    public static PasswordHashAlgorithm get(String name) {
+        if (null == name)
+            return null;
+        for (PasswordHashAlgorithm algorithm : getAlgorithms()) {
+            if (name.equalsIgnoreCase(algorithm.getName()))
+                return algorithm;
+        }
+        return null;
+    }
+
+    /**
+     * Determines the algorithm able to verify the given stored value.
+     *
+     * @param storedValue The stored value, in modular crypt format.
+     * @return The algorithm, <code>null</code> if not found.
+     */
+    public static PasswordHashAlgorithm forStoredValue(String storedValue) {
+        if (null == storedValue)
+            return null;
+        for (PasswordHashAlgorithm algorithm : getAlgorithms()) {
+            if (algorithm.isSupported(storedValue))
+                return algorithm;
+        }
+        return null;
+    }
+}
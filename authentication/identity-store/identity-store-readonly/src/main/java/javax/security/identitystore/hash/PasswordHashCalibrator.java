@@ -0,0 +1,151 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015, 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * http://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package javax.security.identitystore.hash;
+
+import java.util.Arrays;
+
+/**
+ * <code>PasswordHashCalibrator</code> determines the cost of a
+ * <code>{@link PasswordHashAlgorithm}</code> which fits a target hashing time on the
+ * current hardware.
+ * <p>
+ * The cost is increased from the lowest the algorithm accepts, roughly doubling the work
+ * each step, until a hash takes longer than the target. For algorithms with a linear cost,
+ * the result is then refined by bisection. Each measurement is the median of several
+ * hashes, after a warm up.
+ * <p>
+ * It may also be run from the command line:
+ * <pre>
+ * java javax.security.identitystore.hash.PasswordHashCalibrator bcrypt 250
+ * </pre>
+ */
+public final class PasswordHashCalibrator {
+
+    private static final int SAMPLES = 3;
+    private static final int BISECTION_STEPS = 8;
+
+    private static final char[] PASSWORD = "calibration-password".toCharArray();
+
+    private PasswordHashCalibrator() {
+    }
+
+    /**
+     * Determines the highest cost for which a hash takes at most the given time.
+     *
+     * @param algorithm The algorithm
+     * @param targetMillis The target hashing time, in milliseconds.
+     * @return The algorithm with the calibrated cost, or with the lowest cost
+     *  if even that takes longer than the target.
+     */
+    public static PasswordHashAlgorithm calibrate(PasswordHashAlgorithm algorithm, long targetMillis) {
+        if (null == algorithm)
+            throw new NullPointerException("PasswordHashAlgorithm");
+        if (targetMillis <= 0)
+            throw new IllegalArgumentException("Target time: " + targetMillis);
+        long targetNanos = targetMillis * 1000000L;
+
+        int best = algorithm.getMinCost();
+        int cost = best;
+        int over = -1;
+        while (true) {
+            if (measureNanos(algorithm.withCost(cost)) > targetNanos) {
+                over = cost;
+                break;
+            }
+            best = cost;
+            int next = algorithm.nextCost(cost);
+            if (next <= cost)
+                break;
+            cost = next;
+        }
+
+        // Refine between the last cost within the target and the first one over it
+        if (over > 0) {
+            int low = best;
+            int high = over;
+            for (int i = 0; (i < BISECTION_STEPS) && (high - low > 1); i++) {
+                int mid = low + (high - low) / 2;
+                if (measureNanos(algorithm.withCost(mid)) > targetNanos)
+                    high = mid;
+                else
+                    low = mid;
+            }
+            best = low;
+        }
+        return (best == algorithm.getCost()) ? algorithm : algorithm.withCost(best);
+    }
+
+    /**
+     * Measures the time to hash a password with the given algorithm.
+     *
+     * @param algorithm The algorithm
+     * @return The median hashing time, in nanoseconds.
+     */
+    public static long measureNanos(PasswordHashAlgorithm algorithm) {
+        algorithm.hash(PASSWORD); // warm up
+        long[] samples = new long[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            long start = System.nanoTime();
+            algorithm.hash(PASSWORD);
+            samples[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(samples);
+        return samples[SAMPLES / 2];
+    }
+
+    /**
+     * Prints the calibrated cost of an algorithm.
+     *
+     * @param args The algorithm name, and the target hashing time in milliseconds.
+     */
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.out.println("Usage: PasswordHashCalibrator <algorithm> <target milliseconds>");
+            return;
+        }
+        PasswordHashAlgorithm algorithm = PasswordHashAlgorithms.get(args[0]);
+        if (null == algorithm) {
+            System.out.println("Unknown password hash algorithm: " + args[0]);
+            return;
+        }
+        PasswordHashAlgorithm calibrated = calibrate(algorithm, Long.parseLong(args[1]));
+        System.out.println(calibrated + ": " + (measureNanos(calibrated) / 1000000L) + " ms");
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015, 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * http://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package javax.security.identitystore.hash;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * <code>Pbkdf2PasswordHashAlgorithm</code> hashes passwords using PBKDF2 (RFC 8018)
+ * with HMAC-SHA1, HMAC-SHA256 or HMAC-SHA512.
+ * <p>
+ * Stored values use the modular crypt format <code>$pbkdf2-sha256$rounds$salt$hash</code>,
+ * with <code>pbkdf2</code> for SHA1 and <code>pbkdf2-sha512</code> for SHA512. The salt and hash
+ * are unpadded Base64, with <code>.</code> in place of <code>+</code>.
+ * The cost is the number of iterations.
+ */
+public class Pbkdf2PasswordHashAlgorithm implements PasswordHashAlgorithm {
+
+    public static final String NAME = "PBKDF2";
+
+    public static final String SHA1 = "SHA-1";
+    public static final String SHA256 = "SHA-256";
+    public static final String SHA512 = "SHA-512";
+
+    public static final int DEFAULT_ITERATIONS = 600000;
+    public static final int MIN_ITERATIONS = 1000;
+
+    private static final int SALT_LENGTH = 16;
+
+    private final String digestAlgorithm;
+    private final int iterations;
+
+    /**
+     * Constructor, using HMAC-SHA256 and the default number of iterations.
+     */
+    public Pbkdf2PasswordHashAlgorithm() {
+        this(SHA256, DEFAULT_ITERATIONS);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param digestAlgorithm The HMAC digest algorithm: <code>SHA-1</code>, <code>SHA-256</code> or <code>SHA-512</code>.
+     * @param iterations The number of iterations
+     */
+    public Pbkdf2PasswordHashAlgorithm(String digestAlgorithm, int iterations) {
+        id(digestAlgorithm); // validates
+        if (iterations < MIN_ITERATIONS)
+            throw new IllegalArgumentException("PBKDF2 iterations: " + iterations);
+        this.digestAlgorithm = digestAlgorithm;
+        this.iterations = iterations;
+    }
+
+    private static String id(String digestAlgorithm) {
+        if (SHA1.equals(digestAlgorithm))
+            return "pbkdf2";
+        if (SHA256.equals(digestAlgorithm))
+            return "pbkdf2-sha256";
+        if (SHA512.equals(digestAlgorithm))
+            return "pbkdf2-sha512";
+        throw new IllegalArgumentException("PBKDF2 digest algorithm: " + digestAlgorithm);
+    }
+
+    private static String digestAlgorithm(String storedValue) {
+        if (null != storedValue) {
+            if (storedValue.startsWith("$pbkdf2$"))
+                return SHA1;
+            if (storedValue.startsWith("$pbkdf2-sha256$"))
+                return SHA256;
+            if (storedValue.startsWith("$pbkdf2-sha512$"))
+                return SHA512;
+        }
+        return null;
+    }
+
+    /**
+     * Determines the HMAC digest algorithm.
+     *
+     * @return The digest algorithm
+     */
+    public String getDigestAlgorithm() {
+        return digestAlgorithm;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public boolean isSupported(String storedValue) {
+        return null != digestAlgorithm(storedValue);
+    }
+
+    @Override
+    public String hash(char[] password) {
+        byte[] salt = HashSupport.salt(SALT_LENGTH);
+        byte[] passwordBytes = HashSupport.utf8(password);
+        byte[] hash = HashSupport.pbkdf2(digestAlgorithm, passwordBytes,
+            salt, iterations, HashSupport.digest(digestAlgorithm).getDigestLength());
+        Arrays.fill(passwordBytes, (byte) 0); // clear sensitive data
+        return "$" + id(digestAlgorithm) + "$" + iterations + "$" +
+            HashSupport.encodeBase64(salt, true) + "$" + HashSupport.encodeBase64(hash, true);
+    }
+
+    @Override
+    public boolean verify(char[] password, String storedValue) {
+        String algorithm = digestAlgorithm(storedValue);
+        if (null == algorithm)
+            throw new IllegalArgumentException("Not a PBKDF2 hash");
+        String[] fields = HashSupport.fields(storedValue, id(algorithm), 3);
+        int rounds = HashSupport.positiveInt(fields[0], "PBKDF2 rounds");
+        byte[] salt = HashSupport.decodeBase64(fields[1], true);
+        byte[] expected = HashSupport.decodeBase64(fields[2], true);
+        if (0 == expected.length)
+            throw new IllegalArgumentException("Malformed PBKDF2 hash");
+
+        byte[] passwordBytes = HashSupport.utf8(password);
+        byte[] hash = HashSupport.pbkdf2(algorithm, passwordBytes, salt, rounds, expected.length);
+        Arrays.fill(passwordBytes, (byte) 0); // clear sensitive data
+        return MessageDigest.isEqual(hash, expected);
+    }
+
+    @Override
+    public boolean needsRehash(String storedValue) {
+        String algorithm = digestAlgorithm(storedValue);
+        if (null == algorithm)
+            throw new IllegalArgumentException("Not a PBKDF2 hash");
+        String[] fields = HashSupport.fields(storedValue, id(algorithm), 3);
+        return !digestAlgorithm.equals(algorithm) ||
+            (HashSupport.positiveInt(fields[0], "PBKDF2 rounds") != iterations);
+    }
+
+    @Override
+    public int getCost() {
+        return iterations;
+    }
+
+    @Override
+    public int getMinCost() {
+        return MIN_ITERATIONS;
+    }
+
+    @Override
+    public int nextCost(int cost) {
+        return (cost > Integer.MAX_VALUE / 2) ? Integer.MAX_VALUE : cost * 2;
+    }
+
+    @Override
+    public Pbkdf2PasswordHashAlgorithm withCost(int cost) {
+        return new Pbkdf2PasswordHashAlgorithm(digestAlgorithm, cost);
+    }
+
+    @Override
+    public String toString() {
+        return NAME + "(" + digestAlgorithm + ", " + iterations + " iterations)";
+    }
+}
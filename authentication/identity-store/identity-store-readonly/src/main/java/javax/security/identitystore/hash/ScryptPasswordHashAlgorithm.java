@@ -0,0 +1,282 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015, 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * http://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package javax.security.identitystore.hash;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * <code>ScryptPasswordHashAlgorithm</code> hashes passwords using scrypt (RFC 7914).
+ * <p>
+ * Stored values use the modular crypt format <code>$scrypt$ln=15,r=8,p=1$salt$hash</code>,
+ * where <code>ln</code> is the base 2 logarithm of the CPU/memory cost <code>N</code>.
+ * The salt and hash are unpadded Base64. The cost is <code>ln</code>; each step doubles
+ * both the time and the memory, <code>128 * r * N</code> bytes, of a hash.
+ */
+public class ScryptPasswordHashAlgorithm implements PasswordHashAlgorithm {
+
+    public static final String NAME = "scrypt";
+
+    public static final int DEFAULT_LOG_N = 15;
+    public static final int DEFAULT_R = 8;
+    public static final int DEFAULT_P = 1;
+    public static final int MIN_LOG_N = 1;
+
+    // Largest V array, in ints, accepted for a stored value
+    private static final long MAX_MEMORY_INTS = Integer.MAX_VALUE - 8;
+
+    private static final int SALT_LENGTH = 16;
+    private static final int HASH_LENGTH = 32;
+
+    private final int logN;
+    private final int r;
+    private final int p;
+
+    /**
+     * Constructor, using the default parameters.
+     */
+    public ScryptPasswordHashAlgorithm() {
+        this(DEFAULT_LOG_N, DEFAULT_R, DEFAULT_P);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param logN The base 2 logarithm of the CPU/memory cost <code>N</code>
+     * @param r The block size
+     * @param p The parallelization
+     */
+    public ScryptPasswordHashAlgorithm(int logN, int r, int p) {
+        checkParameters(logN, r, p);
+        this.logN = logN;
+        this.r = r;
+        this.p = p;
+    }
+
+    private static void checkParameters(int logN, int r, int p) {
+        if ((logN < MIN_LOG_N) || (logN > 30) || (r <= 0) || (p <= 0) ||
+            ((long) r * p >= (1 << 30)) || (32L * r << logN) > MAX_MEMORY_INTS)
+            throw new IllegalArgumentException("scrypt parameters: ln=" + logN + ", r=" + r + ", p=" + p);
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public boolean isSupported(String storedValue) {
+        return (null != storedValue) && storedValue.startsWith("$scrypt$");
+    }
+
+    @Override
+    public String hash(char[] password) {
+        byte[] salt = HashSupport.salt(SALT_LENGTH);
+        byte[] passwordBytes = HashSupport.utf8(password);
+        byte[] hash = scrypt(passwordBytes, salt, logN, r, p, HASH_LENGTH);
+        Arrays.fill(passwordBytes, (byte) 0); // clear sensitive data
+        return "$scrypt$ln=" + logN + ",r=" + r + ",p=" + p + "$" +
+            HashSupport.encodeBase64(salt, false) + "$" + HashSupport.encodeBase64(hash, false);
+    }
+
+    /**
+     * Parses the <code>ln=..,r=..,p=..</code> parameter field.
+     *
+     * @return The parameters <code>{ln, r, p}</code>
+     */
+    private static int[] parameters(String field) {
+        String[] parts = field.split(",", -1);
+        if ((parts.length != 3) || !parts[0].startsWith("ln=") || !parts[1].startsWith("r=") || !parts[2].startsWith("p="))
+            throw new IllegalArgumentException("Malformed scrypt parameters: " + field);
+        int[] parameters = {
+            HashSupport.positiveInt(parts[0].substring(3), "scrypt ln"),
+            HashSupport.positiveInt(parts[1].substring(2), "scrypt r"),
+            HashSupport.positiveInt(parts[2].substring(2), "scrypt p")};
+        checkParameters(parameters[0], parameters[1], parameters[2]);
+        return parameters;
+    }
+
+    @Override
+    public boolean verify(char[] password, String storedValue) {
+        String[] fields = HashSupport.fields(storedValue, "scrypt", 3);
+        int[] parameters = parameters(fields[0]);
+        byte[] salt = HashSupport.decodeBase64(fields[1], false);
+        byte[] expected = HashSupport.decodeBase64(fields[2], false);
+        if (0 == expected.length)
+            throw new IllegalArgumentException("Malformed scrypt hash");
+
+        byte[] passwordBytes = HashSupport.utf8(password);
+        byte[] hash = scrypt(passwordBytes, salt, parameters[0], parameters[1], parameters[2], expected.length);
+        Arrays.fill(passwordBytes, (byte) 0); // clear sensitive data
+        return MessageDigest.isEqual(hash, expected);
+    }
+
+    @Override
+    public boolean needsRehash(String storedValue) {
+        int[] parameters = parameters(HashSupport.fields(storedValue, "scrypt", 3)[0]);
+        return (parameters[0] != logN) || (parameters[1] != r) || (parameters[2] != p);
+    }
+
+    @Override
+    public int getCost() {
+        return logN;
+    }
+
+    @Override
+    public int getMinCost() {
+        return MIN_LOG_N;
+    }
+
+    @Override
+    public int nextCost(int cost) {
+        return ((32L * r << (cost + 1)) > MAX_MEMORY_INTS) ? cost : cost + 1;
+    }
+
+    @Override
+    public ScryptPasswordHashAlgorithm withCost(int cost) {
+        return new ScryptPasswordHashAlgorithm(cost, r, p);
+    }
+
+    @Override
+    public String toString() {
+        return NAME + "(ln=" + logN + ", r=" + r + ", p=" + p + ")";
+    }
+
+    /**
+     * Derives a key using scrypt.
+     *
+     * @param password The password
+     * @param salt The salt
+     * @param logN The base 2 logarithm of the CPU/memory cost
+     * @param r The block size
+     * @param p The parallelization
+     * @param length The derived key length in bytes
+     * @return The derived key
+     */
+    static byte[] scrypt(byte[] password, byte[] salt, int logN, int r, int p, int length) {
+        int blockInts = 32 * r;
+        byte[] b = HashSupport.pbkdf2("SHA-256", password, salt, 1, p * 128 * r);
+
+        int[] x = new int[blockInts];
+        int[] y = new int[blockInts];
+        int[] v = new int[blockInts << logN];
+        int n = 1 << logN;
+        for (int lane = 0; lane < p; lane++) {
+            int offset = lane * 128 * r;
+            for (int i = 0; i < blockInts; i++) {
+                x[i] = (b[offset + 4 * i] & 0xff) | (b[offset + 4 * i + 1] & 0xff) << 8 |
+                    (b[offset + 4 * i + 2] & 0xff) << 16 | (b[offset + 4 * i + 3] & 0xff) << 24;
+            }
+            roMix(x, y, v, n, r);
+            for (int i = 0; i < blockInts; i++) {
+                b[offset + 4 * i] = (byte) x[i];
+                b[offset + 4 * i + 1] = (byte) (x[i] >>> 8);
+                b[offset + 4 * i + 2] = (byte) (x[i] >>> 16);
+                b[offset + 4 * i + 3] = (byte) (x[i] >>> 24);
+            }
+        }
+        Arrays.fill(x, 0); // clear sensitive data
+        Arrays.fill(y, 0);
+        Arrays.fill(v, 0);
+
+        byte[] derived = HashSupport.pbkdf2("SHA-256", password, b, 1, length);
+        Arrays.fill(b, (byte) 0); // clear sensitive data
+        return derived;
+    }
+
+    private static void roMix(int[] x, int[] y, int[] v, int n, int r) {
+        int blockInts = 32 * r;
+        int[] t = new int[16];
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(x, 0, v, i * blockInts, blockInts);
+            blockMix(x, y, t, r);
+        }
+        for (int i = 0; i < n; i++) {
+            int j = x[(2 * r - 1) * 16] & (n - 1);
+            int offset = j * blockInts;
+            for (int k = 0; k < blockInts; k++) {
+                x[k] ^= v[offset + k];
+            }
+            blockMix(x, y, t, r);
+        }
+    }
+
+    /**
+     * scryptBlockMix, replacing <code>b</code> with its output.
+     * <code>y</code> and <code>t</code> are scratch space.
+     */
+    private static void blockMix(int[] b, int[] y, int[] t, int r) {
+        System.arraycopy(b, (2 * r - 1) * 16, t, 0, 16);
+        for (int i = 0; i < 2 * r; i++) {
+            for (int k = 0; k < 16; k++) {
+                t[k] ^= b[i * 16 + k];
+            }
+            salsa20_8(t);
+            // Even blocks go to the first half of the output, odd blocks to the second
+            System.arraycopy(t, 0, y, ((i & 1) * r + (i >> 1)) * 16, 16);
+        }
+        System.arraycopy(y, 0, b, 0, 32 * r);
+    }
+
+    private static void salsa20_8(int[] b) {
+        int x0 = b[0], x1 = b[1], x2 = b[2], x3 = b[3], x4 = b[4], x5 = b[5], x6 = b[6], x7 = b[7];
+        int x8 = b[8], x9 = b[9], x10 = b[10], x11 = b[11], x12 = b[12], x13 = b[13], x14 = b[14], x15 = b[15];
+        for (int i = 0; i < 8; i += 2) {
+            x4 ^= Integer.rotateLeft(x0 + x12, 7);   x8 ^= Integer.rotateLeft(x4 + x0, 9);
+            x12 ^= Integer.rotateLeft(x8 + x4, 13);  x0 ^= Integer.rotateLeft(x12 + x8, 18);
+            x9 ^= Integer.rotateLeft(x5 + x1, 7);    x13 ^= Integer.rotateLeft(x9 + x5, 9);
+            x1 ^= Integer.rotateLeft(x13 + x9, 13);  x5 ^= Integer.rotateLeft(x1 + x13, 18);
+            x14 ^= Integer.rotateLeft(x10 + x6, 7);  x2 ^= Integer.rotateLeft(x14 + x10, 9);
+            x6 ^= Integer.rotateLeft(x2 + x14, 13);  x10 ^= Integer.rotateLeft(x6 + x2, 18);
+            x3 ^= Integer.rotateLeft(x15 + x11, 7);  x7 ^= Integer.rotateLeft(x3 + x15, 9);
+            x11 ^= Integer.rotateLeft(x7 + x3, 13);  x15 ^= Integer.rotateLeft(x11 + x7, 18);
+            x1 ^= Integer.rotateLeft(x0 + x3, 7);    x2 ^= Integer.rotateLeft(x1 + x0, 9);
+            x3 ^= Integer.rotateLeft(x2 + x1, 13);   x0 ^= Integer.rotateLeft(x3 + x2, 18);
+            x6 ^= Integer.rotateLeft(x5 + x4, 7);    x7 ^= Integer.rotateLeft(x6 + x5, 9);
+            x4 ^= Integer.rotateLeft(x7 + x6, 13);   x5 ^= Integer.rotateLeft(x4 + x7, 18);
+            x11 ^= Integer.rotateLeft(x10 + x9, 7);  x8 ^= Integer.rotateLeft(x11 + x10, 9);
+            x9 ^= Integer.rotateLeft(x8 + x11, 13);  x10 ^= Integer.rotateLeft(x9 + x8, 18);
+            x12 ^= Integer.rotateLeft(x15 + x14, 7); x13 ^= Integer.rotateLeft(x12 + x15, 9);
+            x14 ^= Integer.rotateLeft(x13 + x12, 13); x15 ^= Integer.rotateLeft(x14 + x13, 18);
+        }
+        b[0] += x0; b[1] += x1; b[2] += x2; b[3] += x3; b[4] += x4; b[5] += x5; b[6] += x6; b[7] += x7;
+        b[8] += x8; b[9] += x9; b[10] += x10; b[11] += x11; b[12] += x12; b[13] += x13; b[14] += x14; b[15] += x15;
+    }
+}
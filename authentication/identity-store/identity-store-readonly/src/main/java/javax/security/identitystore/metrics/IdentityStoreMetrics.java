@@ -0,0 +1,95 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015, 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * http://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package javax.security.identitystore.metrics;
+
+import javax.security.identitystore.CredentialValidationResult;
+
+/**
+ * <code>IdentityStoreMetrics</code> is the service provider interface for instrumenting
+ * identity stores.
+ * <p>
+ * Identity stores report each validation, each load of cached identity data, and each
+ * error of their backend, identified by the name of the store. Stores only measure
+ * validations while <code>{@link #isEnabled}</code> returns <code>true</code>, so a
+ * disabled implementation adds neither clock reads nor allocation to validation.
+ * <p>
+ * Implementations must be thread safe and must not throw. Additional implementations may be
+ * registered with <code>{@link java.util.ServiceLoader}</code>, and are found by
+ * <code>{@link IdentityStoreMetricsProvider}</code>.
+ */
+public interface IdentityStoreMetrics {
+
+    /**
+     * Determines whether validations are measured.
+     *
+     * @return <code>true</code> if validations are measured.
+     */
+    boolean isEnabled();
+
+    /**
+     * Records a validation.
+     *
+     * @param store The identity store name
+     * @param credentialType The credential class name
+     * @param status The validation status
+     * @param nanos The validation duration, in nanoseconds.
+     */
+    void validated(String store, String credentialType, CredentialValidationResult.Status status, long nanos);
+
+    /**
+     * Records a load of cached identity data.
+     *
+     * @param store The identity store name
+     * @param nanos The load duration, in nanoseconds.
+     * @param callers The number of callers in the cache
+     * @param estimatedSize The estimated size of the cache, in bytes.
+     */
+    void loaded(String store, long nanos, int callers, long estimatedSize);
+
+    /**
+     * Records an error of the backend of an identity store, such as an unreadable source
+     * or an unreachable directory. Rejected credentials are not errors.
+     *
+     * @param store The identity store name
+     * @param operation The failed operation, such as <code>validate</code> or <code>load</code>.
+     * @param error The error
+     */
+    void failed(String store, String operation, Throwable error);
+}
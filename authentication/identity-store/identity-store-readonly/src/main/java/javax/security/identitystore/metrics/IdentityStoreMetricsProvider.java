@@ -0,0 +1,92 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015, 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * http://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package javax.security.identitystore.metrics;
+
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <code>IdentityStoreMetricsProvider</code> finds the default
+ * <code>{@link IdentityStoreMetrics}</code> implementation.
+ * <p>
+ * The first implementation registered with <code>{@link ServiceLoader}</code> is used,
+ * otherwise <code>{@link NoopIdentityStoreMetrics}</code>. For example, registering
+ * <code>{@link JmxIdentityStoreMetrics}</code> publishes the metrics of every identity
+ * store which is not given other metrics.
+ */
+public final class IdentityStoreMetricsProvider {
+
+    private static final Logger LOGGER = Logger.getLogger(IdentityStoreMetricsProvider.class.getName());
+
+    private static volatile IdentityStoreMetrics metrics;
+
+    private IdentityStoreMetricsProvider() {
+    }
+
+    /**
+     * Determines the default metrics.
+     *
+     * @return The default metrics
+     */
+    public static IdentityStoreMetrics getDefault() {
+        IdentityStoreMetrics result = metrics;
+        if (null == result) {
+            synchronized (IdentityStoreMetricsProvider.class) {
+                result = metrics;
+                if (null == result) {
+                    try {
+                        for (IdentityStoreMetrics registered : ServiceLoader.load(IdentityStoreMetrics.class)) {
+                            result = registered;
+                            break;
+                        }
+                    } catch (ServiceConfigurationError e) {
+                        LOGGER.log(Level.WARNING, "Unable to load identity store metrics", e);
+                    }
+                    if (null == result)
+                        result = NoopIdentityStoreMetrics.INSTANCE;
+                    metrics = result;
+                }
+            }
+        }
+        return result;
+    }
+}
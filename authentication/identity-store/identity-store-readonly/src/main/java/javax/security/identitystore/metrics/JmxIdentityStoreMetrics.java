@@ -0,0 +1,375 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015, 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * http://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package javax.security.identitystore.metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.security.identitystore.CredentialValidationResult;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <code>JmxIdentityStoreMetrics</code> is an <code>{@link IdentityStoreMetrics}</code>
+ * implementation which publishes the metrics of each identity store as MXBeans.
+ * <p>
+ * The first event of an identity store registers an <code>{@link IdentityStoreMXBean}</code>
+ * named <code>javax.security.identitystore:type=IdentityStore,name=<i>store</i></code>,
+ * and the first validation of each credential type registers a <code>{@link ValidationMXBean}</code>
+ * named <code>javax.security.identitystore:type=Validation,store=<i>store</i>,credentialType=<i>type</i></code>.
+ * Later events only update counters, without allocating.
+ * <p>
+ * Closing unregisters the MXBeans and stops recording.
+ */
+public class JmxIdentityStoreMetrics implements IdentityStoreMetrics, AutoCloseable {
+
+    public static final String DOMAIN = "javax.security.identitystore";
+
+    private static final Logger LOGGER = Logger.getLogger(JmxIdentityStoreMetrics.class.getName());
+
+    private final MBeanServer server;
+    private final ConcurrentHashMap<String, StoreStats> stores = new ConcurrentHashMap<>();
+    private final List<ObjectName> registered = new ArrayList<>(); // Guarded by this
+    private volatile boolean closed = false;
+
+    /**
+     * <code>StoreStats</code> holds the metrics of one identity store.
+     */
+    private static final class StoreStats implements IdentityStoreMXBean {
+        private final String store;
+        private final ConcurrentHashMap<String, ValidationStats> validations = new ConcurrentHashMap<>();
+        private volatile int callerCount;
+        private volatile long estimatedSize;
+        private final AtomicLong loadCount = new AtomicLong();
+        private volatile long lastLoadNanos;
+        private final AtomicLong maxLoadNanos = new AtomicLong();
+        private final AtomicLong errorCount = new AtomicLong();
+        private volatile String lastError;
+
+        StoreStats(String store) {
+            this.store = store;
+        }
+
+        @Override
+        public String getStore() {
+            return store;
+        }
+
+        @Override
+        public long getValidationCount() {
+            long count = 0;
+            for (ValidationStats validation : validations.values()) {
+                count += validation.histogram.getCount();
+            }
+            return count;
+        }
+
+        @Override
+        public int getCallerCount() {
+            return callerCount;
+        }
+
+        @Override
+        public long getEstimatedSize() {
+            return estimatedSize;
+        }
+
+        @Override
+        public long getLoadCount() {
+            return loadCount.get();
+        }
+
+        @Override
+        public long getLastLoadDurationMillis() {
+            return lastLoadNanos / 1000000;
+        }
+
+        @Override
+        public long getMaxLoadDurationMillis() {
+            return maxLoadNanos.get() / 1000000;
+        }
+
+        @Override
+        public long getErrorCount() {
+            return errorCount.get();
+        }
+
+        @Override
+        public String getLastError() {
+            return lastError;
+        }
+    }
+
+    /**
+     * <code>ValidationStats</code> holds the metrics of one credential type of one identity store.
+     */
+    private static final class ValidationStats implements ValidationMXBean {
+        private final String store;
+        private final String credentialType;
+        private final LongAdder validCount = new LongAdder();
+        private final LongAdder invalidCount = new LongAdder();
+        private final LongAdder notValidatedCount = new LongAdder();
+        private final LatencyHistogram histogram = new LatencyHistogram();
+
+        ValidationStats(String store, String credentialType) {
+            this.store = store;
+            this.credentialType = credentialType;
+        }
+
+        void record(CredentialValidationResult.Status status, long nanos) {
+            if (CredentialValidationResult.Status.VALID == status)
+                validCount.increment();
+            else if (CredentialValidationResult.Status.INVALID == status)
+                invalidCount.increment();
+            else
+                notValidatedCount.increment();
+            histogram.record(nanos);
+        }
+
+        @Override
+        public String getStore() {
+            return store;
+        }
+
+        @Override
+        public String getCredentialType() {
+            return credentialType;
+        }
+
+        @Override
+        public long getValidCount() {
+            return validCount.sum();
+        }
+
+        @Override
+        public long getInvalidCount() {
+            return invalidCount.sum();
+        }
+
+        @Override
+        public long getNotValidatedCount() {
+            return notValidatedCount.sum();
+        }
+
+        @Override
+        public long getMeanNanos() {
+            return histogram.getMean();
+        }
+
+        @Override
+        public long getMaxNanos() {
+            return histogram.getMax();
+        }
+
+        @Override
+        public long getPercentile50Nanos() {
+            return histogram.getPercentile(0.5);
+        }
+
+        @Override
+        public long getPercentile90Nanos() {
+            return histogram.getPercentile(0.9);
+        }
+
+        @Override
+        public long getPercentile99Nanos() {
+            return histogram.getPercentile(0.99);
+        }
+
+        @Override
+        public long[] getLatencyHistogram() {
+            return histogram.getCounts();
+        }
+    }
+
+    /**
+     * Constructor, using the platform MBean server.
+     */
+    public JmxIdentityStoreMetrics() {
+        this(ManagementFactory.getPlatformMBeanServer());
+    }
+
+    /**
+     * Constructor
+     *
+     * @param server The MBean server to register the MXBeans with
+     */
+    public JmxIdentityStoreMetrics(MBeanServer server) {
+        if (null == server)
+            throw new NullPointerException("MBean server");
+        this.server = server;
+    }
+
+    /**
+     * Determines the name of the MXBean of the given identity store.
+     *
+     * @param store The identity store name
+     * @return The MXBean name
+     * @throws MalformedObjectNameException Never, the name is quoted.
+     */
+    public static ObjectName objectName(String store) throws MalformedObjectNameException {
+        return new ObjectName(DOMAIN + ":type=IdentityStore,name=" + ObjectName.quote(store));
+    }
+
+    /**
+     * Determines the name of the MXBean of the given credential type of the given identity store.
+     *
+     * @param store The identity store name
+     * @param credentialType The credential class name
+     * @return The MXBean name
+     * @throws MalformedObjectNameException Never, the names are quoted.
+     */
+    public static ObjectName objectName(String store, String credentialType) throws MalformedObjectNameException {
+        return new ObjectName(DOMAIN + ":type=Validation,store=" + ObjectName.quote(store) +
+            ",credentialType=" + ObjectName.quote(credentialType));
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return !closed;
+    }
+
+    @Override
+    public void validated(String store, String credentialType, CredentialValidationResult.Status status, long nanos) {
+        StoreStats stats = stats(store);
+        if (null == stats)
+            return;
+        ValidationStats validation = stats.validations.get(credentialType);
+        if (null == validation)
+            validation = register(stats, credentialType);
+        if (null != validation)
+            validation.record(status, nanos);
+    }
+
+    @Override
+    public void loaded(String store, long nanos, int callers, long estimatedSize) {
+        StoreStats stats = stats(store);
+        if (null == stats)
+            return;
+        stats.callerCount = callers;
+        stats.estimatedSize = estimatedSize;
+        stats.lastLoadNanos = nanos;
+        stats.loadCount.incrementAndGet();
+        long current;
+        while ((nanos > (current = stats.maxLoadNanos.get())) && !stats.maxLoadNanos.compareAndSet(current, nanos)) {
+            // Retry
+        }
+    }
+
+    @Override
+    public void failed(String store, String operation, Throwable error) {
+        StoreStats stats = stats(store);
+        if (null == stats)
+            return;
+        stats.errorCount.incrementAndGet();
+        stats.lastError = operation + ": " + error;
+    }
+
+    /**
+     * Unregisters the MXBeans and stops recording.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        for (ObjectName name : registered) {
+            try {
+                server.unregisterMBean(name);
+            } catch (JMException e) {
+                LOGGER.log(Level.WARNING, "Unable to unregister " + name, e);
+            }
+        }
+        registered.clear();
+        stores.clear();
+    }
+
+    /**
+     * Determines the metrics of the given identity store, registering its MXBean on first use.
+     *
+     * @return The metrics, <code>null</code> once closed.
+     */
+    private StoreStats stats(String store) {
+        StoreStats stats = stores.get(store);
+        if (null != stats)
+            return stats;
+        synchronized (this) {
+            if (closed)
+                return null;
+            stats = stores.get(store);
+            if (null == stats) {
+                stats = new StoreStats(store);
+                try {
+                    register(stats, objectName(store));
+                } catch (JMException e) {
+                    LOGGER.log(Level.WARNING, "Unable to register identity store metrics for " + store, e);
+                }
+                stores.put(store, stats);
+            }
+            return stats;
+        }
+    }
+
+    private synchronized ValidationStats register(StoreStats stats, String credentialType) {
+        if (closed)
+            return null;
+        ValidationStats validation = stats.validations.get(credentialType);
+        if (null == validation) {
+            validation = new ValidationStats(stats.store, credentialType);
+            try {
+                register(validation, objectName(stats.store, credentialType));
+            } catch (JMException e) {
+                LOGGER.log(Level.WARNING, "Unable to register validation metrics for " + stats.store, e);
+            }
+            stats.validations.put(credentialType, validation);
+        }
+        return validation;
+    }
+
+    private void register(Object mxBean, ObjectName name) throws JMException {
+        server.registerMBean(mxBean, name);
+        registered.add(name);
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015, 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * http://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package javax.security.identitystore.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <code>LatencyHistogram</code> counts durations in buckets whose bounds are powers of two.
+ * <p>
+ * Bucket <code>0</code> counts durations of <code>0</code>, bucket <code>i</code> counts
+ * durations from <code>2<sup>i-1</sup></code> to <code>2<sup>i</sup> - 1</code>.
+ * Recording a duration does not allocate, and percentiles are accurate to a factor of two.
+ */
+final class LatencyHistogram {
+
+    static final int BUCKETS = 64;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder total = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    static int bucket(long duration) {
+        return (duration <= 0) ? 0 : 64 - Long.numberOfLeadingZeros(duration);
+    }
+
+    /**
+     * Records a duration.
+     *
+     * @param duration The duration, negative durations are recorded as <code>0</code>.
+     */
+    void record(long duration) {
+        if (duration < 0)
+            duration = 0;
+        buckets[bucket(duration)].increment();
+        total.add(duration);
+        long current;
+        while ((duration > (current = max.get())) && !max.compareAndSet(current, duration)) {
+            // Retry
+        }
+    }
+
+    /**
+     * Determines the number of durations in each bucket.
+     *
+     * @return The counts, indexed by bucket.
+     */
+    long[] getCounts() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+        }
+        return counts;
+    }
+
+    long getCount() {
+        long count = 0;
+        for (LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    long getMean() {
+        long count = getCount();
+        return (count == 0) ? 0 : total.sum() / count;
+    }
+
+    long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Determines the duration below which the given fraction of the durations fall.
+     *
+     * @param fraction The fraction, from <code>0</code> to <code>1</code>.
+     * @return The upper bound of the bucket holding the percentile, at most the maximum duration.
+     */
+    long getPercentile(double fraction) {
+        long[] counts = getCounts();
+        long count = 0;
+        for (long bucketCount : counts) {
+            count += bucketCount;
+        }
+        if (count == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(fraction * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                long upper = (i == 0) ? 0 : (i == 63) ? Long.MAX_VALUE : (1L << i) - 1;
+                return Math.min(upper, max.get());
+            }
+        }
+        return max.get();
+    }
+}
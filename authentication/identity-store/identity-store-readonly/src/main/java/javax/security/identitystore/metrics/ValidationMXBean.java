@@ -0,0 +1,77 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015, 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * http://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package javax.security.identitystore.metrics;
+
+/**
+ * <code>ValidationMXBean</code> exposes the validations of one credential type by one
+ * identity store, as measured by <code>{@link JmxIdentityStoreMetrics}</code>.
+ * Durations are in nanoseconds, percentiles are accurate to a factor of two.
+ */
+public interface ValidationMXBean {
+
+    String getStore();
+
+    String getCredentialType();
+
+    long getValidCount();
+
+    long getInvalidCount();
+
+    long getNotValidatedCount();
+
+    long getMeanNanos();
+
+    long getMaxNanos();
+
+    long getPercentile50Nanos();
+
+    long getPercentile90Nanos();
+
+    long getPercentile99Nanos();
+
+    /**
+     * Determines the latency histogram. Element <code>i</code> counts the validations
+     * which took from <code>2<sup>i-1</sup></code> to <code>2<sup>i</sup> - 1</code>
+     * nanoseconds, element <code>0</code> those which took none.
+     *
+     * @return The validation counts, indexed by bucket.
+     */
+    long[] getLatencyHistogram();
+}
@@ -47,6 +47,27 @@ import javax.security.identitystore.annotation.ValidatorAnnotationLiteral;
 import javax.security.identitystore.credential.Credential;
 import javax.security.identitystore.credential.CredentialValidator;
 import javax.security.identitystore.credential.UsernamePasswordCredential;
+import javax.security.identitystore.metrics.IdentityStoreMetrics;
+import javax.security.identitystore.metrics.IdentityStoreMetricsProvider;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * <code>AbstractIdentityStore</code> provides common behavior for implementations
@@ -54,6 +75,339 @@ import javax.security.identitystore.credential.UsernamePasswordCredential;
  */
 public abstract class AbstractIdentityStore implements IdentityStore {
 
+    private static final Logger LOGGER = Logger.getLogger(AbstractIdentityStore.class.getName());
+
+    /**
+     * <code>AsyncDefaults</code> holds the executor asynchronous validations run on by default,
+     * and the scheduler of their timeouts, created on first use.
+     */
+    private static final class AsyncDefaults {
+        static final Executor EXECUTOR = createExecutor();
+        static final ScheduledThreadPoolExecutor TIMEOUTS = createTimeouts();
+
+        /**
+         * Creates an executor starting a virtual thread per validation if the JVM supports
+         * virtual threads, or otherwise a pool of platform threads.
+         */
+        private static Executor createExecutor() {
+            try {
+                Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                return (Executor) method.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                // Virtual threads not supported
+            }
+            AtomicInteger count = new AtomicInteger();
+            return new ThreadPoolExecutor(0, 256, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "identity-store-async-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }, new ThreadPoolExecutor.CallerRunsPolicy());
+        }
+
+        private static ScheduledThreadPoolExecutor createTimeouts() {
+            ScheduledThreadPoolExecutor timeouts = new ScheduledThreadPoolExecutor(1, runnable -> {
+                Thread thread = new Thread(runnable, "identity-store-async-timeout");
+                thread.setDaemon(true);
+                return thread;
+            });
+            timeouts.setRemoveOnCancelPolicy(true);
+            return timeouts;
+        }
+    }
+
+    private volatile ValidationExecutor validationExecutor;
+
+    private volatile ValidationResultCache validationResultCache;
+
+    private volatile IdentityStoreMetrics metrics = IdentityStoreMetricsProvider.getDefault();
+
+    private volatile String storeName = getClass().getSimpleName();
+
+    private volatile CallerFilter callerFilter;
+
+    private volatile boolean uniformTiming = false;
+
+    private volatile LockoutTracker lockoutTracker;
+
+    private volatile Executor asyncExecutor;
+
+    private volatile long asyncTimeoutMillis = 0;
+
+    /**
+     * Determines the executor validations are run on.
+     *
+     * @return The executor, <code>null</code> if validations run on the calling thread.
+     */
+    public ValidationExecutor getValidationExecutor() {
+        return validationExecutor;
+    }
+
+    /**
+     * Sets the executor validations are run on. The executor bounds the number of
+     * concurrent validations, which is recommended when using expensive password hashes.
+     * The executor may be shared by several identity stores.
+     *
+     * @param validationExecutor The executor, <code>null</code> to run validations on the calling thread.
+     * @return This identity store
+     */
+    public AbstractIdentityStore setValidationExecutor(ValidationExecutor validationExecutor) {
+        this.validationExecutor = validationExecutor;
+        return this;
+    }
+
+    /**
+     * Determines the cache of validation results.
+     *
+     * @return The cache, <code>null</code> if results are not cached.
+     */
+    public ValidationResultCache getValidationResultCache() {
+        return validationResultCache;
+    }
+
+    /**
+     * Sets the cache of validation results. Cached results are dropped when
+     * the <code>{@link #getGeneration generation}</code> of the identity store changes.
+     *
+     * @param validationResultCache The cache, <code>null</code> to not cache results.
+     * @return This identity store
+     */
+    public AbstractIdentityStore setValidationResultCache(ValidationResultCache validationResultCache) {
+        this.validationResultCache = validationResultCache;
+        return this;
+    }
+
+    /**
+     * Determines the metrics validations, loads and backend errors are reported to.
+     *
+     * @return The metrics
+     */
+    public IdentityStoreMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets the metrics validations, loads and backend errors are reported to.
+     * The default is found by <code>{@link IdentityStoreMetricsProvider}</code>.
+     *
+     * @param metrics The metrics
+     * @return This identity store
+     */
+    public AbstractIdentityStore setMetrics(IdentityStoreMetrics metrics) {
+        if (null == metrics)
+            throw new NullPointerException("Metrics");
+        this.metrics = metrics;
+        return this;
+    }
+
+    /**
+     * Determines the name identifying this identity store in its metrics.
+     *
+     * @return The name
+     */
+    public String getStoreName() {
+        return storeName;
+    }
+
+    /**
+     * Sets the name identifying this identity store in its metrics.
+     * The default is the simple name of the identity store class.
+     *
+     * @param storeName The name
+     * @return This identity store
+     */
+    public AbstractIdentityStore setStoreName(String storeName) {
+        if (null == storeName)
+            throw new NullPointerException("Store name");
+        this.storeName = storeName;
+        return this;
+    }
+
+    /**
+     * Determines the filter with which unknown callers are rejected.
+     *
+     * @return The filter, <code>null</code> if callers are not filtered.
+     */
+    public CallerFilter getCallerFilter() {
+        return callerFilter;
+    }
+
+    /**
+     * Sets the filter with which unknown callers are rejected as <code>INVALID</code>,
+     * before looking up validators, caching results or submitting validations.
+     * The filter is replaced whenever the known callers change, and holds the
+     * <code>{@link #normalizeCallerName normalized}</code> caller names.
+     *
+     * @param callerFilter The filter, <code>null</code> to not filter callers.
+     * @return This identity store
+     */
+    public AbstractIdentityStore setCallerFilter(CallerFilter callerFilter) {
+        this.callerFilter = callerFilter;
+        return this;
+    }
+
+    /**
+     * Determines whether rejecting an unknown caller takes as long as rejecting
+     * a known caller's invalid credential.
+     *
+     * @return <code>true</code> if unknown callers are rejected in uniform time.
+     */
+    public boolean isUniformTiming() {
+        return uniformTiming;
+    }
+
+    /**
+     * Sets whether rejecting an unknown caller takes as long as rejecting a known caller's
+     * invalid credential, so that response times do not reveal which callers exist.
+     * The default is <code>false</code>, rejecting unknown callers as fast as possible.
+     *
+     * @param uniformTiming <code>true</code> to reject unknown callers in uniform time.
+     * @return This identity store
+     * @see #rejectUnknownCaller
+     */
+    public AbstractIdentityStore setUniformTiming(boolean uniformTiming) {
+        this.uniformTiming = uniformTiming;
+        return this;
+    }
+
+    /**
+     * Determines the tracker with which callers and sources failing validation too often
+     * are locked out.
+     *
+     * @return The tracker, <code>null</code> if failures are not tracked.
+     */
+    public LockoutTracker getLockoutTracker() {
+        return lockoutTracker;
+    }
+
+    /**
+     * Sets the tracker with which callers and sources failing validation too often are
+     * locked out. Validations of a locked out caller, or from a locked out source, are
+     * <code>INVALID</code> without validating. The tracker may be shared by several identity stores.
+     * Callers are tracked by their <code>{@link #normalizeCallerName normalized}</code> name.
+     *
+     * @param lockoutTracker The tracker, <code>null</code> to not track failures.
+     * @return This identity store
+     * @see #validate(Credential, String)
+     */
+    public AbstractIdentityStore setLockoutTracker(LockoutTracker lockoutTracker) {
+        this.lockoutTracker = lockoutTracker;
+        return this;
+    }
+
+    /**
+     * Determines the executor asynchronous validations run on.
+     *
+     * @return The executor, <code>null</code> for the default executor.
+     */
+    public Executor getAsyncExecutor() {
+        return asyncExecutor;
+    }
+
+    /**
+     * Sets the executor asynchronous validations run on. The default executor starts a
+     * virtual thread per validation if the JVM supports virtual threads, or otherwise runs
+     * validations on a shared pool of platform threads.
+     *
+     * @param asyncExecutor The executor, <code>null</code> for the default executor.
+     * @return This identity store
+     * @see #validateAsync(Credential, String)
+     */
+    public AbstractIdentityStore setAsyncExecutor(Executor asyncExecutor) {
+        this.asyncExecutor = asyncExecutor;
+        return this;
+    }
+
+    /**
+     * Determines the time an asynchronous validation may take.
+     *
+     * @return The timeout in milliseconds, <code>0</code> if none.
+     */
+    public long getAsyncTimeout() {
+        return asyncTimeoutMillis;
+    }
+
+    /**
+     * Sets the time an asynchronous validation may take, after which it completes with a
+     * <code>{@link TimeoutException}</code> and is cancelled. Identity stores may also use
+     * the timeout to bound their backend operations. The default is no timeout.
+     *
+     * @param asyncTimeoutMillis The timeout in milliseconds, <code>0</code> for none.
+     * @return This identity store
+     */
+    public AbstractIdentityStore setAsyncTimeout(long asyncTimeoutMillis) {
+        if (asyncTimeoutMillis < 0)
+            throw new IllegalArgumentException("Timeout: " + asyncTimeoutMillis);
+        this.asyncTimeoutMillis = asyncTimeoutMillis;
+        return this;
+    }
+
+    /**
+     * Determines whether validating the given credential may block the calling thread,
+     * such as for backend I/O or an expensive password hash, in which case asynchronous
+     * validations run on the <code>{@link #getAsyncExecutor async executor}</code>.
+     * <p>
+     * The default implementation returns <code>true</code>.
+     *
+     * @param credential The credential
+     * @return <code>false</code> if the credential may be validated on the calling thread.
+     */
+    protected boolean isBlocking(Credential credential) {
+        return true;
+    }
+
+    /**
+     * Spends the time a failed validation of the given credential would take for a known
+     * caller, such as by verifying the credential against a decoy. Called for callers
+     * rejected by the <code>{@link #getCallerFilter caller filter}</code> while
+     * <code>{@link #isUniformTiming uniform timing}</code> is enabled.
+     * <p>
+     * The default implementation does nothing.
+     *
+     * @param credential The rejected credential
+     */
+    protected void rejectUnknownCaller(Credential credential) {
+    }
+
+    /**
+     * Normalizes a caller name before it is looked up in the
+     * <code>{@link #getCallerFilter caller filter}</code> and the
+     * <code>{@link #getLockoutTracker lockout tracker}</code>. Identity stores whose caller
+     * names are case-insensitive normalize them, so that the filter does not reject a
+     * caller whose name differs from the stored name only by case, and so that varying
+     * the case of a name does not escape its lockout.
+     * <p>
+     * The default implementation returns the name unchanged.
+     *
+     * @param caller The caller name, not <code>null</code>.
+     * @return The normalized name
+     */
+    protected String normalizeCallerName(String caller) {
+        return caller;
+    }
+
+    /**
+     * Reports an error of the backend of this identity store to its metrics.
+     *
+     * @param operation The failed operation
+     * @param error The error
+     */
+    protected void reportError(String operation, Throwable error) {
+        metrics.failed(storeName, operation, error);
+    }
+
+    /**
+     * Determines the generation of the identity data, which changes whenever the data
+     * changes in a way which may affect validation results.
+     * <p>
+     * The default implementation returns <code>0</code>, for identity stores whose
+     * data is not cached.
+     *
+     * @return The generation
+     */
+    public long getGeneration() {
+        return 0;
+    }
+
     /**
      * Default validation behavior for username/password credentials.
      *
@@ -75,16 +429,172 @@ public abstract class AbstractIdentityStore implements IdentityStore {
      *     delegate validation to the identity store implementation of {@link #validateUsernamePassword}.</li>
      *     <li>otherwise, fail validation.</li>
      * </ol>
+     * If a <code>{@link ValidationExecutor}</code> is set, the selected validation runs on it,
+     * and a validation it rejects is <code>NOT_VALIDATED</code>.
+     * If a <code>{@link CallerFilter}</code> is set, callers it rejects are <code>INVALID</code>
+     * without validating.
+     * If a <code>{@link LockoutTracker}</code> is set, locked out callers are <code>INVALID</code>
+     * without validating.
+     * If a <code>{@link ValidationResultCache}</code> is set, a cached result for the same
+     * credential is returned without validating.
+     * <p>
+     * If the <code>{@link #getMetrics metrics}</code> are enabled, the status and duration
+     * of the validation, including cached results, are reported to them.
      *
      * @param credential Credential to validate
      * @return The result
      */
     @Override
     public CredentialValidationResult validate(Credential credential) {
+        return validate(credential, null);
+    }
+
+    /**
+     * Validates the given credential, presented from the given source, as by
+     * <code>{@link #validate(Credential)}</code>.
+     * <p>
+     * If a <code>{@link LockoutTracker}</code> is set, <code>INVALID</code> results are recorded
+     * as failures of the caller and of the source, and <code>VALID</code> results clear the
+     * failures of the caller. Callers rejected by the <code>{@link CallerFilter}</code> are
+     * only recorded as failures of the source.
+     *
+     * @param credential Credential to validate
+     * @param sourceKey The source the credential was presented from, such as the client
+     *                  address, <code>null</code> if unknown.
+     * @return The result
+     */
+    public CredentialValidationResult validate(Credential credential, String sourceKey) {
+        if (null == credential) {
+            throw new NullPointerException("Credential");
+        }
+
+        IdentityStoreMetrics storeMetrics = metrics;
+        if (!storeMetrics.isEnabled())
+            return validateCredential(credential, sourceKey);
+        long start = System.nanoTime();
+        CredentialValidationResult result = validateCredential(credential, sourceKey);
+        storeMetrics.validated(storeName, credential.getClass().getName(), result.getStatus(), System.nanoTime() - start);
+        return result;
+    }
+
+    /**
+     * Validates the given credential asynchronously, as by <code>{@link #validate(Credential)}</code>.
+     *
+     * @param credential Credential to validate
+     * @return The result
+     * @see #validateAsync(Credential, String)
+     */
+    public CompletionStage<CredentialValidationResult> validateAsync(Credential credential) {
+        return validateAsync(credential, null);
+    }
+
+    /**
+     * Validates the given credential, presented from the given source, asynchronously,
+     * as by <code>{@link #validate(Credential, String)}</code>.
+     * <p>
+     * A credential whose validation does not <code>{@link #isBlocking block}</code> is validated
+     * on the calling thread, and the returned stage is already complete. Otherwise, the validation
+     * runs on the <code>{@link #getAsyncExecutor async executor}</code>. Cancelling the returned
+     * stage, completing it, or its <code>{@link #getAsyncTimeout timeout}</code>, interrupts the
+     * running validation.
+     *
+     * @param credential Credential to validate
+     * @param sourceKey The source the credential was presented from, <code>null</code> if unknown.
+     * @return The result
+     */
+    public CompletionStage<CredentialValidationResult> validateAsync(Credential credential, String sourceKey) {
         if (null == credential) {
             throw new NullPointerException("Credential");
         }
 
+        CompletableFuture<CredentialValidationResult> result = new CompletableFuture<>();
+        if (!isBlocking(credential)) {
+            try {
+                result.complete(validate(credential, sourceKey));
+            } catch (RuntimeException | Error e) {
+                result.completeExceptionally(e);
+            }
+            return result;
+        }
+
+        FutureTask<CredentialValidationResult> task = new FutureTask<CredentialValidationResult>(
+            () -> validate(credential, sourceKey)) {
+            @Override
+            protected void done() {
+                if (isCancelled())
+                    return;
+                try {
+                    result.complete(get());
+                } catch (ExecutionException e) {
+                    result.completeExceptionally(e.getCause());
+                } catch (InterruptedException e) {
+                    // Not reached, the task is done
+                    result.completeExceptionally(e);
+                }
+            }
+        };
+        // Stops the validation once the result is cancelled, timed out or otherwise completed
+        result.whenComplete((r, e) -> task.cancel(true));
+
+        long timeout = asyncTimeoutMillis;
+        if (timeout > 0) {
+            ScheduledFuture<?> timer = AsyncDefaults.TIMEOUTS.schedule(() -> result.completeExceptionally(
+                new TimeoutException("Validation timed out after " + timeout + " ms")), timeout, TimeUnit.MILLISECONDS);
+            result.whenComplete((r, e) -> timer.cancel(false));
+        }
+
+        Executor executor = asyncExecutor;
+        try {
+            ((null == executor) ? AsyncDefaults.EXECUTOR : executor).execute(task);
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    private CredentialValidationResult validateCredential(Credential credential, String sourceKey) {
+        LockoutTracker tracker = lockoutTracker;
+        String caller = credential.getCaller();
+        if (null != caller)
+            caller = normalizeCallerName(caller);
+        if ((null != tracker) && tracker.isLockedOut(caller, sourceKey))
+            return CredentialValidationResult.INVALID_RESULT;
+
+        CallerFilter filter = callerFilter;
+        if ((null != filter) && !filter.mightContain(caller)) {
+            if (uniformTiming)
+                rejectUnknownCaller(credential);
+            if (null != tracker)
+                tracker.recordFailure(null, sourceKey);
+            return CredentialValidationResult.INVALID_RESULT;
+        }
+
+        CredentialValidationResult result = validateCaller(caller, credential);
+        if (null != tracker) {
+            if (CredentialValidationResult.Status.INVALID == result.getStatus())
+                tracker.recordFailure(caller, sourceKey);
+            else if (CredentialValidationResult.Status.VALID == result.getStatus())
+                tracker.recordSuccess(caller);
+        }
+        return result;
+    }
+
+    // The caller is the normalized caller name, used for per-caller admission
+    private CredentialValidationResult validateCaller(String caller, Credential credential) {
+
+        ValidationResultCache resultCache = validationResultCache;
+        ByteBuffer cacheKey = null;
+        long generation = 0;
+        if (null != resultCache) {
+            cacheKey = resultCache.keyOf(credential);
+            if (null != cacheKey) {
+                generation = getGeneration();
+                CredentialValidationResult cached = resultCache.get(cacheKey, generation);
+                if (null != cached)
+                    return cached;
+            }
+        }
+
         Class identityStoreClass = this.getClass();
         Class credentialClass = credential.getClass();
         Instance<CredentialValidator> instance = CDI.current().select(
@@ -96,25 +606,33 @@ public abstract class AbstractIdentityStore implements IdentityStore {
 
         CredentialValidationResult result = null;
         try {
+            Callable<CredentialValidationResult> validation;
             if (!instance.isUnsatisfied()) {
                 // Use overriding CredentialValidator, if found
                 CredentialValidator selectedValidator = instance.get();
-                result = selectedValidator.validate(credential, this);
+                validation = () -> selectedValidator.validate(credential, this);
             } else if (credential instanceof UsernamePasswordCredential) {
                 // Default processing for UsernamePasswordCredential
-                result = validateUsernamePassword((UsernamePasswordCredential)credential);
+                validation = () -> validateUsernamePassword((UsernamePasswordCredential)credential);
             } else {
                 throw new IllegalStateException("Unsupported Credential type: " + credential.getClass().getName());
             }
+
+            ValidationExecutor executor = validationExecutor;
+            if (null == executor)
+                result = validation.call();
+            else
+                result = executor.validate(caller, validation);
         } catch (Exception e) {
-            // TODO: Log it
-            System.out.println("Unable to validate: " + e.getMessage());
-            e.printStackTrace();
+            LOGGER.log(Level.WARNING, "Unable to validate", e);
+            reportError("validate", e);
         }
 
         if (null == result) {
             return CredentialValidationResult.NOT_VALIDATED_RESULT;
         } else {
+            if (null != cacheKey)
+                resultCache.put(cacheKey, generation, result);
             return result;
         }
     }
@@ -43,13 +43,20 @@ import javax.annotation.PostConstruct;
 import javax.enterprise.inject.Alternative;
 import javax.inject.Inject;
 import javax.security.identitystore.CredentialValidationResult;
+import javax.security.identitystore.credential.Credential;
 import javax.security.identitystore.credential.UsernamePasswordCredential;
+import javax.security.identitystore.metrics.IdentityStoreMetrics;
 import javax.security.identitystore.persistence.cachedsource.CachedIdentityStoreSource;
+import javax.security.identitystore.persistence.cachedsource.SnapshotIdentityStoreSource;
 import javax.security.identitystore.query.CallerRoleMap;
 import javax.security.identitystore.query.CallerStore;
+import javax.security.identitystore.query.GroupRoleMap;
 import javax.security.identitystore.query.GroupStore;
 import javax.security.identitystore.query.RoleStore;
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.charset.Charset;
@@ -57,6 +64,11 @@ import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
 
 
 /**
@@ -67,6 +79,10 @@ import java.util.*;
  * Identity data is obtained from an associated
  * <code>{@link javax.security.identitystore.persistence.cachedsource.CachedIdentityStoreSource CachedIdentityStoreSource}</code>,
  * which may be implemented using a file, programmatic API, or annotations.
+ * <p>
+ * The roles of each caller, including the roles assigned to its groups, are
+ * resolved when loading, so queries including group roles cost the same as
+ * queries of directly assigned roles.
  */
 @Alternative
 public class CachedIdentityStore
@@ -75,28 +91,969 @@ public class CachedIdentityStore
         CallerStore,
         GroupStore,
         RoleStore,
-        CallerRoleMap {
+        CallerRoleMap,
+        GroupRoleMap {
+
+    private static final Logger LOGGER = Logger.getLogger(CachedIdentityStore.class.getName());
 
     public static final Charset DEFAULT_CHARSET = StandardCharsets.UTF_8;
 
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
     private volatile CachedIdentityStoreSource cachedIdentityStoreSource;
 
+    // Query configuration
+    private final PatternCache patternCache = new PatternCache(PatternCache.DEFAULT_SIZE);
+    private volatile int queryLimit = Integer.MAX_VALUE;
+    private volatile Comparator<String> queryOrder = null;
+
+    // Load configuration
+    private volatile int buildParallelism = Runtime.getRuntime().availableProcessors();
+    private volatile double callerFilterFalsePositiveRate = 0;
+
     // Cached mappings
     // NOTE: Private inner classes do not work in CDI
+    // NOTE: A published Cache, including the arrays and bitmaps it contains, is never modified.
+    //       Changes are applied to a copy, which then replaces the published one.
+    //       Copies append credential records to the shared arena, existing records are never modified.
     protected static final class Cache {
-        private final Map<String, List<CachedIdentityStoreSource.CredentialSource>> callerToCredentialSource = new HashMap();
 
-        private final Map<String, String> callers = new HashMap();
-        private final Map<String, String> groups = new HashMap();
-        private final Map<String, String> roles = new HashMap();
-        private final Map<String, List<String>> callerToGroup = new HashMap();
-        private final Map<String, List<String>> groupToCallers = new HashMap();
-        private final Map<String, List<String>> callerToRoles = new HashMap();
-        private final Map<String, List<String>> roleToCallers = new HashMap();
-        private final Map<String, Map<String, String>> callerToCallerAttributes = new HashMap();
+        // Member kinds
+        private static final int GROUP_MEMBERS = 0;
+        private static final int ROLE_MEMBERS = 1;
+        private static final int EFFECTIVE_ROLE_MEMBERS = 2; // Direct and group roles
+        private static final int MEMBER_KINDS = 3;
+
+        // Minimum number of callers for which the member bitmaps are built in parallel
+        static final int PARALLEL_BUILD_THRESHOLD = 16384;
+
+        // Source and source version the cache was loaded from
+        private final CachedIdentityStoreSource source;
+        private String version;
+
+        // Incremented each time a cache replaces the published one
+        private long generation;
+
+        // Callers by dense id. Ids of removed callers are left free until the next full load.
+        private final Map<String, Integer> callerIds;
+        private String[] callerNames;
+        private int[][] callerGroups; // Group ids in source order, null if none given
+        private int[][] callerRoles;  // Role ids in source order, null if none given
+        private int[][] callerEffectiveRoles; // Direct role ids followed by group role ids, null if none
+        private Map<String, String>[] callerAttributes;
+        private int nextCallerId;
+
+        // Prepared credentials by caller id, then by credential type id, with their material
+        // held off-heap in the arena. Copies share the arena and append to it.
+        private final NameDictionary credentialTypes;
+        private PreparedCredential[][][] preparedCredentials;
+        private final CredentialArena credentialArena;
+
+        // Credentials of some caller by credential type id, verified in place of those of unknown callers.
+        // Lazily found, as the indexes.
+        private volatile PreparedCredential[][] decoyCredentials;
+
+        // Groups and roles by dense id, with their members as bitmaps over caller ids
+        private final NameDictionary groups;
+        private final NameDictionary roles;
+        private BitSet[][] members; // By member kind, then by group or role id. null if no members
+
+        // Roles assigned to groups by group id, and the groups assigned each role by role id.
+        // Set before a full load adds callers, shared unchanged by copies.
+        private int[][] groupRoles;
+        private List<String>[] roleGroupLists;
+
+        // Role ids declared by the source, null if none. Set before a full load adds callers,
+        // shared unchanged by copies.
+        private BitSet declaredRoles;
+
+        // Member bitmaps already copied by this instance, only used while applying changes
+        private Set<BitSet> ownedMembers;
+
+        // Member lists by member kind, materialized on first request
+        private List<String>[][] memberLists;
+
+        // Sorted name indexes for queries, built on first request
+        private NameIndex callerIndex;
+        private NameIndex groupIndex;
+        private NameIndex roleIndex;
+        private NameIndex assignedRoleIndex;
+        private NameIndex unassignedRoleIndex;
+
+        // Estimated size in bytes, computed on first request. 0 if not yet computed.
+        private long estimatedSize;
+
+        Cache(CachedIdentityStoreSource source) {
+            this.source = source;
+            callerIds = new HashMap<>();
+            callerNames = new String[16];
+            callerGroups = new int[16][];
+            callerRoles = new int[16][];
+            callerEffectiveRoles = new int[16][];
+            callerAttributes = newMapArray(16);
+            credentialTypes = new NameDictionary();
+            preparedCredentials = new PreparedCredential[16][][];
+            credentialArena = new CredentialArena();
+            groups = new NameDictionary();
+            roles = new NameDictionary();
+        }
+
+        /**
+         * Copy constructor. The maps and arrays are copied,
+         * the caller entries and member bitmaps they contain are shared.
+         *
+         * @param other The cache to copy
+         */
+        Cache(Cache other) {
+            source = other.source;
+            version = other.version;
+            callerIds = new HashMap<>(other.callerIds);
+            callerNames = other.callerNames.clone();
+            callerGroups = other.callerGroups.clone();
+            callerRoles = other.callerRoles.clone();
+            callerEffectiveRoles = other.callerEffectiveRoles.clone();
+            callerAttributes = other.callerAttributes.clone();
+            nextCallerId = other.nextCallerId;
+            credentialTypes = new NameDictionary(other.credentialTypes);
+            preparedCredentials = other.preparedCredentials.clone();
+            credentialArena = other.credentialArena;
+            groups = new NameDictionary(other.groups);
+            roles = new NameDictionary(other.roles);
+            groupRoles = other.groupRoles;
+            roleGroupLists = other.roleGroupLists;
+            declaredRoles = other.declaredRoles;
+            members = new BitSet[MEMBER_KINDS][];
+            memberLists = newListArrays(MEMBER_KINDS);
+            for (int kind = 0; kind < MEMBER_KINDS; kind++) {
+                members[kind] = other.members[kind].clone();
+                memberLists[kind] = other.memberLists[kind].clone();
+            }
+            ownedMembers = Collections.newSetFromMap(new IdentityHashMap<>());
+        }
+
+        /**
+         * Determines the number of callers.
+         *
+         * @return The number of callers
+         */
+        int callerCount() {
+            return callerIds.size();
+        }
+
+        /**
+         * Estimates the memory used by the cache, including the off-heap credential arena.
+         * The estimate counts the caller entries and the arrays they reference, and
+         * a fixed size for the maps and bitmaps.
+         *
+         * @return The estimated size in bytes
+         */
+        long estimatedSize() {
+            long size = estimatedSize;
+            if (0 == size) {
+                size = credentialArena.getSize() + 16L * callerNames.length;
+                for (int id = 0; id < nextCallerId; id++) {
+                    String name = callerNames[id];
+                    if (null == name)
+                        continue;
+                    // Name, map entry and caller arrays
+                    size += 96 + 2L * name.length();
+                    size += idsSize(callerGroups[id]) + idsSize(callerRoles[id]);
+                    if (callerEffectiveRoles[id] != callerRoles[id])
+                        size += idsSize(callerEffectiveRoles[id]);
+                    PreparedCredential[][] prepared = preparedCredentials[id];
+                    if (null != prepared) {
+                        for (PreparedCredential[] ofType : prepared) {
+                            size += (null == ofType) ? 8 : 16 + 40L * ofType.length;
+                        }
+                    }
+                    if (null != callerAttributes[id])
+                        size += 64L * callerAttributes[id].size();
+                }
+                for (BitSet[] kindMembers : members) {
+                    for (BitSet bits : kindMembers) {
+                        if (null != bits)
+                            size += 32 + bits.size() / 8;
+                    }
+                }
+                estimatedSize = size;
+            }
+            return size;
+        }
+
+        private static long idsSize(int[] ids) {
+            return (null == ids) ? 0 : 16 + 4L * ids.length;
+        }
+
+        /**
+         * Determines the number of caller ids left free by removed callers.
+         *
+         * @return The number of free caller ids
+         */
+        int freeCallerIds() {
+            return nextCallerId - callerIds.size();
+        }
+
+        /**
+         * Determines the id of the given caller.
+         *
+         * @param name The caller name
+         * @return The caller id, <code>-1</code> if not found.
+         */
+        int callerId(String name) {
+            Integer id = (null == name) ? null : callerIds.get(name);
+            return (null == id) ? -1 : id;
+        }
+
+        /**
+         * Sets the roles assigned to groups. Must be called before the member bitmaps are built.
+         * The effective roles of callers already added are updated.
+         *
+         * @param groupRoleSources The roles by group name, <code>null</code> if none.
+         */
+        void setGroupRoles(Map<String, List<String>> groupRoleSources) {
+            if ((null == groupRoleSources) || groupRoleSources.isEmpty())
+                return;
+            int[][] groupRoleIds = new int[0][];
+            for (Map.Entry<String, List<String>> entry : groupRoleSources.entrySet()) {
+                if ((null == entry.getKey()) || (null == entry.getValue()))
+                    continue;
+                int groupId = groups.intern(entry.getKey());
+                if (groupId >= groupRoleIds.length)
+                    groupRoleIds = Arrays.copyOf(groupRoleIds, Math.max(groupId + 1, groupRoleIds.length * 2));
+                groupRoleIds[groupId] = intern(roles, entry.getValue());
+            }
+
+            List<String>[] groupLists = newListArray(roles.size());
+            for (int groupId = 0; groupId < groupRoleIds.length; groupId++) {
+                if (null == groupRoleIds[groupId])
+                    continue;
+                for (int roleId : groupRoleIds[groupId]) {
+                    if (null == groupLists[roleId])
+                        groupLists[roleId] = new ArrayList<>();
+                    groupLists[roleId].add(groups.name(groupId));
+                }
+            }
+            for (int roleId = 0; roleId < groupLists.length; roleId++) {
+                if (null != groupLists[roleId])
+                    groupLists[roleId] = Collections.unmodifiableList(groupLists[roleId]);
+            }
+            groupRoles = groupRoleIds;
+            roleGroupLists = groupLists;
+            for (int id = 0; id < nextCallerId; id++) {
+                if (null != callerNames[id])
+                    callerEffectiveRoles[id] = effectiveRoles(callerGroups[id], callerRoles[id]);
+            }
+        }
+
+        /**
+         * Sets the roles declared by the source. Must be called before the member bitmaps are built.
+         *
+         * @param roleNames The declared role names, <code>null</code> if none.
+         */
+        void setDeclaredRoles(List<String> roleNames) {
+            if (null == roleNames)
+                return;
+            BitSet ids = new BitSet();
+            for (String roleName : roleNames) {
+                if (null != roleName)
+                    ids.set(roles.intern(roleName));
+            }
+            declaredRoles = ids;
+        }
+
+        /**
+         * Adds a caller, without updating the member bitmaps.
+         *
+         * @param callerSource The caller
+         * @return The caller id
+         */
+        int addCaller(CachedIdentityStoreSource.CallerSource callerSource) {
+            int id = nextCallerId++;
+            if (id == callerNames.length) {
+                int capacity = callerNames.length * 2;
+                callerNames = Arrays.copyOf(callerNames, capacity);
+                callerGroups = Arrays.copyOf(callerGroups, capacity);
+                callerRoles = Arrays.copyOf(callerRoles, capacity);
+                callerEffectiveRoles = Arrays.copyOf(callerEffectiveRoles, capacity);
+                callerAttributes = Arrays.copyOf(callerAttributes, capacity);
+                preparedCredentials = Arrays.copyOf(preparedCredentials, capacity);
+            }
+            String name = callerSource.getName();
+            Integer previous = callerIds.put(name, id);
+            if (null != previous) {
+                // Duplicate caller in the source, the last one wins
+                removeCallerAt(previous);
+            }
+            callerNames[id] = name;
+            callerGroups[id] = intern(groups, callerSource.getGroups());
+            callerRoles[id] = intern(roles, callerSource.getRoles());
+            callerEffectiveRoles[id] = effectiveRoles(callerGroups[id], callerRoles[id]);
+            callerAttributes[id] = callerSource.getAttributes();
+            preparedCredentials[id] = prepare(callerSource.getCredentials());
+            return id;
+        }
+
+        /**
+         * Determines the direct roles followed by the roles of the given groups, without duplicates.
+         *
+         * @return The role ids, the direct role ids themselves if the groups add none.
+         */
+        private int[] effectiveRoles(int[] groupIds, int[] roleIds) {
+            if ((null == groupIds) || (null == groupRoles))
+                return roleIds;
+            int[] ids = roleIds;
+            int size = (null == roleIds) ? 0 : roleIds.length;
+            for (int groupId : groupIds) {
+                if ((groupId >= groupRoles.length) || (null == groupRoles[groupId]))
+                    continue;
+                for (int roleId : groupRoles[groupId]) {
+                    if ((null != ids) && contains(ids, size, roleId))
+                        continue;
+                    if ((null == ids) || (ids == roleIds) || (size == ids.length))
+                        ids = Arrays.copyOf((null == ids) ? new int[0] : ids, Math.max(8, size * 2));
+                    ids[size++] = roleId;
+                }
+            }
+            return (ids == roleIds) ? roleIds : Arrays.copyOf(ids, size);
+        }
+
+        /**
+         * Prepares the given credentials, grouped by credential type id.
+         *
+         * @return The prepared credentials, <code>null</code> if not given.
+         */
+        private PreparedCredential[][] prepare(List<CachedIdentityStoreSource.CredentialSource> credentialSources) {
+            if (null == credentialSources)
+                return null;
+            PreparedCredential[][] prepared = new PreparedCredential[0][];
+            for (CachedIdentityStoreSource.CredentialSource credentialSource : credentialSources) {
+                if ((null == credentialSource) || (null == credentialSource.getType()))
+                    continue;
+                int typeId = credentialTypes.intern(credentialSource.getType());
+                if (typeId >= prepared.length)
+                    prepared = Arrays.copyOf(prepared, typeId + 1);
+                PreparedCredential[] ofType = prepared[typeId];
+                ofType = (null == ofType) ? new PreparedCredential[1] : Arrays.copyOf(ofType, ofType.length + 1);
+                ofType[ofType.length - 1] = new PreparedCredential(credentialSource, credentialArena);
+                prepared[typeId] = ofType;
+            }
+            return prepared;
+        }
+
+        /**
+         * Reconstructs the credentials of the given caller, grouped by credential type.
+         * The arena must be acquired.
+         *
+         * @param id The caller id
+         * @return The credential sources, <code>null</code> if not given.
+         */
+        List<CachedIdentityStoreSource.CredentialSource> credentialSources(int id) {
+            PreparedCredential[][] prepared = preparedCredentials[id];
+            if (null == prepared)
+                return null;
+            List<CachedIdentityStoreSource.CredentialSource> credentialSources = new ArrayList<>();
+            for (int typeId = 0; typeId < prepared.length; typeId++) {
+                if (null == prepared[typeId])
+                    continue;
+                for (PreparedCredential credential : prepared[typeId]) {
+                    credentialSources.add(credential.toSource(credentialTypes.name(typeId)));
+                }
+            }
+            return credentialSources;
+        }
+
+        /**
+         * Determines the prepared credentials of the given type for the given caller.
+         *
+         * @param caller The caller name
+         * @param credentialType The credential type
+         * @return The prepared credentials, <code>null</code> if none.
+         */
+        PreparedCredential[] credentials(String caller, String credentialType) {
+            int callerId = callerId(caller);
+            int typeId = (null == credentialType) ? -1 : credentialTypes.id(credentialType);
+            if ((callerId < 0) || (typeId < 0))
+                return null;
+            PreparedCredential[][] prepared = preparedCredentials[callerId];
+            return ((null == prepared) || (typeId >= prepared.length)) ? null : prepared[typeId];
+        }
+
+        /**
+         * Determines the credentials of the given type of some caller, which are verified
+         * in place of the credentials of unknown callers, so that those take as long to reject.
+         *
+         * @return The credentials, <code>null</code> if no caller has credentials of the type.
+         */
+        PreparedCredential[] decoyCredentials(String credentialType) {
+            int typeId = (null == credentialType) ? -1 : credentialTypes.id(credentialType);
+            if (typeId < 0)
+                return null;
+            PreparedCredential[][] decoys = decoyCredentials;
+            if (null == decoys) {
+                decoys = new PreparedCredential[credentialTypes.size()][];
+                int missing = decoys.length;
+                for (int id = 0; (id < nextCallerId) && (missing > 0); id++) {
+                    PreparedCredential[][] prepared = preparedCredentials[id];
+                    if (null == prepared)
+                        continue;
+                    for (int type = 0; type < Math.min(prepared.length, decoys.length); type++) {
+                        if ((null == decoys[type]) && (null != prepared[type])) {
+                            decoys[type] = prepared[type];
+                            missing--;
+                        }
+                    }
+                }
+                decoyCredentials = decoys;
+            }
+            return (typeId < decoys.length) ? decoys[typeId] : null;
+        }
+
+        private static int[] intern(NameDictionary dictionary, List<String> names) {
+            if (null == names)
+                return null;
+            int[] ids = new int[names.size()];
+            int size = 0;
+            for (String name : names) {
+                int id = dictionary.intern(name);
+                if (!contains(ids, size, id))
+                    ids[size++] = id;
+            }
+            return (size == ids.length) ? ids : Arrays.copyOf(ids, size);
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <T> List<T>[] newListArray(int length) {
+            return (List<T>[]) new List<?>[length];
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <T> List<T>[][] newListArrays(int length) {
+            return (List<T>[][]) new List<?>[length][];
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <K, V> Map<K, V>[] newMapArray(int length) {
+            return (Map<K, V>[]) new Map<?, ?>[length];
+        }
+
+        private static boolean contains(int[] ids, int size, int id) {
+            for (int i = 0; i < size; i++) {
+                if (ids[i] == id)
+                    return true;
+            }
+            return false;
+        }
+
+        /**
+         * Removes a caller, including its bits in the member bitmaps.
+         *
+         * @param name The caller name
+         */
+        void removeCaller(String name) {
+            Integer id = callerIds.remove(name);
+            if (null != id)
+                removeCallerAt(id);
+        }
+
+        private void removeCallerAt(int id) {
+            if (null != members) {
+                updateMembers(GROUP_MEMBERS, callerGroups[id], id, false);
+                updateMembers(ROLE_MEMBERS, callerRoles[id], id, false);
+                updateMembers(EFFECTIVE_ROLE_MEMBERS, callerEffectiveRoles[id], id, false);
+            }
+            callerNames[id] = null;
+            callerGroups[id] = null;
+            callerRoles[id] = null;
+            callerEffectiveRoles[id] = null;
+            callerAttributes[id] = null;
+            PreparedCredential[][] prepared = preparedCredentials[id];
+            if (null != prepared) {
+                for (PreparedCredential[] ofType : prepared) {
+                    if (null != ofType) {
+                        for (PreparedCredential credential : ofType) {
+                            credential.discard();
+                        }
+                    }
+                }
+            }
+            preparedCredentials[id] = null;
+        }
+
+        /**
+         * Sets the bits of a caller added after the member bitmaps were built.
+         *
+         * @param id The caller id
+         */
+        void addMembers(int id) {
+            updateMembers(GROUP_MEMBERS, callerGroups[id], id, true);
+            updateMembers(ROLE_MEMBERS, callerRoles[id], id, true);
+            updateMembers(EFFECTIVE_ROLE_MEMBERS, callerEffectiveRoles[id], id, true);
+        }
+
+        /**
+         * Sets or clears a caller bit in the member bitmaps of the given groups or roles,
+         * copying each bitmap before its first modification by this instance.
+         *
+         * @param kind The member kind
+         * @param ids The group or role ids
+         * @param callerId The caller id
+         * @param set <code>true</code> to set the bit, <code>false</code> to clear it.
+         */
+        private void updateMembers(int kind, int[] ids, int callerId, boolean set) {
+            if (null == ids)
+                return;
+            BitSet[] kindMembers = members[kind];
+            List<String>[] kindMemberLists = memberLists[kind];
+            for (int id : ids) {
+                if (id >= kindMembers.length) {
+                    int capacity = Math.max(id + 1, kindMembers.length * 2);
+                    kindMembers = Arrays.copyOf(kindMembers, capacity);
+                    kindMemberLists = Arrays.copyOf(kindMemberLists, capacity);
+                }
+                BitSet bits = kindMembers[id];
+                if ((null == bits) || !ownedMembers.contains(bits)) {
+                    bits = (null == bits) ? new BitSet() : (BitSet) bits.clone();
+                    ownedMembers.add(bits);
+                    kindMembers[id] = bits;
+                }
+                bits.set(callerId, set);
+                kindMemberLists[id] = null;
+            }
+            members[kind] = kindMembers;
+            memberLists[kind] = kindMemberLists;
+        }
+
+        /**
+         * Builds the member bitmaps of all groups and roles.
+         * <p>
+         * Large caches are partitioned into ranges of caller ids, whose bitmaps are
+         * built by a fork/join pool of the given parallelism and merged.
+         *
+         * @param parallelism The maximum number of threads building the bitmaps
+         */
+        void buildMembers(int parallelism) {
+            MembersTask task;
+            if ((parallelism <= 1) || (nextCallerId < PARALLEL_BUILD_THRESHOLD)) {
+                task = new MembersTask(this, 0, nextCallerId, nextCallerId);
+                members = task.compute();
+            } else {
+                // A few ranges per thread balance uneven ranges
+                int rangeSize = Math.max(PARALLEL_BUILD_THRESHOLD / 4, nextCallerId / (parallelism * 4));
+                task = new MembersTask(this, 0, nextCallerId, rangeSize);
+                ForkJoinPool pool = new ForkJoinPool(parallelism);
+                try {
+                    members = pool.invoke(task);
+                } finally {
+                    pool.shutdown();
+                }
+            }
+            if (null == groupRoles) {
+                // Effective roles are the direct roles. Both kinds receive the same
+                // updates, so sharing the bitmaps keeps them equal.
+                members[EFFECTIVE_ROLE_MEMBERS] = members[ROLE_MEMBERS].clone();
+            }
+            memberLists = newListArrays(MEMBER_KINDS);
+            for (int kind = 0; kind < MEMBER_KINDS; kind++) {
+                memberLists[kind] = newListArray(members[kind].length);
+            }
+        }
+
+        /**
+         * <code>MembersTask</code> builds the member bitmaps of a range of caller ids.
+         * Ranges larger than the range size are split in two, and the bitmaps of both
+         * halves are merged.
+         */
+        static final class MembersTask extends RecursiveTask<BitSet[][]> {
+            private static final long serialVersionUID = 1L;
+
+            private final Cache cache;
+            private final int from;
+            private final int to;
+            private final int rangeSize;
+
+            MembersTask(Cache cache, int from, int to, int rangeSize) {
+                this.cache = cache;
+                this.from = from;
+                this.to = to;
+                this.rangeSize = rangeSize;
+            }
+
+            @Override
+            protected BitSet[][] compute() {
+                if (to - from > rangeSize) {
+                    int middle = (from + to) >>> 1;
+                    MembersTask high = new MembersTask(cache, middle, to, rangeSize);
+                    high.fork();
+                    BitSet[][] merged = new MembersTask(cache, from, middle, rangeSize).compute();
+                    merge(merged, high.join());
+                    return merged;
+                }
+
+                BitSet[][] members = new BitSet[MEMBER_KINDS][];
+                members[GROUP_MEMBERS] = new BitSet[cache.groups.size()];
+                members[ROLE_MEMBERS] = new BitSet[cache.roles.size()];
+                boolean effective = (null != cache.groupRoles);
+                if (effective)
+                    members[EFFECTIVE_ROLE_MEMBERS] = new BitSet[cache.roles.size()];
+                for (int id = from; id < to; id++) {
+                    setMembers(members[GROUP_MEMBERS], cache.callerGroups[id], id);
+                    setMembers(members[ROLE_MEMBERS], cache.callerRoles[id], id);
+                    if (effective)
+                        setMembers(members[EFFECTIVE_ROLE_MEMBERS], cache.callerEffectiveRoles[id], id);
+                }
+                return members;
+            }
+
+            /**
+             * Merges the bitmaps of a range into those of another range.
+             */
+            private static void merge(BitSet[][] members, BitSet[][] other) {
+                for (int kind = 0; kind < MEMBER_KINDS; kind++) {
+                    if (null == members[kind])
+                        continue;
+                    for (int id = 0; id < members[kind].length; id++) {
+                        BitSet bits = other[kind][id];
+                        if (null == bits)
+                            continue;
+                        if (null == members[kind][id])
+                            members[kind][id] = bits;
+                        else
+                            members[kind][id].or(bits);
+                    }
+                }
+            }
+        }
+
+        private static void setMembers(BitSet[] members, int[] ids, int callerId) {
+            if (null == ids)
+                return;
+            for (int id : ids) {
+                BitSet bits = members[id];
+                if (null == bits) {
+                    bits = new BitSet();
+                    members[id] = bits;
+                }
+                bits.set(callerId);
+            }
+        }
+
+        /**
+         * Completes a copy once all changes have been applied.
+         */
+        void seal() {
+            ownedMembers = null;
+        }
+
+        /**
+         * Determines the names of the groups or roles which have members.
+         */
+        private static List<String> namesWithMembers(NameDictionary dictionary, BitSet[] members) {
+            List<String> names = new ArrayList<>(dictionary.size());
+            for (int id = 0; id < members.length; id++) {
+                if ((null != members[id]) && !members[id].isEmpty())
+                    names.add(dictionary.name(id));
+            }
+            return names;
+        }
+
+        List<String> groupNames() {
+            return namesWithMembers(groups, members[GROUP_MEMBERS]);
+        }
+
+        // NOTE: Indexes are immutable, so concurrent first requests at worst build them twice.
+        NameIndex callerIndex() {
+            NameIndex index = callerIndex;
+            if (null == index) {
+                index = new NameIndex(callerIds.keySet());
+                callerIndex = index;
+            }
+            return index;
+        }
+
+        NameIndex groupIndex() {
+            NameIndex index = groupIndex;
+            if (null == index) {
+                index = new NameIndex(groupNames());
+                groupIndex = index;
+            }
+            return index;
+        }
+
+        /**
+         * Determines the index of all roles, declared or assigned.
+         */
+        NameIndex roleIndex() {
+            NameIndex index = roleIndex;
+            if (null == index) {
+                BitSet ids = assignedRoleIds();
+                if (null != declaredRoles)
+                    ids.or(declaredRoles);
+                index = new NameIndex(roleNames(ids));
+                roleIndex = index;
+            }
+            return index;
+        }
+
+        /**
+         * Determines the index of the roles assigned to a caller or a group.
+         */
+        NameIndex assignedRoleIndex() {
+            NameIndex index = assignedRoleIndex;
+            if (null == index) {
+                index = new NameIndex(roleNames(assignedRoleIds()));
+                assignedRoleIndex = index;
+            }
+            return index;
+        }
+
+        /**
+         * Determines the index of the declared roles not assigned to any caller or group.
+         */
+        NameIndex unassignedRoleIndex() {
+            NameIndex index = unassignedRoleIndex;
+            if (null == index) {
+                BitSet ids = (null == declaredRoles) ? new BitSet() : (BitSet) declaredRoles.clone();
+                ids.andNot(assignedRoleIds());
+                index = new NameIndex(roleNames(ids));
+                unassignedRoleIndex = index;
+            }
+            return index;
+        }
+
+        /**
+         * Determines the ids of the roles which callers have, directly or through
+         * their groups, or which are assigned to a group.
+         */
+        private BitSet assignedRoleIds() {
+            BitSet ids = new BitSet();
+            BitSet[] effectiveMembers = members[EFFECTIVE_ROLE_MEMBERS];
+            for (int id = 0; id < effectiveMembers.length; id++) {
+                if ((null != effectiveMembers[id]) && !effectiveMembers[id].isEmpty())
+                    ids.set(id);
+            }
+            if (null != roleGroupLists) {
+                for (int id = 0; id < roleGroupLists.length; id++) {
+                    if (null != roleGroupLists[id])
+                        ids.set(id);
+                }
+            }
+            return ids;
+        }
+
+        private List<String> roleNames(BitSet ids) {
+            List<String> names = new ArrayList<>(ids.cardinality());
+            for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+                names.add(roles.name(id));
+            }
+            return names;
+        }
+
+        /**
+         * Determines the names of the roles which callers have, directly or through their groups.
+         */
+        List<String> roleNames() {
+            return namesWithMembers(roles, members[EFFECTIVE_ROLE_MEMBERS]);
+        }
+
+        List<String> callerGroups(String caller) {
+            int id = callerId(caller);
+            return ((id < 0) || (null == callerGroups[id])) ? null : new NameList(callerGroups[id], groups.names());
+        }
+
+        List<String> callerRoles(String caller) {
+            int id = callerId(caller);
+            return ((id < 0) || (null == callerRoles[id])) ? null : new NameList(callerRoles[id], roles.names());
+        }
+
+        List<String> callerEffectiveRoles(String caller) {
+            int id = callerId(caller);
+            return ((id < 0) || (null == callerEffectiveRoles[id])) ? null : new NameList(callerEffectiveRoles[id], roles.names());
+        }
+
+        /**
+         * Determines the roles assigned to the given group.
+         *
+         * @return The roles, empty list if none.
+         */
+        List<String> groupRoles(String group) {
+            int id = groups.id(group);
+            if ((id < 0) || (null == groupRoles) || (id >= groupRoles.length) || (null == groupRoles[id]))
+                return Collections.emptyList();
+            return new NameList(groupRoles[id], roles.names());
+        }
+
+        /**
+         * Determines the roles assigned to groups, as given by the source.
+         *
+         * @return The roles by group name, <code>null</code> if none.
+         */
+        Map<String, List<String>> groupRoleSources() {
+            if (null == groupRoles)
+                return null;
+            Map<String, List<String>> groupRoleSources = new HashMap<>();
+            for (int id = 0; id < groupRoles.length; id++) {
+                if (null != groupRoles[id])
+                    groupRoleSources.put(groups.name(id), new NameList(groupRoles[id], roles.names()));
+            }
+            return groupRoleSources;
+        }
+
+        /**
+         * Determines the roles declared by the source.
+         *
+         * @return The declared role names, <code>null</code> if none.
+         */
+        List<String> declaredRoleNames() {
+            if (null == declaredRoles)
+                return null;
+            List<String> names = new ArrayList<>(declaredRoles.cardinality());
+            for (int id = declaredRoles.nextSetBit(0); id >= 0; id = declaredRoles.nextSetBit(id + 1)) {
+                names.add(roles.name(id));
+            }
+            return names;
+        }
+
+        /**
+         * Determines the groups assigned the given role.
+         *
+         * @return The groups, empty list if none.
+         */
+        List<String> groupsWithRole(String role) {
+            int id = roles.id(role);
+            if ((id < 0) || (null == roleGroupLists) || (id >= roleGroupLists.length) || (null == roleGroupLists[id]))
+                return Collections.emptyList();
+            return roleGroupLists[id];
+        }
+
+        /**
+         * Determines the members of a group or role, materializing the list on first request.
+         *
+         * @return The members, <code>null</code> if none.
+         */
+        private List<String> members(NameDictionary dictionary, int kind, String name) {
+            BitSet[] kindMembers = members[kind];
+            int id = dictionary.id(name);
+            if ((id < 0) || (id >= kindMembers.length) || (null == kindMembers[id]) || kindMembers[id].isEmpty())
+                return null;
+            List<String>[] kindMemberLists = memberLists[kind];
+            List<String> list = kindMemberLists[id];
+            if (null == list) {
+                BitSet bits = kindMembers[id];
+                List<String> callers = new ArrayList<>(bits.cardinality());
+                for (int callerId = bits.nextSetBit(0); callerId >= 0; callerId = bits.nextSetBit(callerId + 1)) {
+                    callers.add(callerNames[callerId]);
+                }
+                // Unmodifiable wrapper is safely published through its final field
+                list = Collections.unmodifiableList(callers);
+                kindMemberLists[id] = list;
+            }
+            return list;
+        }
+
+        List<String> groupMembers(String group) {
+            return members(groups, GROUP_MEMBERS, group);
+        }
+
+        /**
+         * Determines the member bitmap of a group or role.
+         *
+         * @return The members, <code>null</code> if none.
+         */
+        private BitSet memberBits(NameDictionary dictionary, int kind, String name) {
+            BitSet[] kindMembers = members[kind];
+            int id = dictionary.id(name);
+            if ((id < 0) || (id >= kindMembers.length) || (null == kindMembers[id]) || kindMembers[id].isEmpty())
+                return null;
+            return kindMembers[id];
+        }
+
+        /**
+         * Determines the members of the given group in caller id order, reading the
+         * member bitmap as the stream is consumed.
+         */
+        Stream<String> groupMemberStream(String group) {
+            BitSet bits = memberBits(groups, GROUP_MEMBERS, group);
+            if (null == bits)
+                return Stream.empty();
+            String[] names = callerNames;
+            return bits.stream().mapToObj(callerId -> names[callerId]);
+        }
+
+        /**
+         * Determines a page of the members of the given group in caller id order.
+         *
+         * @return The members, unmodifiable.
+         */
+        List<String> groupMembers(String group, int offset, int limit) {
+            BitSet bits = memberBits(groups, GROUP_MEMBERS, group);
+            if ((null == bits) || (limit == 0))
+                return Collections.emptyList();
+            List<String> list = memberLists[GROUP_MEMBERS][groups.id(group)];
+            if (null != list) {
+                // Already materialized, page through a view
+                int from = Math.min(offset, list.size());
+                return list.subList(from, (list.size() - from <= limit) ? list.size() : from + limit);
+            }
+            int callerId = bits.nextSetBit(0);
+            for (int skipped = 0; (callerId >= 0) && (skipped < offset); skipped++)
+                callerId = bits.nextSetBit(callerId + 1);
+            List<String> page = new ArrayList<>(Math.min(limit, Math.max(0, bits.cardinality() - offset)));
+            for (; (callerId >= 0) && (page.size() < limit); callerId = bits.nextSetBit(callerId + 1))
+                page.add(callerNames[callerId]);
+            return Collections.unmodifiableList(page);
+        }
+
+        int groupMemberCount(String group) {
+            BitSet bits = memberBits(groups, GROUP_MEMBERS, group);
+            return (null == bits) ? 0 : bits.cardinality();
+        }
+
+        List<String> roleMembers(String role, boolean includeGroupRoles) {
+            return members(roles, includeGroupRoles ? EFFECTIVE_ROLE_MEMBERS : ROLE_MEMBERS, role);
+        }
+
+        private boolean isMember(NameDictionary dictionary, int kind, String caller, String name) {
+            BitSet[] kindMembers = members[kind];
+            int callerId = callerId(caller);
+            int id = dictionary.id(name);
+            return (callerId >= 0) && (id >= 0) && (id < kindMembers.length) &&
+                (null != kindMembers[id]) && kindMembers[id].get(callerId);
+        }
+
+        /**
+         * Determines whether the given caller is in the given group.
+         *
+         * @param caller The caller name
+         * @param group The group name
+         * @return <code>true</code> if the caller is in the group.
+         */
+        boolean isInGroup(String caller, String group) {
+            return isMember(groups, GROUP_MEMBERS, caller, group);
+        }
+
+        /**
+         * Determines whether the given caller has the given role.
+         *
+         * @param caller The caller name
+         * @param role The role name
+         * @param includeGroupRoles <code>true</code> to include roles assigned to the caller's groups.
+         * @return <code>true</code> if the caller has the role.
+         */
+        boolean hasRole(String caller, String role, boolean includeGroupRoles) {
+            return isMember(roles, includeGroupRoles ? EFFECTIVE_ROLE_MEMBERS : ROLE_MEMBERS, caller, role);
+        }
     }
     private volatile Cache cache = null;
 
+    // Free caller ids tolerated before a load compacts the cache, regardless of the number of callers
+    private static final int MIN_COMPACTION_FREE_IDS = 1024;
+
+    // Discarded credential bytes tolerated before a load compacts the credential arena, regardless of its live bytes
+    private static final long MIN_COMPACTION_DISCARDED_BYTES = 1024 * 1024;
+
+    // Serializes loads. Readers never take this lock.
+    private final Object loadLock = new Object();
+
     /**
      * Utility for converting char[] to byte[].
      *
@@ -115,307 +1072,620 @@ public class CachedIdentityStore
     }
 
     /**
-     * Utility for converting byte[] to char[].
+     * Applies the given caller changes to a copy of the given cache.
+     * Only the entries of the changed callers, and the member bitmaps of the
+     * groups and roles they were or are now in, are rewritten.
      *
-     * @param charset
-     * @param input  byte[]
-     * @return char[]
-     */
-    private static char[] getChars(Charset charset, byte[] input) {
-        ByteBuffer byteBuffer = ByteBuffer.wrap(input);
-        CharBuffer charBuffer = charset.decode(byteBuffer);
-        char[] chars = Arrays.copyOfRange(charBuffer.array(),
-            charBuffer.position(), charBuffer.limit());
-        Arrays.fill(charBuffer.array(), '\u0000'); // clear sensitive data
-        Arrays.fill(byteBuffer.array(), (byte) 0); // clear sensitive data
-        return chars;
+     * @param current The currently published cache
+     * @param changes The changes to apply
+     * @return The new cache
+     */
+    private Cache applyChanges(Cache current, CachedIdentityStoreSource.CallerChanges changes) {
+        Cache cache = new Cache(current);
+
+        for (String name : changes.getRemoved()) {
+            cache.removeCaller(name);
+        }
+        List<CachedIdentityStoreSource.CallerSource> updated = new ArrayList<>(changes.getAdded());
+        updated.addAll(changes.getChanged());
+        for (CachedIdentityStoreSource.CallerSource callerSource : updated) {
+            Objects.requireNonNull(callerSource, "Caller Source");
+            cache.removeCaller(callerSource.getName());
+            cache.addMembers(cache.addCaller(callerSource));
+        }
+
+        cache.seal();
+        cache.version = changes.getVersion();
+        return cache;
     }
 
     /**
-     * Adds a caller from the source into the local cache.
-     *
-     * @param callerSource
+     * Checks the initialized state of the local cache.
      */
-    private void addCaller(Cache cache, CachedIdentityStoreSource.CallerSource callerSource) {
-        Objects.requireNonNull(callerSource, "Caller Source");
-
-        String loginName = callerSource.getName();
-        cache.callers.put(loginName, loginName);
-        cache.callerToGroup.put(loginName, callerSource.getGroups());
-        cache.callerToRoles.put(loginName, callerSource.getRoles());
-        cache.callerToCallerAttributes.put(loginName, callerSource.getAttributes());
+    private void checkInitialized() {
+        if (null == cache) {
+            throw new IllegalStateException("Uninitialized CachedIdentityStore");
+        }
+    }
 
-        List<CachedIdentityStoreSource.CredentialSource> credentials = callerSource.getCredentials();
-        cache.callerToCredentialSource.put(loginName, credentials);
+    /**
+     * Default validation behavior for username/password credentials.
+     *
+     * @param usernamePasswordCredential Credential to validate
+     * @return The result
+     */
+    @Override
+    protected CredentialValidationResult validateUsernamePassword(UsernamePasswordCredential usernamePasswordCredential) {
+        return validate(
+            usernamePasswordCredential.getCaller(),
+            UsernamePasswordCredential.class.getName(),
+            usernamePasswordCredential.getPassword().getValue());
     }
 
     /**
-     * Builds derived maps in the local cache to facilitate queries.
+     * Validates the given char[] credential value.
      *
-     * @param cache
+     * @param caller  The caller
+     * @param credentialType The credential type, usually the credential class name.
+     * @param credentialValue The credential value
+     * @return The result
      */
-    private void buildImpliedMaps(Cache cache) {
-        cache.groups.clear();
-        cache.groupToCallers.clear();
-        Set<Map.Entry<String, List<String>>> callerToGroupEntries = cache.callerToGroup.entrySet();
-        for (Map.Entry<String, List<String>> entry : callerToGroupEntries) {
-            String callerLoginName = entry.getKey();
-            List<String> callerGroups = entry.getValue();
-            if ((null != callerLoginName) && (null != callerGroups)) {
-                for (String group : callerGroups) {
-                    cache.groups.put(group, group);
+    public CredentialValidationResult validate(String caller, String credentialType, char[] credentialValue) {
+        checkInitialized();
 
-                    List<String> callers = cache.groupToCallers.get(group);
-                    if (null == callers) {
-                        callers = new ArrayList<>();
-                        cache.groupToCallers.put(group, callers);
-                    }
-                    if (!callers.contains(callerLoginName)) {
-                        callers.add(callerLoginName);
-                    }
-                }
-            }
+        if (null == caller) {
+            return CredentialValidationResult.INVALID_RESULT;
         }
 
-        cache.roles.clear();
-        cache.roleToCallers.clear();
-        Set<Map.Entry<String, List<String>>> callerToRoleEntries = cache.callerToRoles.entrySet();
-        for (Map.Entry<String, List<String>> entry : callerToRoleEntries) {
-            String callerLoginName = entry.getKey();
-            List<String> callerRoles = entry.getValue();
-            if ((null != callerLoginName) && (null != callerRoles)) {
-                for (String role : callerRoles) {
-                    cache.roles.put(role, role);
-
-                    List<String> callers = cache.roleToCallers.get(role);
-                    if (null == callers) {
-                        callers = new ArrayList<>();
-                        cache.roleToCallers.put(role, callers);
-                    }
-                    if (!callers.contains(callerLoginName)) {
-                        callers.add(callerLoginName);
+        boolean valid = false;
+        Cache current = acquireCache();
+        try {
+            PreparedCredential[] credentials = current.credentials(caller, credentialType);
+            if (null != credentials) {
+                for (PreparedCredential credential : credentials) {
+                    if (credential.verify(credentialValue)) {
+                        valid = true;
+                        break;
                     }
                 }
+            } else if (isUniformTiming()) {
+                verifyDecoys(current, credentialType, credentialValue);
             }
+        } finally {
+            current.credentialArena.release();
         }
+
+        if (valid)
+            return new CredentialValidationResult(CredentialValidationResult.Status.VALID, caller, this);
+        else
+            return CredentialValidationResult.INVALID_RESULT;
     }
 
     /**
-     * Checks the initialized state of the local cache.
+     * Verifies the given value against the decoy credentials of the given type,
+     * ignoring the result. The cache arena is held by the caller.
      */
-    private void checkInitialized() {
-        if (null == cache) {
-            throw new IllegalStateException("Uninitialized CachedIdentityStore");
+    private static void verifyDecoys(Cache current, String credentialType, char[] credentialValue) {
+        PreparedCredential[] decoys = current.decoyCredentials(credentialType);
+        if (null != decoys) {
+            for (PreparedCredential decoy : decoys) {
+                decoy.verify(credentialValue); // Result ignored
+            }
         }
     }
 
     /**
-     * Checks for non-null and non-empty strings.
+     * Verifies the password of a caller rejected by the caller filter against the
+     * decoy credentials, so that it takes as long as rejecting an invalid password.
      *
-     * @param input
-     * @return <code>true</code> if non-null and non-empty
+     * @param credential The rejected credential
      */
-    private static boolean nonNullNonEmpty(String input) {
-        return null != input && !input.isEmpty();
+    @Override
+    protected void rejectUnknownCaller(Credential credential) {
+        if (!(credential instanceof UsernamePasswordCredential) || (null == cache))
+            return;
+        Cache current = acquireCache();
+        try {
+            verifyDecoys(current, UsernamePasswordCredential.class.getName(),
+                ((UsernamePasswordCredential) credential).getPassword().getValue());
+        } finally {
+            current.credentialArena.release();
+        }
     }
 
     /**
-     * Default validation behavior for username/password credentials.
+     * Determines whether validating the given credential verifies an expensive password hash.
+     * Other validations only read the in-memory cache, and run on the calling thread
+     * when validating asynchronously.
      *
-     * @param usernamePasswordCredential Credential to validate
-     * @return The result
+     * @param credential The credential
+     * @return <code>true</code> if a password hash may be verified.
      */
     @Override
-    protected CredentialValidationResult validateUsernamePassword(UsernamePasswordCredential usernamePasswordCredential) {
-        return validate(
-            usernamePasswordCredential.getCaller(),
-            UsernamePasswordCredential.class.getName(),
-            usernamePasswordCredential.getPassword().getValue());
+    protected boolean isBlocking(Credential credential) {
+        if (!(credential instanceof UsernamePasswordCredential) || (null == cache))
+            return true;
+        String credentialType = UsernamePasswordCredential.class.getName();
+        Cache current = acquireCache();
+        try {
+            PreparedCredential[] credentials = current.credentials(credential.getCaller(), credentialType);
+            if ((null == credentials) && isUniformTiming())
+                credentials = current.decoyCredentials(credentialType);
+            if (null != credentials) {
+                for (PreparedCredential prepared : credentials) {
+                    if (prepared.isPasswordHash())
+                        return true;
+                }
+            }
+            return false;
+        } finally {
+            current.credentialArena.release();
+        }
     }
 
     /**
-     * Validates the given char[] credential value.
+     * Validates the given byte[] credential value.
      *
      * @param caller  The caller
      * @param credentialType The credential type, usually the credential class name.
      * @param credentialValue The credential value
      * @return The result
      */
-    public CredentialValidationResult validate(String caller, String credentialType, char[] credentialValue) {
+    public CredentialValidationResult validate(String caller, String credentialType, byte[] credentialValue) {
+        if (null == credentialValue) {
+            throw new NullPointerException("Credential value");
+        }
+
         checkInitialized();
 
         if (null == caller) {
             return CredentialValidationResult.INVALID_RESULT;
         }
 
-        final List<CachedIdentityStoreSource.CredentialSource> credentialSources = cache.callerToCredentialSource.get(caller);
-
+        // Stored values of byte[] credentials are Base64 encoded, which the prepared
+        // credentials check directly, without converting to char[].
         boolean valid = false;
-        if (null != credentialSources) {
-            for (CachedIdentityStoreSource.CredentialSource credentialSource : credentialSources) {
-                if ((null != credentialSource) && credentialType.equals(credentialSource.getType())) {
-                    char[] preparedCredentialValue = Arrays.copyOf(credentialValue, credentialValue.length);
-                    if (nonNullNonEmpty(credentialSource.getHashAlgorithm())) {
-                        if (nonNullNonEmpty(credentialSource.getHashSalt())) {
-                            preparedCredentialValue = appendSalt(credentialSource.getHashSalt(), preparedCredentialValue);
-                        }
-                        try {
-                            preparedCredentialValue = calculateHash(credentialSource.getHashAlgorithm(), preparedCredentialValue);
-                        } catch (NoSuchAlgorithmException e) {
-                            // TODO: Error handling
-                            e.printStackTrace();
-                        }
-                    }
-                    if ((null != preparedCredentialValue) && Arrays.equals(preparedCredentialValue, credentialSource.getValue().toCharArray()) ) {
+        Cache current = acquireCache();
+        try {
+            PreparedCredential[] credentials = current.credentials(caller, credentialType);
+            if (null != credentials) {
+                byte[] encodedValue = Base64.getEncoder().encode(credentialValue);
+                for (PreparedCredential credential : credentials) {
+                    if (credential.verifyEncoded(encodedValue)) {
                         valid = true;
                         break;
                     }
                 }
+                Arrays.fill(encodedValue, (byte) 0); // clear sensitive data
+            } else if (isUniformTiming()) {
+                PreparedCredential[] decoys = current.decoyCredentials(credentialType);
+                if (null != decoys) {
+                    byte[] encodedValue = Base64.getEncoder().encode(credentialValue);
+                    for (PreparedCredential decoy : decoys) {
+                        decoy.verifyEncoded(encodedValue); // Result ignored
+                    }
+                    Arrays.fill(encodedValue, (byte) 0); // clear sensitive data
+                }
             }
+        } finally {
+            current.credentialArena.release();
         }
 
-        if (valid)
-            return new CredentialValidationResult(CredentialValidationResult.Status.VALID, caller, this);
-        else
-            return CredentialValidationResult.INVALID_RESULT;
+        if (valid)
+            return new CredentialValidationResult(CredentialValidationResult.Status.VALID, caller, this);
+        else
+            return CredentialValidationResult.INVALID_RESULT;
+    }
+
+    /**
+     * Initializes the identity store.
+     */
+    @PostConstruct
+    void initialize() {
+        try {
+            load();
+        } catch (IOException ioe) {
+            // Reported by the load
+            LOGGER.log(Level.SEVERE, "Unable to load the identity store", ioe);
+        }
+    }
+
+    /**
+     * Appends the given salt to the end of the input.
+     * <p>
+     * Credential validation does not call this method, it uses credentials prepared
+     * when loading. This may be used to compute stored credential values.
+     *
+     * @param salt  A random salt
+     * @param input Input to be salted.
+     * @return The salted input
+     */
+    protected char[] appendSalt(String salt, char[] input) {
+        // TODO: check inputs
+
+        char[] saltArr = salt.toCharArray();
+        char[] output = new char[input.length + saltArr.length];
+        System.arraycopy(input, 0, output, 0, input.length);
+        System.arraycopy(saltArr, 0, output, input.length, saltArr.length);
+        return output;
+    }
+
+    /**
+     * Hash the input using the hash algorithm.
+     * <p>
+     * Credential validation does not call this method, it uses credentials prepared
+     * when loading. This may be used to compute stored credential values.
+     *
+     * @param hashAlgorithm An algorithm supported by the current JVM using
+     *                      <code>{@link java.security.MessageDigest#getInstance}</code>.
+     * @param input The input to hash
+     * @return The hashed input
+     * @throws java.security.NoSuchAlgorithmException The specified hash algorithm is not supported.
+     * @throws java.lang.NullPointerException A parameter is null.
+     */
+    protected char[] calculateHash(String hashAlgorithm, char[] input) throws NoSuchAlgorithmException {
+        Objects.requireNonNull(hashAlgorithm, "calculateHash hashAlgorithm");
+        Objects.requireNonNull(input, "calculateHash input");
+
+        MessageDigest md = MessageDigest.getInstance(hashAlgorithm);
+        md.update(getBytes(DEFAULT_CHARSET, input));
+        byte[] hash =  md.digest();
+        return getHexString(hash).toCharArray();
+    }
+
+    /**
+     * Utility to convert the given byte array into a corresponding hex string.
+     *
+     * @param mdbytes Byte array
+     * @return Hex string
+     */
+    protected static String getHexString(byte[] mdbytes) {
+        char[] hexString = new char[mdbytes.length * 2];
+        for (int i=0; i < mdbytes.length; i++) {
+            hexString[2 * i] = HEX_DIGITS[(mdbytes[i] >> 4) & 0xf];
+            hexString[2 * i + 1] = HEX_DIGITS[mdbytes[i] & 0xf];
+        }
+
+        return new String(hexString);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param cachedIdentityStoreSource The source of identity data
+     */
+    @Inject
+    public CachedIdentityStore(CachedIdentityStoreSource cachedIdentityStoreSource) {
+        if (null == cachedIdentityStoreSource)
+            throw new NullPointerException("CachedIdentityStoreSource");
+        this.cachedIdentityStoreSource = cachedIdentityStoreSource;
+    }
+
+    /**
+     * Associates the source to the identity store and
+     * replaces the current cache contexts with the data in the source.
+     *
+     * @param source The source of identity data
+     * @throws IOException An error occurred while reading the source.
+     */
+    public void load(CachedIdentityStoreSource source) throws IOException {
+        if (null == source)
+            throw new NullPointerException("CachedIdentityStoreSource");
+
+        cachedIdentityStoreSource = source;
+        load();
+    }
+
+    /**
+     * Replaces the current cache contexts with the data in the associated source.
+     * <p>
+     * If the cache was previously loaded from the same source, and the source is able to
+     * report the callers changed since then, only those changes are applied.
+     * Otherwise, all of the data is read from the source.
+     * In both cases the new contents are built aside and swapped in once complete,
+     * so concurrent readers are never blocked.
+     * <p>
+     * The duration and resulting cache size of each load, and load failures,
+     * are reported to the <code>{@link #getMetrics metrics}</code>.
+     *
+     * @throws IOException An error occurred while reading the source.
+     */
+    public void load() throws IOException {
+        long start = System.nanoTime();
+        try {
+            loadCache();
+        } catch (IOException | RuntimeException e) {
+            reportError("load", e);
+            throw e;
+        }
+        IdentityStoreMetrics storeMetrics = getMetrics();
+        Cache current = cache;
+        if (storeMetrics.isEnabled() && (null != current))
+            storeMetrics.loaded(getStoreName(), System.nanoTime() - start, current.callerCount(), current.estimatedSize());
+    }
+
+    private void loadCache() throws IOException {
+        synchronized (loadLock) {
+            CachedIdentityStoreSource source = cachedIdentityStoreSource;
+            if (null == source) {
+                LOGGER.warning("Unable to load null source");
+                return;
+            }
+
+            // Apply changes since the last load, if possible.
+            // Once removed callers leave more free ids than live ones, or replaced credentials
+            // more discarded arena bytes than live ones, a full load compacts them.
+            Cache current = this.cache;
+            if ((null != current) && (source == current.source) && (null != current.version) &&
+                (current.freeCallerIds() <= Math.max(MIN_COMPACTION_FREE_IDS, current.callerCount())) &&
+                (current.credentialArena.getDiscardedBytes() <=
+                    Math.max(MIN_COMPACTION_DISCARDED_BYTES, current.credentialArena.getLiveBytes()))) {
+                CachedIdentityStoreSource.CallerChanges changes = source.getCallerChanges(current.version);
+                if (null != changes) {
+                    if (!changes.isEmpty() || !current.version.equals(changes.getVersion())) {
+                        publish(applyChanges(current, changes));
+                    }
+                    return;
+                }
+            }
+
+            // Load cache from source
+            // Read the version first, later changes would be applied again by the next load.
+            String version = source.getVersion();
+            Iterator<CachedIdentityStoreSource.CallerSource> callerIterator = source.getCallerIterator();
+            if (null != callerIterator) {
+                Cache cache = new Cache(source);
+                cache.version = version;
+                boolean built = false;
+                try {
+                    // Roles read with the callers are only complete once all callers were read
+                    CachedIdentityStoreSource.RoleSource roleSource = (callerIterator instanceof CachedIdentityStoreSource.RoleSource)
+                        ? (CachedIdentityStoreSource.RoleSource) callerIterator : null;
+                    if (null == roleSource) {
+                        cache.setGroupRoles(source.getGroupRoles());
+                        cache.setDeclaredRoles(source.getDeclaredRoles());
+                    }
+                    while (callerIterator.hasNext()) {
+                        CachedIdentityStoreSource.CallerSource callerSource = callerIterator.next();
+                        if (null != callerSource)
+                            cache.addCaller(callerSource);
+                    }
+                    if (null != roleSource) {
+                        cache.setGroupRoles(roleSource.getGroupRoles());
+                        cache.setDeclaredRoles(roleSource.getDeclaredRoles());
+                    }
+                    cache.buildMembers(buildParallelism);
+                    built = true;
+                } catch (UncheckedIOException e) {
+                    // Streaming sources report read errors while iterating
+                    throw e.getCause();
+                } finally {
+                    if (callerIterator instanceof Closeable)
+                        ((Closeable) callerIterator).close();
+                    if (!built)
+                        cache.credentialArena.retire();
+                }
+                // Replace cache
+                publish(cache);
+            }
+        }
+    }
+
+    /**
+     * Replaces the published cache. Callers hold the load lock.
+     *
+     * @param cache The new cache
+     */
+    private void publish(Cache cache) {
+        // The filter covers the new callers before they are published
+        double falsePositiveRate = callerFilterFalsePositiveRate;
+        if (falsePositiveRate > 0)
+            setCallerFilter(CallerFilter.of(cache.callerIds.keySet(), falsePositiveRate));
+        Cache current = this.cache;
+        cache.generation = (null == current) ? 1 : current.generation + 1;
+        this.cache = cache;
+        if ((null != current) && (current.credentialArena != cache.credentialArena)) {
+            // Zeroed and freed once the last reader of the previous cache releases it
+            current.credentialArena.retire();
+        }
+    }
+
+    /**
+     * Determines the published cache, with its credential arena acquired.
+     * The caller must release the arena.
+     *
+     * @return The cache
+     */
+    private Cache acquireCache() {
+        while (true) {
+            Cache current = cache;
+            if (current.credentialArena.acquire())
+                return current;
+            // Retired by a concurrent load, which already published a newer cache
+        }
+    }
+
+    /**
+     * Determines the number of callers in the cache.
+     *
+     * @return The number of callers, <code>0</code> if not yet loaded.
+     */
+    public int getCallerCount() {
+        Cache current = cache;
+        return (null == current) ? 0 : current.callerCount();
+    }
+
+    /**
+     * Estimates the memory used by the cache, including the off-heap credential material.
+     *
+     * @return The estimated size in bytes, <code>0</code> if not yet loaded.
+     */
+    public long getEstimatedSize() {
+        Cache current = cache;
+        return (null == current) ? 0 : current.estimatedSize();
     }
 
     /**
-     * Validates the given byte[] credential value.
+     * Determines the number of bytes held off-heap for the credential material of the cache.
      *
-     * @param caller  The caller
-     * @param credentialType The credential type, usually the credential class name.
-     * @param credentialValue The credential value
-     * @return The result
+     * @return The number of bytes, <code>0</code> if not yet loaded.
      */
-    public CredentialValidationResult validate(String caller, String credentialType, byte[] credentialValue) {
-        if (null == credentialValue) {
-            throw new NullPointerException("Credential value");
-        }
+    public long getCredentialArenaSize() {
+        Cache current = cache;
+        return (null == current) ? 0 : current.credentialArena.getSize();
+    }
 
-        char[] credentialChars = getChars(StandardCharsets.ISO_8859_1, Base64.getEncoder().encode(credentialValue));
-        return validate(caller, credentialType, credentialChars);
+    /**
+     * Determines the generation of the cache contents, which is incremented
+     * each time a load replaces them.
+     *
+     * @return The generation, <code>0</code> if not yet loaded.
+     */
+    @Override
+    public long getGeneration() {
+        Cache current = cache;
+        return (null == current) ? 0 : current.generation;
     }
 
     /**
-     * Initializes the identity store.
+     * Writes the current cache contents to a binary snapshot file, which may later be
+     * loaded using a
+     * <code>{@link javax.security.identitystore.persistence.cachedsource.SnapshotIdentityStoreSource SnapshotIdentityStoreSource}</code>.
+     * The snapshot includes the precomputed group and role maps, the roles assigned
+     * to groups and the declared roles.
+     *
+     * @param file The snapshot file
+     * @throws IOException An error occurred while writing the snapshot.
      */
-    @PostConstruct
-    void initialize() {
+    public void writeSnapshot(File file) throws IOException {
+        checkInitialized();
+        Cache current = acquireCache();
+
+        List<CachedIdentityStoreSource.CallerSource> callerSources = new ArrayList<>(current.callerCount());
         try {
-            load();
-        } catch (IOException ioe) {
-            // TODO: Error handling: logging, prevent continued operation
-            ioe.printStackTrace();
+            for (int id = 0; id < current.nextCallerId; id++) {
+                String caller = current.callerNames[id];
+                if (null != caller) {
+                    callerSources.add(new CachedIdentityStoreSource.CallerSource(
+                        caller,
+                        current.callerGroups(caller),
+                        current.callerRoles(caller),
+                        current.credentialSources(id),
+                        current.callerAttributes[id]));
+                }
+            }
+        } finally {
+            current.credentialArena.release();
+        }
+        Map<String, List<String>> groupToCallers = new HashMap<>();
+        for (String group : current.groupNames()) {
+            groupToCallers.put(group, current.groupMembers(group));
         }
+        // Group roles are written as such, the role map holds direct roles only
+        Map<String, List<String>> roleToCallers = new HashMap<>();
+        for (String role : current.roleNames()) {
+            List<String> callers = current.roleMembers(role, false);
+            if (null != callers)
+                roleToCallers.put(role, callers);
+        }
+        SnapshotIdentityStoreSource.write(file, callerSources, groupToCallers, roleToCallers,
+            current.groupRoleSources(), current.declaredRoleNames());
     }
 
     /**
-     * Appends the given salt to the end of the input.
+     * Determines the maximum number of threads building the group and role maps
+     * when all of the data is read from the source.
      *
-     * @param salt  A random salt
-     * @param input Input to be salted.
-     * @return The salted input
+     * @return The build parallelism
      */
-    protected char[] appendSalt(String salt, char[] input) {
-        // TODO: check inputs
-
-        char[] saltArr = salt.toCharArray();
-        char[] output = new char[input.length + saltArr.length];
-        System.arraycopy(input, 0, output, 0, input.length);
-        System.arraycopy(saltArr, 0, output, input.length, saltArr.length);
-        return output;
+    public int getBuildParallelism() {
+        return buildParallelism;
     }
 
     /**
-     * Hash the input using the hash algorithm.
+     * Sets the maximum number of threads building the group and role maps
+     * when all of the data is read from the source.
+     * The default is the number of available processors, <code>1</code> builds them on the loading thread.
      *
-     * @param hashAlgorithm An algorithm supported by the current JVM using
-     *                      <code>{@link java.security.MessageDigest#getInstance}</code>.
-     * @param input The input to hash
-     * @return The hashed input
-     * @throws java.security.NoSuchAlgorithmException The specified hash algorithm is not supported.
-     * @throws java.lang.NullPointerException A parameter is null.
+     * @param buildParallelism The build parallelism
+     * @return This identity store
      */
-    protected char[] calculateHash(String hashAlgorithm, char[] input) throws NoSuchAlgorithmException {
-        Objects.requireNonNull(hashAlgorithm, "calculateHash hashAlgorithm");
-        Objects.requireNonNull(input, "calculateHash input");
-
-        MessageDigest md = MessageDigest.getInstance(hashAlgorithm);
-        md.update(getBytes(DEFAULT_CHARSET, input));
-        byte[] hash =  md.digest();
-        return getHexString(hash).toCharArray();
+    public CachedIdentityStore setBuildParallelism(int buildParallelism) {
+        if (buildParallelism < 1)
+            throw new IllegalArgumentException("Build parallelism: " + buildParallelism);
+        this.buildParallelism = buildParallelism;
+        return this;
     }
 
     /**
-     * Utility to convert the given byte array into a corresponding hex string.
+     * Determines the false positive rate of the caller filter built by each load.
      *
-     * @param mdbytes Byte array
-     * @return Hex string
+     * @return The false positive rate, <code>0</code> if loads do not build a caller filter.
      */
-    protected static String getHexString(byte[] mdbytes) {
-        StringBuilder hexString = new StringBuilder();
-        for (int i=0; i < mdbytes.length; i++) {
-            String hex=Integer.toHexString(0xff & mdbytes[i]);
-            if(hex.length() == 1)
-                hexString.append('0');
-            hexString.append(hex);
-        }
+    public double getCallerFilterFalsePositiveRate() {
+        return callerFilterFalsePositiveRate;
+    }
 
-        return hexString.toString();
+    /**
+     * Sets the false positive rate of the <code>{@link CallerFilter}</code> built by each load,
+     * which rejects unknown callers before looking up validators or submitting validations.
+     * The default is <code>0</code>, which builds no filter and leaves any
+     * <code>{@link #setCallerFilter set}</code> filter in place.
+     *
+     * @param callerFilterFalsePositiveRate The false positive rate, <code>0</code> to not build filters.
+     * @return This identity store
+     */
+    public CachedIdentityStore setCallerFilterFalsePositiveRate(double callerFilterFalsePositiveRate) {
+        if (!(callerFilterFalsePositiveRate >= 0) || !(callerFilterFalsePositiveRate < 1))
+            throw new IllegalArgumentException("False positive rate: " + callerFilterFalsePositiveRate);
+        this.callerFilterFalsePositiveRate = callerFilterFalsePositiveRate;
+        return this;
     }
 
     /**
-     * Constructor
+     * Determines the maximum number of names returned by the caller, group and role queries.
      *
-     * @param cachedIdentityStoreSource The source of identity data
+     * @return The maximum number of names returned
      */
-    @Inject
-    public CachedIdentityStore(CachedIdentityStoreSource cachedIdentityStoreSource) {
-        if (null == cachedIdentityStoreSource)
-            throw new NullPointerException("CachedIdentityStoreSource");
-        this.cachedIdentityStoreSource = cachedIdentityStoreSource;
+    public int getQueryLimit() {
+        return queryLimit;
     }
 
     /**
-     * Associates the source to the identity store and
-     * replaces the current cache contexts with the data in the source.
+     * Sets the maximum number of names returned by the caller, group and role queries.
+     * The default is unlimited.
      *
-     * @param source The source of identity data
-     * @throws IOException An error occurred while reading the source.
+     * @param queryLimit The maximum number of names returned
+     * @return This identity store
      */
-    public void load(CachedIdentityStoreSource source) throws IOException {
-        if (null == source)
-            throw new NullPointerException("CachedIdentityStoreSource");
+    public CachedIdentityStore setQueryLimit(int queryLimit) {
+        if (queryLimit < 0)
+            throw new IllegalArgumentException("Query limit: " + queryLimit);
+        this.queryLimit = queryLimit;
+        return this;
+    }
 
-        cachedIdentityStoreSource = source;
-        load();
+    /**
+     * Determines the order of the names returned by the caller, group and role queries.
+     *
+     * @return The order, <code>null</code> for natural order.
+     */
+    public Comparator<String> getQueryOrder() {
+        return queryOrder;
     }
 
     /**
-     * Replaces the current cache contexts with the data in the associated source.
+     * Sets the order of the names returned by the caller, group and role queries.
+     * When more names match than the query limit, the first names in this order are returned.
+     * Natural order is answered directly from the sorted indexes, other orders
+     * consider every match.
      *
-     * @throws IOException An error occurred while reading the source.
+     * @param queryOrder The order, <code>null</code> for natural order.
+     * @return This identity store
      */
-    public void load() throws IOException {
-        if (null == cachedIdentityStoreSource) {
-            // TODO: Log it
-            System.out.println("Unable to load null source.");
-            return;
-        }
-        // Load cache from source
-        Iterator<CachedIdentityStoreSource.CallerSource> callerIterator = cachedIdentityStoreSource.getCallerIterator();
-        if (null != callerIterator) {
-            Cache cache = new Cache();
-            while (callerIterator.hasNext()) {
-                CachedIdentityStoreSource.CallerSource callerSource = callerIterator.next();
-                if (null != callerSource)
-                    addCaller(cache, callerSource);
-            }
-            buildImpliedMaps(cache);
-            // Replace cache
-            this.cache = cache;
-        }
+    public CachedIdentityStore setQueryOrder(Comparator<String> queryOrder) {
+        this.queryOrder = queryOrder;
+        return this;
     }
 
     /**
@@ -440,7 +1710,7 @@ public class CachedIdentityStore
     @Override
     public List<String> getCallerRoles(String callerName) {
         checkInitialized();
-        return cache.callerToRoles.get(callerName);
+        return cache.callerEffectiveRoles(callerName);
     }
 
     /**
@@ -454,7 +1724,45 @@ public class CachedIdentityStore
     @Override
     public List<String> getCallerGroups(String callerName) {
         checkInitialized();
-        return cache.callerToGroup.get(callerName);
+        return cache.callerGroups(callerName);
+    }
+
+    /**
+     * Determines whether the specified Caller is directly in the specified group.
+     *
+     * @param callerName The Caller name
+     * @param group The group name
+     * @return <code>true</code> if the Caller is in the group.
+     */
+    public boolean isCallerInGroup(String callerName, String group) {
+        checkInitialized();
+        return cache.isInGroup(callerName, group);
+    }
+
+    /**
+     * Determines whether the specified Caller is directly assigned the specified role.
+     *
+     * @param callerName The Caller name
+     * @param role The role name
+     * @return <code>true</code> if the Caller has the role.
+     */
+    public boolean hasCallerRole(String callerName, String role) {
+        checkInitialized();
+        return cache.hasRole(callerName, role, false);
+    }
+
+    /**
+     * Determines whether the specified Caller has the specified role.
+     *
+     * @param callerName The Caller name
+     * @param role The role name
+     * @param includeGroupRoles <code>true</code> to include roles assigned via
+     *                          group memberships.
+     * @return <code>true</code> if the Caller has the role.
+     */
+    public boolean hasCallerRole(String callerName, String role, boolean includeGroupRoles) {
+        checkInitialized();
+        return cache.hasRole(callerName, role, includeGroupRoles);
     }
 
     ////////////////////////////////////////////////////////////////////////////
@@ -472,14 +1780,52 @@ public class CachedIdentityStore
     @Override
     public List<String> getCallers(String regEx) {
         checkInitialized();
-        if ((null == regEx) || ("".equals(regEx)))
-            return new ArrayList<>(cache.callers.keySet());
+        return cache.callerIndex().find(regEx, patternCache, queryLimit, queryOrder);
+    }
 
-        // Build username type key
+    /**
+     * Determines a page of the callers found in the identity store, in natural order
+     * of their names. The query limit and order do not apply.
+     *
+     * @param regEx A regular expression to select callers by name,
+     *  <code>null</code> or empty string for all.
+     * @param offset The number of found callers to skip
+     * @param limit The maximum number of callers returned
+     * @return The page of found callers, empty list if none.
+     */
+    @Override
+    public List<String> getCallers(String regEx, int offset, int limit) {
+        checkPage(offset, limit);
+        checkInitialized();
+        return cache.callerIndex().page(regEx, patternCache, offset, limit);
+    }
 
-        // Scan usernames Property
+    /**
+     * Determines the callers found in the identity store, in natural order of their names.
+     * The callers are read from the cache as the stream is consumed. The query limit
+     * and order do not apply.
+     *
+     * @param regEx A regular expression to select callers by name,
+     *  <code>null</code> or empty string for all.
+     * @return The found callers, empty stream if none.
+     */
+    @Override
+    public Stream<String> streamCallers(String regEx) {
+        checkInitialized();
+        return cache.callerIndex().stream(regEx, patternCache);
+    }
 
-        return null;
+    /**
+     * Determines the number of callers found in the identity store.
+     *
+     * @param regEx A regular expression to select callers by name,
+     *  <code>null</code> or empty string for all.
+     * @return The number of found callers
+     */
+    @Override
+    public int countCallers(String regEx) {
+        checkInitialized();
+        return cache.callerIndex().count(regEx, patternCache);
     }
 
     /**
@@ -491,7 +1837,9 @@ public class CachedIdentityStore
      */
     @Override
     public Map<String, String> getCallerAttributes(String name) {
-        return cache.callerToCallerAttributes.get(name);
+        Cache current = cache;
+        int id = current.callerId(name);
+        return (id < 0) ? null : current.callerAttributes[id];
     }
 
     ////////////////////////////////////////////////////////////////////////////
@@ -499,7 +1847,8 @@ public class CachedIdentityStore
     //
 
     /**
-     * Determines a list of roles found in the identity store.
+     * Determines a list of roles found in the identity store, either declared
+     * by the source or assigned to a caller or a group.
      *
      * @param regEx A regular expression to select roles by name,
      *  <code>null</code> or empty string for all.
@@ -509,11 +1858,54 @@ public class CachedIdentityStore
     @Override
     public List<String> getRoles(String regEx) {
         checkInitialized();
-        if ((null == regEx) || ("".equals(regEx)))
-            return new ArrayList<>(cache.roles.keySet());
+        return cache.roleIndex().find(regEx, patternCache, queryLimit, queryOrder);
+    }
+
+    /**
+     * Determines a page of the roles found in the identity store, either declared
+     * by the source or assigned to a caller or a group, in natural order of their names.
+     * The query limit and order do not apply.
+     *
+     * @param regEx A regular expression to select roles by name,
+     *  <code>null</code> or empty string for all.
+     * @param offset The number of found roles to skip
+     * @param limit The maximum number of roles returned
+     * @return The page of found roles, empty list if none.
+     */
+    @Override
+    public List<String> getRoles(String regEx, int offset, int limit) {
+        checkPage(offset, limit);
+        checkInitialized();
+        return cache.roleIndex().page(regEx, patternCache, offset, limit);
+    }
+
+    /**
+     * Determines the roles found in the identity store, either declared by the source
+     * or assigned to a caller or a group, in natural order of their names.
+     * The query limit and order do not apply.
+     *
+     * @param regEx A regular expression to select roles by name,
+     *  <code>null</code> or empty string for all.
+     * @return The found roles, empty stream if none.
+     */
+    @Override
+    public Stream<String> streamRoles(String regEx) {
+        checkInitialized();
+        return cache.roleIndex().stream(regEx, patternCache);
+    }
 
-        // scan
-        return null;
+    /**
+     * Determines the number of roles found in the identity store, either declared
+     * by the source or assigned to a caller or a group.
+     *
+     * @param regEx A regular expression to select roles by name,
+     *  <code>null</code> or empty string for all.
+     * @return The number of found roles
+     */
+    @Override
+    public int countRoles(String regEx) {
+        checkInitialized();
+        return cache.roleIndex().count(regEx, patternCache);
     }
 
     /**
@@ -532,11 +1924,7 @@ public class CachedIdentityStore
     @Override
     public List<String> getAssignedRoles(String regEx) {
         checkInitialized();
-        if ((null == regEx) || ("".equals(regEx)))
-            return new ArrayList<>(cache.roles.keySet());
-
-        // scan
-        return null;
+        return cache.assignedRoleIndex().find(regEx, patternCache, queryLimit, queryOrder);
     }
 
     /**
@@ -546,6 +1934,8 @@ public class CachedIdentityStore
      * NOTE THAT depending on the identity store implementation, this method may
      * only consider roles which are explicitly mapped to callers and groups. Roles assigned
      * via evaluated expressions (e.g., XACML expressions) may not be considered.
+     * <p>
+     * Only roles declared by the source can be unassigned.
      *
      * @param regEx A regular expression to select roles by name,
      *  <code>null</code> or empty string for all.
@@ -555,11 +1945,7 @@ public class CachedIdentityStore
     @Override
     public List<String> getUnassignedRoles(String regEx) {
         checkInitialized();
-        if ((null == regEx) || ("".equals(regEx)))
-            return new ArrayList<>(cache.roles.keySet());
-
-        // scan
-        return null;
+        return cache.unassignedRoleIndex().find(regEx, patternCache, queryLimit, queryOrder);
     }
 
     ////////////////////////////////////////////////////////////////////////////
@@ -582,12 +1968,8 @@ public class CachedIdentityStore
      */
     @Override
     public List<String> getCallersWithRole(String role, boolean includeGroupRoles ) {
-
-        if (includeGroupRoles)
-            return null;
-
         checkInitialized();
-        return cache.roleToCallers.get(role);
+        return cache.roleMembers(role, includeGroupRoles);
     }
 
     /**
@@ -606,10 +1988,38 @@ public class CachedIdentityStore
      */
     @Override
     public List<String> getCallerRoles(String callerName, boolean includeGroupRoles) {
-        if (includeGroupRoles)
-            return null;
+        checkInitialized();
+        return includeGroupRoles ? cache.callerEffectiveRoles(callerName) : cache.callerRoles(callerName);
+    }
+
+    ////////////////////////////////////////////////////////////////////////////
+    // GroupRoleMap
+    //
+
+    /**
+     * Determines a list of groups found in the identity store, which have been
+     * assigned the given role.
+     *
+     * @param role The role name
+     * @return The list of groups which have been assigned the given role, empty list if none.
+     */
+    @Override
+    public List<String> getGroupsWithRole(String role) {
+        checkInitialized();
+        return cache.groupsWithRole(role);
+    }
 
-        return getCallerRoles(callerName);
+    /**
+     * Determines a list of roles found in the identity store, which have been
+     * assigned to the given group.
+     *
+     * @param groupName The group name
+     * @return The list roles assigned to the group, empty list if none.
+     */
+    @Override
+    public List<String> getGroupRoles(String groupName) {
+        checkInitialized();
+        return cache.groupRoles(groupName);
     }
 
     ////////////////////////////////////////////////////////////////////////////
@@ -627,11 +2037,51 @@ public class CachedIdentityStore
     @Override
     public List<String> getGroups(String regEx) {
         checkInitialized();
-        if ((null == regEx) || ("".equals(regEx)))
-            return new ArrayList<>(cache.groups.keySet());
+        return cache.groupIndex().find(regEx, patternCache, queryLimit, queryOrder);
+    }
+
+    /**
+     * Determines a page of the groups found in the identity store, in natural order
+     * of their names. The query limit and order do not apply.
+     *
+     * @param regEx A regular expression to select groups by name,
+     *  <code>null</code> or empty string for all.
+     * @param offset The number of found groups to skip
+     * @param limit The maximum number of groups returned
+     * @return The page of found groups, empty list if none.
+     */
+    @Override
+    public List<String> getGroups(String regEx, int offset, int limit) {
+        checkPage(offset, limit);
+        checkInitialized();
+        return cache.groupIndex().page(regEx, patternCache, offset, limit);
+    }
+
+    /**
+     * Determines the groups found in the identity store, in natural order of their names.
+     * The query limit and order do not apply.
+     *
+     * @param regEx A regular expression to select groups by name,
+     *  <code>null</code> or empty string for all.
+     * @return The found groups, empty stream if none.
+     */
+    @Override
+    public Stream<String> streamGroups(String regEx) {
+        checkInitialized();
+        return cache.groupIndex().stream(regEx, patternCache);
+    }
 
-        // scan
-        return null;
+    /**
+     * Determines the number of groups found in the identity store.
+     *
+     * @param regEx A regular expression to select groups by name,
+     *  <code>null</code> or empty string for all.
+     * @return The number of found groups
+     */
+    @Override
+    public int countGroups(String regEx) {
+        checkInitialized();
+        return cache.groupIndex().count(regEx, patternCache);
     }
 
     /**
@@ -649,6 +2099,58 @@ public class CachedIdentityStore
     @Override
     public List<String> getCallersInGroup(String group) {
         checkInitialized();
-        return cache.groupToCallers.get(group);
+        return cache.groupMembers(group);
+    }
+
+    /**
+     * Determines a page of the callers assigned to the given group, in the order
+     * of {@link #streamCallersInGroup}.
+     *
+     * @param group The group name
+     * @param offset The number of callers to skip
+     * @param limit The maximum number of callers returned
+     * @return The page of callers which are assigned to the group, empty list if none.
+     */
+    @Override
+    public List<String> getCallersInGroup(String group, int offset, int limit) {
+        checkPage(offset, limit);
+        checkInitialized();
+        return cache.groupMembers(group, offset, limit);
+    }
+
+    /**
+     * Determines the callers assigned to the given group, in the order they were
+     * loaded. The callers are read from the member bitmap as the stream is consumed,
+     * without materializing the member list.
+     * <p>
+     * Callers added by incremental loads follow the existing ones, so pages already
+     * read stay valid until a caller leaves the group or the store is fully reloaded.
+     *
+     * @param group The group name
+     * @return The callers which are assigned to the group, empty stream if none.
+     */
+    @Override
+    public Stream<String> streamCallersInGroup(String group) {
+        checkInitialized();
+        return cache.groupMemberStream(group);
+    }
+
+    /**
+     * Determines the number of callers assigned to the given group.
+     *
+     * @param group The group name
+     * @return The number of callers which are assigned to the group
+     */
+    @Override
+    public int countCallersInGroup(String group) {
+        checkInitialized();
+        return cache.groupMemberCount(group);
+    }
+
+    private static void checkPage(int offset, int limit) {
+        if (offset < 0)
+            throw new IllegalArgumentException("Offset: " + offset);
+        if (limit < 0)
+            throw new IllegalArgumentException("Limit: " + limit);
     }
 }
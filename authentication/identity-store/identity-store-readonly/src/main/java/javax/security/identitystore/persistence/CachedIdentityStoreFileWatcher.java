@@ -0,0 +1,367 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015, 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * http://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package javax.security.identitystore.persistence;
+
+import javax.security.identitystore.persistence.cachedsource.CachedIdentityStoreSource;
+import javax.security.identitystore.persistence.cachedsource.JsonFileIdentityStoreSource;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * <code>CachedIdentityStoreFileWatcher</code> reloads a
+ * <code>{@link CachedIdentityStore}</code> in the background whenever the file
+ * its source reads from is written, such as the file of a
+ * <code>{@link JsonFileIdentityStoreSource}</code>.
+ * <p>
+ * The file is watched using a {@link WatchService} where available, falling back
+ * to polling the file modification time and size otherwise. Bursts of writes are
+ * debounced: the reload starts once the file has been quiet for the debounce delay.
+ * Reloads run on a dedicated daemon thread, and the new cache contents are swapped
+ * in atomically once complete, so request threads never pay for a reload.
+ */
+public class CachedIdentityStoreFileWatcher implements AutoCloseable {
+
+    public static final long DEFAULT_DEBOUNCE_MILLIS = 500;
+    public static final long DEFAULT_POLL_INTERVAL_MILLIS = 5000;
+
+    private static final Logger LOGGER = Logger.getLogger(CachedIdentityStoreFileWatcher.class.getName());
+
+    private final CachedIdentityStore store;
+    private final Path file;
+
+    private volatile long debounceMillis = DEFAULT_DEBOUNCE_MILLIS;
+    private volatile long pollIntervalMillis = DEFAULT_POLL_INTERVAL_MILLIS;
+    private volatile boolean pollingOnly = false;
+
+    private volatile Thread thread;
+    private volatile boolean running;
+    private volatile boolean watching;
+
+    // Metrics
+    private final AtomicLong reloadCount = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+    private volatile long lastReloadNanos = -1;
+    private volatile Exception lastFailure;
+
+    /**
+     * Constructor
+     *
+     * @param store The identity store to reload. Its source must be a
+     *              <code>{@link JsonFileIdentityStoreSource}</code>.
+     */
+    public CachedIdentityStoreFileWatcher(CachedIdentityStore store) {
+        this(store, getSourceFile(store));
+    }
+
+    /**
+     * Constructor
+     *
+     * @param store The identity store to reload
+     * @param file The file read by the source of the identity store
+     */
+    public CachedIdentityStoreFileWatcher(CachedIdentityStore store, File file) {
+        if (null == store)
+            throw new NullPointerException("CachedIdentityStore");
+        if (null == file)
+            throw new NullPointerException("Watched file");
+        this.store = store;
+        this.file = file.toPath().toAbsolutePath();
+    }
+
+    private static File getSourceFile(CachedIdentityStore store) {
+        if (null == store)
+            throw new NullPointerException("CachedIdentityStore");
+        CachedIdentityStoreSource source = store.getSource();
+        if (!(source instanceof JsonFileIdentityStoreSource))
+            throw new IllegalArgumentException("Unsupported source for file watching: " +
+                ((null == source) ? "null" : source.getClass().getName()));
+        return ((JsonFileIdentityStoreSource) source).getFile();
+    }
+
+    /**
+     * Specifies how long the file must be quiet after a change before it is reloaded.
+     *
+     * @param debounceMillis The debounce delay in milliseconds
+     * @return This <code>CachedIdentityStoreFileWatcher</code> instance, for additional configuration.
+     */
+    public CachedIdentityStoreFileWatcher setDebounceMillis(long debounceMillis) {
+        if (debounceMillis < 0)
+            throw new IllegalArgumentException("Debounce delay: " + debounceMillis);
+        this.debounceMillis = debounceMillis;
+        return this;
+    }
+
+    /**
+     * Specifies how often the file modification time and size are checked
+     * when polling, or when the watch service reports nothing.
+     *
+     * @param pollIntervalMillis The poll interval in milliseconds
+     * @return This <code>CachedIdentityStoreFileWatcher</code> instance, for additional configuration.
+     */
+    public CachedIdentityStoreFileWatcher setPollIntervalMillis(long pollIntervalMillis) {
+        if (pollIntervalMillis <= 0)
+            throw new IllegalArgumentException("Poll interval: " + pollIntervalMillis);
+        this.pollIntervalMillis = pollIntervalMillis;
+        return this;
+    }
+
+    /**
+     * Specifies whether to poll the file even if a watch service is available.
+     *
+     * @param pollingOnly <code>true</code> to only poll.
+     * @return This <code>CachedIdentityStoreFileWatcher</code> instance, for additional configuration.
+     */
+    public CachedIdentityStoreFileWatcher setPollingOnly(boolean pollingOnly) {
+        this.pollingOnly = pollingOnly;
+        return this;
+    }
+
+    /**
+     * Starts watching the file on a dedicated background thread.
+     */
+    public synchronized void start() {
+        if (null != thread)
+            throw new IllegalStateException("Already started");
+
+        running = true;
+        // Changes from now on trigger a reload
+        FileState initialState = FileState.of(file);
+        Thread watcherThread = new Thread(() -> run(initialState), "CachedIdentityStore refresh " + file.getFileName());
+        watcherThread.setDaemon(true);
+        thread = watcherThread;
+        watcherThread.start();
+    }
+
+    /**
+     * Stops watching the file. A reload in progress is allowed to complete.
+     */
+    @Override
+    public synchronized void close() {
+        running = false;
+        Thread watcherThread = thread;
+        if (null != watcherThread) {
+            watcherThread.interrupt();
+            try {
+                watcherThread.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Determines whether the file is watched using a watch service, rather than polled.
+     *
+     * @return <code>true</code> if a watch service is in use.
+     */
+    public boolean isWatching() {
+        return watching;
+    }
+
+    /**
+     * Determines the number of completed reloads.
+     *
+     * @return The reload count
+     */
+    public long getReloadCount() {
+        return reloadCount.get();
+    }
+
+    /**
+     * Determines the number of failed reloads.
+     *
+     * @return The failure count
+     */
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    /**
+     * Determines the duration of the last completed reload.
+     *
+     * @return The duration in milliseconds, <code>-1</code> if none completed.
+     */
+    public long getLastReloadDurationMillis() {
+        long nanos = lastReloadNanos;
+        return (nanos < 0) ? -1 : TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    /**
+     * Determines the cause of the last failed reload.
+     *
+     * @return The cause, <code>null</code> if none failed.
+     */
+    public Exception getLastFailure() {
+        return lastFailure;
+    }
+
+    /**
+     * Determines the generation of the identity store cache contents.
+     *
+     * @return The generation
+     * @see CachedIdentityStore#getGeneration
+     */
+    public long getGeneration() {
+        return store.getGeneration();
+    }
+
+    /**
+     * Snapshot of the file modification time and size.
+     */
+    private static final class FileState {
+        private final long lastModified;
+        private final long size;
+
+        private FileState(long lastModified, long size) {
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+
+        static FileState of(Path file) {
+            try {
+                return new FileState(Files.getLastModifiedTime(file).toMillis(), Files.size(file));
+            } catch (IOException e) {
+                // Missing or being replaced
+                return new FileState(-1, -1);
+            }
+        }
+
+        boolean sameAs(FileState other) {
+            return lastModified == other.lastModified && size == other.size;
+        }
+    }
+
+    private void run(FileState initialState) {
+        WatchService watchService = null;
+        if (!pollingOnly) {
+            try {
+                watchService = file.getFileSystem().newWatchService();
+                // Watch the directory, so that files replaced by a rename are seen
+                file.getParent().register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
+                watching = true;
+            } catch (IOException | UnsupportedOperationException e) {
+                // Fall back to polling
+                LOGGER.log(Level.INFO, "Unable to watch " + file + ", polling instead", e);
+                closeQuietly(watchService);
+                watchService = null;
+            }
+        }
+
+        try {
+            FileState loadedState = initialState;
+            long changedAt = -1; // nanoTime of the last observed change, -1 if none pending
+
+            while (running) {
+                long waitMillis = pollIntervalMillis;
+                if (changedAt >= 0) {
+                    long quietMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - changedAt);
+                    waitMillis = Math.max(0, Math.min(waitMillis, debounceMillis - quietMillis));
+                }
+
+                boolean changed = false;
+                if (null != watchService) {
+                    WatchKey key = watchService.poll(waitMillis, TimeUnit.MILLISECONDS);
+                    if (null != key) {
+                        for (WatchEvent<?> event : key.pollEvents()) {
+                            if ((OVERFLOW == event.kind()) || file.getFileName().equals(event.context()))
+                                changed = true;
+                        }
+                        key.reset();
+                    }
+                } else if (waitMillis > 0) {
+                    Thread.sleep(waitMillis);
+                }
+
+                // Catches changes missed by the watch service as well
+                FileState currentState = FileState.of(file);
+                if (!currentState.sameAs(loadedState))
+                    changed = true;
+
+                if (changed) {
+                    changedAt = System.nanoTime();
+                    loadedState = currentState;
+                } else if ((changedAt >= 0) &&
+                        (TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - changedAt) >= debounceMillis)) {
+                    changedAt = -1;
+                    reload();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Closed
+        } finally {
+            closeQuietly(watchService);
+            watching = false;
+        }
+    }
+
+    /**
+     * Reloads the identity store on the current thread.
+     */
+    private void reload() {
+        long start = System.nanoTime();
+        try {
+            store.load();
+            lastReloadNanos = System.nanoTime() - start;
+            reloadCount.incrementAndGet();
+        } catch (Exception e) {
+            failureCount.incrementAndGet();
+            lastFailure = e;
+            LOGGER.log(Level.WARNING, "Unable to reload " + file, e);
+        }
+    }
+
+    private static void closeQuietly(WatchService watchService) {
+        if (null != watchService) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015, 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * http://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package javax.security.identitystore.persistence;
+
+import javax.security.identitystore.persistence.cachedsource.CachedIdentityStoreSource;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <code>CachedIdentityStoreRegistry</code> holds a <code>{@link CachedIdentityStore}</code>
+ * per tenant, created and loaded on first request from the source supplied by a
+ * {@link SourceFactory} for the tenant.
+ * <p>
+ * Concurrent first requests for a tenant share a single load. The total number of
+ * cached callers, and the total estimated size of the stores, may be capped: once a load
+ * exceeds a cap, the least recently requested tenants are evicted until it is met again.
+ * The store requested last is never evicted, so a single tenant larger than a cap is still served.
+ * <p>
+ * Evicted stores are dropped from the registry, and reloaded on their next request.
+ * Requests still holding an evicted store may complete using it, and its memory,
+ * including its off-heap credential material, is released once it is collected.
+ */
+public class CachedIdentityStoreRegistry {
+
+    /**
+     * <code>SourceFactory</code> supplies the identity data source of a tenant.
+     */
+    public interface SourceFactory {
+        /**
+         * Creates the identity data source of the given tenant.
+         *
+         * @param tenant The tenant
+         * @return The source
+         * @throws IOException The tenant is unknown, or its source is not available.
+         */
+        CachedIdentityStoreSource createSource(String tenant) throws IOException;
+    }
+
+    private final SourceFactory sourceFactory;
+
+    private volatile long maxCallers = Long.MAX_VALUE;
+    private volatile long maxEstimatedSize = Long.MAX_VALUE;
+
+    // Stores by tenant, least recently requested first. Guarded by this.
+    private final LinkedHashMap<String, CompletableFuture<CachedIdentityStore>> stores =
+        new LinkedHashMap<>(16, 0.75f, true);
+
+    // Metrics
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong loadCount = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * Constructor
+     *
+     * @param sourceFactory The factory of the tenant sources
+     */
+    public CachedIdentityStoreRegistry(SourceFactory sourceFactory) {
+        if (null == sourceFactory)
+            throw new NullPointerException("Source factory");
+        this.sourceFactory = sourceFactory;
+    }
+
+    /**
+     * Specifies the maximum total number of callers in the cached stores.
+     * The default is unlimited.
+     *
+     * @param maxCallers The maximum number of callers
+     * @return This <code>CachedIdentityStoreRegistry</code> instance, for additional configuration.
+     */
+    public CachedIdentityStoreRegistry setMaxCallers(long maxCallers) {
+        if (maxCallers < 0)
+            throw new IllegalArgumentException("Maximum callers: " + maxCallers);
+        this.maxCallers = maxCallers;
+        return this;
+    }
+
+    /**
+     * Specifies the maximum total estimated size of the cached stores, as determined
+     * by <code>{@link CachedIdentityStore#getEstimatedSize}</code>. The default is unlimited.
+     *
+     * @param maxEstimatedSize The maximum size in bytes
+     * @return This <code>CachedIdentityStoreRegistry</code> instance, for additional configuration.
+     */
+    public CachedIdentityStoreRegistry setMaxEstimatedSize(long maxEstimatedSize) {
+        if (maxEstimatedSize < 0)
+            throw new IllegalArgumentException("Maximum estimated size: " + maxEstimatedSize);
+        this.maxEstimatedSize = maxEstimatedSize;
+        return this;
+    }
+
+    /**
+     * Determines the identity store of the given tenant, loading it if not cached.
+     * Concurrent requests for a tenant being loaded wait for that load.
+     * A failed load is not cached, the next request tries again.
+     *
+     * @param tenant The tenant
+     * @return The loaded identity store
+     * @throws IOException The source of the tenant could not be created or read.
+     */
+    public CachedIdentityStore getStore(String tenant) throws IOException {
+        if (null == tenant)
+            throw new NullPointerException("Tenant");
+
+        CompletableFuture<CachedIdentityStore> future;
+        boolean loader = false;
+        synchronized (this) {
+            future = stores.get(tenant);
+            if (null == future) {
+                future = new CompletableFuture<>();
+                stores.put(tenant, future);
+                loader = true;
+            }
+        }
+
+        if (loader)
+            return load(tenant, future);
+
+        hitCount.incrementAndGet();
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while loading identity store of tenant " + tenant);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    private CachedIdentityStore load(String tenant, CompletableFuture<CachedIdentityStore> future) throws IOException {
+        loadCount.incrementAndGet();
+        CachedIdentityStore store;
+        try {
+            store = new CachedIdentityStore(sourceFactory.createSource(tenant));
+            // Each tenant reports its own metrics
+            store.setStoreName(tenant);
+            store.load();
+        } catch (IOException | RuntimeException | Error e) {
+            failureCount.incrementAndGet();
+            synchronized (this) {
+                stores.remove(tenant, future);
+            }
+            future.completeExceptionally(e);
+            throw e;
+        }
+        future.complete(store);
+        evict(tenant);
+        return store;
+    }
+
+    /**
+     * Evicts the least recently requested tenants, other than the given one,
+     * until the caps are met.
+     */
+    private synchronized void evict(String requested) {
+        long callers = 0;
+        long size = 0;
+        for (CompletableFuture<CachedIdentityStore> future : stores.values()) {
+            CachedIdentityStore store = future.getNow(null);
+            if (null != store) {
+                callers += store.getCallerCount();
+                size += store.getEstimatedSize();
+            }
+        }
+
+        Iterator<Map.Entry<String, CompletableFuture<CachedIdentityStore>>> iterator = stores.entrySet().iterator();
+        while (((callers > maxCallers) || (size > maxEstimatedSize)) && iterator.hasNext()) {
+            Map.Entry<String, CompletableFuture<CachedIdentityStore>> entry = iterator.next();
+            CachedIdentityStore store = entry.getValue().getNow(null);
+            if ((null == store) || entry.getKey().equals(requested))
+                continue; // Still loading, or just requested
+            iterator.remove();
+            evictionCount.incrementAndGet();
+            callers -= store.getCallerCount();
+            size -= store.getEstimatedSize();
+        }
+    }
+
+    /**
+     * Removes the identity store of the given tenant, so that its next request loads it again.
+     *
+     * @param tenant The tenant
+     * @return <code>true</code> if the tenant was cached.
+     */
+    public synchronized boolean invalidate(String tenant) {
+        return null != stores.remove(tenant);
+    }
+
+    /**
+     * Determines the tenants with a cached or loading identity store,
+     * least recently requested first.
+     *
+     * @return The tenants
+     */
+    public synchronized List<String> getTenants() {
+        return new ArrayList<>(stores.keySet());
+    }
+
+    /**
+     * Determines the number of requests served by a cached or loading identity store.
+     *
+     * @return The number of hits
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Determines the number of identity store loads started by the registry.
+     *
+     * @return The number of loads
+     */
+    public long getLoadCount() {
+        return loadCount.get();
+    }
+
+    /**
+     * Determines the number of failed identity store loads.
+     *
+     * @return The number of failures
+     */
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    /**
+     * Determines the number of identity stores evicted to meet the caps.
+     *
+     * @return The number of evictions
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015, 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * http://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package javax.security.identitystore.persistence;
+
+import java.security.SecureRandom;
+import java.util.Collection;
+
+/**
+ * <code>CallerFilter</code> is a Bloom filter over caller names, with which identity
+ * stores reject unknown callers before doing any validation work.
+ * <p>
+ * A filter never rejects an added name, and accepts a name which was not added with
+ * roughly the false positive rate it was created with. The hash functions are seeded
+ * randomly for each filter, so that names accepted by mistake cannot be precomputed.
+ * <p>
+ * Names are added while building the filter, which is not thread safe. Once given to an
+ * identity store, a filter is only read, and may be shared by several threads.
+ */
+public final class CallerFilter {
+
+    public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+
+    private static final int MAX_HASH_COUNT = 16;
+    private static final SecureRandom SEEDS = new SecureRandom();
+
+    private final long[] words;
+    private final long mask; // Number of bits minus one, a power of two minus one
+    private final int hashCount;
+    private final long seed;
+    private int size;
+
+    /**
+     * Constructor
+     *
+     * @param expectedNames The expected number of names
+     * @param falsePositiveRate The rate at which names which were not added are accepted,
+     *                          between <code>0</code> and <code>1</code> exclusive.
+     */
+    public CallerFilter(int expectedNames, double falsePositiveRate) {
+        if (expectedNames < 0)
+            throw new IllegalArgumentException("Expected names: " + expectedNames);
+        if (!(falsePositiveRate > 0) || !(falsePositiveRate < 1))
+            throw new IllegalArgumentException("False positive rate: " + falsePositiveRate);
+        int names = Math.max(1, expectedNames);
+        // m = -n ln(p) / ln(2)^2, rounded up to a power of two of at least one word
+        double optimalBits = -names * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+        long bits = Long.highestOneBit((long) Math.min(optimalBits, 1L << 34) - 1) << 1;
+        bits = Math.max(64, bits);
+        words = new long[(int) (bits >>> 6)];
+        mask = bits - 1;
+        // k = m / n ln(2)
+        hashCount = (int) Math.max(1, Math.min(MAX_HASH_COUNT, Math.round((double) bits / names * Math.log(2))));
+        seed = SEEDS.nextLong();
+    }
+
+    /**
+     * Creates a filter over the given names.
+     *
+     * @param names The caller names
+     * @param falsePositiveRate The rate at which other names are accepted
+     * @return The filter
+     */
+    public static CallerFilter of(Collection<String> names, double falsePositiveRate) {
+        CallerFilter filter = new CallerFilter(names.size(), falsePositiveRate);
+        for (String name : names) {
+            filter.add(name);
+        }
+        return filter;
+    }
+
+    /**
+     * Adds the given caller name.
+     *
+     * @param name The caller name
+     */
+    public void add(String name) {
+        long hash1 = hash(name, seed);
+        long hash2 = mix(hash1 ^ seed) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = (hash1 + i * hash2) & mask;
+            words[(int) (bit >>> 6)] |= 1L << bit;
+        }
+        size++;
+    }
+
+    /**
+     * Determines whether the given caller name may have been added.
+     *
+     * @param name The caller name
+     * @return <code>false</code> if the name was certainly not added.
+     */
+    public boolean mightContain(String name) {
+        if (null == name)
+            return false;
+        long hash1 = hash(name, seed);
+        long hash2 = mix(hash1 ^ seed) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = (hash1 + i * hash2) & mask;
+            if ((words[(int) (bit >>> 6)] & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Determines the number of names added.
+     *
+     * @return The number of names
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Determines the size of the filter.
+     *
+     * @return The number of bits
+     */
+    public long getBitCount() {
+        return mask + 1;
+    }
+
+    /**
+     * Determines the number of bits set for each name.
+     *
+     * @return The number of hash functions
+     */
+    public int getHashCount() {
+        return hashCount;
+    }
+
+    /**
+     * Hashes the characters of the given name with 64 bit FNV-1a, starting from the given seed.
+     */
+    static long hash(String name, long seed) {
+        long hash = seed ^ 0xcbf29ce484222325L;
+        for (int i = 0; i < name.length(); i++) {
+            hash ^= name.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    /**
+     * Mixes the bits of the given value, as the MurmurHash3 finalizer.
+     */
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015, 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * http://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package javax.security.identitystore.persistence;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <code>CredentialArena</code> holds credential material, such as hashes, salts and
+ * unhashed values, outside of the Java heap, in direct byte buffers.
+ * <p>
+ * Records are appended by a single loading thread and never modified, so they may be
+ * read concurrently once the cache referencing them is published. A record is
+ * addressed by an offset, combining the chunk index and the position in the chunk:
+ * <pre>
+ * record        byte kind, int algorithm id, int salt length, int value length,
+ *               salt bytes, value bytes
+ * </pre>
+ * Lengths are <code>-1</code> for a <code>null</code> salt or value.
+ * <p>
+ * Records of credentials which are replaced or removed by incremental loads are
+ * {@link #discard discarded}. They stay in place, since an older cache may still read
+ * them, and are only reclaimed by a full load into a new arena. The number of
+ * discarded bytes tells when that is due.
+ * <p>
+ * Readers {@link #acquire} the arena for the duration of a verification. Once a load
+ * replaces the cache using the arena, it is {@link #retire retired}, and as soon as
+ * no reader holds it its contents are zeroed and its buffers freed.
+ */
+final class CredentialArena {
+
+    private static final Logger LOGGER = Logger.getLogger(CredentialArena.class.getName());
+
+    // Record kinds
+    static final byte PLAIN = 0;         // Value as UTF-16 chars
+    static final byte DIGEST = 1;        // Value as decoded digest bytes, salt as UTF-8 bytes
+    static final byte PASSWORD_HASH = 2; // Value as UTF-16 chars in modular crypt format
+    static final byte UNUSABLE = 3;      // Value as UTF-16 chars, which can never be verified
+
+    static final int HEADER_SIZE = 13;
+
+    // Default chunk size, larger records are given a chunk of their own
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    // Chunks and algorithm names are replaced rather than modified, so readers see a consistent array
+    private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+    private volatile String[] algorithms = new String[0];
+    private int position = CHUNK_SIZE; // In the last chunk, no chunk allocated yet
+    private long size;
+    private long usedBytes;      // Record bytes appended
+    private long discardedBytes; // Record bytes no longer referenced by the latest cache
+
+    private final AtomicInteger readers = new AtomicInteger();
+    private volatile boolean retired;
+    private final AtomicBoolean freed = new AtomicBoolean();
+
+    /**
+     * Appends a record. The given arrays may be cleared by the caller afterwards.
+     *
+     * @param kind The record kind
+     * @param algorithm The algorithm name, <code>null</code> if none.
+     * @param salt The salt bytes, <code>null</code> if none.
+     * @param value The value bytes, <code>null</code> if none.
+     * @return The record offset
+     */
+    long add(byte kind, String algorithm, byte[] salt, byte[] value) {
+        if (retired)
+            throw new IllegalStateException("Retired credential arena");
+        int length = HEADER_SIZE + ((null == salt) ? 0 : salt.length) + ((null == value) ? 0 : value.length);
+        ByteBuffer[] current = chunks;
+        if ((0 == current.length) || (position + length > current[current.length - 1].capacity())) {
+            ByteBuffer chunk = ByteBuffer.allocateDirect(Math.max(CHUNK_SIZE, length));
+            current = Arrays.copyOf(current, current.length + 1);
+            current[current.length - 1] = chunk;
+            size += chunk.capacity();
+            position = 0;
+        }
+        int chunkIndex = current.length - 1;
+        ByteBuffer chunk = current[chunkIndex];
+        int start = position;
+        chunk.put(start, kind);
+        chunk.putInt(start + 1, algorithmId(algorithm));
+        chunk.putInt(start + 5, (null == salt) ? -1 : salt.length);
+        chunk.putInt(start + 9, (null == value) ? -1 : value.length);
+        int at = start + HEADER_SIZE;
+        at = put(chunk, at, salt);
+        put(chunk, at, value);
+        position = start + length;
+        usedBytes += length;
+        chunks = current;
+        return ((long) chunkIndex << 32) | start;
+    }
+
+    private static int put(ByteBuffer chunk, int at, byte[] bytes) {
+        if (null == bytes)
+            return at;
+        for (byte b : bytes) {
+            chunk.put(at++, b);
+        }
+        return at;
+    }
+
+    private int algorithmId(String algorithm) {
+        if (null == algorithm)
+            return -1;
+        String[] current = algorithms;
+        for (int id = 0; id < current.length; id++) {
+            if (current[id].equals(algorithm))
+                return id;
+        }
+        current = Arrays.copyOf(current, current.length + 1);
+        current[current.length - 1] = algorithm;
+        algorithms = current;
+        return current.length - 1;
+    }
+
+    /**
+     * Determines the chunk holding the record at the given offset.
+     */
+    ByteBuffer chunk(long offset) {
+        return chunks[(int) (offset >>> 32)];
+    }
+
+    /**
+     * Determines the position of the record at the given offset in its chunk.
+     */
+    static int position(long offset) {
+        return (int) offset;
+    }
+
+    byte kind(long offset) {
+        return chunk(offset).get(position(offset));
+    }
+
+    String algorithm(long offset) {
+        int id = chunk(offset).getInt(position(offset) + 1);
+        return (id < 0) ? null : algorithms[id];
+    }
+
+    int saltLength(long offset) {
+        return chunk(offset).getInt(position(offset) + 5);
+    }
+
+    int valueLength(long offset) {
+        return chunk(offset).getInt(position(offset) + 9);
+    }
+
+    /**
+     * Determines the position of the salt bytes of the record at the given offset in its chunk.
+     */
+    static int saltPosition(long offset) {
+        return position(offset) + HEADER_SIZE;
+    }
+
+    /**
+     * Determines the position of the value bytes of the record at the given offset in its chunk.
+     */
+    int valuePosition(long offset) {
+        return saltPosition(offset) + Math.max(0, saltLength(offset));
+    }
+
+    /**
+     * Records that the record at the given offset is no longer referenced by the latest cache.
+     *
+     * @param offset The record offset
+     */
+    void discard(long offset) {
+        discardedBytes += HEADER_SIZE + Math.max(0, saltLength(offset)) + Math.max(0, valueLength(offset));
+    }
+
+    /**
+     * Determines the number of record bytes referenced by the latest cache.
+     *
+     * @return The number of bytes
+     */
+    long getLiveBytes() {
+        return usedBytes - discardedBytes;
+    }
+
+    /**
+     * Determines the number of record bytes which were discarded.
+     *
+     * @return The number of bytes
+     */
+    long getDiscardedBytes() {
+        return discardedBytes;
+    }
+
+    /**
+     * Determines the number of bytes allocated off-heap.
+     *
+     * @return The number of bytes, <code>0</code> once freed.
+     */
+    long getSize() {
+        return freed.get() ? 0 : size;
+    }
+
+    /**
+     * Registers a reader of the arena.
+     *
+     * @return <code>true</code> if acquired, <code>false</code> if the arena was retired,
+     * in which case a newer cache has been published.
+     */
+    boolean acquire() {
+        if (retired)
+            return false;
+        readers.incrementAndGet();
+        if (retired) {
+            release();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Unregisters a reader of the arena, freeing a retired arena once no reader holds it.
+     */
+    void release() {
+        if ((0 == readers.decrementAndGet()) && retired)
+            free();
+    }
+
+    /**
+     * Marks the arena as no longer in use by the published cache. It is freed
+     * immediately if no reader holds it, otherwise by the last reader to release it.
+     */
+    void retire() {
+        retired = true;
+        if (0 == readers.get())
+            free();
+    }
+
+    boolean isFreed() {
+        return freed.get();
+    }
+
+    private void free() {
+        if (!freed.compareAndSet(false, true))
+            return;
+        ByteBuffer[] current = chunks;
+        chunks = new ByteBuffer[0];
+        for (ByteBuffer chunk : current) {
+            for (int i = 0; i < chunk.capacity(); i++) {
+                chunk.put(i, (byte) 0); // clear sensitive data
+            }
+            clean(chunk);
+        }
+    }
+
+    // Releases the memory of direct buffers without waiting for garbage collection, when supported
+    private static final Method INVOKE_CLEANER;
+    private static final Object UNSAFE;
+    static {
+        Method invokeCleaner = null;
+        Object unsafe = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            unsafe = theUnsafe.get(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Before Java 9, or not permitted: direct buffers are released when collected
+            invokeCleaner = null;
+            unsafe = null;
+        }
+        INVOKE_CLEANER = invokeCleaner;
+        UNSAFE = unsafe;
+    }
+
+    private static void clean(ByteBuffer buffer) {
+        if (null == INVOKE_CLEANER)
+            return;
+        try {
+            INVOKE_CLEANER.invoke(UNSAFE, buffer);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Unable to free credential arena buffer", e);
+        }
+    }
+}
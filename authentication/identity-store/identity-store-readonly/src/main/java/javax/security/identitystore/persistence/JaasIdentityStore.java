@@ -49,6 +49,8 @@ import javax.security.auth.login.LoginException;
 import javax.security.identitystore.CredentialValidationResult;
 import javax.security.identitystore.credential.UsernamePasswordCredential;
 import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * <code>JaasIdentityStore</code> is an {@link javax.security.identitystore.IdentityStore}
@@ -57,6 +59,8 @@ import java.util.List;
 @Alternative
 public class JaasIdentityStore extends AbstractIdentityStore {
 
+    private static final Logger LOGGER = Logger.getLogger(JaasIdentityStore.class.getName());
+
     final private String appConfigurationEntryName;
     final private Configuration configuration;
     final private JaasSubjectPrincipalResolver jaasSubjectPrincipalResolver;
@@ -153,14 +157,11 @@ public class JaasIdentityStore extends AbstractIdentityStore {
             roles = jaasSubjectPrincipalResolver.getCallerRoles(subject, caller);
 
         } catch (LoginException e) {
-            // TODO: Logging
-            e.printStackTrace();
-
-            System.out.println("Login invalid: " + e.getMessage());
+            LOGGER.log(Level.FINE, "Login invalid", e);
             return CredentialValidationResult.INVALID_RESULT;
         } catch (Exception e) {
-            // TODO: Logging
-            System.out.println("Login not validated: " + e.getMessage());
+            LOGGER.log(Level.WARNING, "Login not validated", e);
+            reportError("validate", e);
             return CredentialValidationResult.NOT_VALIDATED_RESULT;
         } finally {
             try {
@@ -168,8 +169,7 @@ public class JaasIdentityStore extends AbstractIdentityStore {
                     loginContext.logout();
                 }
             } catch (Exception e) {
-                // TODO: Logging
-                System.out.println("Logout exception: " + e.getMessage());
+                LOGGER.log(Level.WARNING, "Logout failed", e);
             }
         }
 
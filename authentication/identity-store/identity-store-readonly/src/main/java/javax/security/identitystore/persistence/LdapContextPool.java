@@ -0,0 +1,309 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015, 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * http://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package javax.security.identitystore.persistence;
+
+import javax.naming.CommunicationException;
+import javax.naming.InterruptedNamingException;
+import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
+import javax.naming.ldap.InitialLdapContext;
+import javax.naming.ldap.LdapContext;
+import java.util.Hashtable;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <code>LdapContextPool</code> is a size-bounded pool of LDAP contexts bound with the
+ * service account of an LDAP identity store, used for searches and attribute reads.
+ * <p>
+ * A context is used by one thread at a time: it is borrowed, used, and then released back
+ * to the pool, or invalidated if its connection failed. Borrowing waits up to a timeout
+ * when all contexts are in use. Idle contexts are reused most recently released first, so
+ * that surplus contexts stay idle and may be closed by the server.
+ * <p>
+ * Operations run with <code>{@link #execute}</code> are retried once on a new context when
+ * the connection of a reused idle context fails, as the server may have closed it.
+ * <p>
+ * The pool must never hold contexts bound with caller credentials.
+ */
+public class LdapContextPool implements AutoCloseable {
+
+    public static final int DEFAULT_MAX_SIZE = 8;
+    public static final long DEFAULT_TIMEOUT_MILLIS = 5000;
+
+    /**
+     * <code>Operation</code> reads the directory using a pooled context.
+     *
+     * @param <T> The result type
+     */
+    public interface Operation<T> {
+        /**
+         * Reads the directory.
+         *
+         * @param ctx The context to read with, which must not be retained.
+         * @return The result
+         * @throws NamingException An error occurred while reading the directory.
+         */
+        T execute(LdapContext ctx) throws NamingException;
+    }
+
+    private final Hashtable<String, Object> contextEnv;
+    private final Semaphore permits;
+    private final long timeoutMillis;
+    private final LinkedBlockingDeque<LdapContext> idle = new LinkedBlockingDeque<>();
+    private volatile boolean closed = false;
+
+    // Metrics
+    private final LongAdder createdCount = new LongAdder();
+    private final LongAdder invalidatedCount = new LongAdder();
+    private final LongAdder timeoutCount = new LongAdder();
+    private final LongAdder retryCount = new LongAdder();
+
+    /**
+     * Constructor, with the default bounds.
+     *
+     * @param contextEnvironment Environment used to create the service account contexts.
+     */
+    public LdapContextPool(Hashtable<String, Object> contextEnvironment) {
+        this(contextEnvironment, DEFAULT_MAX_SIZE, DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param contextEnvironment Environment used to create the service account contexts.
+     * @param maxSize The number of contexts which may be open at once
+     * @param timeoutMillis The time to wait for a context when all are in use, in milliseconds.
+     */
+    public LdapContextPool(Hashtable<String, Object> contextEnvironment, int maxSize, long timeoutMillis) {
+        if (maxSize <= 0)
+            throw new IllegalArgumentException("Max size: " + maxSize);
+        if (timeoutMillis < 0)
+            throw new IllegalArgumentException("Timeout: " + timeoutMillis);
+        this.contextEnv = new Hashtable<>(contextEnvironment);
+        // Pooled by this pool instead of the JNDI provider
+        this.contextEnv.put("com.sun.jndi.ldap.connect.pool", "false");
+        this.permits = new Semaphore(maxSize, true);
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Borrows a context, reusing an idle context or creating a new one. The context must be
+     * returned using <code>{@link #release}</code> or <code>{@link #invalidate}</code>.
+     * Unlike <code>{@link #execute}</code>, a failure of a reused context is not retried.
+     *
+     * @return The context
+     * @throws NamingException No context became available within the timeout, or a new
+     * context could not be created.
+     */
+    public LdapContext borrow() throws NamingException {
+        acquire();
+        LdapContext ctx = idle.pollFirst();
+        return (null != ctx) ? ctx : create();
+    }
+
+    /**
+     * Runs an operation on a borrowed context, then releases the context. When the connection
+     * of a reused idle context fails, the context is invalidated and the operation runs once
+     * more on a new context. A context whose connection failed is always invalidated.
+     *
+     * @param operation The operation
+     * @param <T> The result type
+     * @return The result of the operation
+     * @throws NamingException No context became available within the timeout, a new context
+     * could not be created, or the operation failed.
+     */
+    public <T> T execute(Operation<T> operation) throws NamingException {
+        acquire();
+        LdapContext ctx = idle.pollFirst();
+        boolean reused = (null != ctx);
+        while (true) {
+            if (null == ctx)
+                ctx = create();
+            try {
+                T result = operation.execute(ctx);
+                release(ctx);
+                return result;
+            } catch (CommunicationException e) {
+                invalidate(ctx);
+                if (!reused)
+                    throw e;
+                // The server may have closed the idle connection
+                retryCount.increment();
+                reused = false;
+                ctx = null;
+                acquire();
+            } catch (NamingException | RuntimeException e) {
+                release(ctx);
+                throw e;
+            }
+        }
+    }
+
+    private void acquire() throws NamingException {
+        if (closed)
+            throw new IllegalStateException("Closed");
+        try {
+            if (!permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                timeoutCount.increment();
+                throw new ServiceUnavailableException("No LDAP context available within " + timeoutMillis + " ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedNamingException("Interrupted waiting for an LDAP context");
+        }
+    }
+
+    private LdapContext create() throws NamingException {
+        try {
+            LdapContext ctx = createContext();
+            createdCount.increment();
+            return ctx;
+        } catch (NamingException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Creates a new context bound with the service account.
+     *
+     * @return The context
+     * @throws NamingException The context could not be created.
+     */
+    protected LdapContext createContext() throws NamingException {
+        return new InitialLdapContext(new Hashtable<>(contextEnv), null);
+    }
+
+    /**
+     * Returns a borrowed context to the pool.
+     *
+     * @param ctx The context
+     */
+    public void release(LdapContext ctx) {
+        if (closed) {
+            closeContext(ctx);
+        } else {
+            idle.offerFirst(ctx);
+            // Closed concurrently
+            if (closed && idle.remove(ctx))
+                closeContext(ctx);
+        }
+        permits.release();
+    }
+
+    /**
+     * Closes a borrowed context whose connection failed, instead of returning it to the pool.
+     *
+     * @param ctx The context
+     */
+    public void invalidate(LdapContext ctx) {
+        invalidatedCount.increment();
+        closeContext(ctx);
+        permits.release();
+    }
+
+    private static void closeContext(LdapContext ctx) {
+        try {
+            ctx.close();
+        } catch (NamingException e) {
+        }
+    }
+
+    /**
+     * Determines the number of idle contexts.
+     *
+     * @return The number of idle contexts
+     */
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * Determines the number of contexts created.
+     *
+     * @return The number of contexts created
+     */
+    public long getCreatedCount() {
+        return createdCount.sum();
+    }
+
+    /**
+     * Determines the number of contexts closed because their connection failed.
+     *
+     * @return The number of invalidated contexts
+     */
+    public long getInvalidatedCount() {
+        return invalidatedCount.sum();
+    }
+
+    /**
+     * Determines the number of borrows which timed out waiting for a context.
+     *
+     * @return The number of timeouts
+     */
+    public long getTimeoutCount() {
+        return timeoutCount.sum();
+    }
+
+    /**
+     * Determines the number of operations run again on a new context because the
+     * connection of a reused idle context failed.
+     *
+     * @return The number of retries
+     */
+    public long getRetryCount() {
+        return retryCount.sum();
+    }
+
+    /**
+     * Closes the idle contexts. Borrowed contexts are closed when released.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LdapContext ctx;
+        while (null != (ctx = idle.pollFirst())) {
+            closeContext(ctx);
+        }
+    }
+}
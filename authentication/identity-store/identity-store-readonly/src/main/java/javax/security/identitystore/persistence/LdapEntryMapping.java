@@ -46,6 +46,7 @@ package javax.security.identitystore.persistence;
 public class LdapEntryMapping {
 
     private final CallerMapping callerMapping = new CallerMapping();
+    private final GroupMapping groupMapping = new GroupMapping();
 
     /**
      * <code>CallerMapping</code> contains required LDAP entry DNs and attribute
@@ -54,6 +55,8 @@ public class LdapEntryMapping {
     public static class CallerMapping {
         private volatile String dnPattern;
         private volatile String groupAttribute;
+        private volatile String searchBase;
+        private volatile String nameAttribute;
 
         /**
          * Determines the distinguished name (DN) pattern for a caller entry name.
@@ -105,6 +108,131 @@ public class LdapEntryMapping {
             this.groupAttribute = groupAttribute;
             return this;
         }
+
+        /**
+         * Determines the distinguished name (DN) of the entry below which all caller
+         * entries are found, such as <code>"ou=people,ou=myrealm,dc=base_domain"</code>.
+         *
+         * @return The caller search base DN.
+         */
+        public String getSearchBase() {
+            return searchBase;
+        }
+
+        /**
+         * Specifies the distinguished name (DN) of the entry below which all caller
+         * entries are found.
+         *
+         * @param searchBase The caller search base DN.
+         * @return This <code>CallerMapping</code> instance, for additional configuration.
+         * @see #getSearchBase
+         */
+        public CallerMapping setSearchBase(String searchBase) {
+            this.searchBase = searchBase;
+            return this;
+        }
+
+        /**
+         * Determines the name of the caller entry attribute containing the caller name,
+         * such as <code>uid</code>, which the DN pattern substitutes.
+         *
+         * @return The caller entry name attribute name.
+         */
+        public String getNameAttribute() {
+            return nameAttribute;
+        }
+
+        /**
+         * Specifies the name of the caller entry attribute containing the caller name.
+         *
+         * @param nameAttribute The caller entry name attribute name.
+         * @return This <code>CallerMapping</code> instance, for additional configuration.
+         * @see #getNameAttribute
+         */
+        public CallerMapping setNameAttribute(String nameAttribute) {
+            this.nameAttribute = nameAttribute;
+            return this;
+        }
+    }
+
+    /**
+     * <code>GroupMapping</code> contains LDAP entry DNs and attribute names for
+     * group entries, enabling the resolution of nested groups.
+     */
+    public static class GroupMapping {
+        private volatile String searchBase;
+        private volatile String groupAttribute;
+        private volatile String filter;
+
+        /**
+         * Determines the distinguished name (DN) of the entry below which all group
+         * entries are found, such as <code>"ou=groups,ou=myrealm,dc=base_domain"</code>.
+         *
+         * @return The group search base DN.
+         */
+        public String getSearchBase() {
+            return searchBase;
+        }
+
+        /**
+         * Specifies the distinguished name (DN) of the entry below which all group
+         * entries are found.
+         *
+         * @param searchBase The group search base DN.
+         * @return This <code>GroupMapping</code> instance, for additional configuration.
+         * @see #getSearchBase
+         */
+        public GroupMapping setSearchBase(String searchBase) {
+            this.searchBase = searchBase;
+            return this;
+        }
+
+        /**
+         * Determines the name of the group entry attribute containing the
+         * DNs of groups of which this group is a member.
+         *
+         * @return The group entry group attribute name.
+         */
+        public String getGroupAttribute() {
+            return groupAttribute;
+        }
+
+        /**
+         * Specifies the name of the group entry attribute containing the
+         * DNs of groups of which this group is a member.
+         *
+         * @param groupAttribute The group entry group attribute name.
+         * @return This <code>GroupMapping</code> instance, for additional configuration.
+         * @see #getGroupAttribute
+         */
+        public GroupMapping setGroupAttribute(String groupAttribute) {
+            this.groupAttribute = groupAttribute;
+            return this;
+        }
+
+        /**
+         * Determines the search filter selecting the group entries below the search base.
+         *
+         * @return The group search filter, <code>null</code> to select all entries
+         * having the group attribute.
+         */
+        public String getFilter() {
+            return filter;
+        }
+
+        /**
+         * Specifies the search filter selecting the group entries below the search base,
+         * such as <code>"(objectClass=groupOfNames)"</code>.
+         *
+         * @param filter The group search filter, <code>null</code> to select all entries
+         *               having the group attribute.
+         * @return This <code>GroupMapping</code> instance, for additional configuration.
+         * @see #getFilter
+         */
+        public GroupMapping setFilter(String filter) {
+            this.filter = filter;
+            return this;
+        }
     }
 
     /**
@@ -113,4 +241,11 @@ public class LdapEntryMapping {
      * @return The contained instance of <code>CallerMapping</code>.
      */
     public CallerMapping getCallerMapping() { return callerMapping; }
+
+    /**
+     * Determines the contained instance of <code>GroupMapping</code>.
+     *
+     * @return The contained instance of <code>GroupMapping</code>.
+     */
+    public GroupMapping getGroupMapping() { return groupMapping; }
 }
@@ -0,0 +1,210 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015, 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * http://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package javax.security.identitystore.persistence;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.PagedResultsControl;
+import javax.naming.ldap.PagedResultsResponseControl;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <code>LdapGroupGraph</code> is an immutable snapshot of the nested group memberships
+ * of a directory: the parent groups of each group, read in bulk by a single paged search.
+ * <p>
+ * The transitive closure of the groups of a caller is computed from the ancestors of each
+ * of its groups, which are found by a breadth first traversal and memoized per group, so
+ * that each group is traversed once per snapshot. Membership cycles are detected and
+ * tolerated: each group of a cycle has every other group of the cycle as an ancestor.
+ */
+final class LdapGroupGraph {
+
+    private static final Logger LOGGER = Logger.getLogger(LdapGroupGraph.class.getName());
+
+    static final int PAGE_SIZE = 500;
+
+    private static final LdapName[] NONE = new LdapName[0];
+
+    // Parent groups by group, only for groups having parents
+    private final Map<LdapName, LdapName[]> parents;
+
+    // Ancestor groups by group, computed on first use
+    private final ConcurrentHashMap<LdapName, LdapName[]> ancestors = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor
+     *
+     * @param parents The parent groups by group
+     */
+    LdapGroupGraph(Map<LdapName, ? extends Collection<LdapName>> parents) {
+        HashMap<LdapName, LdapName[]> map = new HashMap<>();
+        for (Map.Entry<LdapName, ? extends Collection<LdapName>> entry : parents.entrySet()) {
+            if (!entry.getValue().isEmpty())
+                map.put(entry.getKey(), entry.getValue().toArray(NONE));
+        }
+        this.parents = map;
+    }
+
+    /**
+     * Reads the parent groups of all groups found below the given search base.
+     * The request controls of the context are reset once read.
+     *
+     * @param ctx The context to search with
+     * @param searchBase The group search base DN
+     * @param filter The group search filter, <code>null</code> for all entries having the group attribute.
+     * @param groupAttribute The group entry attribute containing the parent group DNs
+     * @return The graph
+     * @throws NamingException An error occurred while searching the directory.
+     */
+    static LdapGroupGraph load(LdapContext ctx, String searchBase, String filter, String groupAttribute)
+        throws NamingException {
+        SearchControls controls = new SearchControls();
+        controls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+        controls.setReturningAttributes(new String[]{groupAttribute});
+        if (null == filter)
+            filter = "(" + groupAttribute + "=*)";
+
+        Map<LdapName, List<LdapName>> parents = new HashMap<>();
+        try {
+            byte[] cookie = null;
+            do {
+                ctx.setRequestControls(new Control[]{new PagedResultsControl(PAGE_SIZE, cookie, Control.CRITICAL)});
+                NamingEnumeration<SearchResult> results = ctx.search(searchBase, filter, controls);
+                try {
+                    while (results.hasMore()) {
+                        SearchResult result = results.next();
+                        Attribute attribute = result.getAttributes().get(groupAttribute);
+                        if (null == attribute)
+                            continue;
+                        List<LdapName> groupParents = parents.computeIfAbsent(
+                            new LdapName(result.getNameInNamespace()), k -> new ArrayList<>());
+                        NamingEnumeration<?> values = attribute.getAll();
+                        while (values.hasMore()) {
+                            groupParents.add(new LdapName(String.valueOf(values.next())));
+                        }
+                    }
+                } finally {
+                    results.close();
+                }
+
+                cookie = null;
+                Control[] responseControls = ctx.getResponseControls();
+                if (null != responseControls) {
+                    for (Control control : responseControls) {
+                        if (control instanceof PagedResultsResponseControl)
+                            cookie = ((PagedResultsResponseControl) control).getCookie();
+                    }
+                }
+            } while ((null != cookie) && (cookie.length > 0));
+        } catch (IOException e) {
+            NamingException namingException = new NamingException("Unable to page group search: " + e.getMessage());
+            namingException.setRootCause(e);
+            throw namingException;
+        } finally {
+            ctx.setRequestControls(null);
+        }
+        return new LdapGroupGraph(parents);
+    }
+
+    /**
+     * Determines the given groups and all groups they are nested in.
+     *
+     * @param groups The groups
+     * @return The groups and their ancestors, given groups first.
+     */
+    Collection<LdapName> closure(Collection<LdapName> groups) {
+        LinkedHashSet<LdapName> closure = new LinkedHashSet<>(groups);
+        for (LdapName group : groups) {
+            Collections.addAll(closure, ancestors(group));
+        }
+        return closure;
+    }
+
+    /**
+     * Determines the groups the given group is nested in, directly or not.
+     *
+     * @param group The group
+     * @return The ancestor groups, excluding the group itself.
+     */
+    LdapName[] ancestors(LdapName group) {
+        if (!parents.containsKey(group))
+            return NONE;
+        return ancestors.computeIfAbsent(group, start -> {
+            LinkedHashSet<LdapName> found = new LinkedHashSet<>();
+            ArrayDeque<LdapName> queue = new ArrayDeque<>();
+            queue.add(start);
+            while (!queue.isEmpty()) {
+                for (LdapName parent : parents.getOrDefault(queue.poll(), NONE)) {
+                    if (found.add(parent))
+                        queue.add(parent);
+                }
+            }
+            if (found.remove(start))
+                LOGGER.log(Level.FINE, "Group {0} is nested in itself", start);
+            return found.toArray(NONE);
+        });
+    }
+
+    /**
+     * Determines the number of groups nested in other groups.
+     *
+     * @return The number of nested groups
+     */
+    int size() {
+        return parents.size();
+    }
+}
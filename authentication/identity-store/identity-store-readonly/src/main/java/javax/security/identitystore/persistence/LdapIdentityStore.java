@@ -40,32 +40,74 @@
 package javax.security.identitystore.persistence;
 
 import javax.enterprise.inject.Alternative;
+import javax.naming.AuthenticationException;
 import javax.naming.Context;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
 import javax.naming.directory.Attribute;
 import javax.naming.directory.Attributes;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
 import javax.naming.ldap.InitialLdapContext;
+import javax.naming.ldap.Control;
 import javax.naming.ldap.LdapContext;
 import javax.naming.ldap.LdapName;
+import javax.naming.ldap.PagedResultsControl;
+import javax.naming.ldap.PagedResultsResponseControl;
 import javax.naming.ldap.Rdn;
 import javax.security.identitystore.CredentialValidationResult;
+import javax.security.identitystore.credential.Credential;
 import javax.security.identitystore.credential.UsernamePasswordCredential;
+import java.io.IOException;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Hashtable;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * <code>LdapIdentityStore</code> is an {@link javax.security.identitystore.IdentityStore}
  * implementation which uses an external LDAP server as a persistence mechanism.
+ * <p>
+ * Callers are validated by binding as the caller, on a connection which is never pooled.
+ * The groups of a validated caller are read on the same connection, before it is closed.
+ * Searches and attribute reads using the service account run on the contexts of an
+ * <code>{@link LdapContextPool}</code>.
+ * <p>
+ * The groups of callers may be cached in a <code>{@link RefreshingCache}</code>, so that
+ * most group lookups do not reach the directory.
+ * <p>
+ * Nested groups are resolved using a snapshot of the parent groups of all groups, read
+ * by a single search below the <code>{@link LdapEntryMapping.GroupMapping group}</code>
+ * search base, and refreshed periodically.
+ * <p>
+ * JNDI operations block, so asynchronous validations run on the async executor. The
+ * <code>{@link #setAsyncTimeout async timeout}</code> bounds the connect and read time of
+ * caller binds, and a cancelled validation stops after its bind.
  */
 @Alternative
 public class LdapIdentityStore
-    extends AbstractIdentityStore {
+    extends AbstractIdentityStore implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(LdapIdentityStore.class.getName());
 
     final private Hashtable<String, Object> contextEnv;
     final private LdapEntryMapping entryMapping;
+    final private LdapContextPool contextPool;
+
+    // Moving average of the duration of caller binds, in nanoseconds
+    private volatile long bindNanos = 0;
+
+    private volatile RefreshingCache<String, List<String>> groupCache;
+
+    private volatile RefreshingCache<String, LdapGroupGraph> groupGraph;
 
     /**
      * Constructor.
@@ -76,8 +118,111 @@ public class LdapIdentityStore
     public LdapIdentityStore(
         Hashtable<String, Object> contextEnvironment,
         LdapEntryMapping entryMapping)  {
+        this(contextEnvironment, entryMapping, new LdapContextPool(contextEnvironment));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param contextEnvironment Environment used to create the initial {@link LdapContext}.
+     * @param entryMapping LDAP entry distriguished name and attribute mapping
+     * @param contextPool Pool of service account contexts used for searches and attribute reads
+     */
+    public LdapIdentityStore(
+        Hashtable<String, Object> contextEnvironment,
+        LdapEntryMapping entryMapping,
+        LdapContextPool contextPool)  {
+        if (null == contextPool)
+            throw new NullPointerException("Context pool");
         this.contextEnv = new Hashtable(contextEnvironment);
         this.entryMapping = entryMapping;
+        this.contextPool = contextPool;
+    }
+
+    /**
+     * Determines the pool of service account contexts used for searches and attribute reads.
+     *
+     * @return The pool
+     */
+    public LdapContextPool getContextPool() {
+        return contextPool;
+    }
+
+    /**
+     * Determines the cache of caller groups, keyed by the
+     * <code>{@link #normalizeCallerName normalized}</code> caller name.
+     *
+     * @return The cache, <code>null</code> if groups are not cached.
+     */
+    public RefreshingCache<String, List<String>> getGroupCache() {
+        return groupCache;
+    }
+
+    /**
+     * Specifies the caching of caller groups. Groups are refreshed in the background once
+     * older than the refresh age, and read again once older than the time to live. While
+     * the directory is unreachable, expired groups are returned for up to the maximum
+     * staleness. Groups read when validating a caller replace the cached groups.
+     * Groups are cached by the lower case caller name, once for all cases of a name.
+     * Groups are not cached by default.
+     *
+     * @param maxSize The maximum number of callers whose groups are cached, <code>0</code>
+     *                to not cache groups.
+     * @param ttlMillis The time groups are returned without reading them again, in milliseconds.
+     * @param refreshMillis The age at which requested groups are refreshed in the background, in milliseconds.
+     * @param maxStaleMillis The time past their time to live groups are returned while the
+     *                       directory is unreachable, in milliseconds.
+     * @return This <code>LdapIdentityStore</code> instance, for additional configuration.
+     */
+    public LdapIdentityStore setGroupCache(int maxSize, long ttlMillis, long refreshMillis, long maxStaleMillis) {
+        this.groupCache = (0 == maxSize) ? null :
+            new RefreshingCache<>(this::loadCallerGroups, maxSize, ttlMillis, refreshMillis, maxStaleMillis);
+        return this;
+    }
+
+    /**
+     * Specifies the resolution of nested groups. The groups of a caller then include all
+     * groups its groups are nested in, directly or not. The nested groups are read from
+     * the entries found below the <code>{@link LdapEntryMapping.GroupMapping group}</code>
+     * search base, in the background once older than the refresh interval. While the
+     * directory is unreachable, the previous nested groups are used for up to ten refresh
+     * intervals. Nested groups are not resolved by default.
+     * <p>
+     * Resolved groups are memoized per caller by the <code>{@link #setGroupCache group cache}</code>,
+     * and reflect the nested groups read when the caller's groups were read.
+     *
+     * @param refreshMillis The interval at which nested groups are read again, in milliseconds,
+     *                      <code>0</code> to not resolve nested groups.
+     * @return This <code>LdapIdentityStore</code> instance, for additional configuration.
+     */
+    public LdapIdentityStore setGroupGraphRefresh(long refreshMillis) {
+        if (refreshMillis < 0)
+            throw new IllegalArgumentException("Refresh interval: " + refreshMillis);
+        LdapEntryMapping.GroupMapping groupMapping = entryMapping.getGroupMapping();
+        if ((refreshMillis > 0) && ((null == groupMapping.getSearchBase()) || (null == groupMapping.getGroupAttribute())))
+            throw new IllegalStateException("Group search base and group attribute are required");
+        this.groupGraph = (0 == refreshMillis) ? null :
+            new RefreshingCache<>(key -> loadGroupGraph(), 1, 2 * refreshMillis, refreshMillis, 8 * refreshMillis);
+        return this;
+    }
+
+    private LdapGroupGraph loadGroupGraph() throws NamingException {
+        LdapEntryMapping.GroupMapping groupMapping = entryMapping.getGroupMapping();
+        try {
+            return contextPool.execute(ctx -> LdapGroupGraph.load(ctx, groupMapping.getSearchBase(),
+                groupMapping.getFilter(), groupMapping.getGroupAttribute()));
+        } catch (NamingException | RuntimeException e) {
+            reportError("loadGroupGraph", e);
+            throw e;
+        }
+    }
+
+    /**
+     * Closes the pooled service account contexts.
+     */
+    @Override
+    public void close() {
+        contextPool.close();
     }
 
     /**
@@ -90,6 +235,123 @@ public class LdapIdentityStore
         return MessageFormat.format(entryMapping.getCallerMapping().getDnPattern(), caller);
     }
 
+    private void recordBind(long nanos) {
+        long average = bindNanos;
+        // Racy updates only lose samples
+        bindNanos = (average == 0) ? nanos : average + ((nanos - average) >> 3);
+    }
+
+    /**
+     * Waits as long as a caller bind takes on average, so that callers rejected by the
+     * caller filter are not answered faster than callers with invalid passwords.
+     *
+     * @param credential The rejected credential
+     */
+    @Override
+    protected void rejectUnknownCaller(Credential credential) {
+        long deadline = System.nanoTime() + bindNanos;
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    /**
+     * Builds a caller filter over the names of all caller entries found below the
+     * caller search base, and sets it as the <code>{@link #setCallerFilter caller filter}</code>.
+     * The entries are searched in pages, and their names are added in lower case.
+     * The filter should be rebuilt whenever callers are added to the directory, which
+     * would otherwise be rejected.
+     *
+     * @param falsePositiveRate The rate at which unknown callers are accepted
+     * @return The filter
+     * @throws NamingException An error occurred while searching the directory.
+     */
+    public CallerFilter loadCallerFilter(double falsePositiveRate) throws NamingException {
+        String searchBase = entryMapping.getCallerMapping().getSearchBase();
+        String nameAttribute = entryMapping.getCallerMapping().getNameAttribute();
+        if ((null == searchBase) || (null == nameAttribute))
+            throw new IllegalStateException("Caller search base and name attribute are required");
+
+        List<String> names;
+        try {
+            names = contextPool.execute(ctx -> searchCallerNames(ctx, searchBase, nameAttribute));
+        } catch (NamingException | RuntimeException e) {
+            reportError("loadCallerFilter", e);
+            throw e;
+        }
+
+        CallerFilter filter = CallerFilter.of(names, falsePositiveRate);
+        setCallerFilter(filter);
+        return filter;
+    }
+
+    /**
+     * Searches the normalized names of all caller entries, in pages.
+     *
+     * @param ctx The context to search with
+     * @param searchBase The caller search base
+     * @param nameAttribute The caller name attribute
+     * @return The names
+     * @throws NamingException An error occurred while searching the directory.
+     */
+    private List<String> searchCallerNames(LdapContext ctx, String searchBase, String nameAttribute)
+        throws NamingException {
+        SearchControls controls = new SearchControls();
+        controls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+        controls.setReturningAttributes(new String[]{nameAttribute});
+
+        List<String> names = new ArrayList<>();
+        try {
+            byte[] cookie = null;
+            do {
+                ctx.setRequestControls(new Control[]{
+                    new PagedResultsControl(LdapGroupGraph.PAGE_SIZE, cookie, Control.CRITICAL)});
+                NamingEnumeration<SearchResult> results = ctx.search(searchBase, "(" + nameAttribute + "=*)", controls);
+                try {
+                    while (results.hasMore()) {
+                        Attribute attribute = results.next().getAttributes().get(nameAttribute);
+                        if (null != attribute) {
+                            NamingEnumeration<?> values = attribute.getAll();
+                            while (values.hasMore()) {
+                                names.add(normalizeCallerName(String.valueOf(values.next())));
+                            }
+                        }
+                    }
+                } finally {
+                    results.close();
+                }
+
+                cookie = null;
+                Control[] responseControls = ctx.getResponseControls();
+                if (null != responseControls) {
+                    for (Control control : responseControls) {
+                        if (control instanceof PagedResultsResponseControl)
+                            cookie = ((PagedResultsResponseControl) control).getCookie();
+                    }
+                }
+            } while ((null != cookie) && (cookie.length > 0));
+        } catch (IOException e) {
+            NamingException namingException = new NamingException("Unable to page caller search: " + e.getMessage());
+            namingException.setRootCause(e);
+            throw namingException;
+        } finally {
+            ctx.setRequestControls(null);
+        }
+        return names;
+    }
+
+    /**
+     * Converts the caller name to lower case, as LDAP matches names case-insensitively.
+     *
+     * @param caller The caller name
+     * @return The lower case name
+     */
+    @Override
+    protected String normalizeCallerName(String caller) {
+        return caller.toLowerCase(Locale.ROOT);
+    }
+
     /**
      * Default validation behavior for username/password credentials.
      *
@@ -113,12 +375,42 @@ public class LdapIdentityStore
             // Never use connection pool to prevent password caching
             env.put("com.sun.jndi.ldap.connect.pool", "false");
 
-            authCtx = new InitialLdapContext(env, null);
+            // Bound the bind and the group read by the asynchronous validation timeout
+            long timeout = getAsyncTimeout();
+            if (timeout > 0) {
+                env.putIfAbsent("com.sun.jndi.ldap.connect.timeout", String.valueOf(timeout));
+                env.putIfAbsent("com.sun.jndi.ldap.read.timeout", String.valueOf(timeout));
+            }
+
+            long start = System.nanoTime();
+            try {
+                authCtx = new InitialLdapContext(env, null);
+            } finally {
+                recordBind(System.nanoTime() - start);
+            }
+
+            // Cancelled while binding
+            if (Thread.currentThread().isInterrupted())
+                return CredentialValidationResult.NOT_VALIDATED_RESULT;
 
-            return new CredentialValidationResult(CredentialValidationResult.Status.VALID, caller, this);
+            // Read the groups on the bound connection, instead of connecting again
+            List<String> groups;
+            try {
+                groups = readCallerGroups(authCtx, principalDn);
+                RefreshingCache<String, List<String>> cache = groupCache;
+                if (null != cache)
+                    cache.put(normalizeCallerName(caller), groups);
+            } catch (NamingException e) {
+                // The caller may not be allowed to read its own entry
+                groups = getCallerGroups(caller);
+            }
+            return new CredentialValidationResult(CredentialValidationResult.Status.VALID, caller,
+                groups, getCallerRoles(caller));
+        } catch (AuthenticationException e) {
+            LOGGER.log(Level.FINE, "Invalid credential for caller {0}", caller);
         } catch (Exception e) {
-            // TODO: Add logging
-            System.out.println("Credential validation failed for caller " + caller);
+            LOGGER.log(Level.WARNING, "Unable to validate caller " + caller, e);
+            reportError("validate", e);
         } finally {
             if (authCtx != null) {
                 try {
@@ -140,42 +432,75 @@ public class LdapIdentityStore
      */
     @Override
     public List<String> getCallerGroups(String callerName) {
-        LdapContext ctx = null;
+        RefreshingCache<String, List<String>> cache = groupCache;
+        try {
+            return (null == cache) ? loadCallerGroups(callerName) : cache.get(normalizeCallerName(callerName));
+        } catch (ExecutionException e) {
+            // Reported by the load
+            LOGGER.log(Level.WARNING, "Unable to read the groups of caller " + callerName, e.getCause());
+            return null;
+        } catch (NamingException e) {
+            // Reported by the load
+            LOGGER.log(Level.WARNING, "Unable to read the groups of caller " + callerName, e);
+            return null;
+        }
+    }
 
+    /**
+     * Reads the groups of a caller on a pooled context.
+     *
+     * @param callerName The Caller name
+     * @return The group names, empty if none.
+     * @throws NamingException An error occurred while reading the entry.
+     */
+    private List<String> loadCallerGroups(String callerName) throws NamingException {
         try {
-            Hashtable<String, Object> env = new Hashtable<String, Object>(contextEnv);
+            return contextPool.execute(ctx -> readCallerGroups(ctx, formatDn(callerName)));
+        } catch (NamingException | RuntimeException e) {
+            reportError("getCallerGroups", e);
+            throw e;
+        }
+    }
 
-            // Never use connection pool to prevent password caching
-            env.put("com.sun.jndi.ldap.connect.pool", "false");
+    /**
+     * Reads the groups of a caller from the group attribute of the caller entry,
+     * including the groups they are nested in if nested groups are resolved.
+     *
+     * @param ctx The context to read with
+     * @param callerDn The caller DN
+     * @return The unmodifiable group names, empty if none.
+     * @throws NamingException An error occurred while reading the entry.
+     */
+    private List<String> readCallerGroups(LdapContext ctx, String callerDn) throws NamingException {
+        String groupAttribute = entryMapping.getCallerMapping().getGroupAttribute();
+        Attributes attributes = ctx.getAttributes(callerDn, new String[]{groupAttribute});
+        Attribute attribute = attributes.get(groupAttribute);
+        if (null == attribute)
+            return Collections.emptyList();
+        Collection<LdapName> groups = new ArrayList<>();
+        NamingEnumeration<?> values = attribute.getAll();
+        while (values.hasMore()) {
+            String dn = (String)values.next();
+            groups.add(new LdapName(dn));
+        }
 
-            ctx = new InitialLdapContext(env, null);
-
-            // Get group attribute from caller entry
-            String callerDn = formatDn(callerName);
-            Attributes attributes = ctx.getAttributes(callerDn, new String[]{entryMapping.getCallerMapping().getGroupAttribute()});
-            Attribute attribute = attributes.get(entryMapping.getCallerMapping().getGroupAttribute());
-            NamingEnumeration<?> values = attribute.getAll();
-            ArrayList<String> result = new ArrayList<>();
-            while (values.hasMore()) {
-                String dn = (String)values.next();
-                LdapName ldapDN = new LdapName(dn);
-                List<Rdn> rdns = ldapDN.getRdns();
-                Rdn mostSpecificRdn = rdns.get(rdns.size() - 1);
-                result.add((String)mostSpecificRdn.getValue());
-            }
-            return result;
-        } catch (Exception e) {
-            // TODO: Add logging
-            e.printStackTrace();
-            return null;
-        } finally {
-            if (ctx != null) {
-                try {
-                    ctx.close();
-                } catch (NamingException e) {
-                }
+        RefreshingCache<String, LdapGroupGraph> graph = groupGraph;
+        if (null != graph) {
+            try {
+                groups = graph.get("").closure(groups);
+            } catch (ExecutionException e) {
+                // Reported by the load, the direct groups are returned
+                LOGGER.log(Level.WARNING, "Unable to resolve nested groups", e.getCause());
             }
         }
+
+        LinkedHashSet<String> result = new LinkedHashSet<>();
+        for (LdapName ldapDN : groups) {
+            List<Rdn> rdns = ldapDN.getRdns();
+            Rdn mostSpecificRdn = rdns.get(rdns.size() - 1);
+            result.add((String)mostSpecificRdn.getValue());
+        }
+        return Collections.unmodifiableList(new ArrayList<>(result));
     }
 
     /**
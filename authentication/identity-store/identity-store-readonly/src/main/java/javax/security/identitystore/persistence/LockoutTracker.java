@@ -0,0 +1,346 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015, 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * http://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package javax.security.identitystore.persistence;
+
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * <code>LockoutTracker</code> counts failed validations per caller and per source key,
+ * such as a client address, and locks out callers and sources which fail too often,
+ * so that validations of a locked out caller or source are rejected without any work.
+ * <p>
+ * Failures are counted over a sliding window, approximated from the counts of the current
+ * and the previous fixed windows. Reaching the maximum number of failures within the window
+ * locks the caller or source out, for a duration doubling with each further lockout up to a
+ * maximum. A successful validation clears the failures of its caller, but not of its source.
+ * Entries expire once neither failed within two windows nor locked out for the longest
+ * lockout duration, resetting the lockout duration.
+ * <p>
+ * Entries are keyed by a randomly seeded 64 bit hash of the caller or source key, so long
+ * names do not cost memory, and held in striped, least recently used maps of bounded size,
+ * so memory stays bounded however many callers an attacker tries.
+ */
+public class LockoutTracker {
+
+    public static final int DEFAULT_MAX_CALLER_FAILURES = 5;
+    public static final int DEFAULT_MAX_SOURCE_FAILURES = 50;
+    public static final long DEFAULT_WINDOW_MILLIS = 300000;
+    public static final long DEFAULT_LOCKOUT_MILLIS = 1000;
+    public static final long DEFAULT_MAX_LOCKOUT_MILLIS = 900000;
+    public static final int DEFAULT_MAX_ENTRIES = 100000;
+
+    private static final int STRIPES = 64;
+
+    private final int maxCallerFailures;
+    private final int maxSourceFailures;
+    private final long windowNanos;
+    private final long lockoutNanos;
+    private final long maxLockoutNanos;
+    private final long seed = new SecureRandom().nextLong();
+    private final Stripe[] callers;
+    private final Stripe[] sources;
+
+    // Package-private for testing
+    LongSupplier clock = System::nanoTime;
+
+    // Metrics
+    private final LongAdder failureCount = new LongAdder();
+    private final LongAdder lockoutCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+
+    /**
+     * <code>Failures</code> holds the failures of one caller or source. Guarded by its stripe.
+     */
+    private static final class Failures {
+        long window;         // Index of the current fixed window
+        int currentCount;    // Failures in the current window
+        int previousCount;   // Failures in the previous window
+        long lockedUntil;    // Clock value the last lockout ends at
+        int lockouts;        // Number of lockouts, doubling the next lockout duration
+        long lastActive;     // Clock value of the last failure or lockout end
+    }
+
+    /**
+     * <code>Stripe</code> is one of the least recently used maps holding the entries.
+     */
+    private final class Stripe extends LinkedHashMap<Long, Failures> {
+        private static final long serialVersionUID = 1L;
+
+        private final int maxSize;
+
+        Stripe(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Failures> eldest) {
+            if (size() > maxSize) {
+                evictionCount.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Constructor, using the default limits.
+     */
+    public LockoutTracker() {
+        this(DEFAULT_MAX_CALLER_FAILURES, DEFAULT_MAX_SOURCE_FAILURES, DEFAULT_WINDOW_MILLIS,
+            DEFAULT_LOCKOUT_MILLIS, DEFAULT_MAX_LOCKOUT_MILLIS, DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param maxCallerFailures The number of failures within the window locking out a caller
+     * @param maxSourceFailures The number of failures within the window locking out a source
+     * @param windowMillis The sliding window failures are counted in, in milliseconds.
+     * @param lockoutMillis The duration of the first lockout, in milliseconds.
+     * @param maxLockoutMillis The maximum duration of a lockout, in milliseconds.
+     * @param maxEntries The maximum number of callers and of sources tracked
+     */
+    public LockoutTracker(int maxCallerFailures, int maxSourceFailures, long windowMillis,
+                          long lockoutMillis, long maxLockoutMillis, int maxEntries) {
+        if ((maxCallerFailures <= 0) || (maxSourceFailures <= 0))
+            throw new IllegalArgumentException("Max failures: " + maxCallerFailures + ", " + maxSourceFailures);
+        if ((windowMillis <= 0) || (lockoutMillis <= 0) || (maxLockoutMillis < lockoutMillis))
+            throw new IllegalArgumentException("Durations: " + windowMillis + ", " + lockoutMillis + ", " + maxLockoutMillis);
+        if (maxEntries < STRIPES)
+            throw new IllegalArgumentException("Max entries: " + maxEntries);
+        this.maxCallerFailures = maxCallerFailures;
+        this.maxSourceFailures = maxSourceFailures;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.lockoutNanos = TimeUnit.MILLISECONDS.toNanos(lockoutMillis);
+        this.maxLockoutNanos = TimeUnit.MILLISECONDS.toNanos(maxLockoutMillis);
+        this.callers = new Stripe[STRIPES];
+        this.sources = new Stripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            callers[i] = new Stripe(maxEntries / STRIPES);
+            sources[i] = new Stripe(maxEntries / STRIPES);
+        }
+    }
+
+    /**
+     * Determines whether the given caller or source is locked out. A rejected
+     * validation neither counts as a failure nor extends the lockout.
+     *
+     * @param caller The caller name, <code>null</code> if unknown.
+     * @param sourceKey The source key, <code>null</code> if unknown.
+     * @return <code>true</code> if the validation must be rejected.
+     */
+    public boolean isLockedOut(String caller, String sourceKey) {
+        long now = clock.getAsLong();
+        if (isLockedOut(callers, caller, now) || isLockedOut(sources, sourceKey, now)) {
+            rejectedCount.increment();
+            return true;
+        }
+        return false;
+    }
+
+    private boolean isLockedOut(Stripe[] stripes, String key, long now) {
+        if (null == key)
+            return false;
+        long hash = CallerFilter.hash(key, seed);
+        Stripe stripe = stripes[stripe(hash)];
+        synchronized (stripe) {
+            Failures entry = stripe.get(hash);
+            return (null != entry) && isLockedOut(entry, now);
+        }
+    }
+
+    /**
+     * Records a failed validation of the given caller from the given source.
+     *
+     * @param caller The caller name, <code>null</code> to only count the source failure.
+     * @param sourceKey The source key, <code>null</code> to only count the caller failure.
+     */
+    public void recordFailure(String caller, String sourceKey) {
+        long now = clock.getAsLong();
+        failureCount.increment();
+        recordFailure(callers, caller, maxCallerFailures, now);
+        recordFailure(sources, sourceKey, maxSourceFailures, now);
+    }
+
+    private void recordFailure(Stripe[] stripes, String key, int maxFailures, long now) {
+        if (null == key)
+            return;
+        long hash = CallerFilter.hash(key, seed);
+        Stripe stripe = stripes[stripe(hash)];
+        synchronized (stripe) {
+            Failures entry = stripe.get(hash);
+            if ((null == entry) || isExpired(entry, now)) {
+                entry = new Failures();
+                entry.window = Math.floorDiv(now, windowNanos);
+                entry.lastActive = now;
+                stripe.put(hash, entry);
+            }
+            if (isLockedOut(entry, now))
+                return;
+
+            // Slide the window
+            long window = Math.floorDiv(now, windowNanos);
+            if (window != entry.window) {
+                entry.previousCount = (window == entry.window + 1) ? entry.currentCount : 0;
+                entry.currentCount = 0;
+                entry.window = window;
+            }
+            entry.currentCount++;
+            entry.lastActive = now;
+
+            // Weigh the previous window by the part of it still within the sliding window
+            double previousWeight = 1.0 - (double) (now - window * windowNanos) / windowNanos;
+            if (entry.currentCount + entry.previousCount * previousWeight >= maxFailures) {
+                long duration = lockoutNanos << Math.min(entry.lockouts, 62);
+                if ((duration <= 0) || (duration > maxLockoutNanos))
+                    duration = maxLockoutNanos;
+                entry.lockedUntil = now + duration;
+                entry.lastActive = entry.lockedUntil;
+                entry.lockouts++;
+                entry.currentCount = 0;
+                entry.previousCount = 0;
+                lockoutCount.increment();
+            }
+        }
+    }
+
+    /**
+     * Records a successful validation of the given caller, clearing its failures
+     * and lockouts. The failures of the source are kept.
+     *
+     * @param caller The caller name
+     */
+    public void recordSuccess(String caller) {
+        if (null == caller)
+            return;
+        long hash = CallerFilter.hash(caller, seed);
+        Stripe stripe = callers[stripe(hash)];
+        synchronized (stripe) {
+            stripe.remove(hash);
+        }
+    }
+
+    /**
+     * Clears all failures and lockouts.
+     */
+    public void clear() {
+        for (int i = 0; i < STRIPES; i++) {
+            synchronized (callers[i]) {
+                callers[i].clear();
+            }
+            synchronized (sources[i]) {
+                sources[i].clear();
+            }
+        }
+    }
+
+    private static boolean isLockedOut(Failures entry, long now) {
+        return (entry.lockouts > 0) && (entry.lockedUntil - now > 0);
+    }
+
+    private boolean isExpired(Failures entry, long now) {
+        return now - entry.lastActive > Math.max(2 * windowNanos, maxLockoutNanos);
+    }
+
+    private static int stripe(long hash) {
+        return (int) (hash >>> 58) & (STRIPES - 1);
+    }
+
+    /**
+     * Determines the number of callers and sources tracked.
+     *
+     * @return The number of entries
+     */
+    public int size() {
+        int size = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            synchronized (callers[i]) {
+                size += callers[i].size();
+            }
+            synchronized (sources[i]) {
+                size += sources[i].size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Determines the number of failed validations recorded.
+     *
+     * @return The number of failures
+     */
+    public long getFailureCount() {
+        return failureCount.sum();
+    }
+
+    /**
+     * Determines the number of times a caller or source was locked out.
+     *
+     * @return The number of lockouts
+     */
+    public long getLockoutCount() {
+        return lockoutCount.sum();
+    }
+
+    /**
+     * Determines the number of validations rejected because of a lockout.
+     *
+     * @return The number of rejected validations
+     */
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    /**
+     * Determines the number of entries evicted to bound memory.
+     *
+     * @return The number of evicted entries
+     */
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015, 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * http://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package javax.security.identitystore.persistence;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <code>NameDictionary</code> interns names, such as group and role names,
+ * into dense integer ids. Ids are assigned in the order names are first seen
+ * and are never reassigned.
+ * <p>
+ * Instances are not thread safe while being built, and must not be modified
+ * once published.
+ */
+final class NameDictionary {
+
+    private final Map<String, Integer> ids;
+    private String[] names;
+    private int size;
+
+    NameDictionary() {
+        ids = new HashMap<>();
+        names = new String[16];
+    }
+
+    /**
+     * Copy constructor.
+     *
+     * @param other The dictionary to copy
+     */
+    NameDictionary(NameDictionary other) {
+        ids = new HashMap<>(other.ids);
+        names = Arrays.copyOf(other.names, other.names.length);
+        size = other.size;
+    }
+
+    /**
+     * Determines the id of the given name, assigning a new id if not yet known.
+     *
+     * @param name The name
+     * @return The id
+     */
+    int intern(String name) {
+        Integer id = ids.get(name);
+        if (null == id) {
+            if (size == names.length)
+                names = Arrays.copyOf(names, size * 2);
+            id = size;
+            names[size++] = name;
+            ids.put(name, id);
+        }
+        return id;
+    }
+
+    /**
+     * Determines the id of the given name.
+     *
+     * @param name The name
+     * @return The id, <code>-1</code> if not known.
+     */
+    int id(String name) {
+        Integer id = ids.get(name);
+        return (null == id) ? -1 : id;
+    }
+
+    /**
+     * Determines the name with the given id.
+     *
+     * @param id The id
+     * @return The name
+     */
+    String name(int id) {
+        return names[id];
+    }
+
+    /**
+     * Determines the array of names, indexed by id. The array must not be modified.
+     *
+     * @return The names
+     */
+    String[] names() {
+        return names;
+    }
+
+    /**
+     * Determines the number of ids assigned.
+     *
+     * @return The number of ids
+     */
+    int size() {
+        return size;
+    }
+}
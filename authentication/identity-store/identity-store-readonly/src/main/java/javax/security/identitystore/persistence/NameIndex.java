@@ -0,0 +1,327 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015, 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * http://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package javax.security.identitystore.persistence;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.regex.Pattern;
+import java.util.stream.Collector;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * <code>NameIndex</code> answers regular expression queries over a set of names,
+ * such as caller, group or role names.
+ * <p>
+ * The names are kept sorted, so that patterns consisting of a literal, or a literal
+ * followed by <code>.*</code>, are answered by binary search in O(log n + k).
+ * Other patterns starting with a literal only scan the names sharing that prefix.
+ * Patterns without a literal prefix scan all names, in parallel for large indexes.
+ * <p>
+ * Results in natural order which are not filtered by a pattern are returned as
+ * unmodifiable views of the index, without copying the names. Streams, pages and
+ * counts are answered from the index without collecting all matches.
+ * <p>
+ * Instances are immutable.
+ */
+final class NameIndex {
+
+    // Minimum number of names scanned in parallel
+    static final int PARALLEL_SCAN_THRESHOLD = 8192;
+
+    private static final String REGEX_META = "[](){}.*+?^$|";
+
+    private final String[] names;
+
+    /**
+     * <code>Range</code> is the range of the index holding the names which may match
+     * a regular expression.
+     */
+    private static final class Range {
+        private static final Range EMPTY = new Range(0, 0, null);
+
+        private final int from;
+        private final int to;
+        private final Pattern pattern; // null for all names in the range
+
+        private Range(int from, int to, Pattern pattern) {
+            this.from = from;
+            this.to = to;
+            this.pattern = pattern;
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param names The names to index
+     */
+    NameIndex(Collection<String> names) {
+        this.names = names.toArray(new String[names.size()]);
+        Arrays.sort(this.names);
+    }
+
+    /**
+     * Determines the number of names in the index.
+     *
+     * @return The number of names
+     */
+    int size() {
+        return names.length;
+    }
+
+    /**
+     * Determines the names matching the given regular expression.
+     *
+     * @param regEx A regular expression, matched against the entire name,
+     *  <code>null</code> or empty string for all.
+     * @param patterns The compiled pattern cache
+     * @param limit The maximum number of names returned
+     * @param order The order of the names returned, <code>null</code> for natural order.
+     *  With a given order, the first names in that order are returned.
+     * @return The matching names, unmodifiable.
+     */
+    List<String> find(String regEx, PatternCache patterns, int limit, Comparator<String> order) {
+        if (limit <= 0)
+            return Collections.emptyList();
+        Range range = range(regEx, patterns);
+        return select(range, limit, order);
+    }
+
+    /**
+     * Determines the names matching the given regular expression, in natural order.
+     *
+     * @param regEx A regular expression, matched against the entire name,
+     *  <code>null</code> or empty string for all.
+     * @param patterns The compiled pattern cache
+     * @return The matching names, read from the index as the stream is consumed.
+     */
+    Stream<String> stream(String regEx, PatternCache patterns) {
+        Range range = range(regEx, patterns);
+        if (null == range.pattern)
+            return Arrays.stream(names, range.from, range.to);
+        return indexes(range, false).mapToObj(index -> names[index]);
+    }
+
+    /**
+     * Determines a page of the names matching the given regular expression, in natural order.
+     *
+     * @param regEx A regular expression, matched against the entire name,
+     *  <code>null</code> or empty string for all.
+     * @param patterns The compiled pattern cache
+     * @param offset The number of matching names skipped
+     * @param limit The maximum number of names returned
+     * @return The matching names, unmodifiable.
+     */
+    List<String> page(String regEx, PatternCache patterns, int offset, int limit) {
+        if (limit <= 0)
+            return Collections.emptyList();
+        Range range = range(regEx, patterns);
+        if (null == range.pattern) {
+            int from = (range.to - range.from <= offset) ? range.to : range.from + offset;
+            return view(from, (range.to - from <= limit) ? range.to : from + limit);
+        }
+        List<String> result = new ArrayList<>(Math.min(limit, range.to - range.from));
+        indexes(range, false).skip(offset).limit(limit).forEachOrdered(index -> result.add(names[index]));
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Determines the number of names matching the given regular expression.
+     *
+     * @param regEx A regular expression, matched against the entire name,
+     *  <code>null</code> or empty string for all.
+     * @param patterns The compiled pattern cache
+     * @return The number of matching names
+     */
+    int count(String regEx, PatternCache patterns) {
+        Range range = range(regEx, patterns);
+        if (null == range.pattern)
+            return range.to - range.from;
+        return (int) indexes(range, true).count();
+    }
+
+    /**
+     * Determines the range of the names which may match the given regular expression.
+     */
+    private Range range(String regEx, PatternCache patterns) {
+        if ((null == regEx) || regEx.isEmpty())
+            return new Range(0, names.length, null);
+
+        // Narrow the search to the names starting with the literal prefix of the pattern
+        int start = regEx.startsWith("^") ? 1 : 0;
+        StringBuilder prefix = new StringBuilder();
+        int i = start;
+        while (i < regEx.length()) {
+            char c = regEx.charAt(i);
+            if (c == '\\') {
+                if ((i + 1 < regEx.length()) && !Character.isLetterOrDigit(regEx.charAt(i + 1))) {
+                    prefix.append(regEx.charAt(i + 1));
+                    i += 2;
+                    continue;
+                }
+                break;
+            }
+            if (REGEX_META.indexOf(c) >= 0)
+                break;
+            prefix.append(c);
+            i++;
+        }
+        String rest = regEx.substring(i);
+        if (rest.startsWith("*") || rest.startsWith("?") || rest.startsWith("{") || rest.startsWith("+")) {
+            // The last literal character is quantified, so is not part of the prefix
+            if (prefix.length() > 0)
+                prefix.setLength(prefix.length() - 1);
+            rest = null;
+        }
+        if (regEx.indexOf('|') >= 0) {
+            // Alternatives may have different prefixes
+            prefix.setLength(0);
+            rest = null;
+        }
+
+        int from = lowerBound(prefix.toString());
+        if ("".equals(rest) || "$".equals(rest)) {
+            // Exact name
+            if ((from < names.length) && names[from].contentEquals(prefix))
+                return new Range(from, from + 1, null);
+            return Range.EMPTY;
+        }
+        int to = prefixEnd(from, prefix.toString());
+        if (".*".equals(rest) || ".*$".equals(rest))
+            return new Range(from, to, null);
+        return new Range(from, to, patterns.compile(regEx));
+    }
+
+    /**
+     * Determines the indexes of the names in the given range matching its pattern.
+     *
+     * @param parallel <code>true</code> to scan large ranges in parallel,
+     *  when the order of the indexes does not matter.
+     */
+    private IntStream indexes(Range range, boolean parallel) {
+        IntStream indexes = IntStream.range(range.from, range.to);
+        if (null == range.pattern)
+            return indexes;
+        if (parallel && (range.to - range.from >= PARALLEL_SCAN_THRESHOLD))
+            indexes = indexes.parallel();
+        Pattern pattern = range.pattern;
+        return indexes.filter(index -> pattern.matcher(names[index]).matches());
+    }
+
+    /**
+     * Determines the index of the first name not less than the given name.
+     */
+    private int lowerBound(String name) {
+        int index = Arrays.binarySearch(names, name);
+        return (index >= 0) ? index : -(index + 1);
+    }
+
+    /**
+     * Determines the index following the last name starting with the given prefix.
+     * The names starting with the prefix are contiguous, beginning at <code>from</code>.
+     */
+    private int prefixEnd(int from, String prefix) {
+        int low = from;
+        int high = names.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (names[mid].startsWith(prefix))
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * Selects the names in the given range matching its pattern.
+     */
+    private List<String> select(Range range, int limit, Comparator<String> order) {
+        int from = range.from;
+        int to = range.to;
+        IntStream indexes = indexes(range, true);
+
+        if (null == order) {
+            // Index order is natural order
+            if (null == range.pattern)
+                return view(from, (to - from <= limit) ? to : from + limit);
+            List<String> result = new ArrayList<>(Math.min(limit, to - from));
+            indexes.limit(limit).forEachOrdered(index -> result.add(names[index]));
+            return Collections.unmodifiableList(result);
+        }
+
+        // Keep the first names in the given order, without collecting all matches
+        Comparator<String> reversed = Collections.reverseOrder(order);
+        PriorityQueue<String> first = indexes.mapToObj(index -> names[index]).collect(Collector.of(
+            () -> new PriorityQueue<>(reversed),
+            (queue, name) -> offer(queue, name, limit, order),
+            (queue, other) -> {
+                for (String name : other)
+                    offer(queue, name, limit, order);
+                return queue;
+            }));
+        List<String> result = new ArrayList<>(first);
+        result.sort(order);
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Determines an unmodifiable view of the names in the given range.
+     */
+    private List<String> view(int from, int to) {
+        return (from >= to) ? Collections.<String>emptyList() :
+            Collections.unmodifiableList(Arrays.asList(names).subList(from, to));
+    }
+
+    private static void offer(PriorityQueue<String> queue, String name, int limit, Comparator<String> order) {
+        if (queue.size() < limit) {
+            queue.add(name);
+        } else if (order.compare(name, queue.peek()) < 0) {
+            queue.poll();
+            queue.add(name);
+        }
+    }
+}
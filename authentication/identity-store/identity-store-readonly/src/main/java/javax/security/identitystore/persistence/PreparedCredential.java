@@ -0,0 +1,410 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015, 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * http://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package javax.security.identitystore.persistence;
+
+import javax.security.identitystore.hash.PasswordHashAlgorithm;
+import javax.security.identitystore.hash.PasswordHashAlgorithms;
+import javax.security.identitystore.persistence.cachedsource.CachedIdentityStoreSource;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <code>PreparedCredential</code> is a credential from a
+ * <code>{@link CachedIdentityStoreSource.CredentialSource CredentialSource}</code>,
+ * prepared at load time for verification.
+ * <p>
+ * The credential material is held off-heap in a {@link CredentialArena}, and only its
+ * offset is kept here. Hashed values are decoded from hex to bytes once, and salts are
+ * encoded to UTF-8 once. Verification reuses a per-thread message digest and encoding
+ * buffer, and compares in constant time, so checking a credential does not allocate in
+ * proportion to its input. Callers hold the arena acquired while verifying.
+ * <p>
+ * A credential whose hash algorithm names a
+ * <code>{@link javax.security.identitystore.hash.PasswordHashAlgorithm PasswordHashAlgorithm}</code>,
+ * such as <code>bcrypt</code>, stores its value in modular crypt format, including its salt and cost,
+ * and is verified by that algorithm. Otherwise, a hashed value is the lowercase hex encoded
+ * <code>{@link MessageDigest}</code> digest of the UTF-8 encoded value followed by the salt,
+ * and an unhashed value is compared as is.
+ */
+final class PreparedCredential {
+
+    private static final Logger LOGGER = Logger.getLogger(PreparedCredential.class.getName());
+
+    // Availability of digest algorithms, checked once per algorithm
+    private static final Map<String, Boolean> AVAILABLE_ALGORITHMS = new ConcurrentHashMap<>();
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private final CredentialArena arena;
+    private final long offset;
+    private final Map<String, String> attributes;
+
+    /**
+     * Constructor
+     *
+     * @param source The credential source
+     * @param arena The arena holding the credential material
+     */
+    PreparedCredential(CachedIdentityStoreSource.CredentialSource source, CredentialArena arena) {
+        String algorithm = source.getHashAlgorithm();
+        String storedValue = source.getValue();
+        String hashSalt = source.getHashSalt();
+        byte[] salt = (null == hashSalt) ? null : hashSalt.getBytes(StandardCharsets.UTF_8);
+        byte kind;
+        byte[] value;
+        if (null != PasswordHashAlgorithms.get(algorithm)) {
+            kind = CredentialArena.PASSWORD_HASH;
+            value = toBytes(storedValue);
+        } else if ((null != algorithm) && !algorithm.isEmpty()) {
+            byte[] hash = (isAvailable(algorithm) && (null != storedValue)) ? decodeHex(storedValue) : null;
+            kind = (null == hash) ? CredentialArena.UNUSABLE : CredentialArena.DIGEST;
+            value = (null == hash) ? toBytes(storedValue) : hash;
+        } else {
+            kind = CredentialArena.PLAIN;
+            value = toBytes(storedValue);
+        }
+        this.arena = arena;
+        offset = arena.add(kind, algorithm, salt, value);
+        attributes = source.getAttributes();
+        if (null != salt)
+            Arrays.fill(salt, (byte) 0); // clear sensitive data
+        if (null != value)
+            Arrays.fill(value, (byte) 0); // clear sensitive data
+    }
+
+    /**
+     * Records that this credential is no longer referenced by the latest cache,
+     * see {@link CredentialArena#discard}.
+     */
+    void discard() {
+        arena.discard(offset);
+    }
+
+    /**
+     * Checks whether the given digest algorithm is supported by the current JVM.
+     */
+    private static boolean isAvailable(String algorithm) {
+        return AVAILABLE_ALGORITHMS.computeIfAbsent(algorithm, name -> {
+            try {
+                MessageDigest.getInstance(name);
+                return true;
+            } catch (NoSuchAlgorithmException e) {
+                LOGGER.log(Level.WARNING, "Unsupported credential hash algorithm: " + name);
+                return false;
+            }
+        });
+    }
+
+    /**
+     * Decodes the given hex string.
+     *
+     * @return The decoded bytes, <code>null</code> if not valid hex.
+     */
+    private static byte[] decodeHex(String hex) {
+        if (hex.length() % 2 != 0)
+            return null;
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int high = Character.digit(hex.charAt(2 * i), 16);
+            int low = Character.digit(hex.charAt(2 * i + 1), 16);
+            if ((high < 0) || (low < 0))
+                return null;
+            bytes[i] = (byte) ((high << 4) | low);
+        }
+        return bytes;
+    }
+
+    /**
+     * Converts the given string to its UTF-16 chars, two bytes each, without replacing
+     * malformed surrogates.
+     *
+     * @return The bytes, <code>null</code> if the string is null.
+     */
+    private static byte[] toBytes(String value) {
+        if (null == value)
+            return null;
+        byte[] bytes = new byte[value.length() * 2];
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            bytes[2 * i] = (byte) (c >> 8);
+            bytes[2 * i + 1] = (byte) c;
+        }
+        return bytes;
+    }
+
+    /**
+     * Reads the value chars of the record.
+     */
+    private char[] valueChars() {
+        ByteBuffer chunk = arena.chunk(offset);
+        int position = arena.valuePosition(offset);
+        char[] chars = new char[arena.valueLength(offset) / 2];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = chunk.getChar(position + 2 * i);
+        }
+        return chars;
+    }
+
+    /**
+     * Determines whether the credential is verified by a deliberately expensive
+     * <code>{@link PasswordHashAlgorithm}</code>.
+     *
+     * @return <code>true</code> if verifying is expensive.
+     */
+    boolean isPasswordHash() {
+        return CredentialArena.PASSWORD_HASH == arena.kind(offset);
+    }
+
+    /**
+     * Verifies the given credential value.
+     *
+     * @param credentialValue The credential value
+     * @return <code>true</code> if the value matches.
+     */
+    boolean verify(char[] credentialValue) {
+        switch (arena.kind(offset)) {
+            case CredentialArena.PLAIN:
+                return constantTimeEquals(credentialValue);
+            case CredentialArena.PASSWORD_HASH:
+                return verifyPasswordHash(credentialValue);
+            case CredentialArena.DIGEST:
+                Scratch scratch = SCRATCH.get();
+                MessageDigest md = scratch.digest(arena.algorithm(offset));
+                scratch.update(md, credentialValue);
+                return verifyDigest(scratch, md);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Verifies the given credential value, given as the ASCII bytes of its
+     * Base64 encoding.
+     *
+     * @param encodedValue The encoded credential value
+     * @return <code>true</code> if the value matches.
+     */
+    boolean verifyEncoded(byte[] encodedValue) {
+        switch (arena.kind(offset)) {
+            case CredentialArena.PLAIN:
+            case CredentialArena.PASSWORD_HASH:
+                char[] chars = new char[encodedValue.length];
+                for (int i = 0; i < chars.length; i++) {
+                    chars[i] = (char) encodedValue[i];
+                }
+                boolean valid = verify(chars);
+                Arrays.fill(chars, '\u0000'); // clear sensitive data
+                return valid;
+            case CredentialArena.DIGEST:
+                Scratch scratch = SCRATCH.get();
+                MessageDigest md = scratch.digest(arena.algorithm(offset));
+                md.update(encodedValue); // ASCII is its own UTF-8 encoding
+                return verifyDigest(scratch, md);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Completes the given digest with the salt, and compares it to the stored hash.
+     */
+    private boolean verifyDigest(Scratch scratch, MessageDigest md) {
+        ByteBuffer chunk = arena.chunk(offset);
+        int saltLength = arena.saltLength(offset);
+        if (saltLength > 0)
+            scratch.update(md, chunk, CredentialArena.saltPosition(offset), saltLength);
+        byte[] digest = md.digest();
+        int length = arena.valueLength(offset);
+        if (digest.length != length)
+            return false;
+        int position = arena.valuePosition(offset);
+        int result = 0;
+        for (int i = 0; i < length; i++) {
+            result |= digest[i] ^ chunk.get(position + i);
+        }
+        return result == 0;
+    }
+
+    private boolean verifyPasswordHash(char[] credentialValue) {
+        PasswordHashAlgorithm passwordHash = PasswordHashAlgorithms.get(arena.algorithm(offset));
+        if ((null == passwordHash) || (arena.valueLength(offset) < 0))
+            return false;
+        char[] chars = valueChars();
+        String storedValue = new String(chars);
+        Arrays.fill(chars, '\u0000'); // clear sensitive data
+        try {
+            return passwordHash.verify(credentialValue, storedValue);
+        } catch (IllegalArgumentException e) {
+            LOGGER.log(Level.WARNING, "Invalid " + passwordHash.getName() + " credential value: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private boolean constantTimeEquals(char[] credentialValue) {
+        int length = arena.valueLength(offset);
+        if ((length < 0) || (credentialValue.length != length / 2))
+            return false;
+        ByteBuffer chunk = arena.chunk(offset);
+        int position = arena.valuePosition(offset);
+        int result = 0;
+        for (int i = 0; i < credentialValue.length; i++) {
+            result |= credentialValue[i] ^ chunk.getChar(position + 2 * i);
+        }
+        return result == 0;
+    }
+
+    /**
+     * Reconstructs the credential source, for example to write a snapshot.
+     * Hashed values are hex encoded in lowercase.
+     *
+     * @param type The credential type
+     * @return The credential source
+     */
+    CachedIdentityStoreSource.CredentialSource toSource(String type) {
+        ByteBuffer chunk = arena.chunk(offset);
+        String salt = null;
+        int saltLength = arena.saltLength(offset);
+        if (saltLength >= 0) {
+            byte[] saltBytes = new byte[saltLength];
+            for (int i = 0; i < saltLength; i++) {
+                saltBytes[i] = chunk.get(CredentialArena.saltPosition(offset) + i);
+            }
+            salt = new String(saltBytes, StandardCharsets.UTF_8);
+        }
+        String value = null;
+        if (arena.valueLength(offset) >= 0) {
+            if (CredentialArena.DIGEST == arena.kind(offset)) {
+                byte[] hash = new byte[arena.valueLength(offset)];
+                for (int i = 0; i < hash.length; i++) {
+                    hash[i] = chunk.get(arena.valuePosition(offset) + i);
+                }
+                value = CachedIdentityStore.getHexString(hash);
+            } else {
+                value = new String(valueChars());
+            }
+        }
+        return new CachedIdentityStoreSource.CredentialSource(type, value, arena.algorithm(offset), salt, attributes);
+    }
+
+    /**
+     * Per-thread digests and encoding buffer.
+     */
+    private static final class Scratch {
+        private final Map<String, MessageDigest> digests = new HashMap<>();
+        private final CharsetEncoder encoder = CachedIdentityStore.DEFAULT_CHARSET.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private ByteBuffer buffer = ByteBuffer.allocate(256);
+
+        /**
+         * Determines the digest for the given algorithm, reset for use.
+         */
+        MessageDigest digest(String algorithm) {
+            MessageDigest md = digests.get(algorithm);
+            if (null == md) {
+                try {
+                    md = MessageDigest.getInstance(algorithm);
+                } catch (NoSuchAlgorithmException e) {
+                    // Checked when the credential was prepared
+                    throw new IllegalStateException(e);
+                }
+                digests.put(algorithm, md);
+            } else {
+                md.reset();
+            }
+            return md;
+        }
+
+        /**
+         * Updates the digest with the UTF-8 encoding of the given characters,
+         * clearing the encoded bytes afterwards.
+         */
+        void update(MessageDigest md, char[] chars) {
+            if (0 == chars.length)
+                return;
+            CharBuffer in = CharBuffer.wrap(chars);
+            encoder.reset();
+            buffer.clear();
+            while (encoder.encode(in, buffer, true).isOverflow()) {
+                grow();
+            }
+            while (encoder.flush(buffer).isOverflow()) {
+                grow();
+            }
+            md.update(buffer.array(), 0, buffer.position());
+            Arrays.fill(buffer.array(), 0, buffer.position(), (byte) 0); // clear sensitive data
+        }
+
+        /**
+         * Updates the digest with bytes from the given buffer, clearing the copied bytes afterwards.
+         */
+        void update(MessageDigest md, ByteBuffer source, int position, int length) {
+            if (buffer.capacity() < length) {
+                Arrays.fill(buffer.array(), (byte) 0); // clear sensitive data
+                buffer = ByteBuffer.allocate(Math.max(length, buffer.capacity() * 2));
+            }
+            byte[] bytes = buffer.array();
+            for (int i = 0; i < length; i++) {
+                bytes[i] = source.get(position + i);
+            }
+            md.update(bytes, 0, length);
+            Arrays.fill(bytes, 0, length, (byte) 0); // clear sensitive data
+        }
+
+        private void grow() {
+            ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+            buffer.flip();
+            larger.put(buffer);
+            Arrays.fill(buffer.array(), (byte) 0); // clear sensitive data
+            buffer = larger;
+        }
+    }
+}
@@ -0,0 +1,420 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015, 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * http://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package javax.security.identitystore.persistence;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * <code>RefreshingCache</code> caches values loaded from a slow or unreliable backend,
+ * such as the groups of callers read from a directory, for a limited time.
+ * <p>
+ * A value younger than the refresh age is returned as is. A value older than the refresh
+ * age but younger than the time to live is returned as well, while a refresh is started in
+ * the background, so that frequently requested values never expire. A value older than the
+ * time to live is loaded again on the requesting thread. Concurrent requests for a value
+ * being loaded wait for that load, so each value is loaded by one thread at a time.
+ * <p>
+ * If a load fails, the expired value is still returned for up to the maximum staleness
+ * past its time to live, so that requests are served while the backend is unreachable.
+ * Once a load of a value failed, requests no longer wait for its loads: the expired value
+ * is returned at once, and the value is loaded again in the background no sooner than the
+ * refresh age after the failure, so that an unreachable backend is not retried by every request.
+ * <p>
+ * A value put in the cache replaces the cached value, and the value of a load in progress
+ * is then not cached.
+ * <p>
+ * The cache holds a bounded number of values, evicting the least recently requested.
+ *
+ * @param <K> The key type
+ * @param <V> The value type
+ */
+public class RefreshingCache<K, V> {
+
+    /**
+     * <code>Loader</code> loads the value of a key from the backend.
+     *
+     * @param <K> The key type
+     * @param <V> The value type
+     */
+    public interface Loader<K, V> {
+        /**
+         * Loads the value of the given key.
+         *
+         * @param key The key
+         * @return The value, may be <code>null</code>.
+         * @throws Exception The backend could not be read.
+         */
+        V load(K key) throws Exception;
+    }
+
+    private static final Executor DEFAULT_EXECUTOR;
+
+    static {
+        AtomicInteger count = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(2, 2, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(1024), runnable -> {
+                Thread thread = new Thread(runnable, "identity-store-refresh-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        executor.allowCoreThreadTimeOut(true);
+        DEFAULT_EXECUTOR = executor;
+    }
+
+    /**
+     * <code>Cached</code> holds a cached value, the time it was loaded, and the time its
+     * last load failed.
+     */
+    private static final class Cached<V> {
+        final V value;
+        final long loadedAt;
+        boolean failed = false;  // Guarded by the cache
+        long failedAt;           // Guarded by the cache
+
+        Cached(V value, long loadedAt) {
+            this.value = value;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    private final Loader<K, V> loader;
+    private final int maxSize;
+    private final long ttlNanos;
+    private final long refreshNanos;
+    private final long maxStaleNanos;
+    private final Executor executor;
+
+    // Values, least recently requested first. Guarded by this.
+    private final LinkedHashMap<K, Cached<V>> entries;
+
+    // Loads in progress. Guarded by this.
+    private final HashMap<K, CompletableFuture<V>> loading = new HashMap<>();
+
+    // Package-private for testing
+    LongSupplier clock = System::nanoTime;
+
+    // Metrics
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder loadCount = new LongAdder();
+    private final LongAdder refreshCount = new LongAdder();
+    private final LongAdder staleCount = new LongAdder();
+    private final LongAdder failureCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+
+    /**
+     * Constructor, refreshing values on a shared pool of background threads.
+     *
+     * @param loader The loader of the values
+     * @param maxSize The maximum number of values cached
+     * @param ttlMillis The time a value is returned without loading it again, in milliseconds.
+     * @param refreshMillis The age at which a requested value is refreshed in the background,
+     *  in milliseconds, at least the time to live to never refresh in the background.
+     * @param maxStaleMillis The time past its time to live an expired value is returned while
+     *  loads fail, in milliseconds, <code>0</code> to not return expired values.
+     */
+    public RefreshingCache(Loader<K, V> loader, int maxSize, long ttlMillis, long refreshMillis, long maxStaleMillis) {
+        this(loader, maxSize, ttlMillis, refreshMillis, maxStaleMillis, DEFAULT_EXECUTOR);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param loader The loader of the values
+     * @param maxSize The maximum number of values cached
+     * @param ttlMillis The time a value is returned without loading it again, in milliseconds.
+     * @param refreshMillis The age at which a requested value is refreshed in the background,
+     *  in milliseconds, at least the time to live to never refresh in the background.
+     * @param maxStaleMillis The time past its time to live an expired value is returned while
+     *  loads fail, in milliseconds, <code>0</code> to not return expired values.
+     * @param executor The executor background refreshes run on
+     */
+    public RefreshingCache(Loader<K, V> loader, int maxSize, long ttlMillis, long refreshMillis, long maxStaleMillis,
+                           Executor executor) {
+        if ((null == loader) || (null == executor))
+            throw new NullPointerException("Loader and executor");
+        if (maxSize <= 0)
+            throw new IllegalArgumentException("Max size: " + maxSize);
+        if ((ttlMillis <= 0) || (refreshMillis <= 0) || (maxStaleMillis < 0))
+            throw new IllegalArgumentException("Durations: " + ttlMillis + ", " + refreshMillis + ", " + maxStaleMillis);
+        this.loader = loader;
+        this.maxSize = maxSize;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.refreshNanos = TimeUnit.MILLISECONDS.toNanos(Math.min(refreshMillis, ttlMillis));
+        this.maxStaleNanos = TimeUnit.MILLISECONDS.toNanos(maxStaleMillis);
+        this.executor = executor;
+        this.entries = new LinkedHashMap<K, Cached<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Cached<V>> eldest) {
+                if (size() > RefreshingCache.this.maxSize) {
+                    evictionCount.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Determines the value of the given key, loading it if not cached or expired.
+     *
+     * @param key The key
+     * @return The value
+     * @throws ExecutionException The value was not cached and could not be loaded.
+     */
+    public V get(K key) throws ExecutionException {
+        if (null == key)
+            throw new NullPointerException("Key");
+
+        long now = clock.getAsLong();
+        Cached<V> entry;
+        CompletableFuture<V> future;
+        boolean refresh = false;
+        boolean loader = false;
+        synchronized (this) {
+            entry = entries.get(key);
+            if ((null != entry) && (now - entry.loadedAt < ttlNanos)) {
+                hitCount.increment();
+                refresh = true;
+            } else if ((null != entry) && entry.failed && (now - entry.loadedAt < ttlNanos + maxStaleNanos)) {
+                // The last load failed, so return the expired value instead of waiting for the backend again
+                staleCount.increment();
+                refresh = true;
+            }
+            if (refresh) {
+                if (!isRefreshDue(key, entry, now))
+                    return entry.value;
+                future = new CompletableFuture<>();
+                loading.put(key, future);
+            } else {
+                future = loading.get(key);
+                if (null == future) {
+                    future = new CompletableFuture<>();
+                    loading.put(key, future);
+                    loader = true;
+                }
+            }
+        }
+
+        if (refresh) {
+            refresh(key, future);
+            return entry.value;
+        }
+
+        try {
+            if (loader)
+                return load(key, future);
+            return future.get();
+        } catch (ExecutionException | InterruptedException e) {
+            if (e instanceof InterruptedException)
+                Thread.currentThread().interrupt();
+            if ((null != entry) && (clock.getAsLong() - entry.loadedAt < ttlNanos + maxStaleNanos)) {
+                staleCount.increment();
+                return entry.value;
+            }
+            throw (e instanceof ExecutionException) ? (ExecutionException) e : new ExecutionException(e);
+        }
+    }
+
+    /**
+     * Determines whether a cached value is to be refreshed in the background: once older
+     * than the refresh age, no sooner than the refresh age after a failed load, and not
+     * while it is being loaded. Guarded by this.
+     */
+    private boolean isRefreshDue(K key, Cached<V> entry, long now) {
+        return (now - entry.loadedAt >= refreshNanos)
+            && (!entry.failed || (now - entry.failedAt >= refreshNanos))
+            && !loading.containsKey(key);
+    }
+
+    private void refresh(K key, CompletableFuture<V> future) {
+        refreshCount.increment();
+        try {
+            executor.execute(() -> {
+                try {
+                    load(key, future);
+                } catch (ExecutionException e) {
+                    // The current value is returned until it expires
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            synchronized (this) {
+                loading.remove(key, future);
+            }
+            future.completeExceptionally(e);
+        }
+    }
+
+    private V load(K key, CompletableFuture<V> future) throws ExecutionException {
+        loadCount.increment();
+        V value;
+        try {
+            value = loader.load(key);
+        } catch (Exception e) {
+            failureCount.increment();
+            synchronized (this) {
+                if (loading.remove(key, future)) {
+                    Cached<V> entry = entries.get(key);
+                    if (null != entry) {
+                        entry.failed = true;
+                        entry.failedAt = clock.getAsLong();
+                    }
+                }
+            }
+            future.completeExceptionally(e);
+            throw new ExecutionException(e);
+        }
+        synchronized (this) {
+            // Not cached if invalidated while loading
+            if (loading.remove(key, future))
+                entries.put(key, new Cached<>(value, clock.getAsLong()));
+        }
+        future.complete(value);
+        return value;
+    }
+
+    /**
+     * Caches the given value, such as one read by other means, replacing the cached value.
+     * A load in progress does not cache its older value.
+     *
+     * @param key The key
+     * @param value The value
+     */
+    public synchronized void put(K key, V value) {
+        if (null == key)
+            throw new NullPointerException("Key");
+        loading.remove(key);
+        entries.put(key, new Cached<>(value, clock.getAsLong()));
+    }
+
+    /**
+     * Removes the value of the given key, so that its next request loads it again.
+     * A load in progress does not cache its value.
+     *
+     * @param key The key
+     * @return <code>true</code> if the value was cached.
+     */
+    public synchronized boolean invalidate(K key) {
+        loading.remove(key);
+        return null != entries.remove(key);
+    }
+
+    /**
+     * Removes all values.
+     */
+    public synchronized void invalidateAll() {
+        loading.clear();
+        entries.clear();
+    }
+
+    /**
+     * Determines the number of cached values.
+     *
+     * @return The number of values
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Determines the number of requests served by a cached value, including values being refreshed.
+     *
+     * @return The number of hits
+     */
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    /**
+     * Determines the number of loads, including background refreshes.
+     *
+     * @return The number of loads
+     */
+    public long getLoadCount() {
+        return loadCount.sum();
+    }
+
+    /**
+     * Determines the number of background refreshes started.
+     *
+     * @return The number of refreshes
+     */
+    public long getRefreshCount() {
+        return refreshCount.sum();
+    }
+
+    /**
+     * Determines the number of requests served by an expired value because its load failed.
+     *
+     * @return The number of stale values returned
+     */
+    public long getStaleCount() {
+        return staleCount.sum();
+    }
+
+    /**
+     * Determines the number of failed loads, including background refreshes.
+     *
+     * @return The number of failures
+     */
+    public long getFailureCount() {
+        return failureCount.sum();
+    }
+
+    /**
+     * Determines the number of values evicted to bound the size.
+     *
+     * @return The number of evictions
+     */
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+}
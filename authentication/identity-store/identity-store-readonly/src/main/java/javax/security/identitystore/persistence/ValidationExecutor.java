@@ -0,0 +1,327 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015, 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * http://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package javax.security.identitystore.persistence;
+
+import javax.security.identitystore.CredentialValidationResult;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <code>ValidationExecutor</code> runs credential validations on a dedicated, size-capped
+ * pool of threads, so a burst of logins using expensive password hashes does not occupy
+ * every request thread.
+ * <p>
+ * Admission is bounded in two ways. The pool has a bounded queue, and each caller may only
+ * have a limited number of validations queued or running, so a single caller, such as
+ * a password guessing attack on one account, cannot fill the queue.
+ * A validation beyond either bound is rejected immediately with
+ * <code>{@link CredentialValidationResult#NOT_VALIDATED_RESULT NOT_VALIDATED}</code>,
+ * as is one which does not complete within the optional timeout.
+ * <p>
+ * Callers are identified by their <code>{@link AbstractIdentityStore#normalizeCallerName
+ * normalized}</code> name. With the default of <code>{@value #DEFAULT_MAX_PER_CALLER}</code>
+ * validations per caller, a third concurrent login of the same account is
+ * <code>NOT_VALIDATED</code>, so the bound must be raised where a shared or service
+ * account legitimately logs in concurrently.
+ * <p>
+ * Queue depth, queue wait time, and reject counts are exposed for sizing the pool.
+ */
+public class ValidationExecutor implements AutoCloseable {
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 256;
+    public static final int DEFAULT_MAX_PER_CALLER = 2;
+
+    private final ThreadPoolExecutor executor;
+    private final int maxPerCaller;
+    private final long timeoutMillis;
+
+    // Validations queued or running, by caller
+    private final ConcurrentHashMap<String, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+
+    // Metrics
+    private final LongAdder submittedCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+    private final LongAdder callerRejectedCount = new LongAdder();
+    private final LongAdder timeoutCount = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final LongAdder startedCount = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    /**
+     * Constructor, with one thread per available processor and the default bounds.
+     */
+    public ValidationExecutor() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_QUEUE_CAPACITY, DEFAULT_MAX_PER_CALLER, 0);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param threads The number of validation threads
+     * @param queueCapacity The number of validations which may wait for a thread
+     * @param maxPerCaller The number of validations a single caller may have queued or running
+     * @param timeoutMillis The time to wait for a validation to complete, including its queue wait,
+     *  in milliseconds, <code>0</code> to wait until complete.
+     */
+    public ValidationExecutor(int threads, int queueCapacity, int maxPerCaller, long timeoutMillis) {
+        if (threads <= 0)
+            throw new IllegalArgumentException("Threads: " + threads);
+        if (queueCapacity <= 0)
+            throw new IllegalArgumentException("Queue capacity: " + queueCapacity);
+        if (maxPerCaller <= 0)
+            throw new IllegalArgumentException("Max per caller: " + maxPerCaller);
+        if (timeoutMillis < 0)
+            throw new IllegalArgumentException("Timeout: " + timeoutMillis);
+
+        ThreadFactory threadFactory = new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "identity-store-validation-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueCapacity), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+        this.maxPerCaller = maxPerCaller;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Runs the given validation on the pool, and waits for its result.
+     *
+     * @param caller The caller being validated, used for per-caller admission.
+     * @param validation The validation
+     * @return The validation result, or
+     *  <code>{@link CredentialValidationResult#NOT_VALIDATED_RESULT}</code> if rejected or timed out.
+     * @throws Exception The validation failed.
+     */
+    public CredentialValidationResult validate(String caller, Callable<CredentialValidationResult> validation) throws Exception {
+        final String key = (null == caller) ? "" : caller;
+
+        AtomicInteger count = inFlight.compute(key, (k, current) -> {
+            AtomicInteger value = (null == current) ? new AtomicInteger() : current;
+            value.incrementAndGet();
+            return value;
+        });
+        if (count.get() > maxPerCaller) {
+            release(key);
+            callerRejectedCount.increment();
+            return CredentialValidationResult.NOT_VALIDATED_RESULT;
+        }
+
+        ValidationTask future = new ValidationTask(key, validation, System.nanoTime());
+        try {
+            executor.execute(future);
+        } catch (RejectedExecutionException e) {
+            release(key);
+            rejectedCount.increment();
+            return CredentialValidationResult.NOT_VALIDATED_RESULT;
+        }
+        submittedCount.increment();
+
+        try {
+            return (0 == timeoutMillis) ? future.get() : future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            timeoutCount.increment();
+            return CredentialValidationResult.NOT_VALIDATED_RESULT;
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            return CredentialValidationResult.NOT_VALIDATED_RESULT;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception)
+                throw (Exception) cause;
+            throw e;
+        }
+    }
+
+    /**
+     * <code>ValidationTask</code> holds its caller's slot until the validation completes.
+     * A waiter which times out or is interrupted cancels the task, but a validation which
+     * has started keeps running, such as an uninterruptible password hash, so its slot is
+     * only released once it returns. A task cancelled before it started releases its slot
+     * on cancellation.
+     */
+    private final class ValidationTask extends FutureTask<CredentialValidationResult> {
+        private static final int QUEUED = 0;
+        private static final int RUNNING = 1;
+        private static final int RELEASED = 2;
+
+        private final String key;
+        private final AtomicInteger state = new AtomicInteger(QUEUED);
+
+        ValidationTask(String key, Callable<CredentialValidationResult> validation, long submitted) {
+            super(() -> {
+                recordWait(System.nanoTime() - submitted);
+                return validation.call();
+            });
+            this.key = key;
+        }
+
+        @Override
+        public void run() {
+            if (!state.compareAndSet(QUEUED, RUNNING))
+                return; // Cancelled while queued
+            try {
+                super.run();
+            } finally {
+                state.set(RELEASED);
+                release(key);
+            }
+        }
+
+        @Override
+        protected void done() {
+            if (isCancelled() && state.compareAndSet(QUEUED, RELEASED))
+                release(key);
+        }
+    }
+
+    private void release(String key) {
+        inFlight.computeIfPresent(key, (k, current) -> (current.decrementAndGet() <= 0) ? null : current);
+    }
+
+    private void recordWait(long waitNanos) {
+        startedCount.increment();
+        totalWaitNanos.add(waitNanos);
+        long max = maxWaitNanos.get();
+        while ((waitNanos > max) && !maxWaitNanos.compareAndSet(max, waitNanos)) {
+            max = maxWaitNanos.get();
+        }
+    }
+
+    /**
+     * Determines the number of validations waiting for a thread.
+     *
+     * @return The queue depth
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Determines the number of validations running.
+     *
+     * @return The number of running validations
+     */
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * Determines the number of validations accepted.
+     *
+     * @return The number of accepted validations
+     */
+    public long getSubmittedCount() {
+        return submittedCount.sum();
+    }
+
+    /**
+     * Determines the number of validations rejected because the queue was full.
+     *
+     * @return The number of rejected validations
+     */
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    /**
+     * Determines the number of validations rejected because their caller already had
+     * the maximum number of validations queued or running.
+     *
+     * @return The number of rejected validations
+     */
+    public long getCallerRejectedCount() {
+        return callerRejectedCount.sum();
+    }
+
+    /**
+     * Determines the number of validations which did not complete within the timeout.
+     *
+     * @return The number of timed out validations
+     */
+    public long getTimeoutCount() {
+        return timeoutCount.sum();
+    }
+
+    /**
+     * Determines the average time validations waited for a thread.
+     *
+     * @return The average wait time, in nanoseconds.
+     */
+    public long getAverageWaitNanos() {
+        long started = startedCount.sum();
+        return (0 == started) ? 0 : totalWaitNanos.sum() / started;
+    }
+
+    /**
+     * Determines the longest time a validation waited for a thread.
+     *
+     * @return The longest wait time, in nanoseconds.
+     */
+    public long getMaxWaitNanos() {
+        return maxWaitNanos.get();
+    }
+
+    /**
+     * Stops the validation threads. Queued validations are not run.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
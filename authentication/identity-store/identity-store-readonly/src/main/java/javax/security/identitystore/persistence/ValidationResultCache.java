@@ -0,0 +1,320 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015, 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * http://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package javax.security.identitystore.persistence;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.security.identitystore.CredentialValidationResult;
+import javax.security.identitystore.credential.Credential;
+import javax.security.identitystore.credential.TokenCredential;
+import javax.security.identitystore.credential.UsernamePasswordCredential;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <code>ValidationResultCache</code> keeps recent successful validation results, so
+ * clients sending the same credential on every request, such as with Basic authentication,
+ * do not pay the cost of a slow password hash each time.
+ * <p>
+ * Entries are keyed by an HMAC-SHA256 of the credential type, caller and credential value,
+ * under a random key generated for each cache instance, so no credential value is kept.
+ * Entries expire after a fixed time to live, the least recently used entries are evicted
+ * beyond a maximum size, and all entries are dropped when the identity store generation
+ * changes, such as when a <code>{@link CachedIdentityStore}</code> loads new data.
+ * <p>
+ * Only <code>{@link UsernamePasswordCredential}</code> and <code>{@link TokenCredential}</code>
+ * credentials are cached, and only <code>VALID</code> results.
+ */
+public class ValidationResultCache {
+
+    public static final int DEFAULT_MAX_SIZE = 10000;
+    public static final long DEFAULT_TTL_MILLIS = 60000;
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+    private final int maxSize;
+    private final long ttlNanos;
+    private final SecretKeySpec key;
+    private final ThreadLocal<Mac> mac;
+
+    // Guarded by entries
+    private final LinkedHashMap<ByteBuffer, CachedResult> entries;
+    private long generation;
+
+    // Metrics
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+    private final LongAdder expirationCount = new LongAdder();
+    private final LongAdder invalidationCount = new LongAdder();
+
+    private static final class CachedResult {
+        final CredentialValidationResult result;
+        final long expires;
+
+        CachedResult(CredentialValidationResult result, long expires) {
+            this.result = result;
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * Constructor, using the default size and time to live.
+     */
+    public ValidationResultCache() {
+        this(DEFAULT_MAX_SIZE, DEFAULT_TTL_MILLIS);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param maxSize The maximum number of results kept
+     * @param ttlMillis The time results are kept, in milliseconds.
+     */
+    public ValidationResultCache(final int maxSize, long ttlMillis) {
+        if (maxSize <= 0)
+            throw new IllegalArgumentException("Max size: " + maxSize);
+        if (ttlMillis <= 0)
+            throw new IllegalArgumentException("TTL: " + ttlMillis);
+        this.maxSize = maxSize;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+
+        byte[] keyBytes = new byte[32];
+        new SecureRandom().nextBytes(keyBytes);
+        this.key = new SecretKeySpec(keyBytes, HMAC_ALGORITHM);
+        Arrays.fill(keyBytes, (byte) 0);
+        this.mac = ThreadLocal.withInitial(this::newMac);
+
+        this.entries = new LinkedHashMap<ByteBuffer, CachedResult>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, CachedResult> eldest) {
+                if (size() > ValidationResultCache.this.maxSize) {
+                    evictionCount.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            // HmacSHA256 is required of every JVM
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Determines the cache key of the given credential.
+     *
+     * @param credential The credential
+     * @return The key, <code>null</code> if the credential is not cached.
+     */
+    public ByteBuffer keyOf(Credential credential) {
+        if ((null == credential) || credential.isCleared())
+            return null;
+
+        Mac hmac = mac.get();
+        hmac.reset();
+        update(hmac, credential.getClass().getName());
+        update(hmac, credential.getCaller());
+        if (credential instanceof UsernamePasswordCredential) {
+            char[] password = ((UsernamePasswordCredential) credential).getPassword().getValue();
+            ByteBuffer encoded = StandardCharsets.UTF_8.encode(CharBuffer.wrap(password));
+            hmac.update(encoded);
+            Arrays.fill(encoded.array(), (byte) 0); // clear sensitive data
+        } else if (credential instanceof TokenCredential) {
+            update(hmac, ((TokenCredential) credential).getToken());
+        } else {
+            return null;
+        }
+        return ByteBuffer.wrap(hmac.doFinal());
+    }
+
+    private static void update(Mac hmac, String value) {
+        if (null != value)
+            hmac.update(value.getBytes(StandardCharsets.UTF_8));
+        hmac.update((byte) 0); // separator
+    }
+
+    /**
+     * Determines the cached result for the given key.
+     *
+     * @param key The key, from <code>{@link #keyOf}</code>.
+     * @param generation The current identity store generation
+     * @return The result, <code>null</code> if not cached.
+     */
+    public CredentialValidationResult get(ByteBuffer key, long generation) {
+        synchronized (entries) {
+            checkGeneration(generation);
+            CachedResult entry = entries.get(key);
+            if (null != entry) {
+                if (System.nanoTime() - entry.expires < 0) {
+                    hitCount.increment();
+                    return entry.result;
+                }
+                entries.remove(key);
+                expirationCount.increment();
+            }
+        }
+        missCount.increment();
+        return null;
+    }
+
+    /**
+     * Caches the given result, if <code>VALID</code>.
+     *
+     * @param key The key, from <code>{@link #keyOf}</code>.
+     * @param generation The identity store generation the result was computed with
+     * @param result The result
+     */
+    public void put(ByteBuffer key, long generation, CredentialValidationResult result) {
+        if ((null == result) || (CredentialValidationResult.Status.VALID != result.getStatus()))
+            return;
+        synchronized (entries) {
+            checkGeneration(generation);
+            if (generation == this.generation)
+                entries.put(key, new CachedResult(result, System.nanoTime() + ttlNanos));
+        }
+    }
+
+    /**
+     * Drops all entries when the generation changes. Callers hold the entries lock.
+     */
+    private void checkGeneration(long generation) {
+        if (generation > this.generation) {
+            if (!entries.isEmpty()) {
+                entries.clear();
+                invalidationCount.increment();
+            }
+            this.generation = generation;
+        }
+    }
+
+    /**
+     * Drops all entries.
+     */
+    public void invalidate() {
+        synchronized (entries) {
+            entries.clear();
+        }
+        invalidationCount.increment();
+    }
+
+    /**
+     * Determines the number of cached results.
+     *
+     * @return The number of cached results
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Determines the number of lookups which found a result.
+     *
+     * @return The number of hits
+     */
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    /**
+     * Determines the number of lookups which did not find a result.
+     *
+     * @return The number of misses
+     */
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    /**
+     * Determines the fraction of lookups which found a result.
+     *
+     * @return The hit ratio, <code>0</code> if no lookups.
+     */
+    public double getHitRatio() {
+        long hits = hitCount.sum();
+        long lookups = hits + missCount.sum();
+        return (0 == lookups) ? 0 : (double) hits / lookups;
+    }
+
+    /**
+     * Determines the number of results evicted to stay within the maximum size.
+     *
+     * @return The number of evictions
+     */
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    /**
+     * Determines the number of results dropped after their time to live.
+     *
+     * @return The number of expirations
+     */
+    public long getExpirationCount() {
+        return expirationCount.sum();
+    }
+
+    /**
+     * Determines the number of times all results were dropped, because the identity
+     * store generation changed or <code>{@link #invalidate}</code> was called.
+     *
+     * @return The number of invalidations
+     */
+    public long getInvalidationCount() {
+        return invalidationCount.sum();
+    }
+}
@@ -172,11 +172,155 @@ public abstract class CachedIdentityStoreSource {
         }
     }
 
+    /**
+     * <code>CallerChanges</code> is an in-memory representation of the
+     * caller data which changed in a source since a given version.
+     */
+    public static class CallerChanges {
+        private final String version;
+        private final List<CallerSource> added;
+        private final List<CallerSource> changed;
+        private final List<String> removed;
+
+        public CallerChanges(
+                String version,
+                List<CallerSource> added,
+                List<CallerSource> changed,
+                List<String> removed) {
+
+            if (null == version)
+                throw new NullPointerException("Version");
+            this.version = version;
+            this.added = (null == added) ? Collections.<CallerSource>emptyList() : Collections.unmodifiableList(new ArrayList<>(added));
+            this.changed = (null == changed) ? Collections.<CallerSource>emptyList() : Collections.unmodifiableList(new ArrayList<>(changed));
+            this.removed = (null == removed) ? Collections.<String>emptyList() : Collections.unmodifiableList(new ArrayList<>(removed));
+        }
+
+        /**
+         * Determines the version of the source data once these changes are applied.
+         *
+         * @return The version token
+         */
+        public String getVersion() {
+            return version;
+        }
+
+        public List<CallerSource> getAdded() {
+            return added;
+        }
+
+        public List<CallerSource> getChanged() {
+            return changed;
+        }
+
+        public List<String> getRemoved() {
+            return removed;
+        }
+
+        public boolean isEmpty() {
+            return added.isEmpty() && changed.isEmpty() && removed.isEmpty();
+        }
+
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("version: ").append(version).append("\n");
+            sb.append("added: ").append(added).append("\n");
+            sb.append("changed: ").append(changed).append("\n");
+            sb.append("removed: ").append(removed).append("\n");
+            return sb.toString();
+        }
+    }
+
+    /**
+     * <code>RoleSource</code> is implemented by caller iterators which read the group
+     * roles and declared roles together with the callers, such as from a single pass over
+     * a file. The store then takes them from the iterator once all callers were read,
+     * instead of from {@link #getGroupRoles} and {@link #getDeclaredRoles}, so that all
+     * of the data it loads comes from the same version of the source.
+     */
+    public interface RoleSource {
+
+        /**
+         * Determines the roles assigned to groups, read with the callers.
+         *
+         * @return The roles by group name, <code>null</code> if none.
+         * @throws IllegalStateException Not all callers were read.
+         */
+        Map<String, List<String>> getGroupRoles();
+
+        /**
+         * Determines the roles declared in the source, read with the callers.
+         *
+         * @return The declared role names, <code>null</code> if none.
+         * @throws IllegalStateException Not all callers were read.
+         */
+        List<String> getDeclaredRoles();
+    }
+
     /**
      * Determines an iterator with which to read all of the caller identity data.
+     * The iterator may implement {@link RoleSource}.
      *
      * @return The iterator
      * @throws IOException An error occurred while reading the source.
      */
     public abstract Iterator<CallerSource> getCallerIterator()  throws IOException;
+
+    /**
+     * Determines the roles assigned to groups. Callers in a group are assigned
+     * the roles of the group, in addition to their own roles.
+     * <p>
+     * Group roles are read on each full load. A source whose group roles changed since
+     * a version must return <code>null</code> from {@link #getCallerChanges} for that version.
+     *
+     * @return The roles by group name, <code>null</code> if none.
+     * @throws IOException An error occurred while reading the source.
+     */
+    public Map<String, List<String>> getGroupRoles() throws IOException {
+        return null;
+    }
+
+    /**
+     * Determines the roles declared in the source, including roles which are not
+     * assigned to any caller or group.
+     * <p>
+     * Declared roles are read on each full load. A source whose declared roles changed since
+     * a version must return <code>null</code> from {@link #getCallerChanges} for that version.
+     *
+     * @return The declared role names, <code>null</code> if none.
+     * @throws IOException An error occurred while reading the source.
+     */
+    public List<String> getDeclaredRoles() throws IOException {
+        return null;
+    }
+
+    /**
+     * Determines the current version of the identity data in the source.
+     * <p>
+     * The version is read before the data returned by {@link #getCallerIterator},
+     * and may later be passed to {@link #getCallerChanges} to read only the callers
+     * which changed since then.
+     *
+     * @return The version token, <code>null</code> if the source does not track versions.
+     * @throws IOException An error occurred while reading the source.
+     */
+    public String getVersion() throws IOException {
+        return null;
+    }
+
+    /**
+     * Determines the callers which were added, changed or removed since the given version.
+     * <p>
+     * Applying the changes must be idempotent: an added caller may already be known,
+     * and a removed caller may already be gone.
+     *
+     * @param sinceVersion A version token previously returned by {@link #getVersion}
+     *                     or {@link CallerChanges#getVersion}.
+     * @return The changes, <code>null</code> if not supported or if the version is
+     * no longer known, in which case all of the data must be read using {@link #getCallerIterator}.
+     * @throws IOException An error occurred while reading the source.
+     */
+    public CallerChanges getCallerChanges(String sinceVersion) throws IOException {
+        return null;
+    }
 }
\ No newline at end of file
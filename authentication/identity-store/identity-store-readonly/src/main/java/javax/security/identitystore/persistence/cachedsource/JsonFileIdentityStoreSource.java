@@ -40,172 +40,438 @@
 package javax.security.identitystore.persistence.cachedsource;
 
 import javax.enterprise.inject.Alternative;
-import javax.json.*;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.InputStreamReader;
+import javax.json.Json;
+import javax.json.JsonException;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParser.Event;
+import java.io.*;
+import java.nio.file.Files;
 import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * <code>JsonFileIdentityStoreSource</code> is a {@link CachedIdentityStoreSource}
  * implementation which determines identity data from a given JSON file.
+ * <p>
+ * The file is read as a stream, one caller at a time, so the memory required
+ * does not depend on the number of callers in the file.
+ * <p>
+ * Group roles are read from an optional top-level "groups" array, for example
+ * <code>"groups": [ { "name": "admins", "roles": [ "admin" ] } ]</code>.
+ * Declared roles, including roles not assigned to any caller or group, are read
+ * from an optional top-level "roles" array, for example <code>"roles": [ "admin", "auditor" ]</code>.
  */
 @Alternative
 public class JsonFileIdentityStoreSource extends CachedIdentityStoreSource {
 
-    private final File idStoreFile;
+    private static final Logger LOGGER = Logger.getLogger(JsonFileIdentityStoreSource.class.getName());
 
-    /**
-     * Utility for converting a JsonObject into a String.
-     *
-     * @param name
-     * @param jsonObject
-     * @return
-     */
-    private static String getString(String name, JsonObject jsonObject) {
-        if (null == name || null == jsonObject)
-            return null;
-        JsonString jsonString = jsonObject.getJsonString(name);
-        return null == jsonString ? null : jsonString.getString();
-    }
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File idStoreFile;
 
     /**
      * <code>CallerIterator</code> is an implementation of {@link Iterator<CallerSource>}
      * and supplies identity data by reading the associated JSON file.
+     * <p>
+     * The file is parsed using a streaming {@link JsonParser}, reading each caller
+     * only when requested. Errors found while iterating are thrown as
+     * {@link UncheckedIOException}. The file is closed once all callers were read,
+     * or when the iterator is closed.
+     * <p>
+     * The file is read in a single pass. The top-level "groups" and "roles" arrays are
+     * read wherever they appear, before or after the "callers" array, and are available
+     * as a {@link RoleSource} once all callers were read, so that the callers, group roles
+     * and declared roles all come from the same file, even if it is replaced meanwhile.
      */
-    static final class CallerIterator implements Iterator<CallerSource> {
+    static final class CallerIterator implements Iterator<CallerSource>, RoleSource, Closeable {
 
-        private final JsonArray callersArray;
-        private int currentElementIndex = -1;
         private final File idStoreFile;
+        private final JsonParser parser;
+        private final boolean readCallers;
+
+        private boolean pending;      // A caller has been read ahead
+        private CallerSource pendingCaller;
+        private boolean done;
+        private boolean closed;
+        private boolean complete;     // The whole file was read
+        private Map<String, List<String>> groupRoles;
+        private List<String> declaredRoles;
 
         IOException newBadSchemaException(String reason) {
             return new IOException("Bad schema for JSON file identity store \"" +
                     idStoreFile +"\". " + (null == reason ? "" : reason));
         }
 
+        IOException newBadSchemaException(String name, Event expected, Event actual) {
+            return newBadSchemaException("Unexpected value for \"" + name + "\", expected " +
+                expected + " was " + actual + ".");
+        }
+
         CallerIterator(File idStoreFile) throws IOException {
+            this(idStoreFile, true);
+        }
+
+        /**
+         * Constructor
+         *
+         * @param idStoreFile The associated JSON file.
+         * @param readCallers <code>false</code> to skip the "callers" array,
+         *                    when only the group roles and declared roles are needed.
+         */
+        CallerIterator(File idStoreFile, boolean readCallers) throws IOException {
             if (null == idStoreFile)
                 throw new NullPointerException("Id Store File");
             this.idStoreFile = idStoreFile;
-            JsonReader jsonReader;
+            this.readCallers = readCallers;
+            InputStream in;
             try {
-                jsonReader = Json.createReader(new InputStreamReader(new FileInputStream(idStoreFile)));
+                in = new BufferedInputStream(Files.newInputStream(idStoreFile.toPath()), BUFFER_SIZE);
             } catch (IOException ioe) {
                 ioe.printStackTrace();
                 // TODO: Logging
                 throw ioe;
             }
-            JsonStructure jsonStructure = jsonReader.read();
-            if ((null == jsonStructure) || (jsonStructure.getValueType() != JsonValue.ValueType.OBJECT)) {
-                throw newBadSchemaException("Unexpected top structure, expected " +
-                    JsonValue.ValueType.OBJECT + " was " +
-                    ((null == jsonStructure) ? "null" : jsonStructure.getValueType()) + ".");
+            parser = Json.createParser(in);
+            try {
+                Event event = nextEvent();
+                if (Event.START_OBJECT != event) {
+                    throw newBadSchemaException("Unexpected top structure, expected " +
+                        Event.START_OBJECT + " was " + event + ".");
+                }
+                readTopLevel();
+            } catch (IOException | RuntimeException e) {
+                close();
+                throw e;
+            }
+        }
+
+        /**
+         * Reads top-level values up to the start of the "callers" array, or up to the end
+         * of the file. The "groups" and "roles" arrays are read on the way, others are skipped.
+         */
+        private void readTopLevel() throws IOException {
+            while (true) {
+                Event event = nextEvent();
+                if (Event.END_OBJECT == event) {
+                    complete = true;
+                    finish();
+                    return;
+                }
+                String name = parser.getString();
+                switch (name) {
+                    case "callers":
+                        event = nextEvent();
+                        if (Event.VALUE_NULL == event)
+                            break;
+                        if (Event.START_ARRAY != event)
+                            throw newBadSchemaException(name, Event.START_ARRAY, event);
+                        if (readCallers)
+                            return; // Positioned within the "callers" array
+                        skipValue(event);
+                        break;
+                    case "groups":
+                        groupRoles = readGroupRoles(name);
+                        break;
+                    case "roles":
+                        declaredRoles = readStringArray(name);
+                        break;
+                    default:
+                        skipValue(nextEvent());
+                }
             }
-            JsonObject jsonObject = (JsonObject) jsonStructure;
-            callersArray = jsonObject.getJsonArray("callers");
         }
 
-        @Override
-        public boolean hasNext() {
-            return ((null != callersArray) && (currentElementIndex + 1) < callersArray.size());
+        /**
+         * Reads the next parser event, reporting malformed and truncated files as <code>IOException</code>.
+         */
+        private Event nextEvent() throws IOException {
+            try {
+                if (!parser.hasNext())
+                    throw newBadSchemaException("Unexpected end of file.");
+                return parser.next();
+            } catch (JsonException | NoSuchElementException e) {
+                throw new IOException("Unable to parse JSON file identity store \"" +
+                    idStoreFile + "\". " + e.getMessage(), e);
+            }
         }
 
-        @Override
-        public CallerSource next() {
-            if (!hasNext())
-                throw new NoSuchElementException("No Caller instances");
+        /**
+         * Skips the value starting with the given event.
+         */
+        private void skipValue(Event event) throws IOException {
+            int depth = 0;
+            do {
+                if ((Event.START_OBJECT == event) || (Event.START_ARRAY == event))
+                    depth++;
+                else if ((Event.END_OBJECT == event) || (Event.END_ARRAY == event))
+                    depth--;
+                if (depth > 0)
+                    event = nextEvent();
+            } while (depth > 0);
+        }
+
+        /**
+         * Reads a string value, <code>null</code> if the value is null.
+         */
+        private String readString(String name) throws IOException {
+            Event event = nextEvent();
+            if (Event.VALUE_NULL == event)
+                return null;
+            if (Event.VALUE_STRING != event)
+                throw newBadSchemaException(name, Event.VALUE_STRING, event);
+            return parser.getString();
+        }
 
-            ++currentElementIndex;
-            // TODO: Tighter error checking: nulls, schema, size
-            JsonObject currentCaller = (JsonObject)callersArray.get(currentElementIndex);
-            if (null == currentCaller) {
+        /**
+         * Reads an array of strings, <code>null</code> if the value is null.
+         */
+        private List<String> readStringArray(String name) throws IOException {
+            Event event = nextEvent();
+            if (Event.VALUE_NULL == event)
                 return null;
+            if (Event.START_ARRAY != event)
+                throw newBadSchemaException(name, Event.START_ARRAY, event);
+
+            List<String> values = new ArrayList<>();
+            while (Event.END_ARRAY != (event = nextEvent())) {
+                if (Event.VALUE_STRING == event)
+                    values.add(parser.getString());
+                else if (Event.VALUE_NULL != event)
+                    throw newBadSchemaException(name, Event.VALUE_STRING, event);
             }
+            return values;
+        }
 
-            // name
-            String name = getString("name", currentCaller);
-            if (null == name ) {
-                // TODO: Log it
-                System.out.println("Caller missing required name.");
+        /**
+         * Reads an array of name/value attribute objects, <code>null</code> if the value is null.
+         */
+        private HashMap<String, String> readAttributes(String name) throws IOException {
+            Event event = nextEvent();
+            if (Event.VALUE_NULL == event)
                 return null;
+            if (Event.START_ARRAY != event)
+                throw newBadSchemaException(name, Event.START_ARRAY, event);
+
+            HashMap<String, String> attributesMap = new HashMap<>();
+            while (Event.END_ARRAY != (event = nextEvent())) {
+                if (Event.VALUE_NULL == event)
+                    continue;
+                if (Event.START_OBJECT != event)
+                    throw newBadSchemaException(name, Event.START_OBJECT, event);
+
+                String attrName = null;
+                String attrValue = null;
+                while (Event.END_OBJECT != (event = nextEvent())) {
+                    String key = parser.getString();
+                    if ("name".equals(key))
+                        attrName = readString(key);
+                    else if ("value".equals(key))
+                        attrValue = readString(key);
+                    else
+                        skipValue(nextEvent());
+                }
+                if ((null != attrName) && (null != attrValue))
+                    attributesMap.put(attrName, attrValue);
             }
-            // groups
-            JsonArray groupsJsonArray = currentCaller.getJsonArray("groups");
-            List<String> groupsStringList = null;
-            if (null != groupsJsonArray) {
-                List<JsonString> groupsJsonStringList = groupsJsonArray.getValuesAs(JsonString.class);
-                groupsStringList = new ArrayList<>(groupsJsonStringList.size());
-                for (JsonString groupJsonString : groupsJsonStringList) {
-                    if (null != groupJsonString && null != groupJsonString.getString()) {
-                        groupsStringList.add(groupJsonString.getString());
+            return attributesMap;
+        }
+
+        /**
+         * Reads an array of credential objects, <code>null</code> if the value is null.
+         */
+        private List<CredentialSource> readCredentials(String name) throws IOException {
+            Event event = nextEvent();
+            if (Event.VALUE_NULL == event)
+                return null;
+            if (Event.START_ARRAY != event)
+                throw newBadSchemaException(name, Event.START_ARRAY, event);
+
+            List<CredentialSource> credentialsList = new ArrayList<>();
+            while (Event.END_ARRAY != (event = nextEvent())) {
+                if (Event.VALUE_NULL == event)
+                    continue;
+                if (Event.START_OBJECT != event)
+                    throw newBadSchemaException(name, Event.START_OBJECT, event);
+
+                String type = null;
+                String value = null;
+                String hashAlgorithm = null;
+                String hashSalt = null;
+                HashMap<String, String> attributesMap = null;
+                while (Event.END_OBJECT != (event = nextEvent())) {
+                    String key = parser.getString();
+                    switch (key) {
+                        case "type": type = readString(key); break;
+                        case "value": value = readString(key); break;
+                        case "hash-algorithm": hashAlgorithm = readString(key); break;
+                        case "hash-salt": hashSalt = readString(key); break;
+                        case "attributes": attributesMap = readAttributes(key); break;
+                        default: skipValue(nextEvent());
                     }
                 }
+                credentialsList.add(new CredentialSource(type, value, hashAlgorithm, hashSalt, attributesMap));
+            }
+            return credentialsList;
+        }
+
+        /**
+         * Reads the next element of the "callers" array, or the rest of the file once
+         * the end of the array is reached.
+         */
+        private void readAhead() throws IOException {
+            Event event = nextEvent();
+            if (Event.END_ARRAY == event) {
+                readTopLevel();
+                return;
             }
-            // roles
-            JsonArray rolesJsonArray = currentCaller.getJsonArray("roles");
+
+            pending = true;
+            pendingCaller = null;
+            if (Event.VALUE_NULL == event)
+                return;
+            if (Event.START_OBJECT != event)
+                throw newBadSchemaException("callers", Event.START_OBJECT, event);
+
+            String name = null;
+            List<String> groupsStringList = null;
             List<String> rolesStringList = null;
-            if (null != rolesJsonArray) {
-                List<JsonString> rolesJsonStringList = rolesJsonArray.getValuesAs(JsonString.class);
-                rolesStringList = new ArrayList<>(rolesJsonStringList.size());
-                for (JsonString roleJsonString : rolesJsonStringList) {
-                    if (null != roleJsonString && null != roleJsonString.getString()) {
-                        rolesStringList.add(roleJsonString.getString());
-                    }
+            List<CredentialSource> credentialsList = null;
+            HashMap<String, String> attributesMap = null;
+            while (Event.END_OBJECT != (event = nextEvent())) {
+                String key = parser.getString();
+                switch (key) {
+                    case "name": name = readString(key); break;
+                    case "groups": groupsStringList = readStringArray(key); break;
+                    case "roles": rolesStringList = readStringArray(key); break;
+                    case "credentials": credentialsList = readCredentials(key); break;
+                    case "attributes": attributesMap = readAttributes(key); break;
+                    default: skipValue(nextEvent());
                 }
             }
-            // credentials
-            JsonArray credentialsJsonArray = currentCaller.getJsonArray("credentials");
-            List<CredentialSource> credentialsList = null;
-            if (null != credentialsJsonArray) {
-                List<JsonObject> credentialsJsonObjectList = credentialsJsonArray.getValuesAs(JsonObject.class);
-                credentialsList = new ArrayList<>(credentialsJsonObjectList.size());
-                for (JsonObject credentialJsonObject : credentialsJsonObjectList) {
-                    if (null != credentialJsonObject) {
-                        String type = getString("type", credentialJsonObject);
-                        String value = getString("value", credentialJsonObject);
-                        String hashAlgorithm = getString("hash-algorithm", credentialJsonObject);
-                        String hashSalt = getString("hash-salt", credentialJsonObject);
-                        // attributes
-                        JsonArray attributesJsonArray = credentialJsonObject.getJsonArray("attributes");
-                        HashMap<String, String> attributesMap = null;
-                        if (null != attributesJsonArray) {
-                            List<JsonObject> attributesJsonObjectList = attributesJsonArray.getValuesAs(JsonObject.class);
-                            attributesMap = new HashMap<>(attributesJsonObjectList.size());
-                            for (JsonObject attribute : attributesJsonObjectList) {
-                                if (null != attribute) {
-                                    String attrName = getString("name", attribute);
-                                    String attrValue = getString("value", attribute);
-                                    if ((null != attrName) && (null != attrValue))
-                                        attributesMap.put(attrName, attrValue);
-                                }
-                            }
-                        }
-                        credentialsList.add(new CredentialSource(type, value, hashAlgorithm, hashSalt, attributesMap));
+
+            if (null == name ) {
+                // TODO: Log it
+                System.out.println("Caller missing required name.");
+                return;
+            }
+            pendingCaller = new CallerSource(name, groupsStringList, rolesStringList, credentialsList, attributesMap);
+        }
+
+        /**
+         * Reads an array of group objects, <code>null</code> if the value is null.
+         *
+         * @return The roles by group name
+         */
+        private Map<String, List<String>> readGroupRoles(String name) throws IOException {
+            Event event = nextEvent();
+            if (Event.VALUE_NULL == event)
+                return null;
+            if (Event.START_ARRAY != event)
+                throw newBadSchemaException(name, Event.START_ARRAY, event);
+
+            Map<String, List<String>> groupRoles = new HashMap<>();
+            while (Event.END_ARRAY != (event = nextEvent())) {
+                if (Event.VALUE_NULL == event)
+                    continue;
+                if (Event.START_OBJECT != event)
+                    throw newBadSchemaException("groups", Event.START_OBJECT, event);
+
+                String groupName = null;
+                List<String> rolesStringList = null;
+                while (Event.END_OBJECT != (event = nextEvent())) {
+                    String key = parser.getString();
+                    switch (key) {
+                        case "name": groupName = readString(key); break;
+                        case "roles": rolesStringList = readStringArray(key); break;
+                        default: skipValue(nextEvent());
                     }
                 }
+
+                if (null == groupName) {
+                    LOGGER.log(Level.WARNING, "Group missing required name in " + idStoreFile);
+                    continue;
+                }
+                if (null != rolesStringList)
+                    groupRoles.put(groupName, rolesStringList);
             }
+            return groupRoles;
+        }
 
-            // attributes
-            JsonArray attributesJsonArray = currentCaller.getJsonArray("attributes");
-            HashMap<String, String> attributesMap = null;
-            if (null != attributesJsonArray) {
-                List<JsonObject> attributesJsonObjectList = attributesJsonArray.getValuesAs(JsonObject.class);
-                attributesMap = new HashMap<>(attributesJsonObjectList.size());
-                for (JsonObject attribute : attributesJsonObjectList) {
-                    if (null != attribute) {
-                        String attrName = getString("name", attribute);
-                        String attrValue = getString("value", attribute);
-                        if ((null != attrName) && (null != attrValue))
-                            attributesMap.put(attrName, attrValue);
-                    }
+        /**
+         * Determines the roles assigned to groups, from the "groups" array.
+         *
+         * @return The roles by group name, <code>null</code> if there is no "groups" array.
+         * @throws IllegalStateException Not all callers were read.
+         */
+        @Override
+        public Map<String, List<String>> getGroupRoles() {
+            checkComplete();
+            return groupRoles;
+        }
+
+        /**
+         * Determines the roles declared in the "roles" array.
+         *
+         * @return The role names, <code>null</code> if there is no "roles" array.
+         * @throws IllegalStateException Not all callers were read.
+         */
+        @Override
+        public List<String> getDeclaredRoles() {
+            checkComplete();
+            return declaredRoles;
+        }
+
+        private void checkComplete() {
+            if (!complete)
+                throw new IllegalStateException("Not all callers were read from " + idStoreFile);
+        }
+
+        private void finish() {
+            done = true;
+            close();
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!pending && !done) {
+                try {
+                    readAhead();
+                } catch (IOException e) {
+                    close();
+                    throw new UncheckedIOException(e);
                 }
             }
+            return pending;
+        }
 
-            return new CallerSource(name, groupsStringList, rolesStringList, credentialsList, attributesMap);
+        @Override
+        public CallerSource next() {
+            if (!hasNext())
+                throw new NoSuchElementException("No Caller instances");
+
+            CallerSource caller = pendingCaller;
+            pending = false;
+            pendingCaller = null;
+            return caller;
         }
 
+        /**
+         * Closes the associated file.
+         */
+        @Override
+        public void close() {
+            done = true;
+            if (closed)
+                return;
+            closed = true;
+            try {
+                parser.close();
+            } catch (JsonException e) {
+                LOGGER.log(Level.WARNING, "Unable to close " + idStoreFile, e);
+            }
+        }
     }
 
     /**
@@ -220,6 +486,15 @@ public class JsonFileIdentityStoreSource extends CachedIdentityStoreSource {
         this.idStoreFile = idStoreFile;
     }
 
+    /**
+     * Determines the associated JSON file.
+     *
+     * @return The associated JSON file.
+     */
+    public File getFile() {
+        return idStoreFile;
+    }
+
     /**
      * Determines an iterator with which to read all of the caller identity data.
      *
@@ -237,4 +512,40 @@ public class JsonFileIdentityStoreSource extends CachedIdentityStoreSource {
             return new CallerIterator(localIdStoreFile);
         }
     }
+
+    /**
+     * Determines the roles assigned to groups, from the "groups" array of the JSON file.
+     * A load takes them from its caller iterator instead, which reads them in the same pass.
+     *
+     * @return The roles by group name, <code>null</code> if none.
+     * @throws IOException An error occurred while reading the source.
+     */
+    @Override
+    public Map<String, List<String>> getGroupRoles() throws IOException {
+        File localIdStoreFile = idStoreFile;
+        if (null == localIdStoreFile)
+            return null;
+
+        try (CallerIterator reader = new CallerIterator(localIdStoreFile, false)) {
+            return reader.getGroupRoles();
+        }
+    }
+
+    /**
+     * Determines the roles declared in the "roles" array of the JSON file.
+     * A load takes them from its caller iterator instead, which reads them in the same pass.
+     *
+     * @return The declared role names, <code>null</code> if none.
+     * @throws IOException An error occurred while reading the source.
+     */
+    @Override
+    public List<String> getDeclaredRoles() throws IOException {
+        File localIdStoreFile = idStoreFile;
+        if (null == localIdStoreFile)
+            return null;
+
+        try (CallerIterator reader = new CallerIterator(localIdStoreFile, false)) {
+            return reader.getDeclaredRoles();
+        }
+    }
 }
\ No newline at end of file
@@ -41,17 +41,50 @@ package javax.security.identitystore.persistence.cachedsource;
 
 import javax.enterprise.inject.Alternative;
 import java.io.IOException;
-import java.util.Iterator;
-import java.util.Set;
+import java.util.*;
 
 /**
  * <code>MemoryIdentityStoreSource</code> is a {@link CachedIdentityStoreSource}
  * implementation which determines identity data from a given collection.
+ * <p>
+ * The given callers are copied, so that {@link #putCaller} and {@link #removeCaller}
+ * are the only way to change them. These changes are recorded in a bounded change
+ * log, enabling incremental reloads using {@link #getCallerChanges}.
+ * Group roles and declared roles changed using {@link #setGroupRoles} and
+ * {@link #setDeclaredRoles} require a full reload.
  */
 @Alternative
 public class MemoryIdentityStoreSource extends CachedIdentityStoreSource {
 
-    private final Set<CallerSource> callers;
+    public static final int DEFAULT_CHANGE_LOG_SIZE = 1024;
+
+    private final Set<CallerSource> callers; // Guarded by this
+    private Set<CallerSource> snapshot = null; // Unmodifiable copy of callers, null when changed. Guarded by this
+    private final Map<String, List<String>> groupRoles = new HashMap<>(); // Guarded by this
+    private List<String> declaredRoles = null; // Guarded by this
+
+    // Change log, oldest first. Guarded by this.
+    private final int changeLogSize;
+    private final ArrayDeque<Change> changeLog = new ArrayDeque<>();
+    private long version = 0;
+    private long reloadVersion = 0; // Version of the last change requiring a full reload
+
+    /**
+     * <code>Change</code> records a single caller modification.
+     */
+    private static final class Change {
+        private final long version;
+        private final String name;
+        private final CallerSource caller; // null when removed
+        private final boolean added;
+
+        Change(long version, String name, CallerSource caller, boolean added) {
+            this.version = version;
+            this.name = name;
+            this.caller = caller;
+            this.added = added;
+        }
+    }
 
     // TODO: Post-Construct to check @Caller(name=,groups={},roles={},credentials={@Credential(type=,value=,hash=,salt=),@Credential(...)},attributes={@Attribute(name=,value=),@Attribute(...)})
 
@@ -59,12 +92,41 @@ public class MemoryIdentityStoreSource extends CachedIdentityStoreSource {
     /**
      * Constructor
      *
-     * @param callers Caller identity data
+     * @param callers Caller identity data, which is copied
      */
     public MemoryIdentityStoreSource(Set<CallerSource> callers) {
+        this(callers, DEFAULT_CHANGE_LOG_SIZE);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param callers Caller identity data, which is copied
+     * @param changeLogSize The maximum number of caller changes retained for incremental reloads.
+     */
+    public MemoryIdentityStoreSource(Set<CallerSource> callers, int changeLogSize) {
         if (null == callers)
             throw new NullPointerException("Caller source");
-        this.callers = callers;
+        if (changeLogSize < 0)
+            throw new IllegalArgumentException("Change log size: " + changeLogSize);
+        this.callers = new LinkedHashSet<>(callers);
+        this.changeLogSize = changeLogSize;
+    }
+
+    /**
+     * Constructor
+     *
+     * @param callers Caller identity data, which is copied
+     * @param groupRoles The roles by group name
+     */
+    public MemoryIdentityStoreSource(Set<CallerSource> callers, Map<String, List<String>> groupRoles) {
+        this(callers, DEFAULT_CHANGE_LOG_SIZE);
+        if (null == groupRoles)
+            throw new NullPointerException("Group roles");
+        for (Map.Entry<String, List<String>> entry : groupRoles.entrySet()) {
+            if (null != entry.getValue())
+                this.groupRoles.put(entry.getKey(), Collections.unmodifiableList(new ArrayList<>(entry.getValue())));
+        }
     }
 
     /**
@@ -74,7 +136,167 @@ public class MemoryIdentityStoreSource extends CachedIdentityStoreSource {
      * @throws IOException An error occurred while reading the source.
      */
     @Override
-    public Iterator<CallerSource> getCallerIterator() throws IOException {
-        return callers.iterator();
+    public synchronized Iterator<CallerSource> getCallerIterator() throws IOException {
+        // Iterate over a snapshot, so that concurrent changes do not disturb a load.
+        // The snapshot is shared by loads until the callers next change.
+        if (null == snapshot)
+            snapshot = Collections.unmodifiableSet(new LinkedHashSet<>(callers));
+        return snapshot.iterator();
+    }
+
+    /**
+     * Adds or replaces the given caller.
+     *
+     * @param caller Caller identity data
+     */
+    public synchronized void putCaller(CallerSource caller) {
+        if (null == caller)
+            throw new NullPointerException("Caller source");
+
+        // CallerSource equality is by name only
+        boolean added = !callers.remove(caller);
+        callers.add(caller);
+        snapshot = null;
+        record(new Change(++version, caller.getName(), caller, added));
+    }
+
+    /**
+     * Removes the caller with the given name.
+     *
+     * @param name Caller name
+     * @return <code>true</code> if the caller was found and removed.
+     */
+    public synchronized boolean removeCaller(String name) {
+        if (null == name)
+            throw new NullPointerException("Caller name");
+
+        boolean removed = callers.remove(new CallerSource(name, null, null, null, null));
+        if (removed) {
+            snapshot = null;
+            record(new Change(++version, name, null, false));
+        }
+        return removed;
+    }
+
+    /**
+     * Sets the roles assigned to the given group.
+     *
+     * @param group Group name
+     * @param roles The roles, <code>null</code> to remove the group roles.
+     */
+    public synchronized void setGroupRoles(String group, List<String> roles) {
+        if (null == group)
+            throw new NullPointerException("Group name");
+
+        if (null == roles)
+            groupRoles.remove(group);
+        else
+            groupRoles.put(group, Collections.unmodifiableList(new ArrayList<>(roles)));
+        reloadVersion = ++version;
+    }
+
+    /**
+     * Sets the roles declared in the source, including roles which are not
+     * assigned to any caller or group.
+     *
+     * @param roles The declared role names, <code>null</code> if none.
+     */
+    public synchronized void setDeclaredRoles(Collection<String> roles) {
+        declaredRoles = (null == roles) ? null : Collections.unmodifiableList(new ArrayList<>(roles));
+        reloadVersion = ++version;
+    }
+
+    /**
+     * Determines the roles declared in the source.
+     *
+     * @return The declared role names, <code>null</code> if none.
+     * @throws IOException An error occurred while reading the source.
+     */
+    @Override
+    public synchronized List<String> getDeclaredRoles() throws IOException {
+        return declaredRoles;
+    }
+
+    /**
+     * Determines the roles assigned to groups.
+     *
+     * @return The roles by group name
+     * @throws IOException An error occurred while reading the source.
+     */
+    @Override
+    public synchronized Map<String, List<String>> getGroupRoles() throws IOException {
+        return Collections.unmodifiableMap(new HashMap<>(groupRoles));
+    }
+
+    private void record(Change change) {
+        changeLog.addLast(change);
+        while (changeLog.size() > changeLogSize) {
+            changeLog.removeFirst();
+        }
+    }
+
+    /**
+     * Determines the current version of the identity data in the source.
+     *
+     * @return The version token
+     * @throws IOException An error occurred while reading the source.
+     */
+    @Override
+    public synchronized String getVersion() throws IOException {
+        return Long.toString(version);
+    }
+
+    /**
+     * Determines the callers which were added, changed or removed since the given version.
+     *
+     * @param sinceVersion A version token previously returned by this source.
+     * @return The changes, <code>null</code> if the version is no longer retained in the change log,
+     * or if group roles or declared roles changed since the version.
+     * @throws IOException An error occurred while reading the source.
+     */
+    @Override
+    public synchronized CallerChanges getCallerChanges(String sinceVersion) throws IOException {
+        if (null == sinceVersion)
+            return null;
+
+        long since;
+        try {
+            since = Long.parseLong(sinceVersion);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (since > version)
+            return null;
+
+        // Group role and declared role changes are not part of the change log
+        if (since < reloadVersion)
+            return null;
+
+        // Every change after the given version must still be in the log
+        long oldestRetained = changeLog.isEmpty() ? version + 1 : changeLog.getFirst().version;
+        if (since < version && since + 1 < oldestRetained)
+            return null;
+
+        // Latest change per caller wins
+        Map<String, Change> latest = new LinkedHashMap<>();
+        for (Change change : changeLog) {
+            if (change.version > since) {
+                latest.remove(change.name);
+                latest.put(change.name, change);
+            }
+        }
+
+        List<CallerSource> added = new ArrayList<>();
+        List<CallerSource> changed = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        for (Change change : latest.values()) {
+            if (null == change.caller)
+                removed.add(change.name);
+            else if (change.added)
+                added.add(change.caller);
+            else
+                changed.add(change.caller);
+        }
+        return new CallerChanges(Long.toString(version), added, changed, removed);
     }
 }
\ No newline at end of file
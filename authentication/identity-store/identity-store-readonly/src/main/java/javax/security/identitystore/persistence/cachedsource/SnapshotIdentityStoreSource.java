@@ -0,0 +1,739 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015, 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * http://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package javax.security.identitystore.persistence.cachedsource;
+
+import javax.enterprise.inject.Alternative;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * <code>SnapshotIdentityStoreSource</code> is a {@link CachedIdentityStoreSource}
+ * implementation which determines identity data from a binary snapshot file,
+ * as written by {@link #write}.
+ * <p>
+ * The snapshot is memory-mapped rather than parsed. Caller records are decoded
+ * only when iterated or looked up, and each distinct string is decoded once per
+ * iteration, so repeated group and role names share a single instance.
+ * <p>
+ * Snapshot format, version 2. All integers are big-endian, offsets are absolute
+ * and string ids index the string table, with <code>-1</code> for <code>null</code>.
+ * List counts are <code>-1</code> for a <code>null</code> list.
+ * <pre>
+ * header        int magic "JIDS", int format version,
+ *               int string count, int string index offset,
+ *               int caller count, int caller index offset,
+ *               int group count,  int group index offset,
+ *               int role count,   int role index offset,
+ *               int group role count, int group role index offset,
+ *               int declared role count, int declared roles offset,
+ *               8 reserved bytes
+ * strings       { int byte length, UTF-8 bytes }
+ * string index  { int string offset }
+ * callers       { int name, int count, { int group }, int count, { int role },
+ *                 int count, { int type, int value, int hash algorithm, int hash salt,
+ *                              int count, { int name, int value } },
+ *                 int count, { int name, int value } }
+ * caller index  { int caller offset }, sorted by caller name
+ * groups        { int name, int count, { int caller name } }
+ * group index   { int group offset }, sorted by group name
+ * roles         { int name, int count, { int caller name } }
+ * role index    { int role offset }, sorted by role name
+ * group roles   { int name, int count, { int role } }
+ * group role index { int group role offset }, sorted by group name
+ * declared roles { int role }
+ * </pre>
+ * The role map holds the direct roles of callers, the roles callers inherit
+ * from their groups are determined from the group roles.
+ * Version 1 snapshots, which hold neither group roles nor declared roles, are rejected,
+ * since loading them would silently lose the roles of groups.
+ * Names are sorted by their UTF-8 bytes, enabling lookups without decoding.
+ * Snapshots are limited to 2 GB.
+ */
+@Alternative
+public class SnapshotIdentityStoreSource extends CachedIdentityStoreSource {
+
+    static final int MAGIC = 0x4A494453; // "JIDS"
+    static final int FORMAT_VERSION = 2;
+    static final int HEADER_SIZE = 64;
+
+    private final File snapshotFile;
+    private volatile Snapshot snapshot;
+
+    /**
+     * Constructor
+     *
+     * @param snapshotFile The associated snapshot file.
+     */
+    public SnapshotIdentityStoreSource(File snapshotFile) {
+        if (null == snapshotFile)
+            throw new NullPointerException("Snapshot file");
+        this.snapshotFile = snapshotFile;
+    }
+
+    /**
+     * Determines the associated snapshot file.
+     *
+     * @return The associated snapshot file.
+     */
+    public File getFile() {
+        return snapshotFile;
+    }
+
+    /**
+     * Determines an iterator with which to read all of the caller identity data.
+     * The snapshot file is mapped again, so that a replaced file is seen.
+     *
+     * @return The iterator
+     * @throws IOException An error occurred while reading the source.
+     */
+    @Override
+    public Iterator<CallerSource> getCallerIterator() throws IOException {
+        Snapshot current = Snapshot.map(snapshotFile);
+        snapshot = current;
+        return current.new CallerIterator();
+    }
+
+    private Snapshot getSnapshot() throws IOException {
+        Snapshot current = snapshot;
+        if (null == current) {
+            current = Snapshot.map(snapshotFile);
+            snapshot = current;
+        }
+        return current;
+    }
+
+    /**
+     * Determines the roles assigned to groups, from the snapshot last mapped.
+     *
+     * @return The roles by group name, <code>null</code> if none.
+     * @throws IOException An error occurred while reading the source.
+     */
+    @Override
+    public Map<String, List<String>> getGroupRoles() throws IOException {
+        return getSnapshot().readGroupRoles(null);
+    }
+
+    /**
+     * Determines the roles declared in the snapshot last mapped.
+     *
+     * @return The declared role names, <code>null</code> if none.
+     * @throws IOException An error occurred while reading the source.
+     */
+    @Override
+    public List<String> getDeclaredRoles() throws IOException {
+        return getSnapshot().readDeclaredRoles(null);
+    }
+
+    /**
+     * Looks up a single caller in the snapshot, without reading the other callers.
+     *
+     * @param name Caller name
+     * @return The caller, <code>null</code> if not found.
+     * @throws IOException An error occurred while reading the source.
+     */
+    public CallerSource getCaller(String name) throws IOException {
+        Snapshot current = getSnapshot();
+        int offset = current.find(current.callerIndexOffset, current.callerCount, name);
+        return (offset < 0) ? null : current.readCaller(offset, null);
+    }
+
+    /**
+     * Determines the callers in the given group, from the precomputed group map of the snapshot.
+     *
+     * @param group The group name
+     * @return The list of callers in the group, <code>null</code> if not found.
+     * @throws IOException An error occurred while reading the source.
+     */
+    public List<String> getCallersInGroup(String group) throws IOException {
+        Snapshot current = getSnapshot();
+        return current.readReverse(current.find(current.groupIndexOffset, current.groupCount, group));
+    }
+
+    /**
+     * Determines the callers with the given role, from the precomputed role map of the snapshot.
+     *
+     * @param role The role name
+     * @return The list of callers with the role, <code>null</code> if not found.
+     * @throws IOException An error occurred while reading the source.
+     */
+    public List<String> getCallersWithRole(String role) throws IOException {
+        Snapshot current = getSnapshot();
+        return current.readReverse(current.find(current.roleIndexOffset, current.roleCount, role));
+    }
+
+    /**
+     * <code>Snapshot</code> is a mapped snapshot file.
+     */
+    static final class Snapshot {
+        private final File file;
+        private final ByteBuffer buffer;
+        private final int stringCount;
+        private final int stringIndexOffset;
+        private final int callerCount;
+        private final int callerIndexOffset;
+        private final int groupCount;
+        private final int groupIndexOffset;
+        private final int roleCount;
+        private final int roleIndexOffset;
+        private final int groupRoleCount;
+        private final int groupRoleIndexOffset;
+        private final int declaredRoleCount;
+        private final int declaredRolesOffset;
+
+        private Snapshot(File file, ByteBuffer buffer) throws IOException {
+            this.file = file;
+            this.buffer = buffer;
+            if ((buffer.capacity() < HEADER_SIZE) || (MAGIC != buffer.getInt(0)))
+                throw newBadSnapshotException("Not a snapshot file.");
+            int formatVersion = buffer.getInt(4);
+            if (1 == formatVersion)
+                throw newBadSnapshotException("Format version 1 does not hold group roles and declared roles, write the snapshot again.");
+            if (FORMAT_VERSION != formatVersion)
+                throw newBadSnapshotException("Unsupported format version " + formatVersion + ".");
+            stringCount = buffer.getInt(8);
+            stringIndexOffset = buffer.getInt(12);
+            callerCount = buffer.getInt(16);
+            callerIndexOffset = buffer.getInt(20);
+            groupCount = buffer.getInt(24);
+            groupIndexOffset = buffer.getInt(28);
+            roleCount = buffer.getInt(32);
+            roleIndexOffset = buffer.getInt(36);
+            groupRoleCount = buffer.getInt(40);
+            groupRoleIndexOffset = buffer.getInt(44);
+            declaredRoleCount = buffer.getInt(48);
+            declaredRolesOffset = buffer.getInt(52);
+            checkIndex(stringIndexOffset, stringCount);
+            checkIndex(callerIndexOffset, callerCount);
+            checkIndex(groupIndexOffset, groupCount);
+            checkIndex(roleIndexOffset, roleCount);
+            if (groupRoleCount >= 0)
+                checkIndex(groupRoleIndexOffset, groupRoleCount);
+            if (declaredRoleCount >= 0)
+                checkIndex(declaredRolesOffset, declaredRoleCount);
+        }
+
+        static Snapshot map(File file) throws IOException {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                long size = channel.size();
+                if (size > Integer.MAX_VALUE)
+                    throw new IOException("Snapshot file \"" + file + "\" is too large: " + size);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                // The mapping remains valid once the channel is closed
+                return new Snapshot(file, buffer);
+            }
+        }
+
+        IOException newBadSnapshotException(String reason) {
+            return new IOException("Bad snapshot file \"" + file + "\". " + reason);
+        }
+
+        private void checkIndex(int offset, int count) throws IOException {
+            if ((count < 0) || (offset < HEADER_SIZE) || ((long) offset + 4L * count > buffer.capacity()))
+                throw newBadSnapshotException("Index out of bounds.");
+        }
+
+        /**
+         * Decodes a string from the table.
+         *
+         * @param id The string id
+         * @param decoded Strings decoded so far, <code>null</code> to decode without caching.
+         * @return The string
+         */
+        String string(int id, String[] decoded) {
+            if (id < 0)
+                return null;
+            if (id >= stringCount)
+                throw new IllegalStateException("String id out of bounds: " + id);
+            String value = (null == decoded) ? null : decoded[id];
+            if (null == value) {
+                int offset = buffer.getInt(stringIndexOffset + 4 * id);
+                int length = buffer.getInt(offset);
+                byte[] bytes = new byte[length];
+                ByteBuffer view = buffer.duplicate();
+                view.position(offset + 4);
+                view.get(bytes);
+                value = new String(bytes, StandardCharsets.UTF_8);
+                if (null != decoded)
+                    decoded[id] = value;
+            }
+            return value;
+        }
+
+        /**
+         * Compares the UTF-8 bytes of a string in the table with the given key bytes.
+         */
+        private int compare(int id, byte[] key) {
+            int offset = buffer.getInt(stringIndexOffset + 4 * id);
+            int length = buffer.getInt(offset);
+            int common = Math.min(length, key.length);
+            for (int i = 0; i < common; i++) {
+                int diff = (buffer.get(offset + 4 + i) & 0xff) - (key[i] & 0xff);
+                if (0 != diff)
+                    return diff;
+            }
+            return length - key.length;
+        }
+
+        /**
+         * Finds the record with the given name in an index sorted by name.
+         *
+         * @return The record offset, <code>-1</code> if not found.
+         */
+        int find(int indexOffset, int count, String name) {
+            if (null == name)
+                return -1;
+            byte[] key = name.getBytes(StandardCharsets.UTF_8);
+            int low = 0;
+            int high = count - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int recordOffset = buffer.getInt(indexOffset + 4 * mid);
+                int cmp = compare(buffer.getInt(recordOffset), key);
+                if (cmp < 0)
+                    low = mid + 1;
+                else if (cmp > 0)
+                    high = mid - 1;
+                else
+                    return recordOffset;
+            }
+            return -1;
+        }
+
+        List<String> readReverse(int offset) {
+            if (offset < 0)
+                return null;
+            int count = buffer.getInt(offset + 4);
+            List<String> callers = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                callers.add(string(buffer.getInt(offset + 8 + 4 * i), null));
+            }
+            return callers;
+        }
+
+        /**
+         * Decodes the group roles.
+         *
+         * @return The roles by group name, <code>null</code> if none.
+         */
+        Map<String, List<String>> readGroupRoles(String[] decoded) {
+            if (groupRoleCount < 0)
+                return null;
+            Map<String, List<String>> groupRoles = new HashMap<>(groupRoleCount * 2);
+            ByteBuffer in = buffer.duplicate();
+            for (int i = 0; i < groupRoleCount; i++) {
+                in.position(buffer.getInt(groupRoleIndexOffset + 4 * i));
+                String group = string(in.getInt(), decoded);
+                groupRoles.put(group, readStrings(in, decoded));
+            }
+            return groupRoles;
+        }
+
+        /**
+         * Decodes the declared roles.
+         *
+         * @return The declared role names, <code>null</code> if none.
+         */
+        List<String> readDeclaredRoles(String[] decoded) {
+            if (declaredRoleCount < 0)
+                return null;
+            List<String> roles = new ArrayList<>(declaredRoleCount);
+            for (int i = 0; i < declaredRoleCount; i++) {
+                roles.add(string(buffer.getInt(declaredRolesOffset + 4 * i), decoded));
+            }
+            return roles;
+        }
+
+        CallerSource readCaller(int offset, String[] decoded) {
+            ByteBuffer in = buffer.duplicate();
+            in.position(offset);
+
+            String name = string(in.getInt(), decoded);
+            List<String> groups = readStrings(in, decoded);
+            List<String> roles = readStrings(in, decoded);
+            List<CredentialSource> credentials = null;
+            int credentialCount = in.getInt();
+            if (credentialCount >= 0) {
+                credentials = new ArrayList<>(credentialCount);
+                for (int i = 0; i < credentialCount; i++) {
+                    String type = string(in.getInt(), decoded);
+                    String value = string(in.getInt(), decoded);
+                    String hashAlgorithm = string(in.getInt(), decoded);
+                    String hashSalt = string(in.getInt(), decoded);
+                    credentials.add(new CredentialSource(type, value, hashAlgorithm, hashSalt, readAttributes(in, decoded)));
+                }
+            }
+            return new CallerSource(name, groups, roles, credentials, readAttributes(in, decoded));
+        }
+
+        private List<String> readStrings(ByteBuffer in, String[] decoded) {
+            int count = in.getInt();
+            if (count < 0)
+                return null;
+            List<String> values = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                values.add(string(in.getInt(), decoded));
+            }
+            return values;
+        }
+
+        private Map<String, String> readAttributes(ByteBuffer in, String[] decoded) {
+            int count = in.getInt();
+            if (count < 0)
+                return null;
+            Map<String, String> attributes = new HashMap<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                attributes.put(string(in.getInt(), decoded), string(in.getInt(), decoded));
+            }
+            return attributes;
+        }
+
+        /**
+         * <code>CallerIterator</code> decodes caller records in caller name order.
+         * The group roles and declared roles are those of the same mapping.
+         */
+        final class CallerIterator implements Iterator<CallerSource>, RoleSource {
+            private final String[] decoded = new String[stringCount];
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return index < callerCount;
+            }
+
+            @Override
+            public CallerSource next() {
+                if (!hasNext())
+                    throw new NoSuchElementException("No Caller instances");
+                return readCaller(buffer.getInt(callerIndexOffset + 4 * index++), decoded);
+            }
+
+            @Override
+            public Map<String, List<String>> getGroupRoles() {
+                return readGroupRoles(decoded);
+            }
+
+            @Override
+            public List<String> getDeclaredRoles() {
+                return readDeclaredRoles(decoded);
+            }
+        }
+    }
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Writing
+    //
+
+    /**
+     * <code>StringTable</code> assigns ids to distinct strings.
+     */
+    private static final class StringTable {
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+
+        int id(String value) {
+            if (null == value)
+                return -1;
+            Integer id = ids.get(value);
+            if (null == id) {
+                id = strings.size();
+                ids.put(value, id);
+                strings.add(value);
+            }
+            return id;
+        }
+    }
+
+    private static final Comparator<String> UTF8_ORDER = (a, b) -> {
+        byte[] x = a.getBytes(StandardCharsets.UTF_8);
+        byte[] y = b.getBytes(StandardCharsets.UTF_8);
+        int common = Math.min(x.length, y.length);
+        for (int i = 0; i < common; i++) {
+            int diff = (x[i] & 0xff) - (y[i] & 0xff);
+            if (0 != diff)
+                return diff;
+        }
+        return x.length - y.length;
+    };
+
+    /**
+     * Writes a snapshot of the given identity data, without group roles and declared roles.
+     *
+     * @param file The snapshot file
+     * @param callers Caller identity data
+     * @param groupToCallers The callers in each group
+     * @param roleToCallers The callers with each role
+     * @throws IOException An error occurred while writing the snapshot.
+     * @see #write(File, Collection, Map, Map, Map, List)
+     */
+    public static void write(
+            File file,
+            Collection<CallerSource> callers,
+            Map<String, List<String>> groupToCallers,
+            Map<String, List<String>> roleToCallers) throws IOException {
+        write(file, callers, groupToCallers, roleToCallers, null, null);
+    }
+
+    /**
+     * Writes a snapshot of the given identity data. The snapshot is written to a
+     * temporary file first, which then replaces the given file.
+     *
+     * @param file The snapshot file
+     * @param callers Caller identity data
+     * @param groupToCallers The callers in each group
+     * @param roleToCallers The callers with each direct role
+     * @param groupRoles The roles by group name, <code>null</code> if none.
+     * @param declaredRoles The declared role names, <code>null</code> if none.
+     * @throws IOException An error occurred while writing the snapshot.
+     */
+    public static void write(
+            File file,
+            Collection<CallerSource> callers,
+            Map<String, List<String>> groupToCallers,
+            Map<String, List<String>> roleToCallers,
+            Map<String, List<String>> groupRoles,
+            List<String> declaredRoles) throws IOException {
+
+        if (null == file)
+            throw new NullPointerException("Snapshot file");
+        if (null == callers)
+            throw new NullPointerException("Caller source");
+
+        List<CallerSource> sortedCallers = new ArrayList<>(callers);
+        sortedCallers.sort((a, b) -> UTF8_ORDER.compare(a.getName(), b.getName()));
+        List<String> sortedGroups = sortedKeys(groupToCallers);
+        List<String> sortedRoles = sortedKeys(roleToCallers);
+        Map<String, List<String>> nonNullGroupRoles = null;
+        if (null != groupRoles) {
+            nonNullGroupRoles = new HashMap<>(groupRoles);
+            nonNullGroupRoles.values().removeIf(Objects::isNull);
+        }
+        List<String> sortedGroupRoles = sortedKeys(nonNullGroupRoles);
+        List<String> nonNullDeclaredRoles = null;
+        if (null != declaredRoles) {
+            nonNullDeclaredRoles = new ArrayList<>(declaredRoles);
+            nonNullDeclaredRoles.removeIf(Objects::isNull);
+        }
+
+        StringTable strings = new StringTable();
+        for (CallerSource caller : sortedCallers) {
+            collect(strings, caller);
+        }
+        collect(strings, sortedGroups, groupToCallers);
+        collect(strings, sortedRoles, roleToCallers);
+        if (null != nonNullGroupRoles)
+            collect(strings, sortedGroupRoles, nonNullGroupRoles);
+        if (null != nonNullDeclaredRoles)
+            nonNullDeclaredRoles.forEach(strings::id);
+
+        Path target = file.toPath().toAbsolutePath();
+        Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 64 * 1024))) {
+                out.write(new byte[HEADER_SIZE]);
+
+                int[] stringOffsets = new int[strings.strings.size()];
+                for (int i = 0; i < stringOffsets.length; i++) {
+                    stringOffsets[i] = out.size();
+                    byte[] bytes = strings.strings.get(i).getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+                int stringIndexOffset = writeIndex(out, stringOffsets);
+
+                int[] callerOffsets = new int[sortedCallers.size()];
+                for (int i = 0; i < callerOffsets.length; i++) {
+                    callerOffsets[i] = out.size();
+                    writeCaller(out, strings, sortedCallers.get(i));
+                }
+                int callerIndexOffset = writeIndex(out, callerOffsets);
+
+                int groupIndexOffset = writeIndex(out, writeReverse(out, strings, sortedGroups, groupToCallers));
+                int roleIndexOffset = writeIndex(out, writeReverse(out, strings, sortedRoles, roleToCallers));
+                int groupRoleIndexOffset = writeIndex(out, writeReverse(out, strings, sortedGroupRoles, nonNullGroupRoles));
+                int declaredRolesOffset = out.size();
+                if (null != nonNullDeclaredRoles) {
+                    for (String role : nonNullDeclaredRoles) {
+                        out.writeInt(strings.id(role));
+                    }
+                }
+                out.flush();
+
+                // The count sticks at Integer.MAX_VALUE on overflow
+                if (Integer.MAX_VALUE == out.size())
+                    throw new IOException("Snapshot file \"" + file + "\" is too large.");
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC).putInt(FORMAT_VERSION)
+                    .putInt(stringOffsets.length).putInt(stringIndexOffset)
+                    .putInt(callerOffsets.length).putInt(callerIndexOffset)
+                    .putInt(sortedGroups.size()).putInt(groupIndexOffset)
+                    .putInt(sortedRoles.size()).putInt(roleIndexOffset)
+                    .putInt((null == nonNullGroupRoles) ? -1 : sortedGroupRoles.size()).putInt(groupRoleIndexOffset)
+                    .putInt((null == nonNullDeclaredRoles) ? -1 : nonNullDeclaredRoles.size()).putInt(declaredRolesOffset);
+                header.rewind();
+                try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                    channel.write(header, 0);
+                }
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static List<String> sortedKeys(Map<String, List<String>> map) {
+        List<String> keys = (null == map) ? new ArrayList<>() : new ArrayList<>(map.keySet());
+        keys.sort(UTF8_ORDER);
+        return keys;
+    }
+
+    private static void collect(StringTable strings, CallerSource caller) {
+        strings.id(caller.getName());
+        if (null != caller.getGroups())
+            caller.getGroups().forEach(strings::id);
+        if (null != caller.getRoles())
+            caller.getRoles().forEach(strings::id);
+        if (null != caller.getCredentials()) {
+            for (CredentialSource credential : caller.getCredentials()) {
+                if (null != credential) {
+                    strings.id(credential.getType());
+                    strings.id(credential.getValue());
+                    strings.id(credential.getHashAlgorithm());
+                    strings.id(credential.getHashSalt());
+                    collect(strings, credential.getAttributes());
+                }
+            }
+        }
+        collect(strings, caller.getAttributes());
+    }
+
+    private static void collect(StringTable strings, List<String> keys, Map<String, List<String>> reverseMap) {
+        for (String key : keys) {
+            strings.id(key);
+            reverseMap.get(key).forEach(strings::id);
+        }
+    }
+
+    private static void collect(StringTable strings, Map<String, String> attributes) {
+        if (null != attributes) {
+            for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+                strings.id(attribute.getKey());
+                strings.id(attribute.getValue());
+            }
+        }
+    }
+
+    private static int writeIndex(DataOutputStream out, int[] offsets) throws IOException {
+        int indexOffset = out.size();
+        for (int offset : offsets) {
+            out.writeInt(offset);
+        }
+        return indexOffset;
+    }
+
+    private static void writeCaller(DataOutputStream out, StringTable strings, CallerSource caller) throws IOException {
+        out.writeInt(strings.id(caller.getName()));
+        writeStrings(out, strings, caller.getGroups());
+        writeStrings(out, strings, caller.getRoles());
+        List<CredentialSource> credentials = caller.getCredentials();
+        if (null == credentials) {
+            out.writeInt(-1);
+        } else {
+            List<CredentialSource> nonNull = new ArrayList<>(credentials);
+            nonNull.removeIf(Objects::isNull);
+            out.writeInt(nonNull.size());
+            for (CredentialSource credential : nonNull) {
+                out.writeInt(strings.id(credential.getType()));
+                out.writeInt(strings.id(credential.getValue()));
+                out.writeInt(strings.id(credential.getHashAlgorithm()));
+                out.writeInt(strings.id(credential.getHashSalt()));
+                writeAttributes(out, strings, credential.getAttributes());
+            }
+        }
+        writeAttributes(out, strings, caller.getAttributes());
+    }
+
+    private static void writeStrings(DataOutputStream out, StringTable strings, List<String> values) throws IOException {
+        if (null == values) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(values.size());
+        for (String value : values) {
+            out.writeInt(strings.id(value));
+        }
+    }
+
+    private static void writeAttributes(DataOutputStream out, StringTable strings, Map<String, String> attributes) throws IOException {
+        if (null == attributes) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(attributes.size());
+        for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+            out.writeInt(strings.id(attribute.getKey()));
+            out.writeInt(strings.id(attribute.getValue()));
+        }
+    }
+
+    private static int[] writeReverse(DataOutputStream out, StringTable strings, List<String> keys,
+                                      Map<String, List<String>> reverseMap) throws IOException {
+        int[] offsets = new int[keys.size()];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = out.size();
+            String key = keys.get(i);
+            List<String> values = reverseMap.get(key);
+            out.writeInt(strings.id(key));
+            out.writeInt(values.size());
+            for (String value : values) {
+                out.writeInt(strings.id(value));
+            }
+        }
+        return offsets;
+    }
+}
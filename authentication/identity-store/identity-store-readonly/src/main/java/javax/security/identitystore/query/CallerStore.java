@@ -41,6 +41,7 @@ package javax.security.identitystore.query;
 
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Stream;
 
 /**
  * <code>CallerStore</code> provides optional, additional caller-related queries implemented
@@ -58,6 +59,47 @@ public interface CallerStore {
      */
     List<String> getCallers(String regEx);
 
+    /**
+     * Determines a page of the callers found in the identity store, in natural order
+     * of their names.
+     *
+     * @param regEx A regular expression to select callers by name,
+     *  <code>null</code> or empty string for all.
+     * @param offset The number of found callers to skip
+     * @param limit The maximum number of callers returned
+     * @return The page of found callers, empty list if none,
+     * <code>null</code> if not supported.
+     */
+    default List<String> getCallers(String regEx, int offset, int limit) {
+        return QueryPages.page(streamCallers(regEx), offset, limit);
+    }
+
+    /**
+     * Determines the callers found in the identity store, in natural order of their names.
+     * <p>
+     * Implementations may read the callers as the stream is consumed, instead of
+     * materializing them in a list.
+     *
+     * @param regEx A regular expression to select callers by name,
+     *  <code>null</code> or empty string for all.
+     * @return The found callers, empty stream if none,
+     * <code>null</code> if not supported.
+     */
+    default Stream<String> streamCallers(String regEx) {
+        return QueryPages.sorted(getCallers(regEx));
+    }
+
+    /**
+     * Determines the number of callers found in the identity store.
+     *
+     * @param regEx A regular expression to select callers by name,
+     *  <code>null</code> or empty string for all.
+     * @return The number of found callers, <code>-1</code> if not supported.
+     */
+    default int countCallers(String regEx) {
+        return QueryPages.count(getCallers(regEx));
+    }
+
     /**
      * Determines the associated attribute map for the caller in the identity store.
      *
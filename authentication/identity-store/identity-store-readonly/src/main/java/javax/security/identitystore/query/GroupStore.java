@@ -40,6 +40,7 @@
 package javax.security.identitystore.query;
 
 import java.util.List;
+import java.util.stream.Stream;
 
 /**
  * <code>GroupStore</code> provides optional, additional group-related queries implemented
@@ -57,6 +58,44 @@ public interface GroupStore {
      */
     List<String> getGroups(String regEx);
 
+    /**
+     * Determines a page of the groups found in the identity store, in natural order
+     * of their names.
+     *
+     * @param regEx A regular expression to select groups by name,
+     *  <code>null</code> or empty string for all.
+     * @param offset The number of found groups to skip
+     * @param limit The maximum number of groups returned
+     * @return The page of found groups, empty list if none,
+     * <code>null</code> if not supported.
+     */
+    default List<String> getGroups(String regEx, int offset, int limit) {
+        return QueryPages.page(streamGroups(regEx), offset, limit);
+    }
+
+    /**
+     * Determines the groups found in the identity store, in natural order of their names.
+     *
+     * @param regEx A regular expression to select groups by name,
+     *  <code>null</code> or empty string for all.
+     * @return The found groups, empty stream if none,
+     * <code>null</code> if not supported.
+     */
+    default Stream<String> streamGroups(String regEx) {
+        return QueryPages.sorted(getGroups(regEx));
+    }
+
+    /**
+     * Determines the number of groups found in the identity store.
+     *
+     * @param regEx A regular expression to select groups by name,
+     *  <code>null</code> or empty string for all.
+     * @return The number of found groups, <code>-1</code> if not supported.
+     */
+    default int countGroups(String regEx) {
+        return QueryPages.count(getGroups(regEx));
+    }
+
     /**
      * Determines a list of callers found in the identity store, which have been
      * assigned to the given group.
@@ -70,4 +109,45 @@ public interface GroupStore {
      * <code>null</code> if not supported.
      */
     List<String> getCallersInGroup(String group);
+
+    /**
+     * Determines a page of the callers assigned to the given group, in the order
+     * of {@link #streamCallersInGroup}.
+     *
+     * @param group The group name
+     * @param offset The number of callers to skip
+     * @param limit The maximum number of callers returned
+     * @return The page of callers which are assigned to the group, empty list if none,
+     * <code>null</code> if not supported.
+     */
+    default List<String> getCallersInGroup(String group, int offset, int limit) {
+        return QueryPages.page(streamCallersInGroup(group), offset, limit);
+    }
+
+    /**
+     * Determines the callers assigned to the given group.
+     * <p>
+     * The order is defined by the identity store, and is the same for each request
+     * as long as the group does not change, so that the callers can be read in pages.
+     * Implementations may read the callers as the stream is consumed, instead of
+     * materializing them in a list.
+     *
+     * @param group The group name
+     * @return The callers which are assigned to the group, empty stream if none,
+     * <code>null</code> if not supported.
+     */
+    default Stream<String> streamCallersInGroup(String group) {
+        return QueryPages.sorted(getCallersInGroup(group));
+    }
+
+    /**
+     * Determines the number of callers assigned to the given group.
+     *
+     * @param group The group name
+     * @return The number of callers which are assigned to the group,
+     * <code>-1</code> if not supported.
+     */
+    default int countCallersInGroup(String group) {
+        return QueryPages.count(getCallersInGroup(group));
+    }
 }
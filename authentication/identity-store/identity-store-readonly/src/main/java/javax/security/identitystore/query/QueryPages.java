@@ -0,0 +1,107 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015, 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * http://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package javax.security.identitystore.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * <code>QueryPages</code> provides the default paged and counted query behavior
+ * of the query interfaces, for identity stores which only implement the list queries.
+ */
+final class QueryPages {
+
+    private QueryPages() {
+    }
+
+    /**
+     * Checks the given page bounds.
+     *
+     * @param offset The number of names skipped
+     * @param limit The maximum number of names returned
+     */
+    static void checkPage(int offset, int limit) {
+        if (offset < 0)
+            throw new IllegalArgumentException("Offset: " + offset);
+        if (limit < 0)
+            throw new IllegalArgumentException("Limit: " + limit);
+    }
+
+    /**
+     * Determines the names of a list in natural order.
+     *
+     * @param names The names, <code>null</code> if not supported.
+     * @return The sorted names, <code>null</code> if not supported.
+     */
+    static Stream<String> sorted(List<String> names) {
+        return (null == names) ? null : names.stream().sorted();
+    }
+
+    /**
+     * Determines a page of the given names.
+     *
+     * @param names The names, <code>null</code> if not supported.
+     * @param offset The number of names skipped
+     * @param limit The maximum number of names returned
+     * @return The page of names, unmodifiable, <code>null</code> if not supported.
+     */
+    static List<String> page(Stream<String> names, int offset, int limit) {
+        checkPage(offset, limit);
+        if (null == names)
+            return null;
+        if (limit == 0)
+            return Collections.emptyList();
+        List<String> page = new ArrayList<>();
+        names.skip(offset).limit(limit).forEachOrdered(page::add);
+        return Collections.unmodifiableList(page);
+    }
+
+    /**
+     * Determines the number of names in a list.
+     *
+     * @param names The names, <code>null</code> if not supported.
+     * @return The number of names, <code>-1</code> if not supported.
+     */
+    static int count(List<String> names) {
+        return (null == names) ? -1 : names.size();
+    }
+}
@@ -40,6 +40,7 @@
 package javax.security.identitystore.query;
 
 import java.util.List;
+import java.util.stream.Stream;
 
 /**
  * <code>RoleStore</code> provides optional, additional role-related queries implemented
@@ -57,6 +58,44 @@ public interface RoleStore {
      */
     List<String> getRoles(String regEx);
 
+    /**
+     * Determines a page of the roles found in the identity store, in natural order
+     * of their names.
+     *
+     * @param regEx A regular expression to select roles by name,
+     *  <code>null</code> or empty string for all.
+     * @param offset The number of found roles to skip
+     * @param limit The maximum number of roles returned
+     * @return The page of found roles, empty list if none,
+     * <code>null</code> if not supported.
+     */
+    default List<String> getRoles(String regEx, int offset, int limit) {
+        return QueryPages.page(streamRoles(regEx), offset, limit);
+    }
+
+    /**
+     * Determines the roles found in the identity store, in natural order of their names.
+     *
+     * @param regEx A regular expression to select roles by name,
+     *  <code>null</code> or empty string for all.
+     * @return The found roles, empty stream if none,
+     * <code>null</code> if not supported.
+     */
+    default Stream<String> streamRoles(String regEx) {
+        return QueryPages.sorted(getRoles(regEx));
+    }
+
+    /**
+     * Determines the number of roles found in the identity store.
+     *
+     * @param regEx A regular expression to select roles by name,
+     *  <code>null</code> or empty string for all.
+     * @return The number of found roles, <code>-1</code> if not supported.
+     */
+    default int countRoles(String regEx) {
+        return QueryPages.count(getRoles(regEx));
+    }
+
     /**
      * Determines a list of roles found in the identity store, which have been
      * assigned to either a caller or a group.
@@ -40,26 +40,27 @@
 package javax.security.identitystore;
 
 import org.jglue.cdiunit.CdiRunner;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import javax.enterprise.inject.Produces;
 import javax.inject.Inject;
-import javax.naming.Context;
 import javax.security.identitystore.credential.AbstractCredential;
 import javax.security.identitystore.credential.Password;
 import javax.security.identitystore.credential.UsernamePasswordCredential;
-import javax.security.identitystore.persistence.LdapEntryMapping;
+import javax.security.identitystore.persistence.EmbeddedLdapServer;
 import javax.security.identitystore.persistence.LdapIdentityStore;
 import java.nio.charset.StandardCharsets;
-import java.util.Hashtable;
 import java.util.List;
 
 import static org.junit.Assert.*;
 
 /**
  * Tests credential validation using the
- * <code>{@link javax.security.identitystore.persistence.LdapIdentityStore LdapIdentityStore}</code>.
+ * <code>{@link javax.security.identitystore.persistence.LdapIdentityStore LdapIdentityStore}</code>,
+ * against an <code>{@link EmbeddedLdapServer}</code>.
  * <p>
  * This test invokes CDI using <a href="http://jglue.org/cdi-unit">CDI-Unit</a>.
  */
@@ -105,6 +106,18 @@ public class ValidateCredentialTest_LdapStore {
     @Inject
     private IdentityStore credentialStore;
 
+    private static EmbeddedLdapServer server;
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        server = new EmbeddedLdapServer(0, 1, 0);
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        server.close();
+    }
+
     /**
      * An <code>{@link IdentityStore}</code> producer which configures an
      * <code>{@link LdapIdentityStore}</code>.
@@ -115,26 +128,8 @@ public class ValidateCredentialTest_LdapStore {
     public IdentityStore getIdentityStore() {
         System.out.println("getIdentityStore called");
 
-        // Test with locally installed LDAP
-
-        // Set up the environment for creating the initial context
-        Hashtable<String, Object> env = new Hashtable();
-        env.put(Context.INITIAL_CONTEXT_FACTORY, "com.sun.jndi.ldap.LdapCtxFactory");
-        env.put(Context.PROVIDER_URL, "ldap://localhost:7001");
-
-        env.put(Context.SECURITY_AUTHENTICATION, "simple");
-        env.put(Context.SECURITY_PRINCIPAL, "cn=Admin");
-        env.put(Context.SECURITY_CREDENTIALS, "welcome1");
-
-        // LDAP entry mapping
-        LdapEntryMapping mapping = new LdapEntryMapping();
-        mapping
-            .getCallerMapping()
-                .setDnPattern("uid={0},ou=people,ou=myrealm,dc=base_domain")
-                .setGroupAttribute("wlsMemberOf");
-
         // Instantiate store
-        return new LdapIdentityStore(env, mapping);
+        return server.createIdentityStore();
     }
 
     /**
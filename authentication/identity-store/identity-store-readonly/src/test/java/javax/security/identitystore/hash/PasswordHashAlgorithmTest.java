@@ -0,0 +1,158 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015, 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * http://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package javax.security.identitystore.hash;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link javax.security.identitystore.hash.PasswordHashAlgorithm} implementations
+ * against published test vectors, and their calibration.
+ */
+public class PasswordHashAlgorithmTest {
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void pbkdf2_rfc6070() {
+        byte[] key = HashSupport.pbkdf2("SHA-1", "password".getBytes(StandardCharsets.US_ASCII),
+            "salt".getBytes(StandardCharsets.US_ASCII), 4096, 20);
+        assertEquals("PBKDF2-HMAC-SHA1", "4b007901b765489abead49d926f721d065a429c1", hex(key));
+
+        key = HashSupport.pbkdf2("SHA-1", "passwordPASSWORDpassword".getBytes(StandardCharsets.US_ASCII),
+            "saltSALTsaltSALTsaltSALTsaltSALTsalt".getBytes(StandardCharsets.US_ASCII), 4096, 25);
+        assertEquals("PBKDF2-HMAC-SHA1, two blocks", "3d2eec4fe41c849b80c8d83662c0e44a8b291a964cf2f07038", hex(key));
+    }
+
+    @Test
+    public void pbkdf2() {
+        Pbkdf2PasswordHashAlgorithm algorithm = new Pbkdf2PasswordHashAlgorithm(Pbkdf2PasswordHashAlgorithm.SHA256, 1000);
+        String sha256 = "$pbkdf2-sha256$1000$c2FsdHNhbHRzYWx0c2FsdA$8nX7hwFEzIB8aPajJTYK8weHQc5Ngz0pFVAKvSu4jQA";
+        assertTrue("Supported", algorithm.isSupported(sha256));
+        assertTrue("SHA256", algorithm.verify("password".toCharArray(), sha256));
+        assertFalse("SHA256, wrong", algorithm.verify("Password".toCharArray(), sha256));
+        assertTrue("SHA512", algorithm.verify("p\u00e4ss".toCharArray(),
+            "$pbkdf2-sha512$1000$AP8A/wD/AP8A/wD/AP8A/w$kbLcQ6xQL0qMPClZ8CwqP8w3WvSGiTBmpyoHqUO2Xm1cNNrVo6WSZNRwd/doz7f4ap3M3uiUAHCVsllSvJALcA"));
+
+        String hash = algorithm.hash("welcome1".toCharArray());
+        assertTrue("Format", hash.startsWith("$pbkdf2-sha256$1000$"));
+        assertTrue("Round trip", algorithm.verify("welcome1".toCharArray(), hash));
+        assertFalse("Same cost", algorithm.needsRehash(hash));
+        assertTrue("Other cost", algorithm.withCost(2000).needsRehash(hash));
+    }
+
+    @Test
+    public void scrypt_rfc7914() {
+        assertEquals("Empty",
+            "77d6576238657b203b19ca42c18a0497f16b4844e3074ae8dfdffa3fede21442" +
+            "fcd0069ded0948f8326a753a0fc81f17e8d3e0fb2e0d3628cf35e20c38d18906",
+            hex(ScryptPasswordHashAlgorithm.scrypt(new byte[0], new byte[0], 4, 1, 1, 64)));
+        assertEquals("password",
+            "fdbabe1c9d3472007856e7190d01e9fe7c6ad7cbc8237830e77376634b373162" +
+            "2eaf30d92e22a3886ff109279d9830dac727afb94a83ee6d8360cbdfa2cc0640",
+            hex(ScryptPasswordHashAlgorithm.scrypt("password".getBytes(StandardCharsets.US_ASCII),
+                "NaCl".getBytes(StandardCharsets.US_ASCII), 10, 8, 16, 64)));
+    }
+
+    @Test
+    public void scrypt() {
+        ScryptPasswordHashAlgorithm algorithm = new ScryptPasswordHashAlgorithm(10, 8, 1);
+        String stored = "$scrypt$ln=10,r=8,p=1$c2FsdHNhbHRzYWx0c2FsdA$BVMRKqdiVYikKAaPR1wucsKUKvw4TuPLkdEYtoSHas4";
+        assertTrue("Stored", algorithm.verify("password".toCharArray(), stored));
+        assertFalse("Stored, wrong", algorithm.verify("passwore".toCharArray(), stored));
+
+        String hash = algorithm.hash("welcome1".toCharArray());
+        assertTrue("Format", hash.startsWith("$scrypt$ln=10,r=8,p=1$"));
+        assertTrue("Round trip", algorithm.verify("welcome1".toCharArray(), hash));
+        assertFalse("Same cost", algorithm.needsRehash(hash));
+        assertTrue("Other cost", algorithm.withCost(11).needsRehash(hash));
+    }
+
+    @Test
+    public void bcrypt() {
+        BCryptPasswordHashAlgorithm algorithm = new BCryptPasswordHashAlgorithm(4);
+        assertTrue("Empty", algorithm.verify(new char[0], "$2a$06$DCq7YPn5Rq63x1Lad4cll.TV4S6ytwfsfvkgY8jIucDrjc8deX1s."));
+        assertFalse("Empty, wrong", algorithm.verify("a".toCharArray(), "$2a$06$DCq7YPn5Rq63x1Lad4cll.TV4S6ytwfsfvkgY8jIucDrjc8deX1s."));
+        assertTrue("abc", algorithm.verify("abc".toCharArray(), "$2a$06$If6bvum7DFjUnE9p2uDeDu0YHzrHM6tf.iqN8.yx.jNN1ILEf7h0i"));
+
+        String hash = algorithm.hash("welcome1".toCharArray());
+        assertTrue("Format", hash.startsWith("$2b$04$"));
+        assertEquals("Length", 60, hash.length());
+        assertTrue("Round trip", algorithm.verify("welcome1".toCharArray(), hash));
+        assertFalse("Round trip, wrong", algorithm.verify("welcome2".toCharArray(), hash));
+        assertFalse("Same cost", algorithm.needsRehash(hash));
+        assertTrue("Other cost", algorithm.withCost(5).needsRehash(hash));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void bcrypt_malformed() {
+        new BCryptPasswordHashAlgorithm(4).verify("a".toCharArray(), "$2a$06$DCq7YPn5Rq63x1Lad4cll");
+    }
+
+    @Test
+    public void registry() {
+        assertTrue("PBKDF2", PasswordHashAlgorithms.get("pbkdf2") instanceof Pbkdf2PasswordHashAlgorithm);
+        assertTrue("bcrypt", PasswordHashAlgorithms.get("BCRYPT") instanceof BCryptPasswordHashAlgorithm);
+        assertTrue("scrypt", PasswordHashAlgorithms.get("scrypt") instanceof ScryptPasswordHashAlgorithm);
+        assertNull("Unknown", PasswordHashAlgorithms.get("SHA-256"));
+        assertTrue("Stored bcrypt", PasswordHashAlgorithms.forStoredValue("$2y$10$abc") instanceof BCryptPasswordHashAlgorithm);
+        assertNull("Stored unknown", PasswordHashAlgorithms.forStoredValue("$1$abc"));
+    }
+
+    @Test
+    public void calibrate() {
+        BCryptPasswordHashAlgorithm algorithm = new BCryptPasswordHashAlgorithm(10);
+        PasswordHashAlgorithm calibrated = PasswordHashCalibrator.calibrate(algorithm, 1);
+        assertTrue("Lowest cost within 1 ms", calibrated.getCost() <= 6);
+
+        PasswordHashAlgorithm pbkdf2 = PasswordHashCalibrator.calibrate(new Pbkdf2PasswordHashAlgorithm(), 20);
+        assertTrue("PBKDF2 cost", pbkdf2.getCost() >= Pbkdf2PasswordHashAlgorithm.MIN_ITERATIONS);
+        assertTrue("PBKDF2 within target", PasswordHashCalibrator.measureNanos(pbkdf2) < 200 * 1000000L);
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015, 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * http://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package javax.security.identitystore.metrics;
+
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import javax.security.identitystore.CredentialValidationResult;
+import javax.security.identitystore.persistence.CachedIdentityStore;
+import javax.security.identitystore.persistence.cachedsource.CachedIdentityStoreSource;
+import javax.security.identitystore.persistence.cachedsource.MemoryIdentityStoreSource;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link javax.security.identitystore.metrics.JmxIdentityStoreMetrics}
+ * and the metrics reported by the cached identity store.
+ */
+public class JmxIdentityStoreMetricsTest {
+
+    private static final String PASSWORD_TYPE = "javax.security.identitystore.credential.UsernamePasswordCredential";
+
+    @Test
+    public void validated() throws Exception {
+        MBeanServer server = MBeanServerFactory.newMBeanServer();
+        try (JmxIdentityStoreMetrics metrics = new JmxIdentityStoreMetrics(server)) {
+            assertTrue("Enabled", metrics.isEnabled());
+            metrics.validated("users", PASSWORD_TYPE, CredentialValidationResult.Status.VALID, 1000);
+            metrics.validated("users", PASSWORD_TYPE, CredentialValidationResult.Status.VALID, 3000);
+            metrics.validated("users", PASSWORD_TYPE, CredentialValidationResult.Status.INVALID, 500000);
+            metrics.validated("users", "token", CredentialValidationResult.Status.NOT_VALIDATED, 10);
+
+            ObjectName passwords = JmxIdentityStoreMetrics.objectName("users", PASSWORD_TYPE);
+            assertEquals("Valid", 2L, server.getAttribute(passwords, "ValidCount"));
+            assertEquals("Invalid", 1L, server.getAttribute(passwords, "InvalidCount"));
+            assertEquals("Not validated", 0L, server.getAttribute(passwords, "NotValidatedCount"));
+            assertEquals("Max", 500000L, server.getAttribute(passwords, "MaxNanos"));
+            assertEquals("Mean", 168000L, server.getAttribute(passwords, "MeanNanos"));
+            assertEquals("Median", 4095L, server.getAttribute(passwords, "Percentile50Nanos"));
+            assertEquals("99th percentile", 500000L, server.getAttribute(passwords, "Percentile99Nanos"));
+            long[] histogram = (long[]) server.getAttribute(passwords, "LatencyHistogram");
+            assertEquals("Histogram total", 3, Arrays.stream(histogram).sum());
+            assertEquals("Histogram bucket", 1, histogram[LatencyHistogram.bucket(1000)]);
+
+            ObjectName tokens = JmxIdentityStoreMetrics.objectName("users", "token");
+            assertEquals("Token not validated", 1L, server.getAttribute(tokens, "NotValidatedCount"));
+            assertEquals("Store validations", 4L, server.getAttribute(JmxIdentityStoreMetrics.objectName("users"), "ValidationCount"));
+
+            metrics.close();
+            assertFalse("Disabled once closed", metrics.isEnabled());
+            assertFalse("Unregistered", server.isRegistered(passwords));
+            metrics.validated("users", PASSWORD_TYPE, CredentialValidationResult.Status.VALID, 1000);
+            assertFalse("Not registered again", server.isRegistered(passwords));
+        }
+    }
+
+    @Test
+    public void loaded() throws Exception {
+        MBeanServer server = MBeanServerFactory.newMBeanServer();
+        try (JmxIdentityStoreMetrics metrics = new JmxIdentityStoreMetrics(server)) {
+            HashSet<CachedIdentityStoreSource.CallerSource> callerSources = new HashSet<>();
+            for (int i = 0; i < 10; i++) {
+                callerSources.add(new CachedIdentityStoreSource.CallerSource("caller" + i, Arrays.asList("users"), null, null, null));
+            }
+            CachedIdentityStore store = new CachedIdentityStore(new MemoryIdentityStoreSource(callerSources));
+            store.setMetrics(metrics).setStoreName("tenant-a");
+            store.load();
+
+            ObjectName name = JmxIdentityStoreMetrics.objectName("tenant-a");
+            assertEquals("Loads", 1L, server.getAttribute(name, "LoadCount"));
+            assertEquals("Callers", 10, server.getAttribute(name, "CallerCount"));
+            assertEquals("Estimated size", store.getEstimatedSize(), server.getAttribute(name, "EstimatedSize"));
+            assertEquals("No errors", 0L, server.getAttribute(name, "ErrorCount"));
+        }
+    }
+
+    @Test
+    public void failed() throws Exception {
+        MBeanServer server = MBeanServerFactory.newMBeanServer();
+        try (JmxIdentityStoreMetrics metrics = new JmxIdentityStoreMetrics(server)) {
+            CachedIdentityStore store = new CachedIdentityStore(new CachedIdentityStoreSource() {
+                @Override
+                public Iterator<CallerSource> getCallerIterator() throws IOException {
+                    throw new IOException("Source unavailable");
+                }
+            });
+            store.setMetrics(metrics);
+            try {
+                store.load();
+                fail("Load failure");
+            } catch (IOException e) {
+                // Expected
+            }
+
+            ObjectName name = JmxIdentityStoreMetrics.objectName("CachedIdentityStore");
+            assertEquals("Errors", 1L, server.getAttribute(name, "ErrorCount"));
+            assertEquals("Last error", "load: java.io.IOException: Source unavailable", server.getAttribute(name, "LastError"));
+            assertEquals("No loads", 0L, server.getAttribute(name, "LoadCount"));
+        }
+    }
+
+    @Test
+    public void noop() {
+        assertFalse("Disabled", NoopIdentityStoreMetrics.INSTANCE.isEnabled());
+        assertSame("Default", NoopIdentityStoreMetrics.INSTANCE, IdentityStoreMetricsProvider.getDefault());
+        assertSame("Store default", NoopIdentityStoreMetrics.INSTANCE, new CachedIdentityStore(new MemoryIdentityStoreSource(new HashSet<>())).getMetrics());
+    }
+
+    @Test
+    public void histogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals("Empty", 0, histogram.getPercentile(0.5));
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * 100);
+        }
+        histogram.record(-5);
+        assertEquals("Count", 101, histogram.getCount());
+        assertEquals("Max", 10000, histogram.getMax());
+        assertEquals("Zero bucket", 1, histogram.getCounts()[0]);
+        assertEquals("Median", 8191, histogram.getPercentile(0.5));
+        assertEquals("Top", 10000, histogram.getPercentile(1.0));
+        assertEquals("Bottom", 0, histogram.getPercentile(0.0));
+    }
+}
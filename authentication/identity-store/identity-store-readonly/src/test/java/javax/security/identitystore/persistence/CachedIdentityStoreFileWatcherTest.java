@@ -0,0 +1,143 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015, 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * http://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package javax.security.identitystore.persistence;
+
+import org.junit.Test;
+
+import javax.security.identitystore.persistence.cachedsource.JsonFileIdentityStoreSource;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the background reload of a {@link CachedIdentityStore} by
+ * {@link CachedIdentityStoreFileWatcher}.
+ * <p>
+ * This tests the API without invoking CDI.
+ */
+public class CachedIdentityStoreFileWatcherTest {
+
+    private static String idStore(String... callers) {
+        StringBuilder sb = new StringBuilder("{ \"callers\": [");
+        for (int i = 0; i < callers.length; i++) {
+            if (i > 0)
+                sb.append(",");
+            sb.append("{ \"name\": \"").append(callers[i]).append("\", \"groups\": [\"user\"] }");
+        }
+        return sb.append("] }").toString();
+    }
+
+    private static void write(Path file, String content) throws IOException {
+        // Replace the file by a rename, as editors and deployment tools do
+        Path temp = Files.createTempFile(file.getParent(), "idstore", ".tmp");
+        Files.write(temp, content.getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // The store publishes the new cache before the watcher counts the reload
+    private static void awaitReload(CachedIdentityStore store, CachedIdentityStoreFileWatcher watcher, long generation)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (((store.getGeneration() < generation) || (watcher.getReloadCount() < 1)) &&
+               (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(20);
+        }
+    }
+
+    private void reload(boolean pollingOnly) throws Exception {
+        Path dir = Files.createTempDirectory("idstore");
+        Path file = dir.resolve("idStore.json");
+        try {
+            write(file, idStore("jsmith"));
+            CachedIdentityStore store = new CachedIdentityStore(new JsonFileIdentityStoreSource(file.toFile()));
+            store.load();
+            assertEquals("Generation", 1, store.getGeneration());
+
+            try (CachedIdentityStoreFileWatcher watcher = new CachedIdentityStoreFileWatcher(store)
+                    .setDebounceMillis(50)
+                    .setPollIntervalMillis(50)
+                    .setPollingOnly(pollingOnly)) {
+                watcher.start();
+
+                write(file, idStore("jsmith", "jlee"));
+                awaitReload(store, watcher, 2);
+
+                assertEquals("Caller count", 2, store.getCallers(null).size());
+                assertTrue("Reload count", watcher.getReloadCount() >= 1);
+                assertEquals("Failure count", 0, watcher.getFailureCount());
+                assertTrue("Reload duration", watcher.getLastReloadDurationMillis() >= 0);
+
+                // A broken file keeps the previous contents
+                long generation = store.getGeneration();
+                write(file, "{ \"callers\": [");
+                long deadline = System.currentTimeMillis() + 10000;
+                while ((watcher.getFailureCount() == 0) && (System.currentTimeMillis() < deadline)) {
+                    Thread.sleep(20);
+                }
+                assertTrue("Failure count", watcher.getFailureCount() >= 1);
+                assertEquals("Generation", generation, store.getGeneration());
+                assertEquals("Caller count", 2, store.getCallers(null).size());
+            }
+        } finally {
+            File[] files = dir.toFile().listFiles();
+            if (null != files) {
+                for (File f : files) {
+                    f.delete();
+                }
+            }
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    @Test
+    public void reloadOnChange_watchService() throws Exception {
+        reload(false);
+    }
+
+    @Test
+    public void reloadOnChange_polling() throws Exception {
+        reload(true);
+    }
+}
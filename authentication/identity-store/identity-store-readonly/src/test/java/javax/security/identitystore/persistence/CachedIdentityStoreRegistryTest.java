@@ -0,0 +1,171 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015, 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * http://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package javax.security.identitystore.persistence;
+
+import org.junit.Test;
+
+import javax.security.identitystore.persistence.cachedsource.CachedIdentityStoreSource;
+import javax.security.identitystore.persistence.cachedsource.MemoryIdentityStoreSource;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link javax.security.identitystore.persistence.CachedIdentityStoreRegistry}.
+ */
+public class CachedIdentityStoreRegistryTest {
+
+    /**
+     * Creates a source with the given number of callers for each tenant named "tenant-&lt;callers&gt;".
+     */
+    private static CachedIdentityStoreSource newSource(String tenant) throws IOException {
+        if (!tenant.startsWith("tenant-"))
+            throw new FileNotFoundException(tenant);
+        int callers = Integer.parseInt(tenant.substring("tenant-".length()));
+        Set<CachedIdentityStoreSource.CallerSource> callerSources = new HashSet<>();
+        for (int i = 0; i < callers; i++) {
+            callerSources.add(new CachedIdentityStoreSource.CallerSource("caller" + i, Arrays.asList("users"), null, null, null));
+        }
+        return new MemoryIdentityStoreSource(callerSources);
+    }
+
+    @Test
+    public void getStore() throws IOException {
+        CachedIdentityStoreRegistry registry = new CachedIdentityStoreRegistry(CachedIdentityStoreRegistryTest::newSource);
+        CachedIdentityStore store = registry.getStore("tenant-3");
+        assertEquals("Callers", 3, store.getCallerCount());
+        assertEquals("Store name", "tenant-3", store.getStoreName());
+        assertSame("Cached", store, registry.getStore("tenant-3"));
+        assertEquals("Loads", 1, registry.getLoadCount());
+        assertEquals("Hits", 1, registry.getHitCount());
+
+        assertTrue("Invalidated", registry.invalidate("tenant-3"));
+        assertNotSame("Reloaded", store, registry.getStore("tenant-3"));
+        assertEquals("Loads", 2, registry.getLoadCount());
+    }
+
+    @Test
+    public void getStore_failure() throws IOException {
+        CachedIdentityStoreRegistry registry = new CachedIdentityStoreRegistry(CachedIdentityStoreRegistryTest::newSource);
+        for (int i = 0; i < 2; i++) {
+            try {
+                registry.getStore("unknown");
+                fail("Unknown tenant");
+            } catch (FileNotFoundException e) {
+                // Failed loads are not cached
+            }
+        }
+        assertEquals("Loads", 2, registry.getLoadCount());
+        assertEquals("Failures", 2, registry.getFailureCount());
+        assertTrue("No tenants", registry.getTenants().isEmpty());
+    }
+
+    @Test
+    public void singleFlight() throws Exception {
+        AtomicInteger created = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        CachedIdentityStoreRegistry registry = new CachedIdentityStoreRegistry(tenant -> {
+            created.incrementAndGet();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return newSource(tenant);
+        });
+
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<CachedIdentityStore>> futures = new ArrayList<>();
+            Callable<CachedIdentityStore> request = () -> registry.getStore("tenant-10");
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(request));
+            }
+            Thread.sleep(100);
+            release.countDown();
+
+            CachedIdentityStore store = futures.get(0).get(5, TimeUnit.SECONDS);
+            for (Future<CachedIdentityStore> future : futures) {
+                assertSame("Shared store", store, future.get(5, TimeUnit.SECONDS));
+            }
+            assertEquals("Sources created", 1, created.get());
+            assertEquals("Loads", 1, registry.getLoadCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void eviction() throws IOException {
+        CachedIdentityStoreRegistry registry = new CachedIdentityStoreRegistry(CachedIdentityStoreRegistryTest::newSource)
+            .setMaxCallers(10);
+        registry.getStore("tenant-4");
+        registry.getStore("tenant-5");
+        registry.getStore("tenant-4"); // Most recently requested
+        registry.getStore("tenant-6");
+        assertEquals("Least recently requested evicted", Arrays.asList("tenant-4", "tenant-6"), registry.getTenants());
+        assertEquals("Evictions", 1, registry.getEvictionCount());
+
+        // A tenant larger than the cap is still served, alone
+        assertEquals("Callers", 20, registry.getStore("tenant-20").getCallerCount());
+        assertEquals("Tenants", Arrays.asList("tenant-20"), registry.getTenants());
+
+        CachedIdentityStoreRegistry bySize = new CachedIdentityStoreRegistry(CachedIdentityStoreRegistryTest::newSource);
+        long size = bySize.getStore("tenant-100").getEstimatedSize();
+        assertTrue("Estimated size", size > 0);
+        bySize.setMaxEstimatedSize(size + size / 2);
+        bySize.getStore("tenant-101");
+        assertEquals("Evicted by size", Arrays.asList("tenant-101"), bySize.getTenants());
+    }
+}
@@ -41,12 +41,37 @@ package javax.security.identitystore.persistence;
 
 import org.junit.Test;
 
+import javax.security.identitystore.CredentialValidationResult;
+import javax.security.identitystore.credential.Credential;
+import javax.security.identitystore.credential.Password;
+import javax.security.identitystore.credential.UsernamePasswordCredential;
+import javax.security.identitystore.hash.BCryptPasswordHashAlgorithm;
+import javax.security.identitystore.persistence.cachedsource.CachedIdentityStoreSource;
 import javax.security.identitystore.persistence.cachedsource.JsonFileIdentityStoreSource;
+import javax.security.identitystore.persistence.cachedsource.MemoryIdentityStoreSource;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
-import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.*;
 
 /**
  * Tests the cached identity store using the JSON file as the identity source.
@@ -72,4 +97,506 @@ public class CachedIdentityStoreTest {
 
         assertEquals("Caller count", 2, store.getCallers(null).size());
     }
+
+    private static CachedIdentityStoreSource.CallerSource caller(String name, String password, List<String> groups, List<String> roles) {
+        return new CachedIdentityStoreSource.CallerSource(name, groups, roles,
+            Arrays.asList(new CachedIdentityStoreSource.CredentialSource(UsernamePasswordCredential.class.getName(), password, null, null, null)),
+            null);
+    }
+
+    /**
+     * Tests that a reload from a source reporting changes only rewrites the changed entries.
+     */
+    @Test
+    public void incrementalLoad() throws IOException {
+        HashSet<CachedIdentityStoreSource.CallerSource> callerSources = new HashSet<>();
+        callerSources.add(caller("jsmith", "welcome1", Arrays.asList("admin", "user"), Arrays.asList("VIEW_ACCT", "EDIT_ACCT")));
+        callerSources.add(caller("jlee", "welcome1", Arrays.asList("deployer"), Arrays.asList("VIEW_ACCT")));
+        callerSources.add(caller("jdoe", "welcome1", Arrays.asList("user"), null));
+        MemoryIdentityStoreSource source = new MemoryIdentityStoreSource(callerSources);
+
+        CachedIdentityStore store = new CachedIdentityStore(source);
+        store.load();
+        List<String> deployers = store.getCallersInGroup("deployer");
+
+        source.putCaller(caller("jsmith", "changed", Arrays.asList("admin"), Arrays.asList("VIEW_ACCT")));
+        source.removeCaller("jdoe");
+        source.putCaller(caller("mjones", "welcome1", Arrays.asList("operator"), null));
+        store.load();
+
+        assertEquals("Caller count", 3, store.getCallers(null).size());
+        assertEquals("jsmith password", CredentialValidationResult.Status.VALID,
+            store.validate("jsmith", UsernamePasswordCredential.class.getName(), "changed".toCharArray()).getStatus());
+        assertEquals("jsmith old password", CredentialValidationResult.Status.INVALID,
+            store.validate("jsmith", UsernamePasswordCredential.class.getName(), "welcome1".toCharArray()).getStatus());
+        assertEquals("jdoe removed", CredentialValidationResult.Status.INVALID,
+            store.validate("jdoe", UsernamePasswordCredential.class.getName(), "welcome1".toCharArray()).getStatus());
+
+        assertNull("Empty group removed", store.getCallersInGroup("user"));
+        assertFalse("Empty group removed", store.getGroups(null).contains("user"));
+        assertEquals("operator", Arrays.asList("mjones"), store.getCallersInGroup("operator"));
+        assertEquals("EDIT_ACCT", null, store.getCallersWithRole("EDIT_ACCT", false));
+        assertEquals("VIEW_ACCT count", 2, store.getCallersWithRole("VIEW_ACCT", false).size());
+
+        // Entries of unaffected groups are shared with the previous cache
+        assertSame("Unaffected group", deployers, store.getCallersInGroup("deployer"));
+    }
+
+    /**
+     * Tests validation against hashed, salted and plain credentials of several types.
+     */
+    @Test
+    public void validate_preparedCredentials() throws Exception {
+        String passwordType = UsernamePasswordCredential.class.getName();
+        String tokenType = "token";
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        String hash = CachedIdentityStore.getHexString(md.digest("s\u00e9cretsalt".getBytes(StandardCharsets.UTF_8)));
+        byte[] token = {1, 2, 3, (byte) 0xff};
+        String tokenHash = CachedIdentityStore.getHexString(
+            md.digest(Base64.getEncoder().encodeToString(token).getBytes(StandardCharsets.US_ASCII)));
+
+        HashSet<CachedIdentityStoreSource.CallerSource> callerSources = new HashSet<>();
+        callerSources.add(new CachedIdentityStoreSource.CallerSource("jsmith", null, null, Arrays.asList(
+            new CachedIdentityStoreSource.CredentialSource(passwordType, hash, "SHA-256", "salt", null),
+            new CachedIdentityStoreSource.CredentialSource(tokenType, tokenHash, "SHA-256", null, null)), null));
+        callerSources.add(new CachedIdentityStoreSource.CallerSource("jdoe", null, null, Arrays.asList(
+            new CachedIdentityStoreSource.CredentialSource(passwordType, "welcome1", null, null, null),
+            new CachedIdentityStoreSource.CredentialSource(passwordType, "welcome2", null, null, null),
+            new CachedIdentityStoreSource.CredentialSource(tokenType, Base64.getEncoder().encodeToString(token), null, null, null)), null));
+        callerSources.add(new CachedIdentityStoreSource.CallerSource("jlee", null, null, Arrays.asList(
+            new CachedIdentityStoreSource.CredentialSource(passwordType, hash, "NO-SUCH-DIGEST", "salt", null)), null));
+        callerSources.add(new CachedIdentityStoreSource.CallerSource("mjones", null, null, Arrays.asList(
+            new CachedIdentityStoreSource.CredentialSource(passwordType,
+                new BCryptPasswordHashAlgorithm(4).hash("welcome1".toCharArray()), "bcrypt", null, null),
+            new CachedIdentityStoreSource.CredentialSource(tokenType, "$2b$04$malformed", "bcrypt", null, null)), null));
+        CachedIdentityStore store = new CachedIdentityStore(new MemoryIdentityStoreSource(callerSources));
+        store.load();
+
+        CredentialValidationResult.Status valid = CredentialValidationResult.Status.VALID;
+        CredentialValidationResult.Status invalid = CredentialValidationResult.Status.INVALID;
+        assertEquals("Hashed", valid, store.validate("jsmith", passwordType, "s\u00e9cret".toCharArray()).getStatus());
+        assertEquals("Hashed, wrong", invalid, store.validate("jsmith", passwordType, "secret".toCharArray()).getStatus());
+        assertEquals("Hashed token", valid, store.validate("jsmith", tokenType, token).getStatus());
+        assertEquals("Hashed token, wrong", invalid, store.validate("jsmith", tokenType, new byte[] {1, 2, 3}).getStatus());
+        assertEquals("Plain", valid, store.validate("jdoe", passwordType, "welcome1".toCharArray()).getStatus());
+        assertEquals("Plain, second", valid, store.validate("jdoe", passwordType, "welcome2".toCharArray()).getStatus());
+        assertEquals("Plain, prefix", invalid, store.validate("jdoe", passwordType, "welcome".toCharArray()).getStatus());
+        assertEquals("Plain token", valid, store.validate("jdoe", tokenType, token).getStatus());
+        assertEquals("Other type", invalid, store.validate("jdoe", tokenType, "welcome1".toCharArray()).getStatus());
+        assertEquals("Unknown type", invalid, store.validate("jdoe", "unknown", "welcome1".toCharArray()).getStatus());
+        assertEquals("Unknown caller", invalid, store.validate("jjones", passwordType, "welcome1".toCharArray()).getStatus());
+        assertEquals("Unknown algorithm", invalid, store.validate("jlee", passwordType, "s\u00e9cret".toCharArray()).getStatus());
+        assertEquals("bcrypt", valid, store.validate("mjones", passwordType, "welcome1".toCharArray()).getStatus());
+        assertEquals("bcrypt, wrong", invalid, store.validate("mjones", passwordType, "welcome2".toCharArray()).getStatus());
+        assertEquals("bcrypt, malformed", invalid, store.validate("mjones", tokenType, token).getStatus());
+    }
+
+    /**
+     * Tests rejecting unknown callers with the caller filter built by each load,
+     * in the time a known caller's invalid password takes.
+     */
+    @Test
+    public void callerFilter() throws IOException {
+        String storedValue = new BCryptPasswordHashAlgorithm(4).hash("welcome1".toCharArray());
+        HashSet<CachedIdentityStoreSource.CallerSource> callerSources = new HashSet<>();
+        callerSources.add(new CachedIdentityStoreSource.CallerSource("jsmith", null, null, Arrays.asList(
+            new CachedIdentityStoreSource.CredentialSource(UsernamePasswordCredential.class.getName(), storedValue, "bcrypt", null, null)), null));
+        MemoryIdentityStoreSource source = new MemoryIdentityStoreSource(callerSources);
+        AtomicInteger rejected = new AtomicInteger();
+        CachedIdentityStore store = new CachedIdentityStore(source) {
+            @Override
+            protected void rejectUnknownCaller(Credential credential) {
+                rejected.incrementAndGet();
+                super.rejectUnknownCaller(credential);
+            }
+        };
+        // Low enough for unknown callers to be rejected in practice, the hashes being randomly seeded
+        store.setCallerFilterFalsePositiveRate(1e-9);
+        store.load();
+
+        CallerFilter filter = store.getCallerFilter();
+        assertNotNull("Filter built", filter);
+        assertTrue("Known caller", filter.mightContain("jsmith"));
+        assertFalse("Unknown caller", filter.mightContain("jdoe"));
+        assertEquals("Unknown caller rejected before validating", CredentialValidationResult.Status.INVALID,
+            store.validate(new UsernamePasswordCredential("jdoe", new Password("welcome1"))).getStatus());
+        assertEquals("No decoy without uniform timing", 0, rejected.get());
+
+        source.putCaller(caller("jdoe", "welcome1", null, null));
+        store.load();
+        assertNotSame("Filter rebuilt", filter, store.getCallerFilter());
+        assertTrue("Added caller", store.getCallerFilter().mightContain("jdoe"));
+
+        // Uniform timing verifies the password of filtered callers against a decoy
+        store.setUniformTiming(true);
+        String passwordType = UsernamePasswordCredential.class.getName();
+        assertEquals("Unknown caller", CredentialValidationResult.Status.INVALID,
+            store.validate("mjones", passwordType, "welcome1".toCharArray()).getStatus());
+        assertEquals("Filtered caller", CredentialValidationResult.Status.INVALID,
+            store.validate(new UsernamePasswordCredential("mjones", new Password("welcome1"))).getStatus());
+        assertEquals("Decoy verified", 1, rejected.get());
+    }
+
+    /**
+     * Tests that locked out callers and sources are rejected without validating.
+     */
+    @Test
+    public void lockout() throws IOException {
+        HashSet<CachedIdentityStoreSource.CallerSource> callerSources = new HashSet<>();
+        callerSources.add(caller("jsmith", "welcome1", null, null));
+        CachedIdentityStore store = new CachedIdentityStore(new MemoryIdentityStoreSource(callerSources));
+        store.setCallerFilterFalsePositiveRate(0.01);
+        store.load();
+        LockoutTracker tracker = new LockoutTracker(3, 2, 60000, 60000, 60000, 1000);
+        store.setLockoutTracker(tracker);
+
+        for (int i = 0; i < 3; i++) {
+            tracker.recordFailure("jsmith", null);
+        }
+        UsernamePasswordCredential valid = new UsernamePasswordCredential("jsmith", new Password("welcome1"));
+        assertEquals("Locked out caller", CredentialValidationResult.Status.INVALID, store.validate(valid, "10.0.0.1").getStatus());
+        assertEquals("Rejected", 1, tracker.getRejectedCount());
+
+        // Callers rejected by the filter count as failures of the source only
+        assertEquals("Unknown caller", CredentialValidationResult.Status.INVALID,
+            store.validate(new UsernamePasswordCredential("jdoe", new Password("welcome1")), "10.0.0.2").getStatus());
+        assertEquals("Unknown caller", CredentialValidationResult.Status.INVALID,
+            store.validate(new UsernamePasswordCredential("mjones", new Password("welcome1")), "10.0.0.2").getStatus());
+        assertEquals("Source failures", 2, tracker.getFailureCount() - 3);
+        assertFalse("Unknown caller not tracked", tracker.isLockedOut("jdoe", null));
+        assertEquals("Locked out source", CredentialValidationResult.Status.INVALID,
+            store.validate(new UsernamePasswordCredential("jdoe", new Password("welcome1")), "10.0.0.2").getStatus());
+        assertEquals("Rejected", 2, tracker.getRejectedCount());
+    }
+
+    /**
+     * Tests that callers are locked out by their normalized name, whatever its case.
+     */
+    @Test
+    public void lockout_normalizedName() throws IOException {
+        HashSet<CachedIdentityStoreSource.CallerSource> callerSources = new HashSet<>();
+        callerSources.add(caller("jsmith", "welcome1", null, null));
+        CachedIdentityStore store = new CachedIdentityStore(new MemoryIdentityStoreSource(callerSources)) {
+            @Override
+            protected String normalizeCallerName(String caller) {
+                return caller.toLowerCase(Locale.ROOT);
+            }
+        };
+        store.load();
+        LockoutTracker tracker = new LockoutTracker(3, 100, 60000, 60000, 60000, 1000);
+        store.setLockoutTracker(tracker);
+
+        for (int i = 0; i < 3; i++) {
+            tracker.recordFailure("jsmith", null);
+        }
+        List<String> callers = Arrays.asList("jsmith", "JSmith", "JSMITH");
+        for (String caller : callers) {
+            assertEquals("Locked out " + caller, CredentialValidationResult.Status.INVALID,
+                store.validate(new UsernamePasswordCredential(caller, new Password("welcome1")), null).getStatus());
+        }
+        assertEquals("Rejected", callers.size(), tracker.getRejectedCount());
+    }
+
+    /**
+     * Tests that asynchronous validations which only read the cache complete on the calling
+     * thread, and that timed out validations are cancelled.
+     */
+    @Test
+    public void validateAsync() throws Exception {
+        String storedValue = new BCryptPasswordHashAlgorithm(4).hash("welcome1".toCharArray());
+        HashSet<CachedIdentityStoreSource.CallerSource> callerSources = new HashSet<>();
+        callerSources.add(new CachedIdentityStoreSource.CallerSource("jsmith", null, null, Arrays.asList(
+            new CachedIdentityStoreSource.CredentialSource(UsernamePasswordCredential.class.getName(), storedValue, "bcrypt", null, null)), null));
+        CachedIdentityStore store = new CachedIdentityStore(new MemoryIdentityStoreSource(callerSources));
+        store.setCallerFilterFalsePositiveRate(0.01);
+        store.load();
+        List<Runnable> tasks = new ArrayList<>();
+        store.setAsyncExecutor(tasks::add);
+
+        CompletableFuture<CredentialValidationResult> unknown = store.validateAsync(
+            new UsernamePasswordCredential("jdoe", new Password("welcome1"))).toCompletableFuture();
+        assertTrue("Completed on the calling thread", unknown.isDone());
+        assertEquals("Unknown caller", CredentialValidationResult.Status.INVALID, unknown.get().getStatus());
+        assertTrue("Not submitted", tasks.isEmpty());
+
+        store.setAsyncTimeout(50);
+        CompletableFuture<CredentialValidationResult> hashed = store.validateAsync(
+            new UsernamePasswordCredential("jsmith", new Password("welcome1"))).toCompletableFuture();
+        assertEquals("Password hash verified on the executor", 1, tasks.size());
+        try {
+            hashed.get(5, TimeUnit.SECONDS);
+            fail("Timed out");
+        } catch (ExecutionException e) {
+            assertTrue("Timeout", e.getCause() instanceof TimeoutException);
+        }
+        assertTrue("Validation cancelled", ((Future<?>) tasks.get(0)).isCancelled());
+    }
+
+    /**
+     * Tests membership checks and the group and role views built from the interned ids.
+     */
+    @Test
+    public void membership() throws IOException {
+        HashSet<CachedIdentityStoreSource.CallerSource> callerSources = new HashSet<>();
+        callerSources.add(caller("jsmith", "welcome1", Arrays.asList("user", "admin", "user"), Arrays.asList("EDIT_ACCT", "VIEW_ACCT")));
+        callerSources.add(caller("jdoe", "welcome1", Arrays.asList("user"), null));
+        MemoryIdentityStoreSource source = new MemoryIdentityStoreSource(callerSources);
+
+        CachedIdentityStore store = new CachedIdentityStore(source);
+        store.load();
+
+        assertTrue("jsmith in admin", store.isCallerInGroup("jsmith", "admin"));
+        assertFalse("jdoe not in admin", store.isCallerInGroup("jdoe", "admin"));
+        assertFalse("Unknown caller", store.isCallerInGroup("mjones", "user"));
+        assertFalse("Unknown group", store.isCallerInGroup("jsmith", "operator"));
+        assertTrue("jsmith has VIEW_ACCT", store.hasCallerRole("jsmith", "VIEW_ACCT"));
+        assertFalse("jdoe has no roles", store.hasCallerRole("jdoe", "VIEW_ACCT"));
+
+        assertEquals("jsmith groups", Arrays.asList("user", "admin"), store.getCallerGroups("jsmith"));
+        assertEquals("jsmith roles", Arrays.asList("EDIT_ACCT", "VIEW_ACCT"), store.getCallerRoles("jsmith"));
+        assertNull("jdoe roles", store.getCallerRoles("jdoe"));
+        assertNull("Unknown caller groups", store.getCallerGroups("mjones"));
+        assertEquals("user members", new HashSet<>(Arrays.asList("jsmith", "jdoe")), new HashSet<>(store.getCallersInGroup("user")));
+        assertEquals("Group count", 2, store.getGroups(null).size());
+        assertEquals("Role count", 2, store.getRoles(null).size());
+
+        store.setQueryLimit(1);
+        assertEquals("Caller prefix", Arrays.asList("jdoe"), store.getCallers("j.*"));
+        assertEquals("Group scan", Arrays.asList("user"), store.getGroups(".*s.*"));
+        assertEquals("Role scan", Arrays.asList("VIEW_ACCT"), store.getRoles("(?i)view.*"));
+    }
+
+    /**
+     * Tests the paged, streamed and counted queries against the list queries.
+     */
+    @Test
+    public void pagedQueries() throws IOException {
+        HashSet<CachedIdentityStoreSource.CallerSource> callerSources = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            callerSources.add(caller(String.format("caller%03d", i), "welcome1",
+                (i % 2 == 0) ? Arrays.asList("user", "even") : Arrays.asList("user"), Arrays.asList("ROLE" + (i % 5))));
+        }
+        MemoryIdentityStoreSource source = new MemoryIdentityStoreSource(callerSources);
+        CachedIdentityStore store = new CachedIdentityStore(source).setQueryLimit(10);
+        store.load();
+
+        assertEquals("Caller count", 100, store.countCallers(null));
+        assertEquals("Caller count scan", 10, store.countCallers(".*7"));
+        assertEquals("Caller page", Arrays.asList("caller010", "caller011"), store.getCallers(null, 10, 2));
+        assertEquals("Caller page scan", Arrays.asList("caller027", "caller037"), store.getCallers(".*7", 2, 2));
+        assertEquals("Caller stream ignores limit", 100, store.streamCallers(null).count());
+        assertEquals("Group count", 2, store.countGroups(null));
+        assertEquals("Group stream", Arrays.asList("even", "user"), store.streamGroups(null).collect(Collectors.toList()));
+        assertEquals("Group page", Arrays.asList("user"), store.getGroups(null, 1, 5));
+        assertEquals("Role count", 5, store.countRoles(null));
+        assertEquals("Role page", Arrays.asList("ROLE3", "ROLE4"), store.getRoles("ROLE.*", 3, 5));
+        assertEquals("Role stream", 1, store.streamRoles("ROLE1").count());
+
+        assertEquals("Member count", 50, store.countCallersInGroup("even"));
+        assertEquals("Unknown group count", 0, store.countCallersInGroup("operator"));
+        assertEquals("Unknown group stream", 0, store.streamCallersInGroup("operator").count());
+        assertEquals("Unknown group page", Collections.emptyList(), store.getCallersInGroup("operator", 0, 5));
+
+        // Pages are stable and cover the members exactly once
+        List<String> streamed = store.streamCallersInGroup("user").collect(Collectors.toList());
+        assertEquals("Streamed members", new HashSet<>(store.getCallers(null, 0, 100)), new HashSet<>(streamed));
+        List<String> paged = new ArrayList<>();
+        for (int offset = 0; offset < 100; offset += 30) {
+            paged.addAll(store.getCallersInGroup("user", offset, 30));
+        }
+        assertEquals("Paged members", streamed, paged);
+        assertEquals("Past end", Collections.emptyList(), store.getCallersInGroup("user", 100, 30));
+
+        // Once the member list is materialized, pages are views of it
+        assertEquals("Member list", streamed, store.getCallersInGroup("user"));
+        assertEquals("Materialized page", streamed.subList(95, 100), store.getCallersInGroup("user", 95, 30));
+
+        try {
+            store.getCallers(null, -1, 5);
+            fail("Negative offset");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * Tests the roles inherited from groups, including callers changed by an incremental
+     * reload and group roles changed in the source.
+     */
+    @Test
+    public void groupRoles() throws IOException {
+        HashSet<CachedIdentityStoreSource.CallerSource> callerSources = new HashSet<>();
+        callerSources.add(caller("jsmith", "welcome1", Arrays.asList("admin", "user"), Arrays.asList("VIEW_ACCT")));
+        callerSources.add(caller("jdoe", "welcome1", Arrays.asList("user"), null));
+        callerSources.add(caller("jlee", "welcome1", null, Arrays.asList("DEPLOY")));
+        Map<String, List<String>> groupRoles = new HashMap<>();
+        groupRoles.put("admin", Arrays.asList("EDIT_ACCT", "VIEW_ACCT"));
+        groupRoles.put("user", Arrays.asList("VIEW_ACCT"));
+        groupRoles.put("auditor", Arrays.asList("AUDIT"));
+        MemoryIdentityStoreSource source = new MemoryIdentityStoreSource(callerSources, groupRoles);
+
+        CachedIdentityStore store = new CachedIdentityStore(source);
+        store.load();
+
+        assertEquals("jsmith direct roles", Arrays.asList("VIEW_ACCT"), store.getCallerRoles("jsmith", false));
+        assertEquals("jsmith roles", Arrays.asList("VIEW_ACCT", "EDIT_ACCT"), store.getCallerRoles("jsmith", true));
+        assertEquals("jsmith roles", store.getCallerRoles("jsmith", true), store.getCallerRoles("jsmith"));
+        assertNull("jdoe direct roles", store.getCallerRoles("jdoe", false));
+        assertEquals("jdoe roles", Arrays.asList("VIEW_ACCT"), store.getCallerRoles("jdoe", true));
+        assertEquals("jlee roles", Arrays.asList("DEPLOY"), store.getCallerRoles("jlee", true));
+
+        assertEquals("VIEW_ACCT direct", Arrays.asList("jsmith"), store.getCallersWithRole("VIEW_ACCT", false));
+        assertEquals("VIEW_ACCT", new HashSet<>(Arrays.asList("jsmith", "jdoe")), new HashSet<>(store.getCallersWithRole("VIEW_ACCT", true)));
+        assertNull("EDIT_ACCT direct", store.getCallersWithRole("EDIT_ACCT", false));
+        assertEquals("EDIT_ACCT", Arrays.asList("jsmith"), store.getCallersWithRole("EDIT_ACCT", true));
+        assertNull("AUDIT", store.getCallersWithRole("AUDIT", true));
+        assertTrue("jdoe has VIEW_ACCT", store.hasCallerRole("jdoe", "VIEW_ACCT", true));
+        assertFalse("jdoe has no direct VIEW_ACCT", store.hasCallerRole("jdoe", "VIEW_ACCT", false));
+        assertEquals("Role count", 4, store.getRoles(null).size());
+
+        assertEquals("admin roles", Arrays.asList("EDIT_ACCT", "VIEW_ACCT"), store.getGroupRoles("admin"));
+        assertEquals("Unknown group roles", Collections.emptyList(), store.getGroupRoles("deployer"));
+        assertEquals("VIEW_ACCT groups", new HashSet<>(Arrays.asList("admin", "user")), new HashSet<>(store.getGroupsWithRole("VIEW_ACCT")));
+        assertEquals("AUDIT groups", Arrays.asList("auditor"), store.getGroupsWithRole("AUDIT"));
+        assertEquals("Unknown role groups", Collections.emptyList(), store.getGroupsWithRole("DEPLOY"));
+
+        // Callers changed incrementally inherit the roles of their groups
+        source.putCaller(caller("jdoe", "welcome1", Arrays.asList("auditor"), null));
+        source.putCaller(caller("mjones", "welcome1", Arrays.asList("admin"), null));
+        store.load();
+        assertEquals("jdoe roles", Arrays.asList("AUDIT"), store.getCallerRoles("jdoe"));
+        assertEquals("VIEW_ACCT", new HashSet<>(Arrays.asList("jsmith", "mjones")), new HashSet<>(store.getCallersWithRole("VIEW_ACCT", true)));
+        assertEquals("AUDIT", Arrays.asList("jdoe"), store.getCallersWithRole("AUDIT", true));
+
+        // Changed group roles require a full load
+        String version = source.getVersion();
+        source.setGroupRoles("user", Arrays.asList("DEPLOY"));
+        source.setGroupRoles("admin", null);
+        assertNull("Group roles changed", source.getCallerChanges(version));
+        store.load();
+        assertEquals("jsmith roles", Arrays.asList("VIEW_ACCT", "DEPLOY"), store.getCallerRoles("jsmith"));
+        assertNull("mjones roles", store.getCallerRoles("mjones"));
+        assertEquals("DEPLOY", new HashSet<>(Arrays.asList("jsmith", "jlee")), new HashSet<>(store.getCallersWithRole("DEPLOY", true)));
+        assertEquals("DEPLOY direct", Arrays.asList("jlee"), store.getCallersWithRole("DEPLOY", false));
+    }
+
+    /**
+     * Tests the assigned and unassigned role queries against the declared roles.
+     */
+    @Test
+    public void assignedRoles() throws IOException {
+        HashSet<CachedIdentityStoreSource.CallerSource> callerSources = new HashSet<>();
+        callerSources.add(caller("jsmith", "welcome1", Arrays.asList("admin"), Arrays.asList("VIEW_ACCT")));
+        callerSources.add(caller("jlee", "welcome1", null, Arrays.asList("DEPLOY")));
+        Map<String, List<String>> groupRoles = new HashMap<>();
+        groupRoles.put("admin", Arrays.asList("EDIT_ACCT"));
+        groupRoles.put("auditor", Arrays.asList("AUDIT"));
+        MemoryIdentityStoreSource source = new MemoryIdentityStoreSource(callerSources, groupRoles);
+
+        CachedIdentityStore store = new CachedIdentityStore(source);
+        store.load();
+        assertEquals("Assigned", Arrays.asList("AUDIT", "DEPLOY", "EDIT_ACCT", "VIEW_ACCT"), store.getAssignedRoles(null));
+        assertEquals("No declared roles", Collections.emptyList(), store.getUnassignedRoles(null));
+
+        source.setDeclaredRoles(Arrays.asList("VIEW_ACCT", "EDIT_ACCT", "CLOSE_ACCT", "REOPEN_ACCT", "AUDIT"));
+        store.load();
+        assertEquals("Roles", Arrays.asList("AUDIT", "CLOSE_ACCT", "DEPLOY", "EDIT_ACCT", "REOPEN_ACCT", "VIEW_ACCT"),
+            store.getRoles(null));
+        assertEquals("Assigned", Arrays.asList("AUDIT", "DEPLOY", "EDIT_ACCT", "VIEW_ACCT"), store.getAssignedRoles(null));
+        assertEquals("Assigned prefix", Arrays.asList("EDIT_ACCT"), store.getAssignedRoles("EDIT.*"));
+        assertEquals("Unassigned", Arrays.asList("CLOSE_ACCT", "REOPEN_ACCT"), store.getUnassignedRoles(null));
+        assertEquals("Unassigned scan", Arrays.asList("REOPEN_ACCT"), store.getUnassignedRoles(".*OPEN.*"));
+        assertEquals("Unassigned exact", Collections.emptyList(), store.getUnassignedRoles("VIEW_ACCT"));
+
+        // Removing the last caller with a role leaves it unassigned, group roles remain assigned
+        source.removeCaller("jsmith");
+        store.load();
+        assertEquals("Assigned", Arrays.asList("AUDIT", "DEPLOY", "EDIT_ACCT"), store.getAssignedRoles(null));
+        assertEquals("Unassigned", Arrays.asList("CLOSE_ACCT", "REOPEN_ACCT", "VIEW_ACCT"), store.getUnassignedRoles(null));
+    }
+
+    /**
+     * Tests that the group and role maps of a source large enough to be partitioned
+     * are the same whether built in parallel or on the loading thread.
+     */
+    @Test
+    public void parallelBuild() throws IOException {
+        int callers = 4 * CachedIdentityStore.Cache.PARALLEL_BUILD_THRESHOLD;
+        HashSet<CachedIdentityStoreSource.CallerSource> callerSources = new HashSet<>();
+        for (int i = 0; i < callers; i++) {
+            List<String> groups = (i % 3 == 0) ? Arrays.asList("users", "group" + (i % 7)) : Arrays.asList("users");
+            List<String> roles = (i % 5 == 0) ? Arrays.asList("role" + (i % 11)) : null;
+            callerSources.add(new CachedIdentityStoreSource.CallerSource("caller" + i, groups, roles, null, null));
+        }
+        Map<String, List<String>> groupRoles = new HashMap<>();
+        groupRoles.put("users", Arrays.asList("VIEW_ACCT"));
+        groupRoles.put("group3", Arrays.asList("EDIT_ACCT", "role3"));
+        MemoryIdentityStoreSource source = new MemoryIdentityStoreSource(callerSources, groupRoles);
+
+        CachedIdentityStore sequential = new CachedIdentityStore(source).setBuildParallelism(1);
+        sequential.load();
+        CachedIdentityStore parallel = new CachedIdentityStore(source).setBuildParallelism(4);
+        parallel.load();
+
+        assertEquals("users count", callers, parallel.getCallersInGroup("users").size());
+        assertEquals("VIEW_ACCT count", callers, parallel.getCallersWithRole("VIEW_ACCT", true).size());
+        for (String group : sequential.getGroups(null)) {
+            assertEquals("Group " + group, sequential.getCallersInGroup(group), parallel.getCallersInGroup(group));
+        }
+        for (String role : sequential.getRoles(null)) {
+            assertEquals("Role " + role, sequential.getCallersWithRole(role, false), parallel.getCallersWithRole(role, false));
+            assertEquals("Role " + role, sequential.getCallersWithRole(role, true), parallel.getCallersWithRole(role, true));
+        }
+        assertTrue("caller3 has role3", parallel.hasCallerRole("caller3", "role3", true));
+        assertFalse("caller3 has no direct role3", parallel.hasCallerRole("caller3", "role3", false));
+    }
+
+    /**
+     * Tests that a reload falls back to reading the whole source when the
+     * changes are no longer retained.
+     */
+    @Test
+    public void incrementalLoad_changeLogOverflow() throws IOException {
+        HashSet<CachedIdentityStoreSource.CallerSource> callerSources = new HashSet<>();
+        callerSources.add(caller("jlee", "welcome1", Arrays.asList("deployer"), null));
+        MemoryIdentityStoreSource source = new MemoryIdentityStoreSource(callerSources, 1);
+
+        CachedIdentityStore store = new CachedIdentityStore(source);
+        store.load();
+
+        source.putCaller(caller("jsmith", "welcome1", Arrays.asList("deployer"), null));
+        source.putCaller(caller("jdoe", "welcome1", Arrays.asList("deployer"), null));
+        assertNull("Changes overflowed", source.getCallerChanges("0"));
+        store.load();
+
+        assertEquals("Caller count", 3, store.getCallers(null).size());
+        assertEquals("deployer count", 3, store.getCallersInGroup("deployer").size());
+    }
+
+    /**
+     * Tests that credentials replaced by incremental reloads do not grow the
+     * credential arena without bound.
+     */
+    @Test
+    public void incrementalLoad_arenaCompaction() throws IOException {
+        char[] password = new char[100000];
+        Arrays.fill(password, 'x');
+        HashSet<CachedIdentityStoreSource.CallerSource> callerSources = new HashSet<>();
+        callerSources.add(caller("jsmith", new String(password), null, null));
+        MemoryIdentityStoreSource source = new MemoryIdentityStoreSource(callerSources);
+
+        CachedIdentityStore store = new CachedIdentityStore(source);
+        store.load();
+        long initialSize = store.getCredentialArenaSize();
+
+        for (int i = 0; i < 20; i++) {
+            password[0] = (char) ('a' + i);
+            source.putCaller(caller("jsmith", new String(password), null, null));
+            store.load();
+        }
+        // Each replaced credential leaves about 200 KB behind until a full load compacts the arena
+        assertTrue("Arena size " + store.getCredentialArenaSize(), store.getCredentialArenaSize() < 8 * initialSize);
+        assertEquals("Validate", CredentialValidationResult.Status.VALID,
+            store.validate("jsmith", UsernamePasswordCredential.class.getName(), password).getStatus());
+    }
 }
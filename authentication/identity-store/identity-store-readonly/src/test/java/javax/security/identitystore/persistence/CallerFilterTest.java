@@ -0,0 +1,92 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015, 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * http://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package javax.security.identitystore.persistence;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link javax.security.identitystore.persistence.CallerFilter}.
+ */
+public class CallerFilterTest {
+
+    @Test
+    public void mightContain() {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 100000; i++) {
+            names.add("caller" + i);
+        }
+        CallerFilter filter = CallerFilter.of(names, 0.01);
+        assertEquals("Size", names.size(), filter.size());
+        for (String name : names) {
+            assertTrue("No false negatives", filter.mightContain(name));
+        }
+
+        int falsePositives = 0;
+        for (int i = 0; i < 100000; i++) {
+            if (filter.mightContain("unknown" + i))
+                falsePositives++;
+        }
+        assertTrue("False positive rate " + falsePositives / 100000.0, falsePositives < 2000);
+        assertFalse("Null", filter.mightContain(null));
+    }
+
+    @Test
+    public void sizing() {
+        CallerFilter empty = new CallerFilter(0, 0.01);
+        assertEquals("Minimum bits", 64, empty.getBitCount());
+        assertFalse("Empty", empty.mightContain("jsmith"));
+
+        CallerFilter filter = new CallerFilter(1000, 0.01);
+        assertEquals("Bits rounded up to a power of two", 16384, filter.getBitCount());
+        assertEquals("Hash count", 11, filter.getHashCount());
+
+        try {
+            new CallerFilter(1000, 1.0);
+            fail("False positive rate of 1");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015, 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * http://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package javax.security.identitystore.persistence;
+
+import org.junit.Test;
+
+import javax.security.identitystore.persistence.cachedsource.CachedIdentityStoreSource;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link javax.security.identitystore.persistence.CredentialArena}
+ * and the credentials prepared in it.
+ */
+public class CredentialArenaTest {
+
+    @Test
+    public void records() {
+        CredentialArena arena = new CredentialArena();
+        long first = arena.add(CredentialArena.DIGEST, "SHA-256", new byte[] { 1, 2 }, new byte[] { 3, 4, 5 });
+        long second = arena.add(CredentialArena.PLAIN, null, null, null);
+        long large = arena.add(CredentialArena.PLAIN, null, null, new byte[CredentialArena.CHUNK_SIZE]);
+
+        assertEquals("Kind", CredentialArena.DIGEST, arena.kind(first));
+        assertEquals("Algorithm", "SHA-256", arena.algorithm(first));
+        assertEquals("Salt length", 2, arena.saltLength(first));
+        assertEquals("Value length", 3, arena.valueLength(first));
+        ByteBuffer chunk = arena.chunk(first);
+        assertEquals("Salt", 2, chunk.get(CredentialArena.saltPosition(first) + 1));
+        assertEquals("Value", 5, chunk.get(arena.valuePosition(first) + 2));
+
+        assertNull("No algorithm", arena.algorithm(second));
+        assertEquals("No salt", -1, arena.saltLength(second));
+        assertEquals("No value", -1, arena.valueLength(second));
+        assertNotSame("Large record in its own chunk", arena.chunk(first), arena.chunk(large));
+        assertEquals("Size", 2L * CredentialArena.CHUNK_SIZE + CredentialArena.HEADER_SIZE, arena.getSize());
+    }
+
+    @Test
+    public void discard() {
+        CredentialArena arena = new CredentialArena();
+        long first = arena.add(CredentialArena.DIGEST, "SHA-256", new byte[] { 1, 2 }, new byte[] { 3, 4, 5 });
+        arena.add(CredentialArena.PLAIN, null, null, null);
+        assertEquals("Live", 2L * CredentialArena.HEADER_SIZE + 5, arena.getLiveBytes());
+
+        arena.discard(first);
+        assertEquals("Discarded", CredentialArena.HEADER_SIZE + 5, arena.getDiscardedBytes());
+        assertEquals("Live", CredentialArena.HEADER_SIZE, arena.getLiveBytes());
+        assertEquals("Still readable", 3, arena.valueLength(first));
+    }
+
+    @Test
+    public void retire() {
+        CredentialArena arena = new CredentialArena();
+        long offset = arena.add(CredentialArena.PLAIN, null, null, new byte[] { 0, 'a' });
+        ByteBuffer chunk = arena.chunk(offset);
+
+        assertTrue("Acquired", arena.acquire());
+        arena.retire();
+        assertFalse("Held by a reader", arena.isFreed());
+        assertEquals("Readable while held", 'a', chunk.getChar(arena.valuePosition(offset)));
+        assertFalse("Retired", arena.acquire());
+
+        arena.release();
+        assertTrue("Freed by the last reader", arena.isFreed());
+        assertEquals("Size", 0, arena.getSize());
+    }
+
+    @Test
+    public void preparedCredentials() {
+        CredentialArena arena = new CredentialArena();
+        PreparedCredential plain = new PreparedCredential(new CachedIdentityStoreSource.CredentialSource(
+            "password", "welcome1", null, null, Collections.singletonMap("expires", "1440034787")), arena);
+        PreparedCredential digest = new PreparedCredential(new CachedIdentityStoreSource.CredentialSource(
+            "password", "70A5B4215270A19492788CF76C9E591A9334AC2363213765674E5181BABBEA1B", "SHA-256", "NaCl", null), arena);
+        PreparedCredential unusable = new PreparedCredential(new CachedIdentityStoreSource.CredentialSource(
+            "password", "not hex", "SHA-256", null, null), arena);
+
+        assertTrue("Plain", plain.verify("welcome1".toCharArray()));
+        assertFalse("Plain", plain.verify("welcome2".toCharArray()));
+        assertTrue("Digest", digest.verify("welcome1".toCharArray()));
+        assertFalse("Digest", digest.verify("welcome".toCharArray()));
+        assertFalse("Unusable", unusable.verify("not hex".toCharArray()));
+
+        CachedIdentityStoreSource.CredentialSource source = digest.toSource("password");
+        assertEquals("Hash", "70a5b4215270a19492788cf76c9e591a9334ac2363213765674e5181babbea1b", source.getValue());
+        assertEquals("Salt", "NaCl", source.getHashSalt());
+        assertEquals("Algorithm", "SHA-256", source.getHashAlgorithm());
+        assertEquals("Value", "not hex", unusable.toSource("password").getValue());
+        assertEquals("Attributes", "1440034787", plain.toSource("password").getAttributes().get("expires"));
+    }
+}
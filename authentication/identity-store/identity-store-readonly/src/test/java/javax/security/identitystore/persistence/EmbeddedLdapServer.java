@@ -0,0 +1,279 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015, 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * http://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package javax.security.identitystore.persistence;
+
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.listener.InMemoryListenerConfig;
+import com.unboundid.ldap.sdk.Attribute;
+import com.unboundid.ldap.sdk.Entry;
+import com.unboundid.ldap.sdk.LDAPException;
+
+import javax.naming.Context;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.regex.Pattern;
+
+/**
+ * <code>EmbeddedLdapServer</code> is an in-process LDAP server for testing the
+ * <code>{@link LdapIdentityStore}</code> without an external directory, using the
+ * UnboundID in-memory directory server.
+ * <p>
+ * The directory is seeded with the caller <code>jsmith</code>, member of the groups
+ * <code>Deployers</code> and <code>Operators</code>, and with a configurable number of
+ * generated callers and groups. The generated groups form chains of nested groups of the
+ * given depth, and each generated caller is a member of the first group of a chain, so it
+ * is in <code>depth + 1</code> groups once nested groups are resolved.
+ * All callers have the password <code>welcome1</code>.
+ * <p>
+ * The server counts the connections opened to it, for checking pooling and caching.
+ */
+public class EmbeddedLdapServer implements AutoCloseable {
+
+    public static final String BASE_DN = "dc=base_domain";
+    public static final String PEOPLE_DN = "ou=people,ou=myrealm," + BASE_DN;
+    public static final String GROUPS_DN = "ou=groups,ou=myrealm," + BASE_DN;
+    public static final String GROUP_ATTRIBUTE = "wlsMemberOf";
+    public static final String ADMIN_DN = "cn=Admin";
+    public static final String PASSWORD = "welcome1";
+
+    // Access log messages of new connections, but not of disconnects
+    private static final Pattern CONNECT = Pattern.compile("(^|\\s)CONNECT\\s");
+
+    private final InMemoryDirectoryServer server;
+    private final int users;
+    private final int groups;
+    private final int depth;
+    private final LongAdder connectionCount = new LongAdder();
+
+    /**
+     * Starts a server listening on a free port.
+     *
+     * @param users The number of generated callers
+     * @param groups The number of generated groups, rounded down to a multiple of <code>depth + 1</code>.
+     * @param depth The nesting depth of the generated groups, <code>0</code> for no nesting.
+     * @throws LDAPException The server could not be started.
+     */
+    public EmbeddedLdapServer(int users, int groups, int depth) throws LDAPException {
+        if ((users < 0) || (depth < 0) || (groups < depth + 1))
+            throw new IllegalArgumentException("Users: " + users + ", groups: " + groups + ", depth: " + depth);
+        this.users = users;
+        this.groups = groups - groups % (depth + 1);
+        this.depth = depth;
+
+        InMemoryDirectoryServerConfig config = new InMemoryDirectoryServerConfig(BASE_DN);
+        config.addAdditionalBindCredentials(ADMIN_DN, PASSWORD);
+        config.setListenerConfigs(InMemoryListenerConfig.createLDAPConfig("default", 0));
+        // Allow the group attribute without extending the schema
+        config.setSchema(null);
+        config.setAccessLogHandler(new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                if (CONNECT.matcher(record.getMessage()).find())
+                    connectionCount.increment();
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+
+        server = new InMemoryDirectoryServer(config);
+        server.addEntries(entries());
+        server.startListening();
+    }
+
+    private List<Entry> entries() {
+        List<Entry> entries = new ArrayList<>();
+        entries.add(new Entry(BASE_DN, new Attribute("objectClass", "top", "domain"), new Attribute("dc", "base_domain")));
+        entries.add(new Entry("ou=myrealm," + BASE_DN, new Attribute("objectClass", "top", "organizationalUnit")));
+        entries.add(new Entry(PEOPLE_DN, new Attribute("objectClass", "top", "organizationalUnit")));
+        entries.add(new Entry(GROUPS_DN, new Attribute("objectClass", "top", "organizationalUnit")));
+
+        entries.add(group("Deployers", null));
+        entries.add(group("Operators", null));
+        entries.add(caller("jsmith", groupDn("Deployers"), groupDn("Operators")));
+
+        for (int i = 0; i < groups; i++) {
+            boolean chainEnd = (i % (depth + 1)) == depth;
+            entries.add(group(groupName(i), chainEnd ? null : groupDn(groupName(i + 1))));
+        }
+        for (int i = 0; i < users; i++) {
+            entries.add(caller(callerName(i), groupDn(groupName(directGroup(i)))));
+        }
+        return entries;
+    }
+
+    private static Entry caller(String name, String... groupDns) {
+        return new Entry(callerDn(name),
+            new Attribute("objectClass", "top", "person", "inetOrgPerson"),
+            new Attribute("uid", name),
+            new Attribute("cn", name),
+            new Attribute("sn", name),
+            new Attribute("userPassword", PASSWORD),
+            new Attribute(GROUP_ATTRIBUTE, groupDns));
+    }
+
+    private static Entry group(String name, String parentDn) {
+        List<Attribute> attributes = new ArrayList<>();
+        attributes.add(new Attribute("objectClass", "top", "groupOfNames"));
+        attributes.add(new Attribute("cn", name));
+        if (null != parentDn)
+            attributes.add(new Attribute(GROUP_ATTRIBUTE, parentDn));
+        return new Entry(groupDn(name), attributes);
+    }
+
+    /**
+     * Determines the name of the given generated caller.
+     *
+     * @param i The caller index
+     * @return The caller name
+     */
+    public static String callerName(int i) {
+        return "user" + i;
+    }
+
+    /**
+     * Determines the name of the given generated group.
+     *
+     * @param i The group index
+     * @return The group name
+     */
+    public static String groupName(int i) {
+        return "group" + i;
+    }
+
+    /**
+     * Determines the generated group of which the given generated caller is a direct member.
+     *
+     * @param i The caller index
+     * @return The group index
+     */
+    public int directGroup(int i) {
+        return (i % (groups / (depth + 1))) * (depth + 1);
+    }
+
+    public static String callerDn(String name) {
+        return "uid=" + name + "," + PEOPLE_DN;
+    }
+
+    public static String groupDn(String name) {
+        return "cn=" + name + "," + GROUPS_DN;
+    }
+
+    public int getUsers() {
+        return users;
+    }
+
+    public int getGroups() {
+        return groups;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Determines the environment for creating contexts bound with the admin account.
+     *
+     * @return The environment
+     */
+    public Hashtable<String, Object> getContextEnvironment() {
+        Hashtable<String, Object> env = new Hashtable<>();
+        env.put(Context.INITIAL_CONTEXT_FACTORY, "com.sun.jndi.ldap.LdapCtxFactory");
+        env.put(Context.PROVIDER_URL, "ldap://localhost:" + server.getListenPort());
+        env.put(Context.SECURITY_AUTHENTICATION, "simple");
+        env.put(Context.SECURITY_PRINCIPAL, ADMIN_DN);
+        env.put(Context.SECURITY_CREDENTIALS, PASSWORD);
+        return env;
+    }
+
+    /**
+     * Determines the entry mapping of the seeded callers and groups.
+     *
+     * @return The mapping
+     */
+    public LdapEntryMapping getEntryMapping() {
+        LdapEntryMapping mapping = new LdapEntryMapping();
+        mapping.getCallerMapping()
+            .setDnPattern("uid={0}," + PEOPLE_DN)
+            .setGroupAttribute(GROUP_ATTRIBUTE)
+            .setSearchBase(PEOPLE_DN)
+            .setNameAttribute("uid");
+        mapping.getGroupMapping()
+            .setSearchBase(GROUPS_DN)
+            .setGroupAttribute(GROUP_ATTRIBUTE);
+        return mapping;
+    }
+
+    /**
+     * Creates an identity store for the seeded directory.
+     *
+     * @return The identity store
+     */
+    public LdapIdentityStore createIdentityStore() {
+        return new LdapIdentityStore(getContextEnvironment(), getEntryMapping());
+    }
+
+    /**
+     * Determines the number of connections opened to the server.
+     *
+     * @return The number of connections
+     */
+    public long getConnectionCount() {
+        return connectionCount.sum();
+    }
+
+    /**
+     * Stops the server, closing its connections.
+     */
+    @Override
+    public void close() {
+        server.shutDown(true);
+    }
+}
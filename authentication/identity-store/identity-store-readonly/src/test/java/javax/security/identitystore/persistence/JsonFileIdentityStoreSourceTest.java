@@ -45,10 +45,18 @@ import javax.security.identitystore.persistence.cachedsource.CachedIdentityStore
 import javax.security.identitystore.persistence.cachedsource.JsonFileIdentityStoreSource;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
-import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.*;
 
 /**
  * Tests the JSON file source
@@ -77,4 +85,146 @@ public class JsonFileIdentityStoreSourceTest {
             assertNotNull("Caller name", caller.getName());
         }
     }
+
+    private static Iterator<CachedIdentityStoreSource.CallerSource> iterator(String json) throws IOException {
+        Path file = Files.createTempFile("idStore", ".json");
+        file.toFile().deleteOnExit();
+        Files.write(file, json.getBytes(StandardCharsets.UTF_8));
+        return new JsonFileIdentityStoreSource(file.toFile()).getCallerIterator();
+    }
+
+    @Test
+    public void iterator_content() throws IOException {
+        Iterator<CachedIdentityStoreSource.CallerSource> iterator = iterator(
+            "{ \"version\": { \"ignored\": [1, {\"callers\": []}] }," +
+            "  \"callers\": [" +
+            "    { \"name\": \"jsmith\", \"groups\": [\"admin\", \"user\"], \"roles\": [\"VIEW_ACCT\"], \"unknown\": true," +
+            "      \"credentials\": [ { \"type\": \"password\", \"value\": \"abc\", \"hash-algorithm\": \"SHA-256\", \"hash-salt\": \"NaCl\"," +
+            "                           \"attributes\": [ { \"name\": \"expires\", \"value\": \"1440034787\" } ] } ]," +
+            "      \"attributes\": [ { \"name\": \"locked\", \"value\": \"true\" } ] }," +
+            "    { \"groups\": [\"nameless\"] }," +
+            "    { \"name\": \"jlee\" }" +
+            "  ] }");
+
+        assertTrue(iterator.hasNext());
+        CachedIdentityStoreSource.CallerSource jsmith = iterator.next();
+        assertEquals("Name", "jsmith", jsmith.getName());
+        assertEquals("Groups", Arrays.asList("admin", "user"), jsmith.getGroups());
+        assertEquals("Roles", Arrays.asList("VIEW_ACCT"), jsmith.getRoles());
+        assertEquals("Attributes", "true", jsmith.getAttributes().get("locked"));
+        assertEquals("Credentials", 1, jsmith.getCredentials().size());
+        CachedIdentityStoreSource.CredentialSource credential = jsmith.getCredentials().get(0);
+        assertEquals("Type", "password", credential.getType());
+        assertEquals("Value", "abc", credential.getValue());
+        assertEquals("Hash algorithm", "SHA-256", credential.getHashAlgorithm());
+        assertEquals("Hash salt", "NaCl", credential.getHashSalt());
+        assertEquals("Credential attributes", "1440034787", credential.getAttributes().get("expires"));
+
+        // Callers without a name are returned as null
+        assertTrue(iterator.hasNext());
+        assertNull("Nameless", iterator.next());
+
+        assertTrue(iterator.hasNext());
+        CachedIdentityStoreSource.CallerSource jlee = iterator.next();
+        assertEquals("Name", "jlee", jlee.getName());
+        assertNull("Groups", jlee.getGroups());
+
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void groupRoles() throws IOException {
+        Path file = Files.createTempFile("idStore", ".json");
+        file.toFile().deleteOnExit();
+        Files.write(file, (
+            "{ \"callers\": [ { \"name\": \"jsmith\", \"groups\": [\"admin\"] } ]," +
+            "  \"groups\": [" +
+            "    { \"name\": \"admin\", \"roles\": [\"EDIT_ACCT\", \"VIEW_ACCT\"], \"unknown\": [1] }," +
+            "    { \"roles\": [\"nameless\"] }," +
+            "    { \"name\": \"user\", \"roles\": null }" +
+            "  ] }").getBytes(StandardCharsets.UTF_8));
+
+        Map<String, List<String>> groupRoles = new JsonFileIdentityStoreSource(file.toFile()).getGroupRoles();
+        assertEquals("Groups", Collections.singleton("admin"), groupRoles.keySet());
+        assertEquals("admin roles", Arrays.asList("EDIT_ACCT", "VIEW_ACCT"), groupRoles.get("admin"));
+
+        Files.write(file, "{ \"callers\": [] }".getBytes(StandardCharsets.UTF_8));
+        assertNull("No groups", new JsonFileIdentityStoreSource(file.toFile()).getGroupRoles());
+    }
+
+    @Test
+    public void declaredRoles() throws IOException {
+        Path file = Files.createTempFile("idStore", ".json");
+        file.toFile().deleteOnExit();
+        Files.write(file, (
+            "{ \"callers\": [ { \"name\": \"jsmith\", \"roles\": [\"VIEW_ACCT\"] } ]," +
+            "  \"roles\": [ \"VIEW_ACCT\", null, \"AUDIT\" ] }").getBytes(StandardCharsets.UTF_8));
+        assertEquals("Roles", Arrays.asList("VIEW_ACCT", "AUDIT"), new JsonFileIdentityStoreSource(file.toFile()).getDeclaredRoles());
+
+        Files.write(file, "{ \"callers\": [] }".getBytes(StandardCharsets.UTF_8));
+        assertNull("No roles", new JsonFileIdentityStoreSource(file.toFile()).getDeclaredRoles());
+    }
+
+    @Test
+    public void iterator_roles() throws IOException {
+        Path file = Files.createTempFile("idStore", ".json");
+        file.toFile().deleteOnExit();
+        Files.write(file, (
+            "{ \"roles\": [ \"AUDIT\" ]," +
+            "  \"callers\": [ { \"name\": \"jsmith\", \"groups\": [\"admin\"] } ]," +
+            "  \"groups\": [ { \"name\": \"admin\", \"roles\": [\"EDIT_ACCT\"] } ] }").getBytes(StandardCharsets.UTF_8));
+
+        Iterator<CachedIdentityStoreSource.CallerSource> iterator = new JsonFileIdentityStoreSource(file.toFile()).getCallerIterator();
+        assertTrue("Role source", iterator instanceof CachedIdentityStoreSource.RoleSource);
+        CachedIdentityStoreSource.RoleSource roleSource = (CachedIdentityStoreSource.RoleSource) iterator;
+        try {
+            roleSource.getGroupRoles();
+            fail("Roles before all callers were read");
+        } catch (IllegalStateException expected) {
+        }
+
+        assertEquals("Caller", "jsmith", iterator.next().getName());
+        assertFalse(iterator.hasNext());
+        assertEquals("Group roles", Collections.singletonList("EDIT_ACCT"), roleSource.getGroupRoles().get("admin"));
+        assertEquals("Declared roles", Collections.singletonList("AUDIT"), roleSource.getDeclaredRoles());
+    }
+
+    @Test
+    public void iterator_noCallers() throws IOException {
+        assertFalse(iterator("{ }").hasNext());
+        assertFalse(iterator("{ \"callers\": null }").hasNext());
+    }
+
+    @Test(expected = IOException.class)
+    public void iterator_badTopStructure() throws IOException {
+        iterator("[ { \"name\": \"jsmith\" } ]");
+    }
+
+    @Test
+    public void iterator_badCaller() throws IOException {
+        Iterator<CachedIdentityStoreSource.CallerSource> iterator = iterator(
+            "{ \"callers\": [ { \"name\": \"jsmith\" }, { \"name\": [\"jlee\"] } ] }");
+
+        assertEquals("Name", "jsmith", iterator.next().getName());
+        try {
+            iterator.hasNext();
+            fail("Bad schema expected");
+        } catch (UncheckedIOException e) {
+            assertTrue(e.getMessage(), e.getCause().getMessage().startsWith("Bad schema"));
+        }
+    }
+
+    @Test
+    public void iterator_truncated() throws IOException {
+        Iterator<CachedIdentityStoreSource.CallerSource> iterator = iterator(
+            "{ \"callers\": [ { \"name\": \"jsmith\" }, { \"name\": ");
+
+        assertEquals("Name", "jsmith", iterator.next().getName());
+        try {
+            iterator.hasNext();
+            fail("Parse error expected");
+        } catch (UncheckedIOException e) {
+            // Expected
+        }
+    }
 }
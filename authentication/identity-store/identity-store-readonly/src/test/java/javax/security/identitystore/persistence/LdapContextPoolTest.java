@@ -0,0 +1,190 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015, 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * http://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package javax.security.identitystore.persistence;
+
+import org.junit.Test;
+
+import javax.naming.CommunicationException;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
+import javax.naming.ldap.LdapContext;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link javax.security.identitystore.persistence.LdapContextPool},
+ * using contexts which do not connect.
+ */
+public class LdapContextPoolTest {
+
+    /**
+     * Pool of contexts counting how often they are closed.
+     */
+    private static class TestPool extends LdapContextPool {
+        final AtomicInteger closedCount = new AtomicInteger();
+
+        TestPool(int maxSize, long timeoutMillis) {
+            super(new Hashtable<String, Object>(), maxSize, timeoutMillis);
+        }
+
+        @Override
+        protected LdapContext createContext() throws NamingException {
+            return (LdapContext) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{LdapContext.class},
+                (proxy, method, args) -> {
+                    if ("close".equals(method.getName()))
+                        closedCount.incrementAndGet();
+                    if ("hashCode".equals(method.getName()))
+                        return System.identityHashCode(proxy);
+                    if ("equals".equals(method.getName()))
+                        return proxy == args[0];
+                    return null;
+                });
+        }
+    }
+
+    @Test
+    public void reuse() throws NamingException {
+        TestPool pool = new TestPool(2, 0);
+        LdapContext first = pool.borrow();
+        pool.release(first);
+        assertSame("Idle context reused", first, pool.borrow());
+        LdapContext second = pool.borrow();
+        assertNotSame("Second context", first, second);
+        assertEquals("Created", 2, pool.getCreatedCount());
+
+        pool.invalidate(second);
+        assertEquals("Invalidated closed", 1, pool.closedCount.get());
+        assertNotSame("New context", second, pool.borrow());
+        assertEquals("Created", 3, pool.getCreatedCount());
+    }
+
+    @Test
+    public void bounded() throws NamingException {
+        TestPool pool = new TestPool(1, 10);
+        LdapContext ctx = pool.borrow();
+        try {
+            pool.borrow();
+            fail("Pool exhausted");
+        } catch (ServiceUnavailableException e) {
+            // Expected
+        }
+        assertEquals("Timeouts", 1, pool.getTimeoutCount());
+        pool.release(ctx);
+        assertSame("Released context", ctx, pool.borrow());
+    }
+
+    @Test
+    public void execute_retriesStaleContext() throws NamingException {
+        TestPool pool = new TestPool(2, 0);
+        LdapContext stale = pool.borrow();
+        pool.release(stale);
+
+        List<LdapContext> used = new ArrayList<>();
+        String result = pool.execute(ctx -> {
+            used.add(ctx);
+            if (ctx == stale)
+                throw new CommunicationException("Connection closed");
+            return "read";
+        });
+        assertEquals("Result", "read", result);
+        assertEquals("Contexts used", 2, used.size());
+        assertSame("Stale context first", stale, used.get(0));
+        assertEquals("Stale invalidated", 1, pool.getInvalidatedCount());
+        assertEquals("Retries", 1, pool.getRetryCount());
+        assertEquals("New context released", 1, pool.getIdleCount());
+        assertSame("New context reused", used.get(1), pool.borrow());
+    }
+
+    @Test
+    public void execute_newContextNotRetried() throws NamingException {
+        TestPool pool = new TestPool(1, 0);
+        AtomicInteger attempts = new AtomicInteger();
+        try {
+            pool.execute(ctx -> {
+                attempts.incrementAndGet();
+                throw new CommunicationException("Connection refused");
+            });
+            fail("Failed");
+        } catch (CommunicationException e) {
+            // Expected
+        }
+        assertEquals("Attempts", 1, attempts.get());
+        assertEquals("Invalidated", 1, pool.getInvalidatedCount());
+        assertEquals("Retries", 0, pool.getRetryCount());
+
+        // The permit was returned
+        pool.release(pool.borrow());
+        try {
+            pool.execute(ctx -> {
+                throw new NameNotFoundException("No such entry");
+            });
+            fail("Failed");
+        } catch (NameNotFoundException e) {
+            // Expected
+        }
+        assertEquals("Released", 1, pool.getIdleCount());
+        assertEquals("Not retried", 0, pool.getRetryCount());
+    }
+
+    @Test
+    public void close() throws NamingException {
+        TestPool pool = new TestPool(2, 0);
+        LdapContext idle = pool.borrow();
+        LdapContext borrowed = pool.borrow();
+        pool.release(idle);
+        pool.close();
+        assertEquals("Idle closed", 1, pool.closedCount.get());
+        pool.release(borrowed);
+        assertEquals("Released closed", 2, pool.closedCount.get());
+        assertEquals("Idle", 0, pool.getIdleCount());
+        try {
+            pool.borrow();
+            fail("Closed");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+    }
+}
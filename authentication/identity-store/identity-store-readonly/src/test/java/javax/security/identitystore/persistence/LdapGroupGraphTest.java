@@ -0,0 +1,104 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015, 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * http://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package javax.security.identitystore.persistence;
+
+import org.junit.Test;
+
+import javax.naming.InvalidNameException;
+import javax.naming.ldap.LdapName;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the nested group resolution of {@link javax.security.identitystore.persistence.LdapGroupGraph}.
+ */
+public class LdapGroupGraphTest {
+
+    private static LdapName group(String name) throws InvalidNameException {
+        return new LdapName("cn=" + name + ",ou=groups,dc=example");
+    }
+
+    private static List<String> names(Collection<LdapName> groups) {
+        List<String> names = new ArrayList<>();
+        for (LdapName group : groups) {
+            names.add((String) group.getRdn(group.size() - 1).getValue());
+        }
+        return names;
+    }
+
+    @Test
+    public void closure() throws InvalidNameException {
+        // deployers -> operators -> staff -> everyone, admins -> staff
+        Map<LdapName, List<LdapName>> parents = new HashMap<>();
+        parents.put(group("deployers"), Arrays.asList(group("operators")));
+        parents.put(group("operators"), Arrays.asList(group("staff")));
+        parents.put(group("admins"), Arrays.asList(group("staff")));
+        parents.put(group("staff"), Arrays.asList(group("everyone")));
+        parents.put(group("orphans"), new ArrayList<>());
+        LdapGroupGraph graph = new LdapGroupGraph(parents);
+
+        assertEquals("Nested groups", 4, graph.size());
+        assertEquals("Closure", Arrays.asList("deployers", "admins", "operators", "staff", "everyone"),
+            names(graph.closure(Arrays.asList(group("deployers"), group("admins")))));
+        assertEquals("Not nested", Arrays.asList("others"), names(graph.closure(Arrays.asList(group("others")))));
+        assertSame("Memoized", graph.ancestors(group("deployers")), graph.ancestors(group("deployers")));
+        assertEquals("DNs compared case insensitively", 3,
+            graph.ancestors(new LdapName("CN=Deployers,OU=groups,DC=example")).length);
+    }
+
+    @Test
+    public void cycle() throws InvalidNameException {
+        // a -> b -> c -> a, c -> d
+        Map<LdapName, List<LdapName>> parents = new HashMap<>();
+        parents.put(group("a"), Arrays.asList(group("b")));
+        parents.put(group("b"), Arrays.asList(group("c")));
+        parents.put(group("c"), Arrays.asList(group("a"), group("d")));
+        LdapGroupGraph graph = new LdapGroupGraph(parents);
+
+        assertEquals("Cycle", Arrays.asList("b", "c", "a", "d"), names(graph.closure(Arrays.asList(group("b")))));
+        assertEquals("Self excluded", 3, graph.ancestors(group("a")).length);
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015, 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * http://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package javax.security.identitystore.persistence;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.security.identitystore.CredentialValidationResult;
+import javax.security.identitystore.credential.Password;
+import javax.security.identitystore.credential.UsernamePasswordCredential;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Measures the throughput and latency of the LDAP identity store,
+ * {@link javax.security.identitystore.persistence.LdapIdentityStore}, against an
+ * {@link EmbeddedLdapServer}, and checks the number of connections each scenario opens.
+ * <p>
+ * The directory size and the number of operations are set by system properties:
+ * <code>ldap.users</code>, <code>ldap.groups</code>, <code>ldap.depth</code>,
+ * <code>ldap.operations</code> and <code>ldap.threads</code>. Results are printed.
+ * <p>
+ * This test is excluded from the default build, and run with
+ * <code>mvn test -Dtest=LdapIdentityStoreLoadTest</code>.
+ */
+public class LdapIdentityStoreLoadTest {
+
+    private static final int USERS = Integer.getInteger("ldap.users", 1000);
+    private static final int GROUPS = Integer.getInteger("ldap.groups", 100);
+    private static final int DEPTH = Integer.getInteger("ldap.depth", 3);
+    private static final int OPERATIONS = Integer.getInteger("ldap.operations", 500);
+    private static final int THREADS = Integer.getInteger("ldap.threads", 8);
+
+    private static EmbeddedLdapServer server;
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        server = new EmbeddedLdapServer(USERS, GROUPS, DEPTH);
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        server.close();
+    }
+
+    private static UsernamePasswordCredential credential(int i) {
+        return new UsernamePasswordCredential(EmbeddedLdapServer.callerName(i % server.getUsers()), new Password("welcome1"));
+    }
+
+    /**
+     * Prints the latency percentiles of the given durations and the connections opened.
+     */
+    private static void report(String scenario, long[] nanos, long elapsedNanos, long connections) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        System.out.println(String.format("%-24s n=%d throughput=%.0f/s p50=%d us p99=%d us max=%d us connections=%d",
+            scenario, sorted.length, sorted.length * 1e9 / elapsedNanos,
+            percentile(sorted, 0.50) / 1000, percentile(sorted, 0.99) / 1000, sorted[sorted.length - 1] / 1000,
+            connections));
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(fraction * sorted.length) - 1)];
+    }
+
+    /**
+     * Caller binds, each on its own connection, reading the groups on that connection.
+     */
+    @Test
+    public void bind() {
+        LdapIdentityStore store = server.createIdentityStore();
+        long[] nanos = new long[OPERATIONS];
+        long connections = server.getConnectionCount();
+        long start = System.nanoTime();
+        for (int i = 0; i < OPERATIONS; i++) {
+            long operationStart = System.nanoTime();
+            CredentialValidationResult result = store.validateUsernamePassword(credential(i));
+            nanos[i] = System.nanoTime() - operationStart;
+            assertEquals("Valid", CredentialValidationResult.Status.VALID, result.getStatus());
+        }
+        connections = server.getConnectionCount() - connections;
+        report("bind", nanos, System.nanoTime() - start, connections);
+        assertEquals("One connection per bind", OPERATIONS, connections);
+        store.close();
+    }
+
+    /**
+     * Group reads on pooled connections, with and without nested groups and caching.
+     */
+    @Test
+    public void groupFetch() {
+        try (LdapIdentityStore store = server.createIdentityStore()) {
+            groupFetch("groups", store, 1);
+        }
+        try (LdapIdentityStore store = server.createIdentityStore()) {
+            groupFetch("groups nested", store.setGroupGraphRefresh(60000), DEPTH + 1);
+        }
+        try (LdapIdentityStore store = server.createIdentityStore()) {
+            store.setGroupCache(USERS, 60000, 30000, 60000);
+            groupFetch("groups cache cold", store, 1);
+            groupFetch("groups cache warm", store, 1);
+            assertTrue("Served from cache", store.getGroupCache().getHitCount() >= OPERATIONS);
+        }
+    }
+
+    private static void groupFetch(String scenario, LdapIdentityStore store, int expectedGroups) {
+        long[] nanos = new long[OPERATIONS];
+        long connections = server.getConnectionCount();
+        long start = System.nanoTime();
+        for (int i = 0; i < OPERATIONS; i++) {
+            long operationStart = System.nanoTime();
+            List<String> groups = store.getCallerGroups(EmbeddedLdapServer.callerName(i % server.getUsers()));
+            nanos[i] = System.nanoTime() - operationStart;
+            assertEquals("Groups", expectedGroups, groups.size());
+        }
+        connections = server.getConnectionCount() - connections;
+        report(scenario, nanos, System.nanoTime() - start, connections);
+        assertTrue("Pooled connections", connections <= LdapContextPool.DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Concurrent logins, binding and reading groups on the bound connections.
+     */
+    @Test
+    public void concurrentLogins() throws Exception {
+        LdapIdentityStore store = server.createIdentityStore().setGroupGraphRefresh(60000);
+        store.getCallerGroups("jsmith"); // Load the group graph
+        long[] nanos = new long[OPERATIONS];
+        long connections = server.getConnectionCount();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        long start = System.nanoTime();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int thread = t;
+            futures.add(executor.submit(() -> {
+                for (int i = thread; i < OPERATIONS; i += THREADS) {
+                    long operationStart = System.nanoTime();
+                    CredentialValidationResult result = store.validateUsernamePassword(credential(i));
+                    nanos[i] = System.nanoTime() - operationStart;
+                    assertEquals("Valid", CredentialValidationResult.Status.VALID, result.getStatus());
+                    assertEquals("Nested groups", DEPTH + 1, result.getCallerGroups().size());
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        long elapsed = System.nanoTime() - start;
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        connections = server.getConnectionCount() - connections;
+        report("concurrent logins x" + THREADS, nanos, elapsed, connections);
+        assertEquals("One connection per login", OPERATIONS, connections);
+        store.close();
+    }
+}
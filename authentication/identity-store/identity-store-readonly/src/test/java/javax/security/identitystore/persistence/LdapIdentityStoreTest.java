@@ -39,91 +39,66 @@
  */
 package javax.security.identitystore.persistence;
 
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
 import org.junit.Test;
 
-import javax.naming.Context;
 import javax.security.identitystore.CredentialValidationResult;
 import javax.security.identitystore.credential.Password;
 import javax.security.identitystore.credential.UsernamePasswordCredential;
-import java.io.IOException;
-import java.util.Hashtable;
+import java.util.Arrays;
 import java.util.List;
 
 import static org.junit.Assert.*;
 
 /**
- * Tests the LDAP identity store, {@link javax.security.identitystore.persistence.LdapIdentityStore}.
+ * Tests the LDAP identity store, {@link javax.security.identitystore.persistence.LdapIdentityStore},
+ * against an {@link EmbeddedLdapServer}.
  * <p>
  * This tests the API without invoking CDI.
  */
 public class LdapIdentityStoreTest {
 
+    private static EmbeddedLdapServer server;
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        // 20 callers, in chains of 3 nested groups
+        server = new EmbeddedLdapServer(20, 6, 2);
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        server.close();
+    }
+
     /**
      * Tests the specialized method implementation <code>{@link LdapIdentityStore#validateUsernamePassword}</code>.
-     *
-     * @throws IOException
      */
     @Test
-    public void  validateUsernamePassword() throws IOException {
-
-        // Test with locally installed LDAP
-
-        // Set up the environment for creating the initial context
-        Hashtable<String, Object> env = new Hashtable();
-        env.put(Context.INITIAL_CONTEXT_FACTORY, "com.sun.jndi.ldap.LdapCtxFactory");
-        env.put(Context.PROVIDER_URL, "ldap://localhost:7001");
-
-        env.put(Context.SECURITY_AUTHENTICATION, "simple");
-        env.put(Context.SECURITY_PRINCIPAL, "cn=Admin");
-        env.put(Context.SECURITY_CREDENTIALS, "welcome1");
-
-
-        // LDAP entry mapping
-        LdapEntryMapping mapping = new LdapEntryMapping();
-        mapping
-            .getCallerMapping()
-                .setDnPattern("uid={0},ou=people,ou=myrealm,dc=base_domain")
-                .setGroupAttribute("wlsMemberOf");
-
-        // Instantiate store
-        LdapIdentityStore store = new LdapIdentityStore(env, mapping);
+    public void  validateUsernamePassword() {
+        LdapIdentityStore store = server.createIdentityStore();
 
         // Test validation
-        assertEquals("validate", CredentialValidationResult.Status.VALID,
-            store.validateUsernamePassword(new UsernamePasswordCredential("jsmith", new Password("welcome1"))).getStatus());
+        long connections = server.getConnectionCount();
+        CredentialValidationResult result = store.validateUsernamePassword(new UsernamePasswordCredential("jsmith", new Password("welcome1")));
+        assertEquals("validate", CredentialValidationResult.Status.VALID, result.getStatus());
+        assertEquals("Groups read on the bound connection", Arrays.asList("Deployers", "Operators"), result.getCallerGroups());
+        assertEquals("One connection", 1, server.getConnectionCount() - connections);
+        assertEquals("No pooled context used", 0, store.getContextPool().getCreatedCount());
         assertEquals("validate", CredentialValidationResult.Status.INVALID,
             store.validateUsernamePassword(new UsernamePasswordCredential("jsmith", new Password("badPassword"))).getStatus());
-
+        assertEquals("validate", CredentialValidationResult.Status.INVALID,
+            store.validateUsernamePassword(new UsernamePasswordCredential("jdoe", new Password("welcome1"))).getStatus());
+        store.close();
     }
 
     /**
      * Tests the specialized method implementation <code>{@link LdapIdentityStore#getCallerGroups}</code>.
-     *
-     * @throws IOException
      */
     @Test
-    public void callerGroups() throws IOException {
-
-        // Test with locally installed LDAP
-
-        // Set up the environment for creating the initial context
-        Hashtable<String, Object> env = new Hashtable();
-        env.put(Context.INITIAL_CONTEXT_FACTORY, "com.sun.jndi.ldap.LdapCtxFactory");
-        env.put(Context.PROVIDER_URL, "ldap://localhost:7001");
-
-        env.put(Context.SECURITY_AUTHENTICATION, "simple");
-        env.put(Context.SECURITY_PRINCIPAL, "cn=Admin");
-        env.put(Context.SECURITY_CREDENTIALS, "welcome1");
-
-        // LDAP entry mapping
-        LdapEntryMapping mapping = new LdapEntryMapping();
-        mapping
-            .getCallerMapping()
-            .setDnPattern("uid={0},ou=people,ou=myrealm,dc=base_domain")
-            .setGroupAttribute("wlsMemberOf");
-
-        // Instantiate store
-        LdapIdentityStore store = new LdapIdentityStore(env, mapping);
+    public void callerGroups() {
+        LdapIdentityStore store = server.createIdentityStore();
 
         // Get caller groups
         List<String> groups = store.getCallerGroups("jsmith");
@@ -131,5 +106,76 @@ public class LdapIdentityStoreTest {
         assertEquals("Groups count", 2, groups.size());
         assertTrue("Deployers", groups.contains("Deployers"));
         assertTrue("Operators", groups.contains("Operators"));
+
+        // Service account reads share a pooled connection
+        long connections = server.getConnectionCount();
+        for (int i = 0; i < 10; i++) {
+            assertEquals("Direct group", Arrays.asList(EmbeddedLdapServer.groupName(server.directGroup(i))),
+                store.getCallerGroups(EmbeddedLdapServer.callerName(i)));
+        }
+        assertEquals("Pooled connection reused", 0, server.getConnectionCount() - connections);
+        assertEquals("Pooled contexts", 1, store.getContextPool().getCreatedCount());
+        store.close();
+    }
+
+    /**
+     * Tests the resolution of nested groups.
+     */
+    @Test
+    public void nestedGroups() {
+        LdapIdentityStore store = server.createIdentityStore();
+        store.setGroupGraphRefresh(60000);
+
+        int group = server.directGroup(1);
+        assertEquals("Nested groups", Arrays.asList(EmbeddedLdapServer.groupName(group),
+            EmbeddedLdapServer.groupName(group + 1), EmbeddedLdapServer.groupName(group + 2)),
+            store.getCallerGroups(EmbeddedLdapServer.callerName(1)));
+        CredentialValidationResult result = store.validateUsernamePassword(
+            new UsernamePasswordCredential(EmbeddedLdapServer.callerName(2), new Password("welcome1")));
+        assertEquals("Nested groups of validated caller", server.getDepth() + 1, result.getCallerGroups().size());
+        assertEquals("Not nested", Arrays.asList("Deployers", "Operators"), store.getCallerGroups("jsmith"));
+        store.close();
+    }
+
+    /**
+     * Tests that cached groups are read once.
+     */
+    @Test
+    public void groupCache() {
+        LdapIdentityStore store = server.createIdentityStore();
+        store.setGroupCache(100, 60000, 30000, 60000);
+
+        List<String> groups = store.getCallerGroups("jsmith");
+        long connections = server.getConnectionCount();
+        long loads = store.getGroupCache().getLoadCount();
+        for (int i = 0; i < 10; i++) {
+            assertEquals("Cached", groups, store.getCallerGroups("jsmith"));
+        }
+        assertEquals("Cached in any case", groups, store.getCallerGroups("JSmith"));
+        assertEquals("No connections", 0, server.getConnectionCount() - connections);
+        assertEquals("No loads", loads, store.getGroupCache().getLoadCount());
+        assertEquals("One entry", 1, store.getGroupCache().size());
+
+        store.validateUsernamePassword(new UsernamePasswordCredential(EmbeddedLdapServer.callerName(3), new Password("welcome1")));
+        assertEquals("Cached on validation", 2, store.getGroupCache().size());
+        store.close();
+    }
+
+    /**
+     * Tests that the caller filter holds every caller, and matches names in any case.
+     */
+    @Test
+    public void callerFilter() throws Exception {
+        LdapIdentityStore store = server.createIdentityStore();
+
+        CallerFilter filter = store.loadCallerFilter(0.001);
+        assertSame("Filter set", filter, store.getCallerFilter());
+        assertTrue("jsmith", filter.mightContain(store.normalizeCallerName("jsmith")));
+        assertTrue("Upper case", filter.mightContain(store.normalizeCallerName("JSmith")));
+        for (int i = 0; i < 20; i++) {
+            assertTrue("Caller " + i, filter.mightContain(
+                store.normalizeCallerName(EmbeddedLdapServer.callerName(i).toUpperCase())));
+        }
+        store.close();
     }
 }
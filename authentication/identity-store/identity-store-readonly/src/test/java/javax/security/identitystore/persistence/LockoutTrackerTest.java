@@ -0,0 +1,156 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015, 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * http://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package javax.security.identitystore.persistence;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link javax.security.identitystore.persistence.LockoutTracker}.
+ */
+public class LockoutTrackerTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private static LockoutTracker tracker(AtomicLong time, int maxEntries) {
+        // 3 caller and 5 source failures per minute, locked out for 1 s doubling up to 4 s
+        LockoutTracker tracker = new LockoutTracker(3, 5, 60000, 1000, 4000, maxEntries);
+        tracker.clock = time::get;
+        return tracker;
+    }
+
+    @Test
+    public void lockout() {
+        AtomicLong time = new AtomicLong(-100 * SECOND);
+        LockoutTracker tracker = tracker(time, 1000);
+
+        tracker.recordFailure("jsmith", null);
+        tracker.recordFailure("jsmith", null);
+        assertFalse("Below max failures", tracker.isLockedOut("jsmith", null));
+        tracker.recordSuccess("jsmith");
+        tracker.recordFailure("jsmith", null);
+        tracker.recordFailure("jsmith", null);
+        assertFalse("Success cleared failures", tracker.isLockedOut("jsmith", null));
+        tracker.recordFailure("jsmith", null);
+        assertTrue("Locked out", tracker.isLockedOut("jsmith", "10.0.0.1"));
+        assertFalse("Other caller", tracker.isLockedOut("jdoe", "10.0.0.1"));
+
+        // Lockouts double, up to the maximum
+        long[] durations = {1, 2, 4, 4};
+        for (long duration : durations) {
+            time.addAndGet(duration * SECOND - 1);
+            assertTrue("Locked out for " + duration + " s", tracker.isLockedOut("jsmith", null));
+            time.incrementAndGet();
+            assertFalse("Lockout of " + duration + " s ended", tracker.isLockedOut("jsmith", null));
+            for (int i = 0; i < 3; i++) {
+                tracker.recordFailure("jsmith", null);
+            }
+        }
+        assertEquals("Lockouts", 5, tracker.getLockoutCount());
+        assertEquals("Rejected", 5, tracker.getRejectedCount());
+
+        // Entries expire once idle
+        time.addAndGet(125 * SECOND);
+        tracker.recordFailure("jsmith", null);
+        tracker.recordFailure("jsmith", null);
+        tracker.recordFailure("jsmith", null);
+        time.addAndGet(SECOND);
+        assertFalse("Lockout duration reset", tracker.isLockedOut("jsmith", null));
+    }
+
+    @Test
+    public void slidingWindow() {
+        AtomicLong time = new AtomicLong(0);
+        LockoutTracker tracker = tracker(time, 1000);
+
+        tracker.recordFailure("jsmith", null);
+        tracker.recordFailure("jsmith", null);
+        time.addAndGet(70 * SECOND);
+        tracker.recordFailure("jsmith", null);
+        assertFalse("Previous window weighs 5/6", tracker.isLockedOut("jsmith", null));
+        tracker.recordFailure("jsmith", null);
+        assertTrue("Locked out", tracker.isLockedOut("jsmith", null));
+
+        tracker.recordSuccess("jsmith");
+        tracker.recordFailure("jsmith", null);
+        tracker.recordFailure("jsmith", null);
+        time.addAndGet(180 * SECOND);
+        tracker.recordFailure("jsmith", null);
+        assertFalse("Window passed", tracker.isLockedOut("jsmith", null));
+    }
+
+    @Test
+    public void sources() {
+        AtomicLong time = new AtomicLong(0);
+        LockoutTracker tracker = tracker(time, 1000);
+
+        for (int i = 0; i < 5; i++) {
+            tracker.recordFailure("caller" + i, "10.0.0.1");
+        }
+        assertTrue("Source locked out", tracker.isLockedOut("caller9", "10.0.0.1"));
+        assertFalse("Other source", tracker.isLockedOut("caller9", "10.0.0.2"));
+        tracker.recordSuccess("caller9");
+        assertTrue("Success keeps source failures", tracker.isLockedOut(null, "10.0.0.1"));
+    }
+
+    @Test
+    public void boundedMemory() {
+        AtomicLong time = new AtomicLong(0);
+        LockoutTracker tracker = tracker(time, 1024);
+
+        for (int i = 0; i < 100000; i++) {
+            tracker.recordFailure("caller" + i, null);
+        }
+        assertTrue("Size " + tracker.size(), tracker.size() <= 1024);
+        assertTrue("Evictions", tracker.getEvictionCount() >= 100000 - 1024);
+        assertEquals("Failures", 100000, tracker.getFailureCount());
+
+        try {
+            new LockoutTracker(3, 5, 60000, 1000, 500, 1024);
+            fail("Max lockout below lockout");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+}
@@ -49,7 +49,7 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 
-import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.*;
 
 /**
  * Tests the Memory source
@@ -113,4 +113,61 @@ public class MemoryIdentityStoreSourceTest {
             assertNotNull("Caller name", caller.getName());
         }
     }
+
+    @Test
+    public void callerChanges() throws IOException {
+        HashSet<CachedIdentityStoreSource.CallerSource> callerSources = new HashSet();
+        callerSources.add(new CachedIdentityStoreSource.CallerSource("jsmith", null, null, null, null));
+        callerSources.add(new CachedIdentityStoreSource.CallerSource("jlee", null, null, null, null));
+
+        MemoryIdentityStoreSource source = new MemoryIdentityStoreSource(callerSources);
+        String version = source.getVersion();
+
+        source.putCaller(new CachedIdentityStoreSource.CallerSource("jdoe", null, null, null, null));
+        source.putCaller(new CachedIdentityStoreSource.CallerSource("jsmith", null, null, null, null));
+        source.removeCaller("jlee");
+
+        CachedIdentityStoreSource.CallerChanges changes = source.getCallerChanges(version);
+        assertNotNull("Changes", changes);
+        assertEquals("Version", source.getVersion(), changes.getVersion());
+        assertEquals("Added", 1, changes.getAdded().size());
+        assertEquals("Added", "jdoe", changes.getAdded().get(0).getName());
+        assertEquals("Changed", 1, changes.getChanged().size());
+        assertEquals("Changed", "jsmith", changes.getChanged().get(0).getName());
+        assertEquals("Removed", 1, changes.getRemoved().size());
+        assertEquals("Removed", "jlee", changes.getRemoved().get(0));
+
+        assertTrue("No changes", source.getCallerChanges(changes.getVersion()).isEmpty());
+        assertNull("Unknown version", source.getCallerChanges("42"));
+    }
+
+    @Test
+    public void callersCopied() throws IOException {
+        HashSet<CachedIdentityStoreSource.CallerSource> callerSources = new HashSet<>();
+        callerSources.add(new CachedIdentityStoreSource.CallerSource("jsmith", null, null, null, null));
+
+        MemoryIdentityStoreSource source = new MemoryIdentityStoreSource(callerSources);
+        String version = source.getVersion();
+
+        // Changes outside putCaller and removeCaller do not reach the source
+        callerSources.add(new CachedIdentityStoreSource.CallerSource("jlee", null, null, null, null));
+        callerSources.clear();
+        assertTrue("No changes", source.getCallerChanges(version).isEmpty());
+
+        Iterator<CachedIdentityStoreSource.CallerSource> iterator = source.getCallerIterator();
+        assertEquals("Caller", "jsmith", iterator.next().getName());
+        assertFalse("One caller", iterator.hasNext());
+
+        // A load in progress is not disturbed by later changes
+        iterator = source.getCallerIterator();
+        source.putCaller(new CachedIdentityStoreSource.CallerSource("jdoe", null, null, null, null));
+        assertEquals("Caller", "jsmith", iterator.next().getName());
+        assertFalse("One caller", iterator.hasNext());
+
+        List<String> names = new ArrayList<>();
+        for (iterator = source.getCallerIterator(); iterator.hasNext(); )
+            names.add(iterator.next().getName());
+        assertEquals("Callers", 2, names.size());
+        assertTrue("jdoe", names.contains("jdoe"));
+    }
 }
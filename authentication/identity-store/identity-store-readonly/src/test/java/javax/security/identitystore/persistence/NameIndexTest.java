@@ -0,0 +1,151 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015, 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * http://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package javax.security.identitystore.persistence;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link javax.security.identitystore.persistence.NameIndex} queries.
+ */
+public class NameIndexTest {
+
+    private static final List<String> NAMES = Arrays.asList("jsmith", "jdoe", "jlee", "mjones", "j.doe", "jsmithers");
+
+    private static List<String> find(String regEx) {
+        return new NameIndex(NAMES).find(regEx, new PatternCache(4), Integer.MAX_VALUE, null);
+    }
+
+    @Test
+    public void all() {
+        assertEquals("All", Arrays.asList("j.doe", "jdoe", "jlee", "jsmith", "jsmithers", "mjones"), find(null));
+        assertEquals("Empty", 6, find("").size());
+    }
+
+    @Test
+    public void literal() {
+        assertEquals("Exact", Arrays.asList("jsmith"), find("jsmith"));
+        assertEquals("Anchored", Arrays.asList("jsmith"), find("^jsmith$"));
+        assertEquals("Escaped", Arrays.asList("j.doe"), find("j\\.doe"));
+        assertEquals("Unknown", Collections.emptyList(), find("jsmit"));
+    }
+
+    @Test
+    public void prefix() {
+        assertEquals("Prefix", Arrays.asList("jsmith", "jsmithers"), find("jsmith.*"));
+        assertEquals("Prefix anchored", Arrays.asList("jdoe", "jlee", "jsmith", "jsmithers"), find("^j[a-z].*$"));
+        assertEquals("Quantified prefix", Arrays.asList("jsmith", "jsmithers"), find("jsmi?th.*"));
+        assertEquals("Optional last literal", Arrays.asList("jdoe"), find("jd?doe"));
+    }
+
+    @Test
+    public void scan() {
+        assertEquals("Suffix", Arrays.asList("j.doe", "jdoe"), find(".*doe"));
+        assertEquals("Alternation", Arrays.asList("jlee", "mjones"), find("jlee|mjones"));
+        assertEquals("Flags", Arrays.asList("mjones"), find("(?i)MJONES"));
+        assertEquals("Any char", Arrays.asList("j.doe", "jdoe"), find("j.?doe"));
+    }
+
+    @Test
+    public void limitAndOrder() {
+        NameIndex index = new NameIndex(NAMES);
+        PatternCache patterns = new PatternCache(4);
+        assertEquals("Limit", Arrays.asList("j.doe", "jdoe"), index.find(null, patterns, 2, null));
+        assertEquals("Limit prefix", Arrays.asList("jsmith"), index.find("jsmith.*", patterns, 1, null));
+        assertEquals("Zero limit", Collections.emptyList(), index.find(null, patterns, 0, null));
+        assertEquals("Reverse order", Arrays.asList("mjones", "jsmithers"),
+            index.find(null, patterns, 2, Collections.reverseOrder()));
+        assertEquals("Reverse order scan", Arrays.asList("jdoe", "j.doe"),
+            index.find(".*doe", patterns, 5, Collections.reverseOrder()));
+    }
+
+    @Test
+    public void pageStreamAndCount() {
+        NameIndex index = new NameIndex(NAMES);
+        PatternCache patterns = new PatternCache(4);
+        assertEquals("Page", Arrays.asList("jdoe", "jlee"), index.page(null, patterns, 1, 2));
+        assertEquals("Last page", Arrays.asList("mjones"), index.page(null, patterns, 5, 2));
+        assertEquals("Past end", Collections.emptyList(), index.page(null, patterns, 6, 2));
+        assertEquals("Unlimited page", Arrays.asList("jsmithers", "mjones"), index.page(null, patterns, 4, Integer.MAX_VALUE));
+        assertEquals("Page prefix", Arrays.asList("jsmithers"), index.page("jsmith.*", patterns, 1, 5));
+        assertEquals("Page scan", Arrays.asList("jdoe"), index.page(".*doe", patterns, 1, 5));
+
+        assertEquals("Stream", NAMES.stream().sorted().collect(Collectors.toList()),
+            index.stream(null, patterns).collect(Collectors.toList()));
+        assertEquals("Stream scan", Arrays.asList("j.doe", "jdoe"), index.stream(".*doe", patterns).collect(Collectors.toList()));
+        assertEquals("Stream unknown", 0, index.stream("jsmit", patterns).count());
+
+        assertEquals("Count", 6, index.count(null, patterns));
+        assertEquals("Count exact", 1, index.count("jsmith", patterns));
+        assertEquals("Count prefix", 2, index.count("jsmith.*", patterns));
+        assertEquals("Count scan", 2, index.count(".*doe", patterns));
+        assertEquals("Count unknown", 0, index.count("jsmit", patterns));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void unmodifiable() {
+        // Unfiltered results are views of the index
+        find("jsmith.*").set(0, "mjones");
+    }
+
+    @Test
+    public void parallelScan() {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < NameIndex.PARALLEL_SCAN_THRESHOLD * 4; i++) {
+            names.add(String.format("caller%06d", i));
+        }
+        NameIndex index = new NameIndex(names);
+        PatternCache patterns = new PatternCache(4);
+
+        List<String> found = index.find(".*7", patterns, Integer.MAX_VALUE, null);
+        assertEquals("Match count", (names.size() + 2) / 10, found.size());
+        assertEquals("First match", "caller000007", found.get(0));
+        assertEquals("Limited", Arrays.asList("caller000007", "caller000017"), index.find(".*7", patterns, 2, null));
+        assertEquals("Limited reverse", Arrays.asList("caller032767", "caller032757"),
+            index.find(".*7", patterns, 2, Collections.reverseOrder()));
+    }
+}
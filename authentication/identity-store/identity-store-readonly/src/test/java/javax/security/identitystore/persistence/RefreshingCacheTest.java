@@ -0,0 +1,235 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015, 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * http://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package javax.security.identitystore.persistence;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link javax.security.identitystore.persistence.RefreshingCache}.
+ */
+public class RefreshingCacheTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * Loader returning the key and the number of loads, failing while the backend is down.
+     */
+    private static class TestLoader implements RefreshingCache.Loader<String, String> {
+        final AtomicInteger loads = new AtomicInteger();
+        final AtomicBoolean down = new AtomicBoolean();
+
+        @Override
+        public String load(String key) throws IOException {
+            if (down.get())
+                throw new IOException("Down");
+            return key + loads.incrementAndGet();
+        }
+    }
+
+    // Runs background refreshes on the calling thread
+    private static final Executor DIRECT = Runnable::run;
+
+    @Test
+    public void refreshAndExpiry() throws ExecutionException {
+        AtomicLong time = new AtomicLong(0);
+        TestLoader loader = new TestLoader();
+        // Refreshed after 30 s, expired after 60 s, stale for 60 s more
+        RefreshingCache<String, String> cache = new RefreshingCache<>(loader, 100, 60000, 30000, 60000, DIRECT);
+        cache.clock = time::get;
+
+        assertEquals("Loaded", "jsmith1", cache.get("jsmith"));
+        time.addAndGet(10 * SECOND);
+        assertEquals("Cached", "jsmith1", cache.get("jsmith"));
+        time.addAndGet(25 * SECOND);
+        assertEquals("Current value while refreshing", "jsmith1", cache.get("jsmith"));
+        assertEquals("Refreshed", "jsmith2", cache.get("jsmith"));
+        assertEquals("Refreshes", 1, cache.getRefreshCount());
+
+        time.addAndGet(61 * SECOND);
+        assertEquals("Expired", "jsmith3", cache.get("jsmith"));
+
+        // Stale while down
+        loader.down.set(true);
+        time.addAndGet(61 * SECOND);
+        assertEquals("Stale", "jsmith3", cache.get("jsmith"));
+        assertEquals("Stale count", 1, cache.getStaleCount());
+        time.addAndGet(60 * SECOND);
+        try {
+            cache.get("jsmith");
+            fail("Too stale");
+        } catch (ExecutionException e) {
+            assertTrue("Cause", e.getCause() instanceof IOException);
+        }
+        try {
+            cache.get("jdoe");
+            fail("Never loaded");
+        } catch (ExecutionException e) {
+            // Expected
+        }
+
+        // Failed refreshes keep the current value
+        loader.down.set(false);
+        assertEquals("Loaded", "jsmith4", cache.get("jsmith"));
+        loader.down.set(true);
+        time.addAndGet(31 * SECOND);
+        assertEquals("Refresh failed", "jsmith4", cache.get("jsmith"));
+        assertEquals("Still cached", "jsmith4", cache.get("jsmith"));
+    }
+
+    @Test
+    public void failureBackoff() throws ExecutionException {
+        AtomicLong time = new AtomicLong(0);
+        TestLoader loader = new TestLoader();
+        RefreshingCache<String, String> cache = new RefreshingCache<>(loader, 100, 60000, 30000, 120000, DIRECT);
+        cache.clock = time::get;
+
+        assertEquals("Loaded", "jsmith1", cache.get("jsmith"));
+        loader.down.set(true);
+        time.addAndGet(61 * SECOND);
+        assertEquals("Stale", "jsmith1", cache.get("jsmith"));
+        assertEquals("Loads", 2, cache.getLoadCount());
+
+        // Not loaded again until the refresh age after the failure
+        time.addAndGet(SECOND);
+        assertEquals("Stale without loading", "jsmith1", cache.get("jsmith"));
+        assertEquals("Loads", 2, cache.getLoadCount());
+        time.addAndGet(29 * SECOND);
+        assertEquals("Stale while refreshing", "jsmith1", cache.get("jsmith"));
+        assertEquals("Loads", 3, cache.getLoadCount());
+        assertEquals("Stale without loading", "jsmith1", cache.get("jsmith"));
+        assertEquals("Loads", 3, cache.getLoadCount());
+        assertEquals("Stale count", 4, cache.getStaleCount());
+
+        loader.down.set(false);
+        time.addAndGet(30 * SECOND);
+        assertEquals("Stale while refreshing", "jsmith1", cache.get("jsmith"));
+        assertEquals("Refreshed", "jsmith2", cache.get("jsmith"));
+    }
+
+    @Test
+    public void putSupersedesLoad() throws ExecutionException {
+        AtomicLong time = new AtomicLong(0);
+        TestLoader loader = new TestLoader();
+        List<Runnable> refreshes = new ArrayList<>();
+        RefreshingCache<String, String> cache = new RefreshingCache<>(loader, 100, 60000, 30000, 60000, refreshes::add);
+        cache.clock = time::get;
+
+        assertEquals("Loaded", "jsmith1", cache.get("jsmith"));
+        time.addAndGet(31 * SECOND);
+        assertEquals("Current value while refreshing", "jsmith1", cache.get("jsmith"));
+        assertEquals("Refresh started", 1, refreshes.size());
+        cache.put("jsmith", "put");
+        refreshes.get(0).run();
+        assertEquals("Refresh loaded", 2, loader.loads.get());
+        assertEquals("Put value kept", "put", cache.get("jsmith"));
+    }
+
+    @Test
+    public void singleFlight() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+        RefreshingCache<String, String> cache = new RefreshingCache<>(key -> {
+            loads.incrementAndGet();
+            started.countDown();
+            release.await();
+            return key;
+        }, 100, 60000, 60000, 0, DIRECT);
+
+        List<Thread> threads = new ArrayList<>();
+        List<String> results = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    String value = cache.get("jsmith");
+                    synchronized (results) {
+                        results.add(value);
+                    }
+                } catch (ExecutionException e) {
+                    // Counted as missing
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        started.await();
+        Thread.sleep(50);
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals("Results", 4, results.size());
+        assertEquals("Loads", 1, loads.get());
+    }
+
+    @Test
+    public void invalidateAndBound() throws ExecutionException {
+        TestLoader loader = new TestLoader();
+        RefreshingCache<String, String> cache = new RefreshingCache<>(loader, 2, 60000, 60000, 0, DIRECT);
+
+        cache.get("a");
+        cache.get("b");
+        cache.get("a");
+        cache.get("c");
+        assertEquals("Size", 2, cache.size());
+        assertEquals("Evictions", 1, cache.getEvictionCount());
+        assertEquals("Least recently requested evicted", "b4", cache.get("b"));
+
+        assertTrue("Invalidated", cache.invalidate("b"));
+        assertEquals("Loaded again", "b5", cache.get("b"));
+        cache.put("b", "put");
+        assertEquals("Put", "put", cache.get("b"));
+        cache.invalidateAll();
+        assertEquals("Empty", 0, cache.size());
+    }
+}
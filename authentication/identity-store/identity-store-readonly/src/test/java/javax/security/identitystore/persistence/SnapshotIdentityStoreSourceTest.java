@@ -0,0 +1,187 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015, 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * http://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package javax.security.identitystore.persistence;
+
+import org.junit.Test;
+
+import javax.security.identitystore.CredentialValidationResult;
+import javax.security.identitystore.credential.UsernamePasswordCredential;
+import javax.security.identitystore.persistence.cachedsource.CachedIdentityStoreSource;
+import javax.security.identitystore.persistence.cachedsource.MemoryIdentityStoreSource;
+import javax.security.identitystore.persistence.cachedsource.SnapshotIdentityStoreSource;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the binary snapshot source
+ * {@link javax.security.identitystore.persistence.cachedsource.SnapshotIdentityStoreSource},
+ * written by {@link CachedIdentityStore#writeSnapshot}.
+ */
+public class SnapshotIdentityStoreSourceTest {
+
+    private static CachedIdentityStore newStore() throws IOException {
+        HashSet<CachedIdentityStoreSource.CallerSource> callerSources = new HashSet<>();
+
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put("expires", "1440034787");
+        List<CachedIdentityStoreSource.CredentialSource> credentialSources = new ArrayList<>();
+        credentialSources.add(new CachedIdentityStoreSource.CredentialSource(UsernamePasswordCredential.class.getName(),
+            "70a5b4215270a19492788cf76c9e591a9334ac2363213765674e5181babbea1b", "SHA-256", "NaCl", null));
+        credentialSources.add(new CachedIdentityStoreSource.CredentialSource("javax.security.identitystore.credential.TokenCredential",
+            "ASDJFWEJ;WKJQDSJKLDVJKVALS;KJ", null, null, attributes));
+        callerSources.add(new CachedIdentityStoreSource.CallerSource("jsmith",
+            Arrays.asList("admin", "user"), Arrays.asList("VIEW_ACCT", "EDIT_ACCT"), credentialSources,
+            Collections.singletonMap("locked", "true")));
+
+        callerSources.add(new CachedIdentityStoreSource.CallerSource("jlee",
+            Arrays.asList("deployer"), Arrays.asList("VIEW_ACCT"), null, null));
+        callerSources.add(new CachedIdentityStoreSource.CallerSource("j\u00f6rg",
+            Arrays.asList("user"), null, Collections.<CachedIdentityStoreSource.CredentialSource>emptyList(), null));
+
+        CachedIdentityStore store = new CachedIdentityStore(new MemoryIdentityStoreSource(callerSources));
+        store.load();
+        return store;
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        File file = File.createTempFile("idStore", ".snapshot");
+        try {
+            CachedIdentityStore original = newStore();
+            original.writeSnapshot(file);
+
+            SnapshotIdentityStoreSource source = new SnapshotIdentityStoreSource(file);
+            CachedIdentityStore store = new CachedIdentityStore(source);
+            store.load();
+
+            assertEquals("Callers", new HashSet<>(original.getCallers(null)), new HashSet<>(store.getCallers(null)));
+            assertEquals("Groups", new HashSet<>(original.getGroups(null)), new HashSet<>(store.getGroups(null)));
+            assertEquals("Roles", new HashSet<>(original.getRoles(null)), new HashSet<>(store.getRoles(null)));
+            for (String caller : original.getCallers(null)) {
+                assertEquals("Groups of " + caller, original.getCallerGroups(caller), store.getCallerGroups(caller));
+                assertEquals("Roles of " + caller, original.getCallerRoles(caller), store.getCallerRoles(caller));
+                assertEquals("Attributes of " + caller, original.getCallerAttributes(caller), store.getCallerAttributes(caller));
+            }
+            assertEquals("Validate", CredentialValidationResult.Status.VALID,
+                store.validate("jsmith", UsernamePasswordCredential.class.getName(), "welcome1".toCharArray()).getStatus());
+            assertEquals("Validate", CredentialValidationResult.Status.INVALID,
+                store.validate("jsmith", UsernamePasswordCredential.class.getName(), "welcome2".toCharArray()).getStatus());
+
+            // Lookups served from the mapped file
+            CachedIdentityStoreSource.CallerSource jsmith = source.getCaller("jsmith");
+            assertNotNull("jsmith", jsmith);
+            assertEquals("Credentials", 2, jsmith.getCredentials().size());
+            assertEquals("Credential attributes", "1440034787", jsmith.getCredentials().get(1).getAttributes().get("expires"));
+            assertNull("Null groups", source.getCaller("jlee").getCredentials());
+            assertEquals("Unicode name", "j\u00f6rg", source.getCaller("j\u00f6rg").getName());
+            assertNull("Unknown caller", source.getCaller("nobody"));
+            assertEquals("Group", new HashSet<>(Arrays.asList("jsmith", "j\u00f6rg")), new HashSet<>(source.getCallersInGroup("user")));
+            assertEquals("Role", new HashSet<>(Arrays.asList("jsmith", "jlee")), new HashSet<>(source.getCallersWithRole("VIEW_ACCT")));
+            assertNull("Unknown group", source.getCallersInGroup("nobody"));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void roundTrip_groupRoles() throws IOException {
+        File file = File.createTempFile("idStore", ".snapshot");
+        try {
+            HashSet<CachedIdentityStoreSource.CallerSource> callerSources = new HashSet<>();
+            callerSources.add(new CachedIdentityStoreSource.CallerSource("jsmith",
+                Arrays.asList("admin"), Arrays.asList("VIEW_ACCT"), null, null));
+            callerSources.add(new CachedIdentityStoreSource.CallerSource("jdoe",
+                Arrays.asList("user"), null, null, null));
+            MemoryIdentityStoreSource memorySource = new MemoryIdentityStoreSource(callerSources,
+                Collections.singletonMap("admin", Arrays.asList("EDIT_ACCT", "VIEW_ACCT")));
+            memorySource.setDeclaredRoles(Arrays.asList("VIEW_ACCT", "AUDIT"));
+            CachedIdentityStore original = new CachedIdentityStore(memorySource);
+            original.load();
+            original.writeSnapshot(file);
+
+            SnapshotIdentityStoreSource source = new SnapshotIdentityStoreSource(file);
+            CachedIdentityStore store = new CachedIdentityStore(source);
+            store.load();
+
+            assertEquals("admin roles", Arrays.asList("EDIT_ACCT", "VIEW_ACCT"), store.getGroupRoles("admin"));
+            assertTrue("jsmith has EDIT_ACCT", store.hasCallerRole("jsmith", "EDIT_ACCT", true));
+            assertFalse("jsmith has no direct EDIT_ACCT", store.hasCallerRole("jsmith", "EDIT_ACCT", false));
+            assertEquals("Roles", original.getRoles(null), store.getRoles(null));
+            assertEquals("Unassigned", Arrays.asList("AUDIT"), store.getUnassignedRoles(null));
+            assertEquals("Declared roles", Arrays.asList("VIEW_ACCT", "AUDIT"), source.getDeclaredRoles());
+            assertNull("No user roles", source.getGroupRoles().get("user"));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void formatVersion1() throws IOException {
+        File file = File.createTempFile("idStore", ".snapshot");
+        try {
+            byte[] header = new byte[64];
+            ByteBuffer.wrap(header).putInt(0x4A494453).putInt(1);
+            Files.write(file.toPath(), header);
+            new SnapshotIdentityStoreSource(file).getCallerIterator();
+            fail("Version 1 snapshot loaded");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("version 1"));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void badSnapshot() throws IOException {
+        File file = File.createTempFile("idStore", ".snapshot");
+        try {
+            Files.write(file.toPath(), "{ \"callers\": [] }".getBytes(StandardCharsets.UTF_8));
+            new SnapshotIdentityStoreSource(file).getCallerIterator();
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015, 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * http://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package javax.security.identitystore.persistence;
+
+import org.junit.Test;
+
+import javax.security.identitystore.CredentialValidationResult;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the admission control of {@link javax.security.identitystore.persistence.ValidationExecutor}.
+ */
+public class ValidationExecutorTest {
+
+    private static final CredentialValidationResult VALID =
+        new CredentialValidationResult(CredentialValidationResult.Status.VALID, "jsmith", null, null);
+
+    private static Callable<CredentialValidationResult> blocked(CountDownLatch started, CountDownLatch release) {
+        return () -> {
+            started.countDown();
+            release.await(10, TimeUnit.SECONDS);
+            return VALID;
+        };
+    }
+
+    // Ignores interrupts, like a password hash in progress
+    private static Callable<CredentialValidationResult> uninterruptible(CountDownLatch started, CountDownLatch release) {
+        return () -> {
+            started.countDown();
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+            return VALID;
+        };
+    }
+
+    private static void awaitAdmitted(ValidationExecutor executor, String caller) throws Exception {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (CredentialValidationResult.Status.VALID != executor.validate(caller, () -> VALID).getStatus()) {
+            assertTrue("Admitted", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void validate() throws Exception {
+        try (ValidationExecutor executor = new ValidationExecutor(2, 4, 2, 0)) {
+            assertSame("Result", VALID, executor.validate("jsmith", () -> VALID));
+            assertEquals("Submitted", 1, executor.getSubmittedCount());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void validate_exception() throws Exception {
+        try (ValidationExecutor executor = new ValidationExecutor(1, 1, 1, 0)) {
+            executor.validate("jsmith", () -> {
+                throw new IllegalStateException("Failed");
+            });
+        }
+    }
+
+    @Test
+    public void admission() throws Exception {
+        ExecutorService callers = Executors.newCachedThreadPool();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try (ValidationExecutor executor = new ValidationExecutor(1, 2, 1, 0)) {
+            List<Future<CredentialValidationResult>> results = new ArrayList<>();
+            // Occupies the only thread
+            results.add(callers.submit(() -> executor.validate("jsmith", blocked(started, release))));
+            assertTrue("Started", started.await(10, TimeUnit.SECONDS));
+
+            // Same caller is over its limit
+            assertEquals("Caller rejected", CredentialValidationResult.Status.NOT_VALIDATED,
+                executor.validate("jsmith", () -> VALID).getStatus());
+            assertEquals("Caller rejected count", 1, executor.getCallerRejectedCount());
+
+            // Other callers fill the queue
+            results.add(callers.submit(() -> executor.validate("jdoe", () -> VALID)));
+            results.add(callers.submit(() -> executor.validate("jlee", () -> VALID)));
+            long deadline = System.currentTimeMillis() + 10000;
+            while ((executor.getQueueDepth() < 2) && (System.currentTimeMillis() < deadline)) {
+                Thread.sleep(10);
+            }
+            assertEquals("Queue depth", 2, executor.getQueueDepth());
+            assertEquals("Queue rejected", CredentialValidationResult.Status.NOT_VALIDATED,
+                executor.validate("mjones", () -> VALID).getStatus());
+            assertEquals("Queue rejected count", 1, executor.getRejectedCount());
+
+            release.countDown();
+            for (Future<CredentialValidationResult> result : results) {
+                assertSame("Queued result", VALID, result.get(10, TimeUnit.SECONDS));
+            }
+            assertEquals("Submitted", 3, executor.getSubmittedCount());
+            assertTrue("Waited", executor.getMaxWaitNanos() > 0);
+            assertTrue("Average wait", executor.getAverageWaitNanos() <= executor.getMaxWaitNanos());
+
+            // Caller admitted again once its validation completed
+            assertSame("Caller admitted", VALID, executor.validate("jsmith", () -> VALID));
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void timeout() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try (ValidationExecutor executor = new ValidationExecutor(1, 1, 1, 50)) {
+            assertEquals("Timed out", CredentialValidationResult.Status.NOT_VALIDATED,
+                executor.validate("jsmith", blocked(started, release)).getStatus());
+            assertEquals("Timeout count", 1, executor.getTimeoutCount());
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void timeout_holdsCallerSlot() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try (ValidationExecutor executor = new ValidationExecutor(2, 2, 1, 50)) {
+            assertEquals("Timed out", CredentialValidationResult.Status.NOT_VALIDATED,
+                executor.validate("jsmith", uninterruptible(started, release)).getStatus());
+            assertTrue("Started", started.await(10, TimeUnit.SECONDS));
+
+            // The validation still runs, so the caller has no free slot
+            assertEquals("Caller rejected", CredentialValidationResult.Status.NOT_VALIDATED,
+                executor.validate("jsmith", () -> VALID).getStatus());
+            assertEquals("Caller rejected count", 1, executor.getCallerRejectedCount());
+
+            release.countDown();
+            awaitAdmitted(executor, "jsmith");
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void timeout_queuedReleasesCallerSlot() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try (ValidationExecutor executor = new ValidationExecutor(1, 2, 1, 50)) {
+            // Occupies the only thread, so the next validation times out while queued
+            assertEquals("Timed out", CredentialValidationResult.Status.NOT_VALIDATED,
+                executor.validate("jdoe", uninterruptible(started, release)).getStatus());
+            assertTrue("Started", started.await(10, TimeUnit.SECONDS));
+            assertEquals("Timed out", CredentialValidationResult.Status.NOT_VALIDATED,
+                executor.validate("jsmith", () -> VALID).getStatus());
+            assertEquals("Timeout count", 2, executor.getTimeoutCount());
+
+            // The cancelled validation never runs and its slot is free
+            release.countDown();
+            awaitAdmitted(executor, "jsmith");
+            assertEquals("Caller rejected count", 0, executor.getCallerRejectedCount());
+        } finally {
+            release.countDown();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015, 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * http://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package javax.security.identitystore.persistence;
+
+import org.junit.Test;
+
+import javax.security.identitystore.CredentialValidationResult;
+import javax.security.identitystore.credential.Password;
+import javax.security.identitystore.credential.TokenCredential;
+import javax.security.identitystore.credential.UsernamePasswordCredential;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link javax.security.identitystore.persistence.ValidationResultCache}.
+ */
+public class ValidationResultCacheTest {
+
+    private static final CredentialValidationResult VALID =
+        new CredentialValidationResult(CredentialValidationResult.Status.VALID, "jsmith", null, null);
+
+    private static UsernamePasswordCredential credential(String caller, String password) {
+        return new UsernamePasswordCredential(caller, new Password(password));
+    }
+
+    @Test
+    public void keyOf() {
+        ValidationResultCache cache = new ValidationResultCache();
+        ByteBuffer key = cache.keyOf(credential("jsmith", "welcome1"));
+        assertEquals("Same credential", key, cache.keyOf(credential("jsmith", "welcome1")));
+        assertNotEquals("Other password", key, cache.keyOf(credential("jsmith", "welcome2")));
+        assertNotEquals("Other caller", key, cache.keyOf(credential("jdoe", "welcome1")));
+        assertNotEquals("Other type", key, cache.keyOf(new TokenCredential(true, "jsmith", "welcome1")));
+        assertNotEquals("Other instance", key, new ValidationResultCache().keyOf(credential("jsmith", "welcome1")));
+
+        UsernamePasswordCredential cleared = credential("jsmith", "welcome1");
+        cleared.clear();
+        assertNull("Cleared", cache.keyOf(cleared));
+    }
+
+    @Test
+    public void getAndPut() {
+        ValidationResultCache cache = new ValidationResultCache();
+        ByteBuffer key = cache.keyOf(credential("jsmith", "welcome1"));
+        assertNull("Miss", cache.get(key, 1));
+        cache.put(key, 1, VALID);
+        assertSame("Hit", VALID, cache.get(key, 1));
+        assertEquals("Hit ratio", 0.5, cache.getHitRatio(), 0.0);
+
+        ByteBuffer invalidKey = cache.keyOf(credential("jsmith", "welcome2"));
+        cache.put(invalidKey, 1, CredentialValidationResult.INVALID_RESULT);
+        assertNull("Invalid not cached", cache.get(invalidKey, 1));
+    }
+
+    @Test
+    public void generation() {
+        ValidationResultCache cache = new ValidationResultCache();
+        ByteBuffer key = cache.keyOf(credential("jsmith", "welcome1"));
+        cache.put(key, 1, VALID);
+        assertNull("New generation", cache.get(key, 2));
+        assertEquals("Invalidations", 1, cache.getInvalidationCount());
+
+        cache.put(key, 1, VALID);
+        assertNull("Stale generation not cached", cache.get(key, 2));
+    }
+
+    @Test
+    public void eviction() {
+        ValidationResultCache cache = new ValidationResultCache(2, 60000);
+        ByteBuffer key1 = cache.keyOf(credential("jsmith", "welcome1"));
+        ByteBuffer key2 = cache.keyOf(credential("jdoe", "welcome1"));
+        ByteBuffer key3 = cache.keyOf(credential("jlee", "welcome1"));
+        cache.put(key1, 0, VALID);
+        cache.put(key2, 0, VALID);
+        cache.get(key1, 0);
+        cache.put(key3, 0, VALID);
+
+        assertEquals("Size", 2, cache.size());
+        assertEquals("Evictions", 1, cache.getEvictionCount());
+        assertNull("Least recently used", cache.get(key2, 0));
+        assertSame("Recently used", VALID, cache.get(key1, 0));
+    }
+
+    @Test
+    public void expiration() throws InterruptedException {
+        ValidationResultCache cache = new ValidationResultCache(2, 1);
+        ByteBuffer key = cache.keyOf(credential("jsmith", "welcome1"));
+        cache.put(key, 0, VALID);
+        Thread.sleep(10);
+        assertNull("Expired", cache.get(key, 0));
+        assertEquals("Expirations", 1, cache.getExpirationCount());
+    }
+}